@@ -1129,9 +1129,10 @@ public class Alert extends JPAEntity implements Serializable, CronJob {
 
 	public static class Deserializer extends JsonDeserializer<Alert> {
 
-		@Override
-		public Alert deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException, JsonProcessingException {
+		// shared since every alert evaluation deserializes an alert, and creating a mapper is far more costly than using one
+		private static final ObjectMapper mapper = _createMapper();
 
+		private static ObjectMapper _createMapper() {
 			SimpleModule module = new SimpleModule();
 			module.addDeserializer(Trigger.class, new Trigger.Deserializer());
 			module.addDeserializer(Notification.class, new Notification.Deserializer());
@@ -1139,6 +1140,11 @@ public class Alert extends JPAEntity implements Serializable, CronJob {
 
 			ObjectMapper mapper = new ObjectMapper();
 			mapper.registerModule(module);
+			return mapper;
+		}
+
+		@Override
+		public Alert deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException, JsonProcessingException {
 
 			Alert alert = new Alert();
 			JsonNode rootNode = jp.getCodec().readTree(jp);
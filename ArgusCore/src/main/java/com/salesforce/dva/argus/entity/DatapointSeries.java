@@ -0,0 +1,684 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.dva.argus.entity;
+
+import com.salesforce.dva.argus.system.SystemAssert;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A time series of data points stored as parallel primitive arrays sorted by timestamp. Values are held as <tt>double</tt>s. Series whose values
+ * are not all <tt>Double</tt> (for example <tt>Long</tt> or <tt>Integer</tt> values read from the TSDB, or <tt>null</tt> values produced by some
+ * transforms) additionally track the original value type per data point, so that the boxed {@link Number} handed back through {@link #asMap()}
+ * or {@link #getNumber(int)} is equal to the one that was stored.
+ *
+ * <p>Inserting a timestamp that is greater than the last timestamp in the series is an amortized constant time append. Other inserts are
+ * resolved by binary search. This class is not thread safe.</p>
+ *
+ * @author  a.chambers
+ */
+public final class DatapointSeries implements Serializable {
+
+	//~ Static fields/initializers *******************************************************************************************************************
+
+	private static final long serialVersionUID = 1L;
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final long MAX_EXACT_LONG = 1L << 53;
+	private static final byte TYPE_DOUBLE = 0;
+	private static final byte TYPE_LONG = 1;
+	private static final byte TYPE_INT = 2;
+	private static final byte TYPE_NULL = 3;
+	private static final byte TYPE_OTHER = 4;
+
+	//~ Instance fields ******************************************************************************************************************************
+
+	private long[] _timestamps;
+	private double[] _values;
+
+	/* Null while every value in the series is a Double. */
+	private byte[] _types;
+
+	/* Null until a value is stored which cannot be represented exactly as a double. */
+	private Number[] _others;
+	private int _size;
+	private transient int _modCount;
+	private transient Map<Long, Number> _view;
+
+	//~ Constructors *********************************************************************************************************************************
+
+	/** Creates a new empty series. */
+	public DatapointSeries() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a new empty series.
+	 *
+	 * @param  capacity  The number of data points to pre-allocate storage for. Cannot be negative.
+	 */
+	public DatapointSeries(int capacity) {
+		SystemAssert.requireArgument(capacity >= 0, "Capacity cannot be negative.");
+		_timestamps = new long[capacity];
+		_values = new double[capacity];
+	}
+
+	/**
+	 * Creates a new series by copying the data points of another series.
+	 *
+	 * @param  other  The series to copy. Cannot be null.
+	 */
+	public DatapointSeries(DatapointSeries other) {
+		SystemAssert.requireArgument(other != null, "Series to copy cannot be null.");
+		_size = other._size;
+		_timestamps = Arrays.copyOf(other._timestamps, _size);
+		_values = Arrays.copyOf(other._values, _size);
+		_types = other._types == null ? null : Arrays.copyOf(other._types, _size);
+		_others = other._others == null ? null : Arrays.copyOf(other._others, _size);
+	}
+
+	/**
+	 * Creates a new series from a map of data points.
+	 *
+	 * @param  datapoints  The data points to copy. May be null or empty.
+	 */
+	public DatapointSeries(Map<Long, Number> datapoints) {
+		this(datapoints == null ? 0 : datapoints.size());
+		putAll(datapoints);
+	}
+
+	//~ Methods **************************************************************************************************************************************
+
+	/**
+	 * Returns the number of data points in the series.
+	 *
+	 * @return  The number of data points.
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * Indicates whether the series contains any data points.
+	 *
+	 * @return  True if the series is empty.
+	 */
+	public boolean isEmpty() {
+		return _size == 0;
+	}
+
+	/**
+	 * Returns the timestamp at the given position.
+	 *
+	 * @param   index  The position of the data point, in ascending timestamp order.
+	 *
+	 * @return  The timestamp.
+	 */
+	public long getTimestamp(int index) {
+		_checkIndex(index);
+		return _timestamps[index];
+	}
+
+	/**
+	 * Returns the value at the given position as a primitive double. Null values are returned as <tt>NaN</tt>.
+	 *
+	 * @param   index  The position of the data point, in ascending timestamp order.
+	 *
+	 * @return  The value.
+	 */
+	public double getValue(int index) {
+		_checkIndex(index);
+		return _values[index];
+	}
+
+	/**
+	 * Indicates whether the value at the given position is null.
+	 *
+	 * @param   index  The position of the data point, in ascending timestamp order.
+	 *
+	 * @return  True if the stored value is null.
+	 */
+	public boolean isNull(int index) {
+		_checkIndex(index);
+		return _types != null && _types[index] == TYPE_NULL;
+	}
+
+	/**
+	 * Indicates whether the value at the given position was stored as a <tt>Long</tt>. Such values are held exactly and can be recovered by casting
+	 * the result of {@link #getValue(int)}.
+	 *
+	 * @param   index  The position of the data point, in ascending timestamp order.
+	 *
+	 * @return  True if the stored value is a long.
+	 */
+	public boolean isLong(int index) {
+		_checkIndex(index);
+		return _types != null && _types[index] == TYPE_LONG;
+	}
+
+	/**
+	 * Indicates whether the value at the given position was stored as a <tt>Long</tt> or an <tt>Integer</tt> that is held exactly.
+	 *
+	 * @param   index  The position of the data point, in ascending timestamp order.
+	 *
+	 * @return  True if the stored value is integral.
+	 */
+	public boolean isIntegral(int index) {
+		_checkIndex(index);
+		return _types != null && (_types[index] == TYPE_LONG || _types[index] == TYPE_INT);
+	}
+
+	/**
+	 * Indicates whether every value in the series is a <tt>Double</tt>, an exactly representable <tt>Long</tt> or null. Such series can be read
+	 * entirely through {@link #getValue(int)}, {@link #isLong(int)} and {@link #isNull(int)} without boxing.
+	 *
+	 * @return  True if no value in the series needs to be read through {@link #getNumber(int)}.
+	 */
+	public boolean hasOnlyPrimitiveValues() {
+		if (_types != null) {
+			for (int i = 0; i < _size; i++) {
+				if (_types[i] == TYPE_INT || _types[i] == TYPE_OTHER) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the value at the given position boxed as the same type of number that was stored.
+	 *
+	 * @param   index  The position of the data point, in ascending timestamp order.
+	 *
+	 * @return  The value. May be null.
+	 */
+	public Number getNumber(int index) {
+		_checkIndex(index);
+		return _box(index);
+	}
+
+	/**
+	 * Returns the position of the given timestamp.
+	 *
+	 * @param   timestamp  The timestamp to search for.
+	 *
+	 * @return  The position of the timestamp if it exists, otherwise <tt>(-(insertion point) - 1)</tt>.
+	 */
+	public int indexOf(long timestamp) {
+		if (_size > 0 && timestamp > _timestamps[_size - 1]) {
+			return -(_size + 1);
+		}
+		return Arrays.binarySearch(_timestamps, 0, _size, timestamp);
+	}
+
+	/**
+	 * Returns the value for the given timestamp.
+	 *
+	 * @param   timestamp  The timestamp to look up.
+	 *
+	 * @return  The value, or null if the timestamp does not exist or its value is null.
+	 */
+	public Number get(long timestamp) {
+		int index = indexOf(timestamp);
+
+		return index < 0 ? null : _box(index);
+	}
+
+	/**
+	 * Returns the first timestamp in the series.
+	 *
+	 * @return  The lowest timestamp.
+	 *
+	 * @throws  NoSuchElementException  If the series is empty.
+	 */
+	public long firstTimestamp() {
+		if (_size == 0) {
+			throw new NoSuchElementException();
+		}
+		return _timestamps[0];
+	}
+
+	/**
+	 * Returns the last timestamp in the series.
+	 *
+	 * @return  The highest timestamp.
+	 *
+	 * @throws  NoSuchElementException  If the series is empty.
+	 */
+	public long lastTimestamp() {
+		if (_size == 0) {
+			throw new NoSuchElementException();
+		}
+		return _timestamps[_size - 1];
+	}
+
+	/**
+	 * Adds or replaces a data point.
+	 *
+	 * @param  timestamp  The timestamp of the data point.
+	 * @param  value      The value of the data point.
+	 */
+	public void put(long timestamp, double value) {
+		_put(timestamp, value, TYPE_DOUBLE, null);
+	}
+
+	/**
+	 * Adds or replaces a data point with the value of a data point of another series, keeping the type of the value. Unlike
+	 * <tt>put(timestamp, source.getNumber(index))</tt>, this does not box the value.
+	 *
+	 * @param  timestamp  The timestamp of the data point.
+	 * @param  source     The series holding the value. Cannot be null.
+	 * @param  index      The position of the value in the source series.
+	 */
+	public void put(long timestamp, DatapointSeries source, int index) {
+		source._checkIndex(index);
+		_put(timestamp, source._values[index], source._types == null ? TYPE_DOUBLE : source._types[index],
+				source._others == null ? null : source._others[index]);
+	}
+
+	/**
+	 * Adds or replaces a data point having an integral value.
+	 *
+	 * @param  timestamp  The timestamp of the data point.
+	 * @param  value      The value of the data point.
+	 */
+	public void put(long timestamp, long value) {
+		if (value > -MAX_EXACT_LONG && value < MAX_EXACT_LONG) {
+			_put(timestamp, value, TYPE_LONG, null);
+		} else {
+			_put(timestamp, value, TYPE_OTHER, value);
+		}
+	}
+
+	/**
+	 * Adds or replaces a data point.
+	 *
+	 * @param  timestamp  The timestamp of the data point.
+	 * @param  value      The value of the data point. May be null.
+	 */
+	public void put(long timestamp, Number value) {
+		if (value instanceof Double) {
+			_put(timestamp, value.doubleValue(), TYPE_DOUBLE, null);
+		} else if (value instanceof Long) {
+			put(timestamp, value.longValue());
+		} else if (value instanceof Integer) {
+			_put(timestamp, value.intValue(), TYPE_INT, null);
+		} else if (value == null) {
+			_put(timestamp, Double.NaN, TYPE_NULL, null);
+		} else {
+			_put(timestamp, value.doubleValue(), TYPE_OTHER, value);
+		}
+	}
+
+	/**
+	 * Adds or replaces all data points in the given map.
+	 *
+	 * @param  datapoints  The data points to add. May be null or empty.
+	 */
+	public void putAll(Map<Long, Number> datapoints) {
+		if (datapoints == null || datapoints.isEmpty()) {
+			return;
+		}
+		if (datapoints instanceof SeriesView) {
+			putAll(((SeriesView) datapoints).series());
+			return;
+		}
+
+		boolean ordered = datapoints instanceof SortedMap && ((SortedMap<?, ?>) datapoints).comparator() == null;
+		Map<Long, Number> source = ordered ? datapoints : new TreeMap<>(datapoints);
+
+		if (_size == 0 || source.keySet().iterator().next() > _timestamps[_size - 1]) {
+			_ensureCapacity(_size + source.size());
+			for (Map.Entry<Long, Number> entry : source.entrySet()) {
+				put(entry.getKey(), entry.getValue());
+			}
+		} else {
+			DatapointSeries incoming = new DatapointSeries(source.size());
+
+			for (Map.Entry<Long, Number> entry : source.entrySet()) {
+				incoming.put(entry.getKey(), entry.getValue());
+			}
+			putAll(incoming);
+		}
+	}
+
+	/**
+	 * Adds or replaces all data points in the given series. Where both series contain the same timestamp, the value from the given series wins.
+	 *
+	 * @param  other  The data points to add. May be null or empty.
+	 */
+	public void putAll(DatapointSeries other) {
+		if (other == null || other._size == 0 || other == this) {
+			return;
+		}
+		if (_size == 0 || other._timestamps[0] > _timestamps[_size - 1]) {
+			_append(other, 0, other._size);
+			return;
+		}
+
+		int capacity = _size + other._size;
+		long[] timestamps = new long[capacity];
+		double[] values = new double[capacity];
+		byte[] types = (_types == null && other._types == null) ? null : new byte[capacity];
+		Number[] others = (_others == null && other._others == null) ? null : new Number[capacity];
+		int i = 0, j = 0, k = 0;
+
+		while (i < _size || j < other._size) {
+			DatapointSeries from;
+			int index;
+
+			if (j >= other._size || (i < _size && _timestamps[i] < other._timestamps[j])) {
+				from = this;
+				index = i++;
+			} else {
+				if (i < _size && _timestamps[i] == other._timestamps[j]) {
+					i++;
+				}
+				from = other;
+				index = j++;
+			}
+			timestamps[k] = from._timestamps[index];
+			values[k] = from._values[index];
+			if (types != null && from._types != null) {
+				types[k] = from._types[index];
+			}
+			if (others != null && from._others != null) {
+				others[k] = from._others[index];
+			}
+			k++;
+		}
+		_timestamps = timestamps;
+		_values = values;
+		_types = types;
+		_others = others;
+		_size = k;
+		_modCount++;
+	}
+
+	/**
+	 * Returns a new series containing a copy of the data points between the given positions.
+	 *
+	 * @param   fromIndex  The first position, inclusive.
+	 * @param   toIndex    The last position, exclusive.
+	 *
+	 * @return  The new series.
+	 */
+	public DatapointSeries subSeries(int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex > _size || fromIndex > toIndex) {
+			throw new IndexOutOfBoundsException("from: " + fromIndex + ", to: " + toIndex + ", size: " + _size);
+		}
+
+		DatapointSeries result = new DatapointSeries(toIndex - fromIndex);
+
+		result._append(this, fromIndex, toIndex);
+		return result;
+	}
+
+	/** Removes all data points from the series. */
+	public void clear() {
+		_size = 0;
+		_types = null;
+		_others = null;
+		_modCount++;
+	}
+
+	/**
+	 * Returns an unmodifiable map view of the series. The view is backed by the series, iterates in ascending timestamp order and reflects
+	 * subsequent changes to it.
+	 *
+	 * @return  The map view. Will never be null.
+	 */
+	public Map<Long, Number> asMap() {
+		Map<Long, Number> view = _view;
+
+		if (view == null) {
+			view = new SeriesView();
+			_view = view;
+		}
+		return view;
+	}
+
+	@Override
+	public String toString() {
+		return asMap().toString();
+	}
+
+	private void _put(long timestamp, double value, byte type, Number other) {
+		int index;
+
+		if (_size == 0 || timestamp > _timestamps[_size - 1]) {
+			index = _size;
+			_ensureCapacity(_size + 1);
+			_size++;
+		} else {
+			index = Arrays.binarySearch(_timestamps, 0, _size, timestamp);
+			if (index < 0) {
+				index = -index - 1;
+				_ensureCapacity(_size + 1);
+				_shift(index);
+			}
+		}
+		_timestamps[index] = timestamp;
+		_values[index] = value;
+		if (type != TYPE_DOUBLE && _types == null) {
+			_types = new byte[_timestamps.length];
+		}
+		if (_types != null) {
+			_types[index] = type;
+		}
+		if (other != null && _others == null) {
+			_others = new Number[_timestamps.length];
+		}
+		if (_others != null) {
+			_others[index] = other;
+		}
+		_modCount++;
+	}
+
+	private void _append(DatapointSeries other, int fromIndex, int toIndex) {
+		int length = toIndex - fromIndex;
+
+		_ensureCapacity(_size + length);
+		System.arraycopy(other._timestamps, fromIndex, _timestamps, _size, length);
+		System.arraycopy(other._values, fromIndex, _values, _size, length);
+		if (other._types != null) {
+			if (_types == null) {
+				_types = new byte[_timestamps.length];
+			}
+			System.arraycopy(other._types, fromIndex, _types, _size, length);
+		} else if (_types != null) {
+			Arrays.fill(_types, _size, _size + length, TYPE_DOUBLE);
+		}
+		if (other._others != null) {
+			if (_others == null) {
+				_others = new Number[_timestamps.length];
+			}
+			System.arraycopy(other._others, fromIndex, _others, _size, length);
+		} else if (_others != null) {
+			Arrays.fill(_others, _size, _size + length, null);
+		}
+		_size += length;
+		_modCount++;
+	}
+
+	/* Opens a gap at the given position. Capacity must already be ensured. */
+	private void _shift(int index) {
+		int moved = _size - index;
+
+		System.arraycopy(_timestamps, index, _timestamps, index + 1, moved);
+		System.arraycopy(_values, index, _values, index + 1, moved);
+		if (_types != null) {
+			System.arraycopy(_types, index, _types, index + 1, moved);
+		}
+		if (_others != null) {
+			System.arraycopy(_others, index, _others, index + 1, moved);
+		}
+		_size++;
+	}
+
+	private void _ensureCapacity(int capacity) {
+		if (capacity > _timestamps.length) {
+			int newCapacity = Math.max(capacity, Math.max(DEFAULT_CAPACITY, _timestamps.length + (_timestamps.length >> 1)));
+
+			_timestamps = Arrays.copyOf(_timestamps, newCapacity);
+			_values = Arrays.copyOf(_values, newCapacity);
+			if (_types != null) {
+				_types = Arrays.copyOf(_types, newCapacity);
+			}
+			if (_others != null) {
+				_others = Arrays.copyOf(_others, newCapacity);
+			}
+		}
+	}
+
+	private Number _box(int index) {
+		if (_types == null) {
+			return _values[index];
+		}
+		switch (_types[index]) {
+			case TYPE_LONG:
+				return (long) _values[index];
+			case TYPE_INT:
+				return (int) _values[index];
+			case TYPE_NULL:
+				return null;
+			case TYPE_OTHER:
+				return _others[index];
+			default:
+				return _values[index];
+		}
+	}
+
+	private void _checkIndex(int index) {
+		if (index < 0 || index >= _size) {
+			throw new IndexOutOfBoundsException("index: " + index + ", size: " + _size);
+		}
+	}
+
+	//~ Inner Classes ********************************************************************************************************************************
+
+	/**
+	 * Unmodifiable map view over the series, provided for callers that operate on <tt>Map&lt;Long, Number&gt;</tt>.
+	 *
+	 * @author  a.chambers
+	 */
+	private final class SeriesView extends AbstractMap<Long, Number> {
+
+		private Set<Map.Entry<Long, Number>> _entries;
+
+		DatapointSeries series() {
+			return DatapointSeries.this;
+		}
+
+		@Override
+		public int size() {
+			return _size;
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return _size == 0;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return key instanceof Long && indexOf((Long) key) >= 0;
+		}
+
+		@Override
+		public Number get(Object key) {
+			return key instanceof Long ? DatapointSeries.this.get((Long) key) : null;
+		}
+
+		@Override
+		public Set<Map.Entry<Long, Number>> entrySet() {
+			Set<Map.Entry<Long, Number>> entries = _entries;
+
+			if (entries == null) {
+				entries = new AbstractSet<Map.Entry<Long, Number>>() {
+
+						@Override
+						public Iterator<Map.Entry<Long, Number>> iterator() {
+							return new SeriesIterator();
+						}
+
+						@Override
+						public int size() {
+							return _size;
+						}
+					};
+				_entries = entries;
+			}
+			return entries;
+		}
+	}
+
+	/**
+	 * Fail fast iterator over the series in ascending timestamp order.
+	 *
+	 * @author  a.chambers
+	 */
+	private final class SeriesIterator implements Iterator<Map.Entry<Long, Number>> {
+
+		private final int _expectedModCount = _modCount;
+		private int _cursor;
+
+		@Override
+		public boolean hasNext() {
+			return _cursor < _size;
+		}
+
+		@Override
+		public Map.Entry<Long, Number> next() {
+			if (_modCount != _expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (_cursor >= _size) {
+				throw new NoSuchElementException();
+			}
+
+			int index = _cursor++;
+
+			return new AbstractMap.SimpleImmutableEntry<>(_timestamps[index], _box(index));
+		}
+	}
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
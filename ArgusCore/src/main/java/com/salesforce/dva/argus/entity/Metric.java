@@ -37,7 +37,6 @@ import com.salesforce.dva.argus.system.SystemAssert;
 
 import java.io.Serializable;
 import java.text.MessageFormat;
-import java.util.Collections;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
@@ -64,7 +63,7 @@ public class Metric extends TSDBEntity implements Serializable {
 	private String _namespace;
 	private String _displayName;
 	private String _units;
-	private final Map<Long, Number> _datapoints;
+	private final DatapointSeries _datapoints;
 	private MetricQuery _query;
 
 	//~ Constructors *********************************************************************************************************************************
@@ -79,8 +78,7 @@ public class Metric extends TSDBEntity implements Serializable {
 		setScope(metric.getScope());
 		setMetric(metric.getMetric());
 		setTags(metric.getTags());
-		_datapoints = new TreeMap<>();
-		setDatapoints(metric.getDatapoints());
+		_datapoints = new DatapointSeries(metric._datapoints);
 		setNamespace(metric.getNamespace());
 		setDisplayName(metric.getDisplayName());
 		setUnits(metric.getUnits());
@@ -102,7 +100,7 @@ public class Metric extends TSDBEntity implements Serializable {
 	/** Creates a new Metric object. */
 	protected Metric() {
 		super(null, null);
-		_datapoints = new TreeMap<>();
+		_datapoints = new DatapointSeries();
 	}
 
 	//~ Methods **************************************************************************************************************************************
@@ -143,7 +141,7 @@ public class Metric extends TSDBEntity implements Serializable {
 	 * @return  The map of time series data points. Will never be null, but may be empty.
 	 */
 	public Map<Long, Number> getDatapoints() {
-		return Collections.unmodifiableMap(_datapoints);
+		return _datapoints.asMap();
 	}
 
 	/**
@@ -152,6 +150,9 @@ public class Metric extends TSDBEntity implements Serializable {
 	 * @param  datapoints  The new set of data points. If null or empty, only the deletion of the current set of data points is performed.
 	 */
 	public void setDatapoints(Map<Long, Number> datapoints) {
+		if (datapoints != null && datapoints == _datapoints.asMap()) {
+			return;
+		}
 		_datapoints.clear();
 		if (datapoints != null) {
 			_datapoints.putAll(datapoints);
@@ -169,6 +170,31 @@ public class Metric extends TSDBEntity implements Serializable {
 		}
 	}
 
+	/**
+	 * Returns the primitive series which backs this metric. Changes made to the returned series are reflected in the metric. Callers which
+	 * iterate or build large numbers of data points should prefer this over {@link #getDatapoints()} to avoid boxing.
+	 *
+	 * @return  The series of data points. Will never be null, but may be empty.
+	 */
+	@JsonIgnore
+	public DatapointSeries getDatapointSeries() {
+		return _datapoints;
+	}
+
+	/**
+	 * Replaces the current set of data points with a copy of the given series.
+	 *
+	 * @param  datapoints  The new series of data points. If null or empty, only the deletion of the current set of data points is performed.
+	 */
+	@JsonIgnore
+	public void setDatapointSeries(DatapointSeries datapoints) {
+		if (datapoints == _datapoints) {
+			return;
+		}
+		_datapoints.clear();
+		_datapoints.putAll(datapoints);
+	}
+
 	/**
 	 * If current set already has a value at that timestamp then sums up the datapoint value for that timestamp at coinciding cutoff boundary, 
 	 * else adds the new data points to the current set.  
@@ -236,12 +262,7 @@ public class Metric extends TSDBEntity implements Serializable {
 	 * @param  datapoints  The set of data points to add. If null or empty, no operation is performed.
 	 */
 	public void averageExistingDatapoints(Map<Long, Number> datapoints) {
-		if (datapoints != null) {
-
-			for(Entry<Long, Number> entry : datapoints.entrySet()){
-				_datapoints.put(entry.getKey(), entry.getValue());
-			}
-		}
+		_datapoints.putAll(datapoints);
 	}
 
 	/**
@@ -581,6 +581,17 @@ public class Notification extends JPAEntity implements Serializable {
 		this.activeStatusByTriggerAndMetric.put(key, active);
     }
 
+    /**
+     * Returns the key under which the cool down expiration time and active status of a trigger,metric combination are stored.
+     *
+     * @param trigger	The trigger
+     * @param metric	The metric
+     * @return  The key of the trigger,metric combination
+     */
+    public String getTriggerAndMetricKey(Trigger trigger, Metric metric) {
+    	return _hashTriggerAndMetric(trigger, metric);
+    }
+
     /**
      * Indicates whether the notification is monitored by SR
      *
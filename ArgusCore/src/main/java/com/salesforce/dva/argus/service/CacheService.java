@@ -186,6 +186,16 @@ public interface CacheService extends Service {
      */
     <V> void append(String key, V value, int ttl);
 
+    /**
+     * Replaces the lists of values of a set of keys and sets their timeout. Implementations should send the writes for all keys together rather
+     * than one round trip per value.
+     *
+     * @param  <V>      The value type.
+     * @param  entries  The new list of values of each key.  Cannot be null, but may be empty.
+     * @param  ttl      The timeout in seconds.  Must be greater than zero.
+     */
+    <V> void replaceLists(Map<String, List<V>> entries, int ttl);
+
     /**
      * Returns the map of key-values, for value list between <tt>startOffset</tt> to <tt>endOffset</tt> for a set of keys. To get all values in key entry startOffset=0
      * and endOffset=-1.
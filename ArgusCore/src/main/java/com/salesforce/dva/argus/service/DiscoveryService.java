@@ -133,6 +133,18 @@ public interface DiscoveryService extends Service {
     	return (int) (MAX_DATAPOINTS_PER_RESPONSE / numDatapointsPerTimeSeries);
     }
     
+    /**
+     * Estimates the number of time series a query reads. The default estimate is the product of the number of alternatives of each tag value,
+     * which is exact for queries whose wildcards have already been expanded by {@link #getMatchingQueries(MetricQuery)}.
+     *
+     * @param   query  The query to estimate. Cannot be null.
+     *
+     * @return  The estimated number of time series. At least one.
+     */
+    default long estimateTimeseriesCount(MetricQuery query) {
+        return numApproxTimeseriesForQuery(query);
+    }
+
     static int numApproxTimeseriesForQuery(MetricQuery mq) {
 		int count = 1;
 		for(String tagValue : mq.getTags().values()) {
@@ -34,6 +34,8 @@ package com.salesforce.dva.argus.service;
 import com.fasterxml.jackson.databind.JavaType;
 import java.io.Serializable;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Provides methods to synchronously queue and dequeue point to point text based messages.
@@ -64,6 +66,19 @@ public interface MQService extends Service {
      */
     <T extends Serializable> void enqueue(String queueName, List<T> objects);
 
+    /**
+     * Enqueues messages without waiting for them to be delivered. If the objects are of type <tt>String</tt> then text messages shall be enqueued,
+     * otherwise object messages shall be enqueued. The calling thread may still block while too many previously enqueued messages are awaiting
+     * acknowledgement.
+     *
+     * @param   <T>        The serializable type of the objects.
+     * @param   queueName  The queue name to use. Cannot be null or empty.
+     * @param   objects    The serializable objects to enqueue. Cannot be null or empty.
+     *
+     * @return  A future completed with the number of messages acknowledged by the queue once all messages have been acknowledged or have failed.
+     */
+    <T extends Serializable> CompletableFuture<Integer> enqueueAsync(String queueName, List<T> objects);
+
     /**
      * Dequeues a message.
      *
@@ -141,6 +156,55 @@ public interface MQService extends Service {
      */
     <T extends Serializable> List<T> dequeue(String queueName, JavaType type, int timeout, int limit);
 
+    /**
+     * Dequeues a batch of messages whose consumption is only recorded by the queue once the batch is committed. Callers should commit the batch
+     * after the messages have been durably processed and abort it otherwise, in which case the messages are redelivered. If the return type is
+     * <tt>String</tt> then text based messages are assumed.
+     *
+     * @param   <T>        The serializable type of the object being dequeued.
+     * @param   queueName  The queue name to use. Cannot be null or empty.
+     * @param   type       The type of the object being dequeued.
+     * @param   timeout    The maximum number of milliseconds to wait for messages. Must be greater than zero.
+     * @param   limit      The maximum number of messages to retrieve. Must be non-negative.
+     *
+     * @return  The dequeued batch, which may be empty. Never null.
+     */
+    <T extends Serializable> DequeuedBatch<T> dequeueBatch(String queueName, Class<T> type, int timeout, int limit);
+
+    /**
+     * Returns the number of messages by which the consumers of this service trail the end of each partition of a queue.
+     *
+     * @param   queueName  The queue name to use. Cannot be null or empty.
+     *
+     * @return  The lag keyed by partition. Empty if the queue has not been consumed from or the lag is not known yet.
+     */
+    Map<Integer, Long> getPartitionLag(String queueName);
+
+    //~ Inner Interfaces *****************************************************************************************************************************
+
+    /**
+     * A batch of dequeued messages. Only the first call to {@link #commit()} or {@link #abort()} has any effect.
+     *
+     * @param   <T>  The serializable type of the messages.
+     *
+     * @author  a.chambers
+     */
+    public interface DequeuedBatch<T extends Serializable> {
+
+        /**
+         * Returns the dequeued messages.
+         *
+         * @return  The messages. Never null, but may be empty.
+         */
+        List<T> getMessages();
+
+        /** Records that the messages have been processed. */
+        void commit();
+
+        /** Returns the messages to the queue so that they are delivered again. */
+        void abort();
+    }
+
     //~ Enums ****************************************************************************************************************************************
 
     /**
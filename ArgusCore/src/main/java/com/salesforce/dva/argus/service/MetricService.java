@@ -35,6 +35,7 @@ import com.salesforce.dva.argus.entity.Metric;
 import com.salesforce.dva.argus.service.tsdb.MetricQuery;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * Provides methods for reading/transforming time series metrics.
@@ -100,6 +101,24 @@ public interface MetricService extends Service {
      */
     List<Metric> getMetrics(String expression, long relativeTo);
 
+    /**
+     * Evaluates the given expression and returns a list of time series Metrics. Queries that are present in the prefetched map are answered with
+     * copies of the previously fetched time series instead of being read from the TSDB again. Leaf queries that are present in the discovered map
+     * are expanded to the mapped queries instead of being sent to the discovery service again.
+     *
+     * @param   expression         A query expression
+     * @param   relativeTo         The timestamp from which the start and end times should be relative to. Only applied when using relative
+     *                             timestamps in expressions.
+     * @param   prefetchedMetrics  Time series already fetched for some of the expression's queries, keyed by query. May be null or empty.
+     * @param   discoveredQueries  The expanded queries of some of the expression's wildcard queries, as recorded by
+     *                             {@link #getQueries(String, long, Map)} for the same relative timestamp. May be null or empty.
+     *
+     * @return  A list of time series Metrics for the given expression. A transformed Metric if specified so by the expression. The method will never
+     *          return null. Returns an empty list if the expression returns nothing.
+     */
+    List<Metric> getMetrics(String expression, long relativeTo, Map<MetricQuery, List<Metric>> prefetchedMetrics,
+        Map<MetricQuery, List<MetricQuery>> discoveredQueries);
+
     /**
      * Batch and enqueue the given expressions and return the batch ID.
      *
@@ -137,6 +156,19 @@ public interface MetricService extends Service {
      */
     List<MetricQuery> getQueries(String expression, long relativeTo);
 
+    /**
+     * Returns a list of <tt>MetricQuery</tt> objects corresponding to the given expression where the query time range is relativeTo by the given value,
+     * and records the expansion of each wildcard query of the expression in the given map.
+     *
+     * @param   expression         The metric expression to evaluate.  Cannot be null and must be a valid metric expression.
+     * @param   relativeTo         The timestamp from which the start and end times should be relative to. Only applied when using relative
+     *                             timestamps in expressions.
+     * @param   discoveredQueries  The map the expanded queries are recorded in, keyed by the wildcard query. Cannot be null.
+     *
+     * @return  The corresponding list of metric query objects.  Will never return null.
+     */
+    List<MetricQuery> getQueries(String expression, long relativeTo, Map<MetricQuery, List<MetricQuery>> discoveredQueries);
+
     /**
      * Returns a list of <tt>MetricQuery</tt> objects corresponding to the given expression.
      *
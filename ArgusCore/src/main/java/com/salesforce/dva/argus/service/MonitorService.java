@@ -98,6 +98,26 @@ public interface MonitorService extends Service {
      */
     Number modifyCustomCounter(String name, Number delta, Map<String, String> tags);
 
+    /**
+     * Records a value, such as a latency, in the histogram of a counter. Histograms are published as the 50th, 90th and 99th percentile and the
+     * maximum of the values recorded in each period, under the counter name suffixed with <tt>.p50</tt>, <tt>.p90</tt>, <tt>.p99</tt> and
+     * <tt>.max</tt>.
+     *
+     * @param  counter  The counter to record the value for. Cannot be null.
+     * @param  value    The value to record.
+     * @param  tags     The tags representing the TSDB metric for this histogram.
+     */
+    void recordHistogramValue(Counter counter, long value, Map<String, String> tags);
+
+    /**
+     * Records a value, such as a latency, in the histogram of a custom counter.
+     *
+     * @param  name   The name of the counter to record the value for. Cannot be null.
+     * @param  value  The value to record.
+     * @param  tags   The tags representing the TSDB metric for this histogram.
+     */
+    void recordCustomHistogramValue(String name, long value, Map<String, String> tags);
+
     /**
      * Returns the current value of a counter.
      *
@@ -190,11 +210,21 @@ public interface MonitorService extends Service {
         ALERTS_ENABLED("argus.core", "alerts.enabled"),
         ALERTS_SCHEDULED("argus.core", "alerts.scheduled"),
         ALERTS_SCHEDULING_QUEUE_SIZE("argus.core", "alerts.scheduleQueue.size"),
+        ALERTS_SCHEDULING_DISPATCH_LAG_MAX("argus.core", "alerts.scheduling.dispatch.lag.max"),
+        ALERTS_SCHEDULING_DISPATCH_LAG_AVG("argus.core", "alerts.scheduling.dispatch.lag.avg"),
+        ALERTS_SCHEDULING_BATCH_SIZE("argus.core", "alerts.scheduling.batch.size"),
         ALERTS_EVALUATED("argus.core", "alerts.evaluated"),
         ALERTS_FAILED("argus.core", "alerts.failed"),
         ALERTS_EVALUATION_LATENCY("argus.core", "alerts.evaluation.latency"),
         ALERTS_SKIPPED("argus.core", "alerts.skipped"),
+        ALERT_QUERIES_REQUESTED("argus.core", "alert.queries.requested"),
+        ALERT_QUERIES_COALESCED("argus.core", "alert.queries.coalesced"),
+        ALERT_DEFINITIONS_REQUESTED("argus.core", "alert.definitions.requested"),
+        ALERT_DEFINITIONS_LOADED("argus.core", "alert.definitions.loaded"),
+        ALERT_QUERY_DEDUP_RATIO("argus.core", "alert.query.dedup.ratio"),
         NOTIFICATIONS_SENT("argus.core", "notifications.sent"),
+        NOTIFICATION_STATE_FLUSH_LATENCY("argus.core", "notification.state.flush.latency"),
+        NOTIFICATION_STATE_FLUSH_SIZE("argus.core", "notification.state.flush.size"),
         TRIGGERS_VIOLATED("argus.core", "triggers.violated"),
         ALERTS_MAX("argus.core", "alerts.max"),
         ALERT_EVALUATION_KPI("argus.core", "alert.evaluation.kpi"),
@@ -206,6 +236,16 @@ public interface MonitorService extends Service {
         COMMIT_CLIENT_DATAPOINT_WRITES("argus.core", "commit.client.datapoint.writes"),
         COMMIT_CLIENT_METRIC_WRITES("argus.core", "commit.client.metric.writes"),
         SCHEMACOMMIT_CLIENT_METRIC_WRITES("argus.core", "schemacommit.client.metric.writes"),
+        MQ_ENQUEUE_BATCHES("argus.core", "mq.enqueue.batches"),
+        MQ_ENQUEUE_MESSAGES("argus.core", "mq.enqueue.messages"),
+        MQ_ENQUEUE_MESSAGES_ACKNOWLEDGED("argus.core", "mq.enqueue.messages.acknowledged"),
+        MQ_ENQUEUE_LATENCY("argus.core", "mq.enqueue.latency"),
+        MQ_CONSUMER_LAG("argus.core", "mq.consumer.lag"),
+        CACHE_INSERT_QUEUE_DEPTH("argus.core", "cache.insert.queue.depth"),
+        CACHE_INSERT_COALESCED("argus.core", "cache.insert.coalesced"),
+        CACHE_INSERT_DROPPED("argus.core", "cache.insert.dropped"),
+        METRIC_EXPRESSION_PLAN_CACHE_HITS("argus.core", "metric.expression.plan.cache.hits"),
+        METRIC_EXPRESSION_PLAN_CACHE_MISSES("argus.core", "metric.expression.plan.cache.misses"),
 
         SCOPEANDMETRICNAMES_WRITTEN("argus.core", "scopeandmetricnames.written"),
         SCOPEANDMETRICNAMES_WRITE_LATENCY("argus.core", "scopeandmetricnames.write.latency"),
@@ -224,7 +264,10 @@ public interface MonitorService extends Service {
         
         BLOOMFILTER_APPROXIMATE_ELEMENT_COUNT("argus.core", "bloomfilter.approximate.element.count"),
         BLOOMFILTER_SCOPE_ONLY_APPROXIMATE_ELEMENT_COUNT("argus.core", "bloomfilter.scope.only.approximate.element.count"),
-        BLOOMFILTER_SCOPE_AND_METRIC_ONLY_APPROXIMATE_ELEMENT_COUNT("argus.core", "bloomfilter.scope.and.metric.only.approximate.element.count");
+        BLOOMFILTER_SCOPE_AND_METRIC_ONLY_APPROXIMATE_ELEMENT_COUNT("argus.core", "bloomfilter.scope.and.metric.only.approximate.element.count"),
+        BLOOMFILTER_FILL_RATIO("argus.core", "bloomfilter.fill.ratio"),
+        BLOOMFILTER_EXPECTED_FPP("argus.core", "bloomfilter.expected.fpp"),
+        BLOOMFILTER_SKIP_RATIO("argus.core", "bloomfilter.skip.ratio");
 
         private final String _scope;
         private final String _metric;
@@ -30,43 +30,70 @@
  */
 package com.salesforce.dva.argus.service.alert;
 
+import java.io.File;
 import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.commons.lang.exception.ExceptionUtils;
-import org.quartz.CronScheduleBuilder;
-import org.quartz.CronTrigger;
-import org.quartz.TriggerBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.salesforce.dva.argus.entity.Alert;
 import com.salesforce.dva.argus.service.AlertService;
-import com.salesforce.dva.argus.util.Cron;
 
 public class AlertDefinitionsCache {
 
 	private static final Logger _logger = LoggerFactory.getLogger(AlertDefinitionsCache.class);
 	
+	private static final long REFRESHER_SHUTDOWN_TIMEOUT_MILLIS = 30*1000L;
+
 	private AlertDefinitionsCacheRefresherThread refresherThread;
 
 	private static Map<BigInteger/*alertId*/, Alert> alertsMapById = new ConcurrentHashMap<BigInteger, Alert>();
 
 	private static Map<String/*cronEntry*/, List<BigInteger/*alertId*/>> alertsMapByCronEntry = new ConcurrentHashMap<String, List<BigInteger>>();
 	
-	private boolean alertsCacheInitialized = false;
+	private static volatile CronScheduleIndex cronScheduleIndex = CronScheduleIndex.EMPTY;
+
+	private volatile boolean alertsCacheInitialized = false;
 
 	public AlertDefinitionsCache(AlertService alertService) {
-		refresherThread = new AlertDefinitionsCacheRefresherThread(this, alertService);
+		this(alertService, null, 0);
+	}
+
+	/**
+	 * Creates a cache that is restored from and periodically saved to a snapshot file, so that a restarted scheduler only has to fetch the alerts
+	 * modified since the snapshot was taken.
+	 *
+	 * @param  alertService            The alert service used to load the alerts. Cannot be null.
+	 * @param  snapshotFile            The snapshot file, or null to always load every enabled alert on startup.
+	 * @param  snapshotIntervalMillis  The interval at which the snapshot is saved.
+	 */
+	public AlertDefinitionsCache(AlertService alertService, File snapshotFile, long snapshotIntervalMillis) {
+		refresherThread = new AlertDefinitionsCacheRefresherThread(this, alertService, snapshotFile, snapshotIntervalMillis);
 		refresherThread.setDaemon(true);
 		refresherThread.start();
 	}
 
+	/* Creates a cache without a refresher thread. Used by tests that drive the refresher themselves. */
+	AlertDefinitionsCache() { }
+
+	/**
+	 * Stops the refresher thread, which saves a final snapshot if a snapshot file is configured.
+	 */
+	public void dispose() {
+		if(refresherThread != null) {
+			refresherThread.interrupt();
+			try {
+				refresherThread.join(REFRESHER_SHUTDOWN_TIMEOUT_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
 	public Map<BigInteger, Alert> getAlertsMapById() {
 		return alertsMapById;
 	}
@@ -81,6 +108,7 @@ public class AlertDefinitionsCache {
 
 	public void setAlertsMapByCronEntry(Map<String, List<BigInteger>> alertsMapByCronEntry) {
 		this.alertsMapByCronEntry = alertsMapByCronEntry;
+		refreshCronScheduleIndex();
 	}
 	
 	public boolean isAlertsCacheInitialized() {
@@ -91,27 +119,22 @@ public class AlertDefinitionsCache {
 		this.alertsCacheInitialized = alertsCacheInitialized;
 	}
 
+	/**
+	 * Recompiles the cron schedule index from the current alerts by cron entry map. Must be called after the map has been modified for the
+	 * changes to be visible to {@link #getEnabledAlertsForMinute(long)}.
+	 */
+	public void refreshCronScheduleIndex() {
+		cronScheduleIndex = CronScheduleIndex.build(alertsMapByCronEntry, cronScheduleIndex);
+	}
+
 	public static List<Alert> getEnabledAlertsForMinute(long minuteStartTimeMillis){
-		List<Alert> enabledAlerts = new ArrayList<Alert>();
-		List<BigInteger> enabledAlertIds = new ArrayList<BigInteger>();
+		List<BigInteger> enabledAlertIds = cronScheduleIndex.getAlertIdsForMinute(minuteStartTimeMillis);
+		List<Alert> enabledAlerts = new ArrayList<Alert>(enabledAlertIds.size());
 
-		for(String cronEntry : alertsMapByCronEntry.keySet()) {
-			try {
-				String quartzCronEntry = Cron.convertToQuartzCronEntry(cronEntry);
-				CronTrigger cronTrigger = TriggerBuilder.newTrigger().withSchedule(CronScheduleBuilder.cronSchedule(quartzCronEntry)).build();
-				Date nextFireTime = cronTrigger.getFireTimeAfter(new Date(minuteStartTimeMillis-1000));
-				if(nextFireTime.equals(new Date(minuteStartTimeMillis))) {
-					enabledAlertIds.addAll(alertsMapByCronEntry.get(cronEntry));
-				}
-			}catch(Exception e) {
-                _logger.error("Exception occured when trying to parse cron entry - " + cronEntry + " Exception - "+ ExceptionUtils.getFullStackTrace(e));
-			}
-		}
-		Collections.sort(enabledAlertIds);
 		for(BigInteger alertId : enabledAlertIds) {
 			Alert a = alertsMapById.get(alertId);
 			if(a!=null) {
-			    enabledAlerts.add(alertsMapById.get(alertId));
+			    enabledAlerts.add(a);
 			}
 		}
 		return enabledAlerts;
@@ -30,21 +30,49 @@
  */
 package com.salesforce.dva.argus.service.alert;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.salesforce.dva.argus.entity.Alert;
+import com.salesforce.dva.argus.entity.Notification;
+import com.salesforce.dva.argus.entity.PrincipalUser;
+import com.salesforce.dva.argus.entity.Trigger;
 import com.salesforce.dva.argus.service.AlertService;
 
+/**
+ * Keeps the alert definitions cache up to date by applying deltas. Every alert carries its modified date as a version, and the refresher keeps
+ * a watermark of the latest version it has applied. Each refresh fetches the alerts modified since the watermark, less a lookback that covers
+ * clock skew between hosts and transactions committed late. An alert is only applied if it is newer than the cached copy. Alerts that come back
+ * deleted or disabled are tombstones and evict the cached copy.
+ *
+ * <p>The cache and the watermark are periodically saved to a gzipped snapshot, using the same JSON representation alerts are enqueued with. A
+ * restarted scheduler restores the snapshot and then only fetches the delta since its watermark. Alerts removed from the database outright leave
+ * no tombstone, so the cached ids are also reconciled against the enabled alert ids after a restore and every hour.</p>
+ */
 public class AlertDefinitionsCacheRefresherThread extends Thread{
 
 	private final Logger _logger = LoggerFactory.getLogger(AlertDefinitionsCacheRefresherThread.class);
@@ -54,62 +82,253 @@ public class AlertDefinitionsCacheRefresherThread extends Thread{
 
 	private static final Long LOOKBACK_PERIOD_FOR_REFRESH_MILLIS = 2*REFRESH_INTERVAL_MILLIS;
 
+	private static final Long RECONCILE_INTERVAL_MILLIS = 60*REFRESH_INTERVAL_MILLIS;
+
+	private static final int SNAPSHOT_VERSION = 1;
+
 	private AlertDefinitionsCache alertDefinitionsCache = null;
 
 	private AlertService alertService;
 
+	private final File snapshotFile;
+
+	private final long snapshotIntervalMillis;
+
+	private final ObjectMapper mapper = _createObjectMapper();
+
+	// the latest alert modified date applied to the cache
+	private long modifiedDateWatermark = 0L;
+
+	private long lastSnapshotTime = 0L;
+
+	private long lastReconcileTime = 0L;
+
 	public AlertDefinitionsCacheRefresherThread(AlertDefinitionsCache cache, AlertService alertService) {
+		this(cache, alertService, null, 0);
+	}
+
+	public AlertDefinitionsCacheRefresherThread(AlertDefinitionsCache cache, AlertService alertService, File snapshotFile, long snapshotIntervalMillis) {
 		this.alertDefinitionsCache = cache;
 		this.alertService = alertService;
+		this.snapshotFile = snapshotFile;
+		this.snapshotIntervalMillis = snapshotIntervalMillis;
 	}
 
 	public void run() {
 		while (!isInterrupted()) {
-			long executionTime = 0L;
 			try {
-				_logger.info("Starting alert definitions cache refresh");
-				long startTime = System.currentTimeMillis();
-				if(!alertDefinitionsCache.isAlertsCacheInitialized()) {
-					List<Alert> enabledAlerts = alertService.findAlertsByStatus(true);
-					Map<BigInteger, Alert> enabledAlertsMap = enabledAlerts.stream().collect(Collectors.toMap(alert -> alert.getId(), alert -> alert));
-					for(Alert a : enabledAlerts) {
-						addEntrytoCronMap(a);
-					}
-					alertDefinitionsCache.setAlertsMapById(enabledAlertsMap);
-					alertDefinitionsCache.setAlertsCacheInitialized(true);
-				}else {
-					List<Alert> modifiedAlerts = alertService.findAlertsModifiedAfterDate(new Date(startTime - Math.max(executionTime + REFRESH_INTERVAL_MILLIS, LOOKBACK_PERIOD_FOR_REFRESH_MILLIS)));
-					// updating only the modified/deleted alerts in the cache
-					if(modifiedAlerts!=null && modifiedAlerts.size()>0) {
-						for(Alert a : modifiedAlerts) {
-							_logger.debug("Processing modified alert - {},{},{},{} ", a.getId(), a.getName(), a.getCronEntry(), a.getExpression());
-							if(alertDefinitionsCache.getAlertsMapById().containsKey(a.getId())) {
-								if(a.isDeleted() || !a.isEnabled()) {
-									alertDefinitionsCache.getAlertsMapById().remove(a.getId());  
-									removeEntryFromCronMap(a.getId());
-								}else {
-									alertDefinitionsCache.getAlertsMapById().put(a.getId(), a);    
-									// removing the previous cron mapping and adding fresh just in case the mapping changed
-									removeEntryFromCronMap(a.getId());
-									addEntrytoCronMap(a);
-								}
-							}else if(a.isEnabled() && !a.isDeleted()) {
-								alertDefinitionsCache.getAlertsMapById().put(a.getId(), a);
-								addEntrytoCronMap(a);
-							}
-						}
-					}
-					_logger.info("Number of modified alerts since last refresh - " + modifiedAlerts.size());
-				}
-				executionTime = System.currentTimeMillis() - startTime;
-				_logger.info("Alerts cache refreshed successfully in {} millis. Number of alerts in cache - {}", executionTime, alertDefinitionsCache.getAlertsMapById().keySet().size());
+				long executionTime = refresh();
 				if(executionTime < REFRESH_INTERVAL_MILLIS) {
 					sleep(REFRESH_INTERVAL_MILLIS - executionTime);
 				}
+			}catch(InterruptedException e) {
+				_logger.info("Alert definitions cache refresher interrupted.");
+				break;
 			}catch(Exception e) {
 				_logger.error("Exception occured when trying to refresh alert definition cache - " + ExceptionUtils.getFullStackTrace(e));
 			}
 		}
+		_writeSnapshot();
+	}
+
+	/**
+	 * Performs one refresh of the cache. The first refresh restores the snapshot, or loads every enabled alert if there is no usable snapshot.
+	 *
+	 * @return  The time the refresh took in milliseconds.
+	 */
+	long refresh() {
+		_logger.info("Starting alert definitions cache refresh");
+		long startTime = System.currentTimeMillis();
+		if(!alertDefinitionsCache.isAlertsCacheInitialized()) {
+			boolean restored = _restoreSnapshot();
+			if(restored) {
+				_reconcile(startTime);
+				_applyDelta();
+			}else {
+				_loadAll(startTime);
+				lastReconcileTime = startTime;
+			}
+			alertDefinitionsCache.refreshCronScheduleIndex();
+			alertDefinitionsCache.setAlertsCacheInitialized(true);
+			if(!restored) {
+				_writeSnapshot();
+			}
+		}else {
+			boolean modified = _applyDelta();
+			if(startTime - lastReconcileTime >= RECONCILE_INTERVAL_MILLIS) {
+				modified |= _reconcile(startTime);
+			}
+			if(modified) {
+				alertDefinitionsCache.refreshCronScheduleIndex();
+			}
+			if(snapshotIntervalMillis > 0 && startTime - lastSnapshotTime >= snapshotIntervalMillis) {
+				_writeSnapshot();
+			}
+		}
+		long executionTime = System.currentTimeMillis() - startTime;
+		_logger.info("Alerts cache refreshed successfully in {} millis. Number of alerts in cache - {}", executionTime, alertDefinitionsCache.getAlertsMapById().size());
+		return executionTime;
+	}
+
+	private void _loadAll(long startTime) {
+		List<Alert> enabledAlerts = alertService.findAlertsByStatus(true);
+		alertDefinitionsCache.setAlertsMapById(new ConcurrentHashMap<BigInteger, Alert>());
+		alertDefinitionsCache.setAlertsMapByCronEntry(new ConcurrentHashMap<String, List<BigInteger>>());
+		for(Alert a : enabledAlerts) {
+			_apply(a);
+		}
+		// the initial load does not return disabled or deleted alerts, so the deltas have to start from the time of the load
+		modifiedDateWatermark = Math.max(modifiedDateWatermark, startTime);
+	}
+
+	/* Applies the alerts modified since the watermark and returns whether the cache changed. */
+	private boolean _applyDelta() {
+		List<Alert> modifiedAlerts = alertService.findAlertsModifiedAfterDate(new Date(modifiedDateWatermark - LOOKBACK_PERIOD_FOR_REFRESH_MILLIS));
+		boolean modified = false;
+		if(modifiedAlerts!=null) {
+			for(Alert a : modifiedAlerts) {
+				_logger.debug("Processing modified alert - {},{},{},{} ", a.getId(), a.getName(), a.getCronEntry(), a.getExpression());
+				modified |= _apply(a);
+			}
+			_logger.info("Number of modified alerts since last refresh - " + modifiedAlerts.size());
+		}
+		return modified;
+	}
+
+	/* Applies one alert, unless the cache already has the same or a later version of it. Returns whether the cache changed. */
+	private boolean _apply(Alert a) {
+		Alert cached = alertDefinitionsCache.getAlertsMapById().get(a.getId());
+		long version = a.getModifiedDate() == null ? Long.MAX_VALUE : a.getModifiedDate().getTime();
+		if(a.getModifiedDate() != null) {
+			modifiedDateWatermark = Math.max(modifiedDateWatermark, version);
+		}
+		if(cached != null && cached.getModifiedDate() != null && cached.getModifiedDate().getTime() >= version) {
+			return false;
+		}
+		if(a.isDeleted() || !a.isEnabled()) {
+			return _evict(a.getId());
+		}
+		if(cached != null) {
+			// removing the previous cron mapping and adding fresh just in case the mapping changed
+			removeEntryFromCronMap(cached);
+		}
+		alertDefinitionsCache.getAlertsMapById().put(a.getId(), a);
+		addEntrytoCronMap(a);
+		return true;
+	}
+
+	private boolean _evict(BigInteger alertId) {
+		Alert cached = alertDefinitionsCache.getAlertsMapById().remove(alertId);
+		if(cached == null) {
+			return false;
+		}
+		removeEntryFromCronMap(cached);
+		return true;
+	}
+
+	/*
+	 * Alerts removed from the database outright never show up in a delta. Evicts cached alerts that are no longer enabled and loads enabled
+	 * alerts that are missing from the cache. Returns whether the cache changed.
+	 */
+	private boolean _reconcile(long startTime) {
+		Set<BigInteger> enabledAlertIds = new HashSet<>(alertService.findAlertIdsByStatus(true));
+		List<BigInteger> missingAlertIds = new ArrayList<>();
+		int evicted = 0;
+		for(BigInteger alertId : new ArrayList<>(alertDefinitionsCache.getAlertsMapById().keySet())) {
+			if(!enabledAlertIds.contains(alertId) && _evict(alertId)) {
+				evicted++;
+			}
+		}
+		for(BigInteger alertId : enabledAlertIds) {
+			if(!alertDefinitionsCache.getAlertsMapById().containsKey(alertId)) {
+				missingAlertIds.add(alertId);
+			}
+		}
+		if(!missingAlertIds.isEmpty()) {
+			for(Alert a : alertService.findAlertsByPrimaryKeys(missingAlertIds)) {
+				_apply(a);
+			}
+		}
+		lastReconcileTime = startTime;
+		_logger.info("Reconciled alert definitions cache. Evicted {} alerts and loaded {} missing alerts.", evicted, missingAlertIds.size());
+		return evicted > 0 || !missingAlertIds.isEmpty();
+	}
+
+	/* Restores the cache and the watermark from the snapshot file. Returns false if there is no usable snapshot. */
+	private boolean _restoreSnapshot() {
+		if(snapshotFile == null || !snapshotFile.isFile()) {
+			return false;
+		}
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(snapshotFile))))) {
+			if(in.readInt() != SNAPSHOT_VERSION) {
+				_logger.warn("Ignoring alert definitions snapshot {} with unsupported version.", snapshotFile);
+				return false;
+			}
+			long watermark = in.readLong();
+			int count = in.readInt();
+			Map<BigInteger, Alert> alertsMapById = new ConcurrentHashMap<>(Math.max(16, count * 4 / 3));
+			for(int i = 0; i < count; i++) {
+				long modifiedDate = in.readLong();
+				byte[] json = new byte[in.readInt()];
+				in.readFully(json);
+				Alert a = mapper.readValue(json, Alert.class);
+				a.setModifiedDate(new Date(modifiedDate));
+				alertsMapById.put(a.getId(), a);
+			}
+			alertDefinitionsCache.setAlertsMapById(new ConcurrentHashMap<BigInteger, Alert>());
+			alertDefinitionsCache.setAlertsMapByCronEntry(new ConcurrentHashMap<String, List<BigInteger>>());
+			for(Alert a : alertsMapById.values()) {
+				_apply(a);
+			}
+			modifiedDateWatermark = watermark;
+			lastSnapshotTime = System.currentTimeMillis();
+			_logger.info("Restored {} alerts from alert definitions snapshot {} taken at watermark {}.", count, snapshotFile, new Date(watermark));
+			return true;
+		}catch(IOException | RuntimeException e) {
+			_logger.warn("Failed to restore alert definitions from " + snapshotFile + ". Loading all enabled alerts.", e);
+			return false;
+		}
+	}
+
+	/* Writes the snapshot to a temporary file which then replaces the snapshot, so that a crash while writing never leaves a truncated snapshot. */
+	private void _writeSnapshot() {
+		if(snapshotFile == null || !alertDefinitionsCache.isAlertsCacheInitialized()) {
+			return;
+		}
+		File directory = snapshotFile.getAbsoluteFile().getParentFile();
+		File temporaryFile = new File(directory, snapshotFile.getName() + ".tmp");
+		List<Alert> alerts = new ArrayList<>(alertDefinitionsCache.getAlertsMapById().values());
+		try {
+			Files.createDirectories(directory.toPath());
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temporaryFile))))) {
+				out.writeInt(SNAPSHOT_VERSION);
+				out.writeLong(modifiedDateWatermark);
+				out.writeInt(alerts.size());
+				for(Alert a : alerts) {
+					byte[] json = mapper.writeValueAsBytes(a);
+					out.writeLong(a.getModifiedDate() == null ? 0L : a.getModifiedDate().getTime());
+					out.writeInt(json.length);
+					out.write(json);
+				}
+			}
+			Files.move(temporaryFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			lastSnapshotTime = System.currentTimeMillis();
+			_logger.info("Saved {} alerts to alert definitions snapshot {}.", alerts.size(), snapshotFile);
+		}catch(IOException | RuntimeException e) {
+			_logger.warn("Failed to save alert definitions snapshot to " + snapshotFile + ".", e);
+		}
+	}
+
+	private static ObjectMapper _createObjectMapper() {
+		SimpleModule module = new SimpleModule();
+		module.addSerializer(Alert.class, new Alert.Serializer());
+		module.addSerializer(Trigger.class, new Trigger.Serializer());
+		module.addSerializer(Notification.class, new Notification.Serializer());
+		module.addSerializer(PrincipalUser.class, new Alert.PrincipalUserSerializer());
+		module.addDeserializer(Alert.class, new Alert.Deserializer());
+		ObjectMapper mapper = new ObjectMapper();
+		mapper.registerModule(module);
+		return mapper;
 	}
 
 	private void addEntrytoCronMap(Alert a) {
@@ -119,10 +338,12 @@ public class AlertDefinitionsCacheRefresherThread extends Thread{
 		alertDefinitionsCache.getAlertsMapByCronEntry().get(a.getCronEntry()).add(a.getId());
 	}
 	
-	private void removeEntryFromCronMap(BigInteger alertId) {
-		for(String cronEntry : alertDefinitionsCache.getAlertsMapByCronEntry().keySet()) {
-			if(alertDefinitionsCache.getAlertsMapByCronEntry().get(cronEntry).contains(alertId)) {
-				alertDefinitionsCache.getAlertsMapByCronEntry().get(cronEntry).remove(alertId);
+	private void removeEntryFromCronMap(Alert a) {
+		List<BigInteger> alertIds = alertDefinitionsCache.getAlertsMapByCronEntry().get(a.getCronEntry());
+		if(alertIds != null) {
+			alertIds.remove(a.getId());
+			if(alertIds.isEmpty()) {
+				alertDefinitionsCache.getAlertsMapByCronEntry().remove(a.getCronEntry());
 			}
 		}
 	}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2018, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.dva.argus.service.alert;
+
+
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.quartz.CronExpression;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.dva.argus.util.Cron;
+
+/**
+ * An immutable index from minutes to the alerts scheduled to run in them. Every distinct cron entry is compiled once into one bit per allowed
+ * value of its minute, hour, day and month fields. For each value of those fields the index holds a bit set of the cron entries allowing it, so
+ * the entries that fire in a minute are found by intersecting four bit sets.
+ *
+ * <p>Entries using Quartz features the index does not model, such as L, W or #, are kept as compiled Quartz expressions and evaluated
+ * separately. Entries Quartz rejects never fire.</p>
+ *
+ * @author  a.chambers
+ */
+final class CronScheduleIndex {
+
+	//~ Static fields/initializers *******************************************************************************************************************
+
+	private static final Logger _logger = LoggerFactory.getLogger(CronScheduleIndex.class);
+	private static final long MINUTE_MILLIS = 60 * 1000L;
+	private static final String[] MONTH_NAMES = { "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC" };
+	private static final String[] DAY_OF_WEEK_NAMES = { "SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT" };
+
+	/** An index without any entries. */
+	static final CronScheduleIndex EMPTY = build(Collections.<String, List<BigInteger>>emptyMap(), null);
+
+	//~ Instance fields ******************************************************************************************************************************
+
+	private final Map<String, CronSchedule> _schedulesByEntry;
+	private final CronSchedule[] _indexed;
+	private final CronSchedule[] _evaluated;
+	private final long[][] _byMinute = new long[60][];
+	private final long[][] _byHour = new long[24][];
+	private final long[][] _byDay = new long[32 * 8][];
+	private final long[][] _byMonth = new long[13][];
+
+	//~ Constructors *********************************************************************************************************************************
+
+	private CronScheduleIndex(Map<String, CronSchedule> schedulesByEntry, List<CronSchedule> indexed, List<CronSchedule> evaluated) {
+		_schedulesByEntry = schedulesByEntry;
+		_indexed = indexed.toArray(new CronSchedule[indexed.size()]);
+		_evaluated = evaluated.toArray(new CronSchedule[evaluated.size()]);
+
+		int words = (_indexed.length + 63) >>> 6;
+
+		_fill(_byMinute, words);
+		_fill(_byHour, words);
+		_fill(_byDay, words);
+		_fill(_byMonth, words);
+		for (int i = 0; i < _indexed.length; i++) {
+			CronSchedule schedule = _indexed[i];
+
+			_set(_byMinute, schedule._minutes, i);
+			_set(_byHour, schedule._hours, i);
+			_set(_byMonth, schedule._months, i);
+			for (int dayOfMonth = 1; dayOfMonth <= 31; dayOfMonth++) {
+				for (int dayOfWeek = 1; dayOfWeek <= 7; dayOfWeek++) {
+					boolean matches = schedule._daysOfWeek == 0 ? (schedule._daysOfMonth & (1L << dayOfMonth)) != 0
+							: (schedule._daysOfWeek & (1L << dayOfWeek)) != 0;
+
+					if (matches) {
+						_byDay[dayOfMonth * 8 + dayOfWeek][i >>> 6] |= 1L << i;
+					}
+				}
+			}
+		}
+	}
+
+	//~ Methods **************************************************************************************************************************************
+
+	/**
+	 * Builds an index over the given alerts. Cron entries that were already compiled by the previous index are reused.
+	 *
+	 * @param   alertIdsByCronEntry  The alert ids keyed by cron entry. Cannot be null.
+	 * @param   previous             The previous index, or null.
+	 *
+	 * @return  The index.
+	 */
+	static CronScheduleIndex build(Map<String, List<BigInteger>> alertIdsByCronEntry, CronScheduleIndex previous) {
+		Map<String, CronSchedule> schedulesByEntry = new HashMap<>();
+		List<CronSchedule> indexed = new ArrayList<>();
+		List<CronSchedule> evaluated = new ArrayList<>();
+
+		for (Map.Entry<String, List<BigInteger>> entry : alertIdsByCronEntry.entrySet()) {
+			BigInteger[] alertIds = entry.getValue().toArray(new BigInteger[0]);
+
+			if (alertIds.length == 0) {
+				continue;
+			}
+			Arrays.sort(alertIds);
+
+			CronSchedule compiled = previous == null ? null : previous._schedulesByEntry.get(entry.getKey());
+			CronSchedule schedule = compiled == null ? CronSchedule.compile(entry.getKey(), alertIds) : compiled.withAlertIds(alertIds);
+
+			schedulesByEntry.put(entry.getKey(), schedule);
+			if (schedule._expression != null) {
+				evaluated.add(schedule);
+			} else if (schedule._minutes != 0) {
+				indexed.add(schedule);
+			}
+		}
+		return new CronScheduleIndex(schedulesByEntry, indexed, evaluated);
+	}
+
+	/**
+	 * Returns the ids of the alerts scheduled to run in a minute, in ascending order.
+	 *
+	 * @param   minuteStartTimeMillis  The start of the minute.
+	 *
+	 * @return  The alert ids. Never null.
+	 */
+	List<BigInteger> getAlertIdsForMinute(long minuteStartTimeMillis) {
+		if (minuteStartTimeMillis % MINUTE_MILLIS != 0) {
+			return Collections.emptyList();
+		}
+
+		Calendar calendar = Calendar.getInstance();
+
+		calendar.setTimeInMillis(minuteStartTimeMillis);
+
+		long[] minute = _byMinute[calendar.get(Calendar.MINUTE)];
+		long[] hour = _byHour[calendar.get(Calendar.HOUR_OF_DAY)];
+		long[] day = _byDay[calendar.get(Calendar.DAY_OF_MONTH) * 8 + calendar.get(Calendar.DAY_OF_WEEK)];
+		long[] month = _byMonth[calendar.get(Calendar.MONTH) + 1];
+		PriorityQueue<Cursor> cursors = new PriorityQueue<>();
+		int count = 0;
+
+		for (int word = 0; word < minute.length; word++) {
+			long matches = minute[word] & hour[word] & day[word] & month[word];
+
+			while (matches != 0) {
+				CronSchedule schedule = _indexed[(word << 6) + Long.numberOfTrailingZeros(matches)];
+
+				cursors.add(new Cursor(schedule._alertIds));
+				count += schedule._alertIds.length;
+				matches &= matches - 1;
+			}
+		}
+		if (_evaluated.length > 0) {
+			Date date = new Date(minuteStartTimeMillis);
+
+			for (CronSchedule schedule : _evaluated) {
+				if (schedule._expression.isSatisfiedBy(date)) {
+					cursors.add(new Cursor(schedule._alertIds));
+					count += schedule._alertIds.length;
+				}
+			}
+		}
+
+		List<BigInteger> result = new ArrayList<>(count);
+
+		if (cursors.size() == 1) {
+			result.addAll(Arrays.asList(cursors.poll()._alertIds));
+		}
+		while (!cursors.isEmpty()) {
+			Cursor cursor = cursors.poll();
+
+			result.add(cursor.current());
+			if (cursor.advance()) {
+				cursors.add(cursor);
+			}
+		}
+		return result;
+	}
+
+	private static void _fill(long[][] buckets, int words) {
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new long[words];
+		}
+	}
+
+	private static void _set(long[][] buckets, long values, int index) {
+		for (int value = 0; value < buckets.length; value++) {
+			if ((values & (1L << value)) != 0) {
+				buckets[value][index >>> 6] |= 1L << index;
+			}
+		}
+	}
+
+	//~ Inner Classes ********************************************************************************************************************************
+
+	/**
+	 * A compiled cron entry and the sorted ids of the alerts using it. The allowed values of each field are kept as bit masks. A day of week mask
+	 * of zero means the days are given by the day of month field, and vice versa. An entry that cannot be modelled by masks keeps its Quartz
+	 * expression instead, and an invalid entry has neither.
+	 */
+	private static final class CronSchedule {
+
+		private final long _minutes;
+		private final long _hours;
+		private final long _daysOfMonth;
+		private final long _months;
+		private final long _daysOfWeek;
+		private final CronExpression _expression;
+		private final BigInteger[] _alertIds;
+
+		private CronSchedule(long[] fields, CronExpression expression, BigInteger[] alertIds) {
+			_minutes = fields == null ? 0 : fields[0];
+			_hours = fields == null ? 0 : fields[1];
+			_daysOfMonth = fields == null ? 0 : fields[2];
+			_months = fields == null ? 0 : fields[3];
+			_daysOfWeek = fields == null ? 0 : fields[4];
+			_expression = expression;
+			_alertIds = alertIds;
+		}
+
+		/* Mirrors the way the scheduler has always interpreted cron entries, which is as Quartz expressions firing at second zero. */
+		static CronSchedule compile(String cronEntry, BigInteger[] alertIds) {
+			CronExpression expression;
+
+			try {
+				expression = new CronExpression(Cron.convertToQuartzCronEntry(cronEntry));
+			} catch (ParseException | RuntimeException ex) {
+				_logger.error("Exception occured when trying to parse cron entry - {}. Alerts using it will not be scheduled.", cronEntry, ex);
+				return new CronSchedule(null, null, alertIds);
+			}
+
+			long[] fields = _parseFields(expression.getCronExpression());
+
+			return fields == null ? new CronSchedule(null, expression, alertIds) : new CronSchedule(fields, null, alertIds);
+		}
+
+		CronSchedule withAlertIds(BigInteger[] alertIds) {
+			return new CronSchedule(new long[] { _minutes, _hours, _daysOfMonth, _months, _daysOfWeek }, _expression, alertIds);
+		}
+
+		/* Returns the masks of an expression Quartz has accepted, or null if it uses syntax that is not modelled. */
+		private static long[] _parseFields(String quartzCronEntry) {
+			String[] fields = quartzCronEntry.trim().toUpperCase().split("\\s+");
+
+			if (fields.length != 6 || !"0".equals(fields[0])) {
+				return null;
+			}
+			try {
+				long[] result = new long[] {
+					_parseField(fields[1], 0, 59, null),
+					_parseField(fields[2], 0, 23, null),
+					_parseField(fields[3], 1, 31, null),
+					_parseField(fields[4], 1, 12, MONTH_NAMES),
+					_parseField(fields[5], 1, 7, DAY_OF_WEEK_NAMES)
+				};
+
+				return result[0] < 0 || result[1] < 0 || result[2] < 0 || result[3] < 0 || result[4] < 0 ? null : result;
+			} catch (NumberFormatException ex) {
+				return null;
+			}
+		}
+
+		/* Returns the mask of allowed values, 0 for ?, or -1 if the field uses syntax that is not modelled. */
+		private static long _parseField(String field, int min, int max, String[] names) {
+			if ("?".equals(field)) {
+				return 0;
+			}
+
+			long mask = 0;
+
+			for (String item : field.split(",")) {
+				int step = 1;
+				int slash = item.indexOf('/');
+
+				if (slash >= 0) {
+					step = Integer.parseInt(item.substring(slash + 1));
+					item = item.substring(0, slash);
+				}
+
+				int start;
+				int end;
+
+				if ("*".equals(item)) {
+					start = min;
+					end = max;
+				} else {
+					int dash = item.indexOf('-');
+
+					start = _parseValue(dash >= 0 ? item.substring(0, dash) : item, names);
+					end = dash >= 0 ? _parseValue(item.substring(dash + 1), names) : (slash >= 0 ? max : start);
+				}
+				if (step <= 0 || start < min || end > max || start > end) {
+					return -1;
+				}
+				for (int value = start; value <= end; value += step) {
+					mask |= 1L << value;
+				}
+			}
+			return mask;
+		}
+
+		private static int _parseValue(String value, String[] names) {
+			if (names != null) {
+				for (int i = 0; i < names.length; i++) {
+					if (names[i].equals(value)) {
+						return i + 1;
+					}
+				}
+			}
+			return Integer.parseInt(value);
+		}
+	}
+
+	/** A position in the sorted alert ids of a schedule. */
+	private static final class Cursor implements Comparable<Cursor> {
+
+		private final BigInteger[] _alertIds;
+		private int _position;
+
+		Cursor(BigInteger[] alertIds) {
+			_alertIds = alertIds;
+		}
+
+		BigInteger current() {
+			return _alertIds[_position];
+		}
+
+		boolean advance() {
+			return ++_position < _alertIds.length;
+		}
+
+		@Override
+		public int compareTo(Cursor other) {
+			return current().compareTo(other.current());
+		}
+	}
+}
@@ -31,6 +31,7 @@
 
 package com.salesforce.dva.argus.service.alert;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
@@ -57,6 +58,7 @@ import com.salesforce.dva.argus.service.NotifierFactory;
 import com.salesforce.dva.argus.service.TSDBService;
 import com.salesforce.dva.argus.service.jpa.DefaultJPAService;
 import com.salesforce.dva.argus.service.metric.transform.MissingDataException;
+import com.salesforce.dva.argus.service.tsdb.MetricQuery;
 import com.salesforce.dva.argus.system.SystemConfiguration;
 import com.salesforce.dva.argus.util.AlertUtils;
 import com.salesforce.dva.argus.util.Cron;
@@ -73,16 +75,33 @@ import java.text.MessageFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -103,6 +122,7 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 	//~ Static fields/initializers *******************************************************************************************************************
 
 	private static final String USERTAG = "user";
+	private static final long DISPOSE_TIMEOUT_MILLIS = 10000;
 	private static final ThreadLocal<SimpleDateFormat> DATE_FORMATTER = new ThreadLocal<SimpleDateFormat>() {
 
 		@Override
@@ -127,8 +147,15 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 	private final MonitorService _monitorService;
 	private final NotifierFactory _notifierFactory;
 	private final ObjectMapper _mapper = new ObjectMapper();
+	private final ExecutorService _evaluationExecutor;
+	private final ScheduledExecutorService _evaluationTimer;
+	private final Set<AlertEvaluation> _pendingEvaluations = ConcurrentHashMap.newKeySet();
+	private final long _evaluationTimeoutMillis;
+	private final boolean _enqueueAlertReferences;
+	private final VersionedAlertCache _alertDefinitions;
+	private final NotificationStateStore _notificationStateStore;
 	private static NotificationsCache _notificationsCache = null;
-	private static List<Pattern> _whiteListedScopeRegexPatterns = null;
+	private final List<Pattern> _whiteListedScopeRegexPatterns;
 
 	//~ Constructors *********************************************************************************************************************************
 
@@ -163,12 +190,37 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 		_monitorService = monitorService;
 		_notifierFactory = notifierFactory;
 		_emProvider = emProvider;
+		_evaluationTimeoutMillis = Long.parseLong(_configuration.getValue(SystemConfiguration.Property.ALERT_EVALUATION_TIMEOUT_MILLIS));
+		_evaluationExecutor = Executors.newFixedThreadPool(Integer.parseInt(_configuration.getValue(SystemConfiguration.Property.ALERT_EVALUATION_THREADS)),
+				_createDaemonThreadFactory());
+		_evaluationTimer = Executors.newSingleThreadScheduledExecutor(_createDaemonThreadFactory());
+		_enqueueAlertReferences = "reference".equalsIgnoreCase(_configuration.getValue(SystemConfiguration.Property.ALERT_ENQUEUE_MODE).trim());
+
+		String whiteListedScopesProperty = _configuration.getValue(SystemConfiguration.Property.DATA_LAG_WHITE_LISTED_SCOPES);
+		if(!StringUtils.isEmpty(whiteListedScopesProperty)) {
+			_whiteListedScopeRegexPatterns = Stream.of(whiteListedScopesProperty.split(",")).map (elem -> Pattern.compile(elem.toLowerCase())).collect(Collectors.toList());
+		}else {
+			_whiteListedScopeRegexPatterns = new ArrayList<Pattern>();
+		}
 
 		_initializeObjectMapper();
+		_alertDefinitions = new VersionedAlertCache(Long.parseLong(_configuration.getValue(SystemConfiguration.Property.ALERT_DEFINITION_CACHE_SIZE)),
+				_mapper, this::findAlertsByPrimaryKeys);
+		_notificationStateStore = new WriteBehindNotificationStateStore(emProvider, monitorService);
 	}
 
 	//~ Methods **************************************************************************************************************************************
 
+	private static ThreadFactory _createDaemonThreadFactory() {
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = Executors.defaultThreadFactory().newThread(r);
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
 	private void _initializeObjectMapper() {
 
 		SimpleModule module = new SimpleModule();
@@ -346,6 +398,8 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 		}else {
 			Notification.updateActiveStatusAndCooldown(_emProvider.get(), notifications);
 		}
+		// changes made by earlier evaluations may not have been flushed yet
+		_notificationStateStore.applyPendingState(notifications);
 	}
 
 	@Override
@@ -360,30 +414,44 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 				alertCount);
 
 		List<Notification> allNotifications = new ArrayList<>();
-		Map<BigInteger, Alert> alertsByNotificationId = new HashMap<>();
-		Map<BigInteger, Long> alertEnqueueTimestampsByAlertId = new HashMap<>();
+		Map<AlertSchedule, Alert> alertsBySchedule = new LinkedHashMap<>();
+		Map<AlertSchedule, List<Notification>> notificationsBySchedule = new HashMap<>();
 
+		_loadReferencedAlertDefinitions(alertsWithTimestamp);
 		for(AlertWithTimestamp alertWithTimestamp : alertsWithTimestamp) {
-			String serializedAlert = alertWithTimestamp.getSerializedAlert();
 			Alert alert;
-			try {
-				alert = _mapper.readValue(serializedAlert, Alert.class);
-			} catch (IOException e) {
-				_logger.warn("Failed to deserialize alert.", e);
-				continue;
-			} 
+			if(alertWithTimestamp.getAlertId() != null) {
+				alert = _alertDefinitions.newInstance(new BigInteger(alertWithTimestamp.getAlertId()));
+				if(alert == null) {
+					_logger.debug("Skipping alert {} which no longer exists.", alertWithTimestamp.getAlertId());
+					continue;
+				}
+			} else {
+				try {
+					alert = _mapper.readValue(alertWithTimestamp.getSerializedAlert(), Alert.class);
+				} catch (IOException e) {
+					_logger.warn("Failed to deserialize alert.", e);
+					continue;
+				}
+			}
 			if(!_shouldEvaluateAlert(alert, alert.getId())) {
 				continue;
 			}
 
-			alertEnqueueTimestampsByAlertId.put(alert.getId(), alertWithTimestamp.getAlertEnqueueTime());
+			AlertSchedule schedule = new AlertSchedule(alert.getId(), alertWithTimestamp.getAlertEnqueueTime());
+
+			if(alertsBySchedule.containsKey(schedule)) {
+				_logger.debug("Skipping alert {} which was already enqueued for the minute {}.", alert.getId(), schedule.scheduledMinute);
+				continue;
+			}
 
 			List<Notification> notifications = new ArrayList<>(alert.getNotifications());
 			alert.setNotifications(null);
-			for(Notification n : notifications) {
-				alertsByNotificationId.put(n.getId(), alert);
+			if(!notifications.isEmpty()) {
+				alertsBySchedule.put(schedule, alert);
+				notificationsBySchedule.put(schedule, notifications);
+				allNotifications.addAll(notifications);
 			}
-			allNotifications.addAll(notifications);
 		}
 
 		// Update the state of notification objects from the database since the notification contained 	
@@ -392,185 +460,386 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 		// For example, the notification may have been updated to be on cooldown by a previous alert evaluation.	
 		// Or it's active/clear status may have changed. 
 		updateNotificationsActiveStatusAndCooldown(allNotifications);
-		for(Notification n : allNotifications) {
-			alertsByNotificationId.get(n.getId()).addNotification(n);
+		for(Entry<AlertSchedule, List<Notification>> entry : notificationsBySchedule.entrySet()) {
+			for(Notification n : entry.getValue()) {
+				alertsBySchedule.get(entry.getKey()).addNotification(n);
+			}
 		}
 
-		Set<Alert> alerts = new HashSet<>(alertsByNotificationId.values());
-		for (Alert alert : alerts) {
-			long jobStartTime = System.currentTimeMillis();
-			long jobEndTime = 0;
-			Long alertEnqueueTimestamp = 0L;
-
-
-			String logMessage = null;
-			History history = null;
-
-			if(Boolean.valueOf(_configuration.getValue(SystemConfiguration.Property.DATA_LAG_MONITOR_ENABLED))){
-				if(_monitorService.isDataLagging()) {
-					if(_whiteListedScopeRegexPatterns==null) {
-						String whiteListedScopesProperty = _configuration.getValue(SystemConfiguration.Property.DATA_LAG_WHITE_LISTED_SCOPES);
-						if(!StringUtils.isEmpty(whiteListedScopesProperty)) {
-							_whiteListedScopeRegexPatterns = Stream.of(whiteListedScopesProperty.split(",")).map (elem -> Pattern.compile(elem.toLowerCase())).collect(Collectors.toList());
-						}else {
-							_whiteListedScopeRegexPatterns = new ArrayList<Pattern>();
+		Map<AlertSchedule, Map<MetricQuery, List<MetricQuery>>> discoveredQueries = new HashMap<>();
+		Map<MetricQuery, List<Metric>> sharedMetrics = _prefetchSharedQueries(alertsBySchedule, discoveredQueries);
+		List<AlertEvaluation> evaluations = new ArrayList<>(alertsBySchedule.size());
+
+		for (Entry<AlertSchedule, Alert> entry : alertsBySchedule.entrySet()) {
+			AlertSchedule schedule = entry.getKey();
+			AlertEvaluation evaluation = new AlertEvaluation(entry.getValue(), schedule.alertEnqueueTimestamp, sharedMetrics,
+					discoveredQueries.getOrDefault(schedule, Collections.emptyMap()));
+
+			_pendingEvaluations.add(evaluation);
+			evaluations.add(evaluation);
+			try {
+				evaluation.task = _evaluationExecutor.submit(() -> {
+					ScheduledFuture<?> timer = null;
+
+					try {
+						timer = _evaluationTimer.schedule(() -> _timeoutAlertEvaluation(evaluation), _evaluationTimeoutMillis, TimeUnit.MILLISECONDS);
+						evaluateAlert(evaluation);
+					} catch (RuntimeException | Error ex) {
+						evaluation.result.completeExceptionally(ex);
+					} finally {
+						if (timer != null) {
+							timer.cancel(false);
 						}
 					}
+				});
+			} catch (RejectedExecutionException ex) {
+				evaluation.result.completeExceptionally(ex);
+			}
+		}
 
-					if(_whiteListedScopeRegexPatterns.isEmpty() || !AlertUtils.isScopePresentInWhiteList(alert.getExpression(), _whiteListedScopeRegexPatterns)) {
-						history = new History(addDateToMessage(JobStatus.SKIPPED.getDescription()), SystemConfiguration.getHostname(), alert.getId(), JobStatus.SKIPPED);
-						logMessage = MessageFormat.format("Skipping evaluating the alert with id: {0}. because metric data was lagging", alert.getId());
-						_logger.info(logMessage);
-						_appendMessageNUpdateHistory(history, logMessage, null, 0);
-						history = _historyService.createHistory(alert, history.getMessage(), history.getJobStatus(), history.getExecutionTime());
-						historyList.add(history);
-						Map<String, String> tags = new HashMap<>();
-						tags.put(USERTAG, alert.getOwner().getUserName());
-						_monitorService.modifyCounter(Counter.ALERTS_SKIPPED, 1, tags);
-						continue;
+		try {
+			for (AlertEvaluation evaluation : evaluations) {
+				try {
+					historyList.add(evaluation.result.get());
+				} catch (InterruptedException ex) {
+					_logger.warn("Interrupted while waiting for alert evaluations to complete.");
+					Thread.currentThread().interrupt();
+					break;
+				} catch (ExecutionException ex) {
+					if (ex.getCause() instanceof TimeoutException) {
+						_recordEvaluationTimeout(evaluation, historyList);
+					} else {
+						_logger.warn("Failed to record evaluation history for alert : {}", evaluation.alert.getId(), ex.getCause());
 					}
 				}
 			}
+		} finally {
+			_pendingEvaluations.removeAll(evaluations);
+		}
+		_notificationStateStore.flush();
+		return historyList;
+	}
 
-			history = new History(addDateToMessage(JobStatus.STARTED.getDescription()), SystemConfiguration.getHostname(), alert.getId(), JobStatus.STARTED);
-			Set<Trigger> missingDataTriggers = new HashSet<Trigger>();
+	/* Makes sure the local definitions of the alerts enqueued as references are at least as recent as the versions the scheduler saw. */
+	private void _loadReferencedAlertDefinitions(List<AlertWithTimestamp> alertsWithTimestamp) {
+		Map<BigInteger, Long> requiredVersions = new HashMap<>();
 
-			for(Trigger trigger : alert.getTriggers()) {
-				if(trigger.getType().equals(TriggerType.NO_DATA)) {
-					missingDataTriggers.add(trigger);
-				}
+		for(AlertWithTimestamp alertWithTimestamp : alertsWithTimestamp) {
+			if(alertWithTimestamp.getAlertId() != null) {
+				requiredVersions.merge(new BigInteger(alertWithTimestamp.getAlertId()), alertWithTimestamp.getAlertVersion(), Math::max);
 			}
-			
+		}
+		if(!requiredVersions.isEmpty()) {
+			int loaded = _alertDefinitions.load(requiredVersions);
+
+			_monitorService.modifyCounter(Counter.ALERT_DEFINITIONS_REQUESTED, requiredVersions.size(), null);
+			_monitorService.modifyCounter(Counter.ALERT_DEFINITIONS_LOADED, loaded, null);
+		}
+	}
+
+	/*
+	 * Plans the leaf queries of every alert in the batch and fetches the queries shared by more than one alert with a single TSDB call. Queries
+	 * used by a single alert are left for that alert's evaluation to fetch, so they are still read concurrently. Alerts whose expression cannot be
+	 * planned are skipped here and fail during their own evaluation as before. The alerts are planned concurrently on the evaluation pool, since
+	 * planning runs discovery for every wildcard query, and planning that takes longer than the evaluation timeout is abandoned. The expansion
+	 * of the wildcard queries of every planned alert is recorded in the given map, so that the evaluation does not run discovery again.
+	 */
+	private Map<MetricQuery, List<Metric>> _prefetchSharedQueries(Map<AlertSchedule, Alert> alerts,
+			Map<AlertSchedule, Map<MetricQuery, List<MetricQuery>>> discoveredQueries) {
+		Map<AlertSchedule, Future<List<MetricQuery>>> plans = new LinkedHashMap<>();
+		Map<AlertSchedule, Map<MetricQuery, List<MetricQuery>>> discoveries = new HashMap<>();
+
+		for (Entry<AlertSchedule, Alert> entry : alerts.entrySet()) {
+			String expression = entry.getValue().getExpression();
+			long alertEnqueueTimestamp = entry.getKey().alertEnqueueTimestamp;
+			Map<MetricQuery, List<MetricQuery>> discovered = new HashMap<>();
+
+			discoveries.put(entry.getKey(), discovered);
+			plans.put(entry.getKey(), _evaluationExecutor.submit(() -> _metricService.getQueries(expression, alertEnqueueTimestamp, discovered)));
+		}
+
+		Map<MetricQuery, Integer> queryCounts = new HashMap<>();
+		int requestedQueries = 0;
+		long deadline = System.currentTimeMillis() + _evaluationTimeoutMillis;
+
+		for (Entry<AlertSchedule, Future<List<MetricQuery>>> entry : plans.entrySet()) {
 			try {
-				alertEnqueueTimestamp = alertEnqueueTimestampsByAlertId.get(alert.getId());
-				List<Metric> metrics = _metricService.getMetrics(alert.getExpression(), alertEnqueueTimestamp);
-
-				if(metrics.isEmpty()) {
-					if (alert.isMissingDataNotificationEnabled()) {
-						_sendNotificationForMissingData(alert);
-						logMessage = MessageFormat.format("Metric data does not exist for alert expression: {0}. Sent notification for missing data.",
-								alert.getExpression());
-						_logger.info(logMessage);
-						_appendMessageNUpdateHistory(history, logMessage, null, 0);
-					} else {
-						logMessage = MessageFormat.format("Metric data does not exist for alert expression: {0}. Missing data notification was not enabled.",
-								alert.getExpression());
-						_logger.info(logMessage);
-						_appendMessageNUpdateHistory(history, logMessage, null, 0);
-					}
+				List<MetricQuery> queries = entry.getValue().get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
 
-					if(missingDataTriggers.size()>0) {
-						for(Notification notification : alert.getNotifications()) {
-							if (!notification.getTriggers().isEmpty()) {
-							    _processMissingDataNotification(alert, history, missingDataTriggers, notification, true, alertEnqueueTimestamp);
-							}
-						}
-					}
-				} else {
-					//Only evaluate those triggers which are associated with any notification. 
-					Set<Trigger> triggersToEvaluate = new HashSet<>();
-					for(Notification notification : alert.getNotifications()) {
-						triggersToEvaluate.addAll(notification.getTriggers());
-					}
+				// only a completed plan has finished recording its discovery results
+				discoveredQueries.put(entry.getKey(), Collections.unmodifiableMap(discoveries.get(entry.getKey())));
+				for (MetricQuery query : new HashSet<>(queries)) {
+					queryCounts.merge(query, 1, Integer::sum);
+					requestedQueries++;
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				_cancelAll(plans.values());
+				return Collections.emptyMap();
+			} catch (ExecutionException | TimeoutException ex) {
+				entry.getValue().cancel(true);
+				_logger.debug("Failed to plan queries for alert {}. It will be fetched during evaluation.", entry.getKey().alertId, ex);
+			}
+		}
+		if (requestedQueries == 0) {
+			return Collections.emptyMap();
+		}
 
-					Map<BigInteger, Map<Metric, Long>> triggerFiredTimesAndMetricsByTrigger = _evaluateTriggers(triggersToEvaluate, 
-							metrics, history);
+		List<MetricQuery> sharedQueries = new ArrayList<>();
 
-					for(Notification notification : alert.getNotifications()) {
-						if (notification.getTriggers().isEmpty()) {
-							logMessage = MessageFormat.format("The notification {0} has no triggers.", notification.getName());
-							_logger.info(logMessage);
-							_appendMessageNUpdateHistory(history, logMessage, null, 0);
-						} else {
-							_processNotification(alert, history, metrics, triggerFiredTimesAndMetricsByTrigger, notification, alertEnqueueTimestamp);
-							if(missingDataTriggers.size()>0) {
-								// processing to possibly to clear missing data notification
-								_processMissingDataNotification(alert, history, missingDataTriggers, notification, false, alertEnqueueTimestamp);
-							}
-						}
+		for (Entry<MetricQuery, Integer> entry : queryCounts.entrySet()) {
+			if (entry.getValue() > 1) {
+				sharedQueries.add(entry.getKey());
+			}
+		}
+		_monitorService.modifyCounter(Counter.ALERT_QUERIES_REQUESTED, requestedQueries, null);
+		_monitorService.modifyCounter(Counter.ALERT_QUERIES_COALESCED, requestedQueries - queryCounts.size(), null);
+		_monitorService.updateCounter(Counter.ALERT_QUERY_DEDUP_RATIO, 1.0 - ((double) queryCounts.size() / requestedQueries), null);
+		if (sharedQueries.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		_logger.debug("Fetching {} queries shared by alerts in a batch of {} alerts.", sharedQueries.size(), alerts.size());
+		try {
+			return Collections.unmodifiableMap(new HashMap<>(_tsdbService.getMetrics(sharedQueries)));
+		} catch (Exception ex) {
+			_logger.warn("Failed to fetch shared alert queries. Each alert will fetch its own data.", ex);
+			return Collections.emptyMap();
+		}
+	}
+
+	private static void _cancelAll(Collection<? extends Future<?>> futures) {
+		for (Future<?> future : futures) {
+			future.cancel(true);
+		}
+	}
+
+	/**
+	 * Evaluates a single alert on an evaluation pool thread and completes the evaluation with its job history. Each alert is evaluated in its own
+	 * transaction. If the evaluation timed out before it finished, the job history and counters are recorded by the thread waiting for the
+	 * evaluation instead, and are not recorded again.
+	 *
+	 * @param  evaluation  The alert evaluation to run.
+	 */
+	@Transactional
+	protected void evaluateAlert(AlertEvaluation evaluation) {
+		Alert alert = evaluation.alert;
+		long jobStartTime = System.currentTimeMillis();
+		long jobEndTime = 0;
+		Long alertEnqueueTimestamp = 0L;
+		boolean failed = false;
+		long evalLatency = 0;
+
+
+		String logMessage = null;
+		History history = null;
+		if(Boolean.valueOf(_configuration.getValue(SystemConfiguration.Property.DATA_LAG_MONITOR_ENABLED))){
+			if(_monitorService.isDataLagging()) {
+				if(_whiteListedScopeRegexPatterns.isEmpty() || !AlertUtils.isScopePresentInWhiteList(alert.getExpression(), _whiteListedScopeRegexPatterns)) {
+					history = new History(addDateToMessage(JobStatus.SKIPPED.getDescription()), SystemConfiguration.getHostname(), alert.getId(), JobStatus.SKIPPED);
+					logMessage = MessageFormat.format("Skipping evaluating the alert with id: {0}. because metric data was lagging", alert.getId());
+					_logger.info(logMessage);
+					_appendMessageNUpdateHistory(history, logMessage, null, 0);
+					if (evaluation.tryComplete()) {
+						Map<String, String> tags = new HashMap<>();
+						tags.put(USERTAG, alert.getOwner().getUserName());
+						_monitorService.modifyCounter(Counter.ALERTS_SKIPPED, 1, tags);
+						evaluation.result.complete(_historyService.createHistory(alert, history.getMessage(), history.getJobStatus(), 
+								history.getExecutionTime()));
 					}
+					return;
 				}
+			}
+		}
 
-				jobEndTime = System.currentTimeMillis();
-				long evalLatency = jobEndTime - jobStartTime;
-				_appendMessageNUpdateHistory(history, "Alert was evaluated successfully.", JobStatus.SUCCESS, evalLatency);
+		history = new History(addDateToMessage(JobStatus.STARTED.getDescription()), SystemConfiguration.getHostname(), alert.getId(), JobStatus.STARTED);
+		Set<Trigger> missingDataTriggers = new HashSet<Trigger>();
 
+		for(Trigger trigger : alert.getTriggers()) {
+			if(trigger.getType().equals(TriggerType.NO_DATA)) {
+				missingDataTriggers.add(trigger);
+			}
+		}
+		
+		try {
+			alertEnqueueTimestamp = evaluation.alertEnqueueTimestamp;
+			List<Metric> metrics = evaluation.sharedMetrics.isEmpty() && evaluation.discoveredQueries.isEmpty()
+					? _metricService.getMetrics(alert.getExpression(), alertEnqueueTimestamp)
+					: _metricService.getMetrics(alert.getExpression(), alertEnqueueTimestamp, evaluation.sharedMetrics, evaluation.discoveredQueries);
 
-				publishAlertTrackingMetric(Counter.ALERTS_EVALUATED.getMetric(), alert.getId(), 1.0/*success*/);
-				Map<String, String> tags = new HashMap<>();
-				tags.put(USERTAG, alert.getOwner().getUserName());
-				_monitorService.modifyCounter(Counter.ALERTS_EVALUATION_LATENCY, evalLatency, tags);
-			} catch (MissingDataException mde) {
-				jobEndTime = System.currentTimeMillis();
-				logMessage = MessageFormat.format("Failed to evaluate alert : {0} due to missing data exception. Full stack trace of exception - {1}", alert.getId().intValue(), ExceptionUtils.getFullStackTrace(mde));
-				_logger.warn(logMessage);
-				_appendMessageNUpdateHistory(history, logMessage, JobStatus.FAILURE, jobEndTime - jobStartTime);
+			if(metrics.isEmpty()) {
 				if (alert.isMissingDataNotificationEnabled()) {
-					_sendNotificationForMissingData(alert);
+					_sendNotificationForMissingData(alert, evaluation);
+					logMessage = MessageFormat.format("Metric data does not exist for alert expression: {0}. Sent notification for missing data.",
+							alert.getExpression());
+					_logger.info(logMessage);
+					_appendMessageNUpdateHistory(history, logMessage, null, 0);
+				} else {
+					logMessage = MessageFormat.format("Metric data does not exist for alert expression: {0}. Missing data notification was not enabled.",
+							alert.getExpression());
+					_logger.info(logMessage);
+					_appendMessageNUpdateHistory(history, logMessage, null, 0);
 				}
-				
+
 				if(missingDataTriggers.size()>0) {
 					for(Notification notification : alert.getNotifications()) {
 						if (!notification.getTriggers().isEmpty()) {
-						    _processMissingDataNotification(alert, history, missingDataTriggers, notification, true, alertEnqueueTimestamp);
+						    _processMissingDataNotification(alert, history, missingDataTriggers, notification, true, alertEnqueueTimestamp, evaluation);
 						}
 					}
 				}
-				publishAlertTrackingMetric(Counter.ALERTS_EVALUATED.getMetric(), alert.getId(), -1.0/*failure*/);
-				Map<String, String> tags = new HashMap<>();
-				tags.put(USERTAG, alert.getOwner().getUserName());
-				_monitorService.modifyCounter(Counter.ALERTS_FAILED, 1, tags);
-			} catch (Exception ex) {
-				jobEndTime = System.currentTimeMillis();
-				logMessage = MessageFormat.format("Failed to evaluate alert : {0} due to an exception. Full stack trace of exception - {1}", alert.getId().intValue(), ExceptionUtils.getFullStackTrace(ex));
+			} else {
+				//Only evaluate those triggers which are associated with any notification. 
+				Set<Trigger> triggersToEvaluate = new HashSet<>();
+				for(Notification notification : alert.getNotifications()) {
+					triggersToEvaluate.addAll(notification.getTriggers());
+				}
+
+				Map<BigInteger, Map<Metric, Long>> triggerFiredTimesAndMetricsByTrigger = _evaluateTriggers(triggersToEvaluate, 
+						metrics, history);
+
+				for(Notification notification : alert.getNotifications()) {
+					if (notification.getTriggers().isEmpty()) {
+						logMessage = MessageFormat.format("The notification {0} has no triggers.", notification.getName());
+						_logger.info(logMessage);
+						_appendMessageNUpdateHistory(history, logMessage, null, 0);
+					} else {
+						_processNotification(alert, history, metrics, triggerFiredTimesAndMetricsByTrigger, notification, alertEnqueueTimestamp, evaluation);
+						if(missingDataTriggers.size()>0) {
+							// processing to possibly to clear missing data notification
+							_processMissingDataNotification(alert, history, missingDataTriggers, notification, false, alertEnqueueTimestamp, evaluation);
+						}
+					}
+				}
+			}
 
-				if (Boolean.valueOf(_configuration.getValue(SystemConfiguration.Property.EMAIL_EXCEPTIONS))) {
-					_sendEmailToAdmin(alert, alert.getId(), ex);
+			jobEndTime = System.currentTimeMillis();
+			evalLatency = jobEndTime - jobStartTime;
+			_appendMessageNUpdateHistory(history, "Alert was evaluated successfully.", JobStatus.SUCCESS, evalLatency);
+		} catch (MissingDataException mde) {
+			jobEndTime = System.currentTimeMillis();
+			logMessage = MessageFormat.format("Failed to evaluate alert : {0} due to missing data exception. Full stack trace of exception - {1}", alert.getId().intValue(), ExceptionUtils.getFullStackTrace(mde));
+			_logger.warn(logMessage);
+			_appendMessageNUpdateHistory(history, logMessage, JobStatus.FAILURE, jobEndTime - jobStartTime);
+			if (alert.isMissingDataNotificationEnabled()) {
+				_sendNotificationForMissingData(alert, evaluation);
+			}
+			
+			if(missingDataTriggers.size()>0) {
+				for(Notification notification : alert.getNotifications()) {
+					if (!notification.getTriggers().isEmpty()) {
+					    _processMissingDataNotification(alert, history, missingDataTriggers, notification, true, alertEnqueueTimestamp, evaluation);
+					}
+				}
+			}
+			failed = true;
+		} catch (Exception ex) {
+			jobEndTime = System.currentTimeMillis();
+			logMessage = MessageFormat.format("Failed to evaluate alert : {0} due to an exception. Full stack trace of exception - {1}", alert.getId().intValue(), ExceptionUtils.getFullStackTrace(ex));
+
+			if (Boolean.valueOf(_configuration.getValue(SystemConfiguration.Property.EMAIL_EXCEPTIONS))) {
+				_sendEmailToAdmin(alert, alert.getId(), ex);
+			}
+			
+			if(logMessage.contains("net.opentsdb.tsd.BadRequestException")) {
+				if (alert.isMissingDataNotificationEnabled()) {
+					_sendNotificationForMissingData(alert, evaluation);
 				}
 				
-				if(logMessage.contains("net.opentsdb.tsd.BadRequestException")) {
-					if (alert.isMissingDataNotificationEnabled()) {
-						_sendNotificationForMissingData(alert);
-					}
-					
-					if(missingDataTriggers.size()>0) {
-						for(Notification notification : alert.getNotifications()) {
-							if (!notification.getTriggers().isEmpty()) {
-							    _processMissingDataNotification(alert, history, missingDataTriggers, notification, true, alertEnqueueTimestamp);
-							}
+				if(missingDataTriggers.size()>0) {
+					for(Notification notification : alert.getNotifications()) {
+						if (!notification.getTriggers().isEmpty()) {
+						    _processMissingDataNotification(alert, history, missingDataTriggers, notification, true, alertEnqueueTimestamp, evaluation);
 						}
 					}
 				}
+			}
 
-				_logger.warn(logMessage);
-				_appendMessageNUpdateHistory(history, logMessage, JobStatus.FAILURE, jobEndTime - jobStartTime);
-				publishAlertTrackingMetric(Counter.ALERTS_EVALUATED.getMetric(), alert.getId(), -1.0/*failure*/);
-				Map<String, String> tags = new HashMap<>();
-				tags.put(USERTAG, alert.getOwner().getUserName());
-				_monitorService.modifyCounter(Counter.ALERTS_FAILED, 1, tags);
-			} finally {
+			_logger.warn(logMessage);
+			_appendMessageNUpdateHistory(history, logMessage, JobStatus.FAILURE, jobEndTime - jobStartTime);
+			failed = true;
+		} finally {
+			if (evaluation.tryComplete()) {
 				Map<String, String> tags = new HashMap<>();
 				tags.put(USERTAG, alert.getOwner().getUserName());
+				if (failed) {
+					publishAlertTrackingMetric(Counter.ALERTS_EVALUATED.getMetric(), alert.getId(), -1.0/*failure*/);
+					_monitorService.modifyCounter(Counter.ALERTS_FAILED, 1, tags);
+				} else {
+					publishAlertTrackingMetric(Counter.ALERTS_EVALUATED.getMetric(), alert.getId(), 1.0/*success*/);
+					_monitorService.modifyCounter(Counter.ALERTS_EVALUATION_LATENCY, evalLatency, tags);
+					_monitorService.recordHistogramValue(Counter.ALERTS_EVALUATION_LATENCY, evalLatency, tags);
+				}
 				_monitorService.modifyCounter(Counter.ALERTS_EVALUATED, 1, tags);
-				history = _historyService.createHistory(alert, history.getMessage(), history.getJobStatus(), history.getExecutionTime());
-				historyList.add(history);
+				evaluation.result.complete(_historyService.createHistory(alert, history.getMessage(), history.getJobStatus(), 
+						history.getExecutionTime()));
 			}
-		} // end for
-		return historyList;
+		}
+	}
+
+	/* Whether the evaluation timed out or was interrupted, in which case its worker must not send notifications. */
+	private boolean _isAbandoned(AlertEvaluation evaluation) {
+		if (evaluation.isAbandoned()) {
+			_logger.info("Not sending notifications for alert {} because its evaluation was abandoned.", evaluation.alert.getId());
+			return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Abandons an evaluation that did not finish within the evaluation timeout and interrupts its worker. Does nothing if the evaluation has
+	 * already completed. This runs on the single timer thread, so the failure is recorded by the thread waiting for the evaluation instead.
+	 */
+	private void _timeoutAlertEvaluation(AlertEvaluation evaluation) {
+		if (!evaluation.tryComplete()) {
+			return;
+		}
+		// the worker checks for the cancellation before each notification, so a timed out evaluation never notifies
+		if (evaluation.task != null) {
+			evaluation.task.cancel(true);
+		}
+		evaluation.result.completeExceptionally(new TimeoutException());
+	}
+
+	/* Records the job history and counters of an evaluation which timed out. */
+	private void _recordEvaluationTimeout(AlertEvaluation evaluation, List<History> historyList) {
+		Alert alert = evaluation.alert;
+		String logMessage = MessageFormat.format("Failed to evaluate alert : {0} within {1} milliseconds.", alert.getId().intValue(),
+				_evaluationTimeoutMillis);
+
+		_logger.warn(logMessage);
+
+		History history = new History(addDateToMessage(JobStatus.STARTED.getDescription()), SystemConfiguration.getHostname(), alert.getId(), JobStatus.STARTED);
+
+		_appendMessageNUpdateHistory(history, logMessage, JobStatus.FAILURE, _evaluationTimeoutMillis);
+		publishAlertTrackingMetric(Counter.ALERTS_EVALUATED.getMetric(), alert.getId(), -1.0/*failure*/);
+		Map<String, String> tags = new HashMap<>();
+		tags.put(USERTAG, alert.getOwner().getUserName());
+		_monitorService.modifyCounter(Counter.ALERTS_FAILED, 1, tags);
+		_monitorService.modifyCounter(Counter.ALERTS_EVALUATED, 1, tags);
+		try {
+			historyList.add(_historyService.createHistory(alert, history.getMessage(), history.getJobStatus(), history.getExecutionTime()));
+		} catch (RuntimeException ex) {
+			_logger.warn("Failed to record evaluation history for alert : {}", alert.getId(), ex);
+		}
 	}
 
 
 
 	/**
-	 * Evaluates all triggers associated with the notification and updates the job history.
+	 * Evaluates all triggers associated with the notification and updates the job history. Stops without notifying once the evaluation has been
+	 * abandoned.
 	 */
 	private void _processNotification(Alert alert, History history, List<Metric> metrics, 
-			Map<BigInteger, Map<Metric, Long>> triggerFiredTimesAndMetricsByTrigger, Notification notification, Long alertEnqueueTimestamp) {
+			Map<BigInteger, Map<Metric, Long>> triggerFiredTimesAndMetricsByTrigger, Notification notification, Long alertEnqueueTimestamp,
+			AlertEvaluation evaluation) {
 
 		for(Trigger trigger : notification.getTriggers()) {
 			Map<Metric, Long> triggerFiredTimesForMetrics = triggerFiredTimesAndMetricsByTrigger.get(trigger.getId());
 
 			for(Metric m : metrics) {
+				if (_isAbandoned(evaluation)) {
+					return;
+				}
 				if(triggerFiredTimesForMetrics!=null && triggerFiredTimesForMetrics.containsKey(m)) {
 					String logMessage = MessageFormat.format("The trigger {0} was evaluated against metric {1} and it is fired.", trigger.getName(), m.getIdentifier());
 					_appendMessageNUpdateHistory(history, logMessage, null, 0);
@@ -596,10 +865,15 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 	}
 
 	/**
-	 * Evaluates all triggers associated with the missing data notification and updates the job history.
+	 * Evaluates all triggers associated with the missing data notification and updates the job history. Stops without notifying once the
+	 * evaluation has been abandoned.
 	 */
-	private void _processMissingDataNotification(Alert alert, History history, Set<Trigger> triggers, Notification notification, boolean isDataMissing, Long alertEnqueueTimestamp) {
+	private void _processMissingDataNotification(Alert alert, History history, Set<Trigger> triggers, Notification notification, boolean isDataMissing,
+			Long alertEnqueueTimestamp, AlertEvaluation evaluation) {
 		for(Trigger trigger : notification.getTriggers()) {
+			if (_isAbandoned(evaluation)) {
+				return;
+			}
 			if(triggers.contains(trigger)) {
 				Metric m = new Metric("argus","argus");
 				if(isDataMissing) {
@@ -724,15 +998,11 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 	}
 
 	private void _updateNotificationSetActiveStatus(Trigger trigger, Metric metric, History history, Notification notification) {
-		notification.setCooldownExpirationByTriggerAndMetric(trigger, metric, System.currentTimeMillis() + notification.getCooldownPeriod());
-		notification.setActiveForTriggerAndMetric(trigger, metric, true);
-		notification = mergeEntity(_emProvider.get(), notification);
+		_notificationStateStore.setState(notification, trigger, metric, System.currentTimeMillis() + notification.getCooldownPeriod(), true);
 	}
 
 	private void _updateNotificationClearActiveStatus(Trigger trigger, Metric metric, Notification notification) {
-		notification.setCooldownExpirationByTriggerAndMetric(trigger, metric, System.currentTimeMillis());
-		notification.setActiveForTriggerAndMetric(trigger, metric, false);
-		notification = mergeEntity(_emProvider.get(), notification);
+		_notificationStateStore.setState(notification, trigger, metric, System.currentTimeMillis(), false);
 	}
 
 	private void _appendMessageNUpdateHistory(History history, String message, JobStatus jobStatus, long executionTime) {
@@ -768,7 +1038,11 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 		}
 	}
 
-	private void _sendNotificationForMissingData(Alert alert) {
+	private void _sendNotificationForMissingData(Alert alert, AlertEvaluation evaluation) {
+		if (_isAbandoned(evaluation)) {
+			return;
+		}
+
 		Set<String> to = new HashSet<>();
 		to.add(alert.getOwner().getEmail());
 
@@ -805,6 +1079,13 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 
 		List<AlertWithTimestamp> alertsWithTimestamp = new ArrayList<>(alerts.size());
 		for (Alert alert : alerts) {
+			if (_enqueueAlertReferences) {
+				long version = alert.getModifiedDate() == null ? 0L : alert.getModifiedDate().getTime();
+
+				alertsWithTimestamp.add(new AlertWithTimestamp(alert.getId(), version, System.currentTimeMillis()));
+				continue;
+			}
+
 			AlertWithTimestamp obj;
 			try {
 				String serializedAlert = _mapper.writeValueAsString(alert);
@@ -998,8 +1279,34 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 		}
 	}
 
+	/**
+	 * Stops alert evaluation and persists the notification state recorded since the last evaluation cycle. Evaluations that are still running
+	 * are interrupted and given up to ten seconds to stop before the final flush. Any state they record after that, and any
+	 * state the final flush fails to write, is lost. Evaluations that never completed are failed, so that no thread keeps waiting for them.
+	 */
 	@Override
 	public void dispose() {
+		_evaluationTimer.shutdownNow();
+		for (Runnable queued : _evaluationExecutor.shutdownNow()) {
+			if (queued instanceof Future) {
+				((Future<?>) queued).cancel(false);
+			}
+		}
+		try {
+			if (!_evaluationExecutor.awaitTermination(DISPOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+				_logger.warn("Alert evaluations did not stop within {} ms. Notification state they record from now on will not be persisted.",
+						DISPOSE_TIMEOUT_MILLIS);
+			}
+		} catch (InterruptedException ex) {
+			_logger.warn("Interrupted while waiting for alert evaluations to stop.");
+			Thread.currentThread().interrupt();
+		}
+		for (AlertEvaluation evaluation : _pendingEvaluations) {
+			// a queued evaluation never ran and a running one lost its timer, so either could otherwise stay incomplete forever
+			evaluation.tryComplete();
+			evaluation.result.completeExceptionally(new CancellationException("The alert service was disposed."));
+		}
+		_notificationStateStore.flush();
 		super.dispose();
 		_metricService.dispose();
 	}
@@ -1095,9 +1402,86 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 
 	//~ Inner Classes ********************************************************************************************************************************
 
+	/**
+	 * Identifies a scheduled evaluation of an alert by the alert ID and the minute the alert was enqueued in. Enqueues of the same alert in the
+	 * same minute are duplicates of one scheduled evaluation, while enqueues in different minutes are evaluated separately.
+	 *
+	 * @author  a.chambers
+	 */
+	static final class AlertSchedule {
+
+		private static final long MINUTE_MILLIS = 60 * 1000;
+
+		private final BigInteger alertId;
+		private final long scheduledMinute;
+		private final long alertEnqueueTimestamp;
+
+		AlertSchedule(BigInteger alertId, long alertEnqueueTimestamp) {
+			this.alertId = alertId;
+			this.scheduledMinute = alertEnqueueTimestamp / MINUTE_MILLIS * MINUTE_MILLIS;
+			this.alertEnqueueTimestamp = alertEnqueueTimestamp;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * Objects.hashCode(alertId) + Long.hashCode(scheduledMinute);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof AlertSchedule)) {
+				return false;
+			}
+
+			AlertSchedule other = (AlertSchedule) obj;
+
+			return Objects.equals(alertId, other.alertId) && scheduledMinute == other.scheduledMinute;
+		}
+	}
+
+	/**
+	 * Tracks the evaluation of a single alert on the evaluation pool. The evaluation is completed exactly once, either by the worker evaluating the
+	 * alert or by the timer when the evaluation timeout elapses first.
+	 *
+	 * @author  a.chambers
+	 */
+	protected static class AlertEvaluation {
+
+		private final Alert alert;
+		private final Long alertEnqueueTimestamp;
+		private final Map<MetricQuery, List<Metric>> sharedMetrics;
+		private final Map<MetricQuery, List<MetricQuery>> discoveredQueries;
+		private final AtomicBoolean completed = new AtomicBoolean(false);
+		private final CompletableFuture<History> result = new CompletableFuture<>();
+		private volatile Future<?> task;
+
+		AlertEvaluation(Alert alert, Long alertEnqueueTimestamp, Map<MetricQuery, List<Metric>> sharedMetrics,
+				Map<MetricQuery, List<MetricQuery>> discoveredQueries) {
+			this.alert = alert;
+			this.alertEnqueueTimestamp = alertEnqueueTimestamp;
+			this.sharedMetrics = sharedMetrics;
+			this.discoveredQueries = discoveredQueries;
+		}
+
+		/* Claims the right to record the outcome of this evaluation. */
+		boolean tryComplete() {
+			return completed.compareAndSet(false, true);
+		}
+
+		/* The worker only claims the outcome after its last notification, so an outcome claimed earlier means the timer abandoned it. */
+		boolean isAbandoned() {
+			return completed.get() || (task != null && task.isCancelled()) || Thread.currentThread().isInterrupted();
+		}
+	}
+
 	/**
 	 * Used to enqueue alerts to evaluate.  The timestamp is used to reconcile lag between enqueue time 
 	 * and evaluation time by adjusting relative times in the alert metric expression being evaluated.
+	 * An alert is either carried serialized, or as a reference made of its id and version which the
+	 * alert client resolves from its local definition cache.
 	 *
 	 * @author  Bhinav Sura (bhinav.sura@salesforce.com)
 	 */
@@ -1107,6 +1491,8 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 		private static final long serialVersionUID = 1L;
 		protected String serializedAlert;
 		protected long alertEnqueueTime;
+		protected String alertId;
+		protected long alertVersion;
 
 		/** Creates a new AlertIdWithTimestamp object. */
 		public AlertWithTimestamp() { }
@@ -1122,6 +1508,19 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 			this.alertEnqueueTime = timestamp;
 		}
 
+		/**
+		 * Creates a new AlertWithTimestamp object that references an alert.
+		 *
+		 * @param  alertId       The alert id.
+		 * @param  alertVersion  The modified date of the alert definition that was scheduled.
+		 * @param  timestamp     The epoch timestamp the alert was enqueued for evaluation.
+		 */
+		public AlertWithTimestamp(BigInteger alertId, long alertVersion, long timestamp) {
+			this.alertId = alertId.toString();
+			this.alertVersion = alertVersion;
+			this.alertEnqueueTime = timestamp;
+		}
+
 		public String getSerializedAlert() {
 			return serializedAlert;
 		}
@@ -1138,6 +1537,25 @@ public class DefaultAlertService extends DefaultJPAService implements AlertServi
 			this.alertEnqueueTime = alertEnqueueTime;
 		}
 
+		// omitted unless set, so that serialized alerts stay readable by clients that do not know about references
+		@JsonInclude(JsonInclude.Include.NON_NULL)
+		public String getAlertId() {
+			return alertId;
+		}
+
+		public void setAlertId(String alertId) {
+			this.alertId = alertId;
+		}
+
+		@JsonInclude(JsonInclude.Include.NON_DEFAULT)
+		public long getAlertVersion() {
+			return alertVersion;
+		}
+
+		public void setAlertVersion(long alertVersion) {
+			this.alertVersion = alertVersion;
+		}
+
 	}
 
 
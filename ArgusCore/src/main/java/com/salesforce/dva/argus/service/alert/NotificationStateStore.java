@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2018, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.dva.argus.service.alert;
+
+
+import java.util.List;
+
+import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.entity.Notification;
+import com.salesforce.dva.argus.entity.Trigger;
+
+/**
+ * Holds the cool down expiration times and active statuses of notifications for each trigger,metric combination. Changes are recorded as
+ * alerts are evaluated and are only guaranteed to be persisted once they have been flushed.
+ *
+ * @author  a.chambers
+ */
+interface NotificationStateStore {
+
+	/**
+	 * Sets the cool down expiration time and active status of a notification for a trigger,metric combination. The notification itself is updated
+	 * immediately. This method may be called concurrently.
+	 *
+	 * @param  notification        The notification. Cannot be null.
+	 * @param  trigger             The trigger. Cannot be null.
+	 * @param  metric              The metric. Cannot be null.
+	 * @param  cooldownExpiration  The cool down expiration time in milliseconds.
+	 * @param  active              Whether the notification is active.
+	 */
+	void setState(Notification notification, Trigger trigger, Metric metric, long cooldownExpiration, boolean active);
+
+	/**
+	 * Applies the changes that have not been flushed yet to notifications whose state was just read from the database.
+	 *
+	 * @param  notifications  The notifications. Cannot be null.
+	 */
+	void applyPendingState(List<Notification> notifications);
+
+	/**
+	 * Persists the changes recorded so far.
+	 *
+	 * @return  The number of changes persisted.
+	 */
+	int flush();
+}
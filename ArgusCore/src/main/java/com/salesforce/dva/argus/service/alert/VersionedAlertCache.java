@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2018, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.dva.argus.service.alert;
+
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.salesforce.dva.argus.entity.Alert;
+
+/**
+ * A local cache of alert definitions for alerts enqueued as references. Each definition is kept as the JSON tree of the enqueued form of the
+ * alert, along with its version, which is the modified date of the alert. A reference names the version the scheduler saw. The cached
+ * definition is used if it is at least that version, and otherwise is reloaded. Every lookup binds a new alert from the tree, because the
+ * evaluation of an alert modifies it.
+ *
+ * @author  a.chambers
+ */
+final class VersionedAlertCache {
+
+	//~ Static fields/initializers *******************************************************************************************************************
+
+	private static final Logger _logger = LoggerFactory.getLogger(VersionedAlertCache.class);
+
+	//~ Instance fields ******************************************************************************************************************************
+
+	private final Cache<BigInteger, VersionedDefinition> _definitions;
+	private final ObjectMapper _mapper;
+	private final Function<List<BigInteger>, List<Alert>> _loader;
+
+	//~ Constructors *********************************************************************************************************************************
+
+	/**
+	 * Creates a new VersionedAlertCache object.
+	 *
+	 * @param  maximumSize  The maximum number of cached definitions.
+	 * @param  mapper       The mapper used to enqueue alerts. Cannot be null.
+	 * @param  loader       Loads the current definitions of alerts by id. Deleted alerts are omitted. Cannot be null.
+	 */
+	VersionedAlertCache(long maximumSize, ObjectMapper mapper, Function<List<BigInteger>, List<Alert>> loader) {
+		_definitions = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+		_mapper = mapper;
+		_loader = loader;
+	}
+
+	//~ Methods **************************************************************************************************************************************
+
+	/**
+	 * Loads the definitions that are missing or older than the required versions with a single call to the loader.
+	 *
+	 * @param   requiredVersions  The minimum version required for each alert id. A version of 0 always reloads the definition.
+	 *
+	 * @return  The number of definitions that had to be loaded.
+	 */
+	int load(Map<BigInteger, Long> requiredVersions) {
+		List<BigInteger> stale = new ArrayList<>();
+
+		for (Map.Entry<BigInteger, Long> entry : requiredVersions.entrySet()) {
+			VersionedDefinition definition = _definitions.getIfPresent(entry.getKey());
+
+			if (definition == null || entry.getValue() == 0L || definition._version < entry.getValue()) {
+				stale.add(entry.getKey());
+			}
+		}
+		if (stale.isEmpty()) {
+			return 0;
+		}
+		for (BigInteger id : stale) {
+			_definitions.invalidate(id);
+		}
+		for (Alert alert : _loader.apply(stale)) {
+			try {
+				long version = alert.getModifiedDate() == null ? 0L : alert.getModifiedDate().getTime();
+
+				_definitions.put(alert.getId(), new VersionedDefinition(version, _mapper.valueToTree(alert)));
+			} catch (IllegalArgumentException ex) {
+				_logger.warn("Failed to cache the definition of alert {}.", alert.getId(), ex);
+			}
+		}
+		return stale.size();
+	}
+
+	/**
+	 * Returns a new alert bound from the cached definition.
+	 *
+	 * @param   id  The alert id.
+	 *
+	 * @return  The alert, or null if there is no cached definition, for example because the alert has been deleted.
+	 */
+	Alert newInstance(BigInteger id) {
+		VersionedDefinition definition = _definitions.getIfPresent(id);
+
+		if (definition == null) {
+			return null;
+		}
+		try {
+			return _mapper.treeToValue(definition._tree, Alert.class);
+		} catch (JsonProcessingException ex) {
+			_logger.warn("Failed to bind the cached definition of alert {}.", id, ex);
+			return null;
+		}
+	}
+
+	//~ Inner Classes ********************************************************************************************************************************
+
+	private static final class VersionedDefinition {
+
+		private final long _version;
+		private final JsonNode _tree;
+
+		VersionedDefinition(long version, JsonNode tree) {
+			_version = version;
+			_tree = tree;
+		}
+	}
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2018, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.dva.argus.service.alert;
+
+
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Provider;
+import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.entity.Notification;
+import com.salesforce.dva.argus.entity.Trigger;
+import com.salesforce.dva.argus.service.MonitorService;
+import com.salesforce.dva.argus.service.MonitorService.Counter;
+
+import static com.salesforce.dva.argus.system.SystemAssert.requireArgument;
+
+/**
+ * A notification state store that keeps changes in memory and writes them to the notification state tables in bulk. Changes to the same
+ * trigger,metric combination of a notification are coalesced, so only the latest one is written.
+ *
+ * <p>A flush takes the pending changes, then writes them in a single transaction, deleting the existing rows and inserting the new ones in
+ * batches ordered by notification and key. Flushes never overlap, so a change is never overwritten by an older one. If a flush fails, its
+ * changes are put back unless a newer change was recorded in the meantime, and are retried by the next flush. A change that fails repeatedly is
+ * dropped.</p>
+ *
+ * <p>The alert service flushes at the end of every evaluation cycle and once more when it is disposed. Changes that have not been flushed live
+ * only in memory, so at most one evaluation cycle's worth of changes is lost if the process exits without disposing the alert service.</p>
+ *
+ * @author  a.chambers
+ */
+final class WriteBehindNotificationStateStore implements NotificationStateStore {
+
+	//~ Static fields/initializers *******************************************************************************************************************
+
+	static final int MAX_FLUSH_ATTEMPTS = 3;
+	private static final Logger _logger = LoggerFactory.getLogger(WriteBehindNotificationStateStore.class);
+	private static final String DELETE_COOLDOWN = "delete from notification_cooldownexpirationbytriggerandmetric "
+			+ "where notification_id = ? and cooldownexpirationbytriggerandmetric_key = ?";
+	private static final String INSERT_COOLDOWN = "insert into notification_cooldownexpirationbytriggerandmetric "
+			+ "(notification_id, cooldownexpirationbytriggerandmetric, cooldownexpirationbytriggerandmetric_key) values (?, ?, ?)";
+	private static final String DELETE_ACTIVE = "delete from notification_activestatusbytriggerandmetric "
+			+ "where notification_id = ? and activestatusbytriggerandmetric_key = ?";
+	private static final String INSERT_ACTIVE = "insert into notification_activestatusbytriggerandmetric "
+			+ "(notification_id, activestatusbytriggerandmetric, activestatusbytriggerandmetric_key) values (?, ?, ?)";
+
+	//~ Instance fields ******************************************************************************************************************************
+
+	private final Provider<EntityManager> _emProvider;
+	private final MonitorService _monitorService;
+	private final Map<StateKey, State> _pending = new ConcurrentHashMap<>();
+	private final Object _flushLock = new Object();
+
+	//~ Constructors *********************************************************************************************************************************
+
+	/**
+	 * Creates a new WriteBehindNotificationStateStore object.
+	 *
+	 * @param  emProvider      The entity manager provider to use. Cannot be null.
+	 * @param  monitorService  The monitor service to report flush metrics to. Cannot be null.
+	 */
+	WriteBehindNotificationStateStore(Provider<EntityManager> emProvider, MonitorService monitorService) {
+		requireArgument(emProvider != null, "Entity manager provider cannot be null.");
+		requireArgument(monitorService != null, "Monitor service cannot be null.");
+		_emProvider = emProvider;
+		_monitorService = monitorService;
+	}
+
+	//~ Methods **************************************************************************************************************************************
+
+	@Override
+	public void setState(Notification notification, Trigger trigger, Metric metric, long cooldownExpiration, boolean active) {
+		requireArgument(notification != null, "Notification cannot be null.");
+		notification.setCooldownExpirationByTriggerAndMetric(trigger, metric, cooldownExpiration);
+		notification.setActiveForTriggerAndMetric(trigger, metric, active);
+		if(notification.getId() != null) {
+			StateKey key = new StateKey(notification.getId(), notification.getTriggerAndMetricKey(trigger, metric));
+
+			_pending.put(key, new State(cooldownExpiration, active, 0));
+		}
+	}
+
+	@Override
+	public void applyPendingState(List<Notification> notifications) {
+		requireArgument(notifications != null, "Notifications cannot be null.");
+		if(_pending.isEmpty()) {
+			return;
+		}
+
+		Map<BigInteger, List<Notification>> notificationsById = new HashMap<>(notifications.size());
+
+		for(Notification notification : notifications) {
+			notificationsById.computeIfAbsent(notification.getId(), id -> new ArrayList<>(1)).add(notification);
+		}
+		for(Map.Entry<StateKey, State> entry : _pending.entrySet()) {
+			for(Notification notification : notificationsById.getOrDefault(entry.getKey().notificationId, Collections.emptyList())) {
+				notification.getCooldownExpirationMap().put(entry.getKey().key, entry.getValue().cooldownExpiration);
+				notification.getActiveStatusMap().put(entry.getKey().key, entry.getValue().active);
+			}
+		}
+	}
+
+	@Override
+	public int flush() {
+		synchronized(_flushLock) {
+			List<StateKey> keys = new ArrayList<>(_pending.keySet());
+
+			if(keys.isEmpty()) {
+				return 0;
+			}
+			Collections.sort(keys);
+
+			List<StateKey> flushedKeys = new ArrayList<>(keys.size());
+			List<State> flushedStates = new ArrayList<>(keys.size());
+
+			for(StateKey key : keys) {
+				State state = _pending.remove(key);
+
+				if(state != null) {
+					flushedKeys.add(key);
+					flushedStates.add(state);
+				}
+			}
+
+			long start = System.currentTimeMillis();
+
+			try {
+				_write(flushedKeys, flushedStates);
+			} catch (RuntimeException | SQLException ex) {
+				_logger.warn("Failed to flush the state of {} notification trigger,metric combinations.", flushedKeys.size(), ex);
+				_requeue(flushedKeys, flushedStates);
+				return 0;
+			}
+			_monitorService.modifyCounter(Counter.NOTIFICATION_STATE_FLUSH_LATENCY, System.currentTimeMillis() - start, null);
+			_monitorService.updateCounter(Counter.NOTIFICATION_STATE_FLUSH_SIZE, flushedKeys.size(), null);
+			return flushedKeys.size();
+		}
+	}
+
+	/**
+	 * Returns the number of changes that have not been flushed.
+	 *
+	 * @return  The number of pending changes.
+	 */
+	int size() {
+		return _pending.size();
+	}
+
+	/*
+	 * Writes the changes in one transaction. If the calling thread is already in a transaction, the changes join it behind a savepoint, so that a
+	 * failed flush does not abort the rest of the work of the transaction.
+	 */
+	private void _write(List<StateKey> keys, List<State> states) throws SQLException {
+		EntityManager em = _emProvider.get();
+		EntityTransaction tx = em.getTransaction();
+		boolean ownTransaction = !tx.isActive();
+
+		if(ownTransaction) {
+			tx.begin();
+		}
+
+		Connection connection = em.unwrap(Connection.class);
+		Savepoint savepoint = ownTransaction ? null : connection.setSavepoint();
+
+		try {
+			try(PreparedStatement deleteCooldown = connection.prepareStatement(DELETE_COOLDOWN);
+					PreparedStatement deleteActive = connection.prepareStatement(DELETE_ACTIVE)) {
+				for(StateKey key : keys) {
+					_bindKey(deleteCooldown, key, 2);
+					deleteCooldown.addBatch();
+					_bindKey(deleteActive, key, 2);
+					deleteActive.addBatch();
+				}
+				deleteCooldown.executeBatch();
+				deleteActive.executeBatch();
+			}
+			try(PreparedStatement insertCooldown = connection.prepareStatement(INSERT_COOLDOWN);
+					PreparedStatement insertActive = connection.prepareStatement(INSERT_ACTIVE)) {
+				for(int i = 0; i < keys.size(); i++) {
+					_bindKey(insertCooldown, keys.get(i), 3);
+					insertCooldown.setLong(2, states.get(i).cooldownExpiration);
+					insertCooldown.addBatch();
+					_bindKey(insertActive, keys.get(i), 3);
+					insertActive.setBoolean(2, states.get(i).active);
+					insertActive.addBatch();
+				}
+				insertCooldown.executeBatch();
+				insertActive.executeBatch();
+			}
+		} catch (RuntimeException | SQLException ex) {
+			if(ownTransaction) {
+				tx.rollback();
+			} else {
+				connection.rollback(savepoint);
+			}
+			throw ex;
+		}
+		if(ownTransaction) {
+			tx.commit();
+		} else {
+			connection.releaseSavepoint(savepoint);
+		}
+	}
+
+	private void _bindKey(PreparedStatement statement, StateKey key, int keyIndex) throws SQLException {
+		statement.setLong(1, key.notificationId.longValue());
+		statement.setString(keyIndex, key.key);
+	}
+
+	/* Puts back the changes of a failed flush. A change recorded since the flush started is newer and is kept instead. */
+	private void _requeue(List<StateKey> keys, List<State> states) {
+		for(int i = 0; i < keys.size(); i++) {
+			State state = states.get(i);
+
+			if(state.attempts + 1 >= MAX_FLUSH_ATTEMPTS) {
+				_logger.error("Dropping the state of notification {} for {} after {} failed flushes.", keys.get(i).notificationId, keys.get(i).key,
+						MAX_FLUSH_ATTEMPTS);
+				continue;
+			}
+			_pending.putIfAbsent(keys.get(i), new State(state.cooldownExpiration, state.active, state.attempts + 1));
+		}
+	}
+
+	//~ Inner Classes ********************************************************************************************************************************
+
+	/** Identifies the state of a notification for a trigger,metric combination. */
+	private static final class StateKey implements Comparable<StateKey> {
+
+		private final BigInteger notificationId;
+		private final String key;
+
+		StateKey(BigInteger notificationId, String key) {
+			this.notificationId = notificationId;
+			this.key = key;
+		}
+
+		@Override
+		public int compareTo(StateKey other) {
+			int result = notificationId.compareTo(other.notificationId);
+
+			return result != 0 ? result : key.compareTo(other.key);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj) {
+				return true;
+			}
+			if(!(obj instanceof StateKey)) {
+				return false;
+			}
+
+			StateKey other = (StateKey) obj;
+
+			return notificationId.equals(other.notificationId) && key.equals(other.key);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * notificationId.hashCode() + key.hashCode();
+		}
+	}
+
+	/** A pending change, along with the number of flushes that failed to write it. */
+	private static final class State {
+
+		private final long cooldownExpiration;
+		private final boolean active;
+		private final int attempts;
+
+		State(long cooldownExpiration, boolean active, int attempts) {
+			this.cooldownExpiration = cooldownExpiration;
+			this.active = active;
+			this.attempts = attempts;
+		}
+	}
+}
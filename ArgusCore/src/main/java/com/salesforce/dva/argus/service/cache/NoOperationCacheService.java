@@ -130,6 +130,11 @@ public class NoOperationCacheService extends DefaultService implements CacheServ
         // This is a no operation service. This method should do nothing and result in a cache miss.
     }
 
+    @Override
+    public <V> void replaceLists(Map<String, List<V>> entries, int ttl) {
+        // This is a no operation service. This method should do nothing and result in a cache miss.
+    }
+
     @Override
     public <V> Map<String, V> getRange(Set<String> keys, int startOffset, int endOffset) {
         return null;
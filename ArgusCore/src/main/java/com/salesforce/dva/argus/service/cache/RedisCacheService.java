@@ -268,6 +268,27 @@ public class RedisCacheService extends DefaultService implements CacheService {
 		}
 	}
 
+	/*
+	 * Each list is written with a single variadic RPUSH, so a key costs three commands whatever its number of values. The cluster client cannot
+	 * pipeline commands for keys which may live on different nodes.
+	 */
+	@Override
+	public <V> void replaceLists(Map<String, List<V>> entries, int ttl) {
+		for (Map.Entry<String, List<V>> entry : entries.entrySet()) {
+			try {
+				String[] values = entry.getValue().toArray(new String[entry.getValue().size()]);
+
+				_jedisClusterClient.del(entry.getKey());
+				if (values.length > 0) {
+					_jedisClusterClient.rpush(entry.getKey(), values);
+					_jedisClusterClient.expire(entry.getKey(), ttl);
+				}
+			} catch (Exception ex) {
+				_logger.error("Exception in cache service: {} ", ex.getMessage());
+			}
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public <V> Map<String, V> getRange(Set<String> keys, int startOffset, int endOffset) {
@@ -31,8 +31,6 @@
 	 
 package com.salesforce.dva.argus.service.collect;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.type.CollectionType;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.salesforce.dva.argus.entity.Annotation;
@@ -42,6 +40,7 @@ import com.salesforce.dva.argus.inject.SLF4JTypeListener.InjectLogger;
 import com.salesforce.dva.argus.service.AuditService;
 import com.salesforce.dva.argus.service.CollectionService;
 import com.salesforce.dva.argus.service.MQService;
+import com.salesforce.dva.argus.service.MQService.DequeuedBatch;
 import com.salesforce.dva.argus.service.MonitorService;
 import com.salesforce.dva.argus.service.MonitorService.Counter;
 import com.salesforce.dva.argus.service.NamespaceService;
@@ -53,6 +52,8 @@ import com.salesforce.dva.argus.service.WardenService.SubSystem;
 import com.salesforce.dva.argus.service.jpa.DefaultJPAService;
 import com.salesforce.dva.argus.system.SystemConfiguration;
 import org.slf4j.Logger;
+import java.io.IOException;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -89,6 +90,7 @@ public class DefaultCollectionService extends DefaultJPAService implements Colle
     private final WardenService _wardenService;
     private final MonitorService _monitorService;
     private final NamespaceService _namespaceService;
+    private final MetricBatchCodec _metricCodec;
 
     //~ Constructors *********************************************************************************************************************************
 
@@ -117,6 +119,8 @@ public class DefaultCollectionService extends DefaultJPAService implements Colle
         _wardenService = wardenService;
         _monitorService = monitorService;
         _namespaceService = namespaceService;
+        _metricCodec = new MetricBatchCodec(MetricBatchCodec.WireFormat.fromString(
+            configuration.getValue(SystemConfiguration.Property.METRIC_WIRE_FORMAT)));
     }
 
     //~ Methods **************************************************************************************************************************************
@@ -151,8 +155,12 @@ public class DefaultCollectionService extends DefaultJPAService implements Colle
         }
 
         List<ArrayList<Metric>> batches = _batchMetrics(metrics);
+        List<String> messages = new ArrayList<>(batches.size());
 
-        _mqService.enqueue(METRIC.getQueueName(), batches);
+        for (ArrayList<Metric> batch : batches) {
+            messages.add(_metricCodec.encode(batch));
+        }
+        _enqueue(METRIC.getQueueName(), messages);
     }
 
     @Override
@@ -167,7 +175,25 @@ public class DefaultCollectionService extends DefaultJPAService implements Colle
         requireArgument(annotations != null, "The list of annotaions to submit cannot be null.");
         checkSubmitAnnotationPolicyRequirementsMet(submitter, annotations);
         _monitorService.modifyCounter(Counter.ANNOTATION_WRITES, annotations.size(), null);
-        _mqService.enqueue(ANNOTATION.getQueueName(), annotations);
+        _enqueue(ANNOTATION.getQueueName(), annotations);
+    }
+
+    /* Hands the messages to the queue without waiting for delivery, recording the batch size and acknowledgement latency once the queue replies. */
+    private <T extends Serializable> void _enqueue(String queueName, List<T> messages) {
+        final long start = System.currentTimeMillis();
+        final int size = messages.size();
+
+        _mqService.enqueueAsync(queueName, messages).whenComplete((acknowledged, ex) -> {
+            _monitorService.modifyCounter(Counter.MQ_ENQUEUE_BATCHES, 1, null);
+            _monitorService.modifyCounter(Counter.MQ_ENQUEUE_MESSAGES, size, null);
+            _monitorService.modifyCounter(Counter.MQ_ENQUEUE_LATENCY, System.currentTimeMillis() - start, null);
+            if (acknowledged != null) {
+                _monitorService.modifyCounter(Counter.MQ_ENQUEUE_MESSAGES_ACKNOWLEDGED, acknowledged, null);
+                if (acknowledged < size) {
+                    _logger.warn("Only {} of {} messages were acknowledged by the {} queue.", acknowledged, size, queueName);
+                }
+            }
+        });
     }
 
     @Override
@@ -176,17 +202,20 @@ public class DefaultCollectionService extends DefaultJPAService implements Colle
         requireArgument(messageCount > 0, "Message count must be greater than zero.");
         requireArgument(timeout > 0, "The timeout in milliseconds must be greater than zero.");
 
-        CollectionType type = new ObjectMapper().getTypeFactory().constructCollectionType(ArrayList.class, Metric.class);
-        List<ArrayList<Metric>> dequeuedMessages = _mqService.dequeue(METRIC.getQueueName(), type, timeout, messageCount);
-        List<Metric> dequeued = new ArrayList<Metric>();
+        DequeuedBatch<String> batch = _mqService.dequeueBatch(METRIC.getQueueName(), String.class, timeout, messageCount);
+        List<Metric> dequeued = _decodeMetrics(batch.getMessages());
 
-        for (List<Metric> list : dequeuedMessages) {
-            dequeued.addAll(list);
-        }
-        if (!dequeued.isEmpty()) {
-            _tsdbService.putMetrics(dequeued);
-            _logger.debug("Committed {} metrics.", dequeued.size());
+        try {
+            if (!dequeued.isEmpty()) {
+                _tsdbService.putMetrics(dequeued);
+                _logger.debug("Committed {} metrics.", dequeued.size());
+            }
+            batch.commit();
+        } catch (RuntimeException ex) {
+            batch.abort();
+            throw ex;
         }
+        _updateConsumerLag(METRIC.getQueueName());
         return dequeued;
     }
 
@@ -196,18 +225,45 @@ public class DefaultCollectionService extends DefaultJPAService implements Colle
         requireArgument(messageCount > 0, "Message count must be greater than zero.");
         requireArgument(timeout > 0, "The timeout in milliseconds must be greater than zero.");
 
-        CollectionType type = new ObjectMapper().getTypeFactory().constructCollectionType(ArrayList.class, Metric.class);
-        List<ArrayList<Metric>> dequeuedMessages = _mqService.dequeue(METRIC.getQueueName(), type, timeout, messageCount);
+        DequeuedBatch<String> batch = _mqService.dequeueBatch(METRIC.getQueueName(), String.class, timeout, messageCount);
+        List<Metric> dequeued = _decodeMetrics(batch.getMessages());
+
+        try {
+            if (!dequeued.isEmpty()) {
+                _schemaService.put(dequeued);
+                _logger.debug("Committed {} metrics for schema records creation.", dequeued.size());
+            }
+            batch.commit();
+        } catch (RuntimeException ex) {
+            batch.abort();
+            throw ex;
+        }
+        _updateConsumerLag(METRIC.getQueueName());
+        return dequeued.size();
+    }
+
+    /* Dequeued batches may be in either wire format, so that producers can switch formats while consumers are running. */
+    private List<Metric> _decodeMetrics(List<String> dequeuedMessages) {
         List<Metric> dequeued = new ArrayList<Metric>();
 
-        for (List<Metric> list : dequeuedMessages) {
-            dequeued.addAll(list);
+        for (String message : dequeuedMessages) {
+            try {
+                dequeued.addAll(_metricCodec.decode(message));
+            } catch (IOException ex) {
+                _logger.warn("Exception while decoding metric batch. Skipping this message.", ex);
+            }
         }
-        if (!dequeued.isEmpty()) {
-            _schemaService.put(dequeued);
-            _logger.debug("Committed {} metrics for schema records creation.", dequeued.size());
+        return dequeued;
+    }
+
+    private void _updateConsumerLag(String queueName) {
+        for (Entry<Integer, Long> entry : _mqService.getPartitionLag(queueName).entrySet()) {
+            Map<String, String> tags = new HashMap<>();
+
+            tags.put("queue", queueName);
+            tags.put("partition", String.valueOf(entry.getKey()));
+            _monitorService.updateCounter(Counter.MQ_CONSUMER_LAG, entry.getValue(), tags);
         }
-        return dequeued.size();
     }
 
     @Override
@@ -0,0 +1,579 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+	 
+
+package com.salesforce.dva.argus.service.collect;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.salesforce.dva.argus.entity.DatapointSeries;
+import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.entity.TSDBEntity;
+import com.salesforce.dva.argus.system.SystemException;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes and decodes the metric batches exchanged over the metric queue. Two wire formats are supported:
+ *
+ * <ul>
+ *   <li><tt>JSON</tt> - the Jackson representation of the batch, which always starts with <tt>[</tt>.</li>
+ *   <li><tt>BINARY</tt> - a Base64 encoded byte array whose first byte is the format version. Scope, metric, uid, tag, namespace, display name
+ *     and unit strings are written once into a dictionary and referenced by index. Timestamps are written as zig-zag variable length
+ *     delta-of-deltas and values as raw doubles, with longs, integers, big integers and big decimals kept exact.</li>
+ * </ul>
+ *
+ * <p>A batch the binary format cannot represent exactly, i.e. one containing a metric that carries a query or a value of any other number type,
+ * is encoded as JSON even when the codec is configured for the binary format.</p>
+ *
+ * <p>Decoding accepts both formats regardless of how the codec is configured to encode, so consumers can be upgraded before producers are switched
+ * to the binary format. Instances are thread safe.</p>
+ *
+ * @author  a.chambers
+ */
+public final class MetricBatchCodec {
+
+    //~ Static fields/initializers *******************************************************************************************************************
+
+    /** The version byte of the current binary format. */
+    static final byte BINARY_VERSION = 2;
+
+    /* The first binary format, which did not carry the uid. */
+    private static final byte BINARY_VERSION_WITHOUT_UID = 1;
+    private static final byte SERIES_DOUBLES = 0;
+    private static final byte SERIES_MIXED = 1;
+    private static final byte VALUE_DOUBLE = 0;
+    private static final byte VALUE_LONG = 1;
+    private static final byte VALUE_INT = 2;
+    private static final byte VALUE_NULL = 3;
+    private static final byte VALUE_BIG_INTEGER = 4;
+    private static final byte VALUE_BIG_DECIMAL = 5;
+
+    /* The uid has no public setter, so it is set the same way the TSDB deserializer sets it. */
+    private static final Field UID_FIELD;
+
+    static {
+        try {
+            UID_FIELD = TSDBEntity.class.getDeclaredField("_uid");
+            UID_FIELD.setAccessible(true);
+        } catch (NoSuchFieldException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    //~ Instance fields ******************************************************************************************************************************
+
+    private final WireFormat _format;
+    private final ObjectReader _reader;
+    private final ObjectWriter _writer;
+
+    //~ Constructors *********************************************************************************************************************************
+
+    /**
+     * Creates a new MetricBatchCodec object.
+     *
+     * @param  format  The format in which batches are encoded. Cannot be null.
+     */
+    public MetricBatchCodec(WireFormat format) {
+        if (format == null) {
+            throw new IllegalArgumentException("Wire format cannot be null.");
+        }
+
+        ObjectMapper mapper = new ObjectMapper();
+
+        _format = format;
+        _reader = mapper.readerFor(mapper.getTypeFactory().constructCollectionType(ArrayList.class, Metric.class));
+        _writer = mapper.writer();
+    }
+
+    //~ Methods **************************************************************************************************************************************
+
+    /**
+     * Returns the format in which batches are encoded.
+     *
+     * @return  The wire format.
+     */
+    public WireFormat getFormat() {
+        return _format;
+    }
+
+    /**
+     * Encodes a batch of metrics in the configured wire format. A batch the binary format cannot represent exactly is encoded as JSON.
+     *
+     * @param   metrics  The metrics to encode. Cannot be null.
+     *
+     * @return  The encoded message.
+     */
+    public String encode(List<Metric> metrics) {
+        if (_format == WireFormat.JSON || !isBinaryExact(metrics)) {
+            try {
+                return _writer.writeValueAsString(metrics);
+            } catch (IOException ex) {
+                throw new SystemException("Failed to encode metric batch.", ex);
+            }
+        }
+        return Base64.getEncoder().encodeToString(encodeBinary(metrics));
+    }
+
+    /**
+     * Decodes a batch of metrics from either wire format.
+     *
+     * @param   message  The encoded message. Cannot be null.
+     *
+     * @return  The decoded metrics.
+     *
+     * @throws  IOException  If the message is malformed or was written in an unsupported binary version.
+     */
+    public ArrayList<Metric> decode(String message) throws IOException {
+        if (message.startsWith("[")) {
+            return _reader.readValue(message);
+        }
+        try {
+            return decodeBinary(Base64.getDecoder().decode(message));
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Metric batch is neither JSON nor Base64 encoded.", ex);
+        }
+    }
+
+    /**
+     * Indicates whether the binary format represents a batch of metrics exactly. Queries are not carried by the binary format, and of the number
+     * types only <tt>Double</tt>, <tt>Long</tt>, <tt>Integer</tt>, <tt>BigInteger</tt> and <tt>BigDecimal</tt> values are.
+     *
+     * @param   metrics  The metrics to check. Cannot be null.
+     *
+     * @return  True if the batch can be encoded in the binary format without loss.
+     */
+    static boolean isBinaryExact(List<Metric> metrics) {
+        for (Metric metric : metrics) {
+            if (metric.getQuery() != null) {
+                return false;
+            }
+
+            DatapointSeries series = metric.getDatapointSeries();
+
+            if (series.hasOnlyPrimitiveValues()) {
+                continue;
+            }
+            for (int i = 0; i < series.size(); i++) {
+                Number value = series.getNumber(i);
+
+                if (value != null && !(value instanceof Double || value instanceof Long || value instanceof Integer || value instanceof BigInteger
+                        || value instanceof BigDecimal)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Encodes a batch of metrics in the binary format, without the Base64 wrapping used on the queue.
+     *
+     * @param   metrics  The metrics to encode. Cannot be null. Must be {@link #isBinaryExact(List) exactly representable}.
+     *
+     * @return  The encoded bytes, starting with the format version.
+     */
+    static byte[] encodeBinary(List<Metric> metrics) {
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        Output body = new Output(metrics.size() * 64);
+
+        body.writeVarLong(metrics.size());
+        for (Metric metric : metrics) {
+            body.writeVarLong(_reference(metric.getScope(), dictionary, strings));
+            body.writeVarLong(_reference(metric.getMetric(), dictionary, strings));
+            body.writeVarLong(_reference(metric.getUid(), dictionary, strings));
+            body.writeVarLong(_reference(metric.getNamespace(), dictionary, strings));
+            body.writeVarLong(_reference(metric.getDisplayName(), dictionary, strings));
+            body.writeVarLong(_reference(metric.getUnits(), dictionary, strings));
+
+            Map<String, String> tags = metric.getTags();
+
+            body.writeVarLong(tags.size());
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+                body.writeVarLong(_reference(tag.getKey(), dictionary, strings));
+                body.writeVarLong(_reference(tag.getValue(), dictionary, strings));
+            }
+            _writeSeries(body, metric.getDatapointSeries());
+        }
+
+        Output result = new Output(body.size + strings.size() * 16 + 8);
+
+        result.writeByte(BINARY_VERSION);
+        result.writeVarLong(strings.size());
+        for (String string : strings) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+
+            result.writeVarLong(bytes.length);
+            result.writeBytes(bytes, bytes.length);
+        }
+        result.writeBytes(body.buffer, body.size);
+        return Arrays.copyOf(result.buffer, result.size);
+    }
+
+    /**
+     * Decodes a batch of metrics from the binary format.
+     *
+     * @param   bytes  The encoded bytes, starting with the format version. Cannot be null.
+     *
+     * @return  The decoded metrics.
+     *
+     * @throws  IOException  If the bytes are malformed or were written in an unsupported version.
+     */
+    static ArrayList<Metric> decodeBinary(byte[] bytes) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+
+        try {
+            byte version = in.get();
+
+            if (version != BINARY_VERSION && version != BINARY_VERSION_WITHOUT_UID) {
+                throw new IOException("Unsupported metric batch version " + version + ".");
+            }
+
+            String[] strings = new String[_readCount(in)];
+
+            for (int i = 0; i < strings.length; i++) {
+                int length = _readCount(in);
+
+                strings[i] = new String(bytes, in.position(), length, StandardCharsets.UTF_8);
+                in.position(in.position() + length);
+            }
+
+            int count = _readCount(in);
+            ArrayList<Metric> metrics = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                String scope = _dereference(in, strings);
+                String name = _dereference(in, strings);
+                String uid = version == BINARY_VERSION_WITHOUT_UID ? null : _dereference(in, strings);
+                Metric metric = new Metric(scope, name);
+
+                if (uid != null) {
+                    _setUid(metric, uid);
+                }
+
+                metric.setNamespace(_dereference(in, strings));
+                metric.setDisplayName(_dereference(in, strings));
+                metric.setUnits(_dereference(in, strings));
+
+                int tagCount = _readCount(in);
+
+                if (tagCount > 0) {
+                    Map<String, String> tags = new HashMap<>(tagCount * 2);
+
+                    for (int j = 0; j < tagCount; j++) {
+                        tags.put(_dereference(in, strings), _dereference(in, strings));
+                    }
+                    metric.setTags(tags);
+                }
+                metric.setDatapointSeries(_readSeries(in));
+                metrics.add(metric);
+            }
+            return metrics;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException ex) {
+            throw new IOException("Malformed metric batch.", ex);
+        }
+    }
+
+    private static void _setUid(Metric metric, String uid) throws IOException {
+        try {
+            UID_FIELD.set(metric, uid);
+        } catch (IllegalAccessException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /* String references are offset by one so that zero can stand for null. */
+    private static int _reference(String value, Map<String, Integer> dictionary, List<String> strings) {
+        if (value == null) {
+            return 0;
+        }
+
+        Integer index = dictionary.get(value);
+
+        if (index == null) {
+            index = strings.size();
+            dictionary.put(value, index);
+            strings.add(value);
+        }
+        return index + 1;
+    }
+
+    private static String _dereference(ByteBuffer in, String[] strings) throws IOException {
+        int reference = _readCount(in);
+
+        return reference == 0 ? null : strings[reference - 1];
+    }
+
+    private static void _writeSeries(Output out, DatapointSeries series) {
+        int size = series.size();
+        boolean doublesOnly = series.hasOnlyPrimitiveValues();
+
+        for (int i = 0; doublesOnly && i < size; i++) {
+            doublesOnly = !series.isNull(i) && !series.isLong(i);
+        }
+        out.writeVarLong(size);
+        out.writeByte(doublesOnly ? SERIES_DOUBLES : SERIES_MIXED);
+
+        long previous = 0;
+        long previousDelta = 0;
+
+        for (int i = 0; i < size; i++) {
+            long timestamp = series.getTimestamp(i);
+            long delta = timestamp - previous;
+
+            out.writeVarLong(_zigZag(delta - previousDelta));
+            previous = timestamp;
+            previousDelta = delta;
+        }
+        for (int i = 0; i < size; i++) {
+            if (doublesOnly) {
+                out.writeDouble(series.getValue(i));
+            } else {
+                _writeValue(out, series, i);
+            }
+        }
+    }
+
+    private static void _writeValue(Output out, DatapointSeries series, int index) {
+        if (series.isNull(index)) {
+            out.writeByte(VALUE_NULL);
+        } else if (series.isLong(index)) {
+            out.writeByte(VALUE_LONG);
+            out.writeVarLong(_zigZag((long) series.getValue(index)));
+        } else {
+            Number value = series.getNumber(index);
+
+            if (value instanceof Integer) {
+                out.writeByte(VALUE_INT);
+                out.writeVarLong(_zigZag(value.intValue()));
+            } else if (value instanceof Long) {
+                out.writeByte(VALUE_LONG);
+                out.writeVarLong(_zigZag(value.longValue()));
+            } else if (value instanceof BigInteger) {
+                byte[] bytes = ((BigInteger) value).toByteArray();
+
+                out.writeByte(VALUE_BIG_INTEGER);
+                out.writeVarLong(bytes.length);
+                out.writeBytes(bytes, bytes.length);
+            } else if (value instanceof BigDecimal) {
+                byte[] bytes = ((BigDecimal) value).toString().getBytes(StandardCharsets.UTF_8);
+
+                out.writeByte(VALUE_BIG_DECIMAL);
+                out.writeVarLong(bytes.length);
+                out.writeBytes(bytes, bytes.length);
+            } else {
+                out.writeByte(VALUE_DOUBLE);
+                out.writeDouble(value.doubleValue());
+            }
+        }
+    }
+
+    private static DatapointSeries _readSeries(ByteBuffer in) throws IOException {
+        int size = _readCount(in);
+        byte kind = in.get();
+        long[] timestamps = new long[size];
+        long previous = 0;
+        long previousDelta = 0;
+
+        for (int i = 0; i < size; i++) {
+            long delta = previousDelta + _unZigZag(_readVarLong(in));
+
+            previous += delta;
+            previousDelta = delta;
+            timestamps[i] = previous;
+        }
+
+        DatapointSeries series = new DatapointSeries(size);
+
+        for (int i = 0; i < size; i++) {
+            byte type = kind == SERIES_DOUBLES ? VALUE_DOUBLE : in.get();
+
+            switch (type) {
+                case VALUE_DOUBLE:
+                    series.put(timestamps[i], in.getDouble());
+                    break;
+                case VALUE_LONG:
+                    series.put(timestamps[i], _unZigZag(_readVarLong(in)));
+                    break;
+                case VALUE_INT:
+                    series.put(timestamps[i], (Number) (int) _unZigZag(_readVarLong(in)));
+                    break;
+                case VALUE_NULL:
+                    series.put(timestamps[i], (Number) null);
+                    break;
+                case VALUE_BIG_INTEGER:
+                    series.put(timestamps[i], new BigInteger(_readBytes(in)));
+                    break;
+                case VALUE_BIG_DECIMAL:
+                    series.put(timestamps[i], new BigDecimal(new String(_readBytes(in), StandardCharsets.UTF_8)));
+                    break;
+                default:
+                    throw new IOException("Unknown value type " + type + ".");
+            }
+        }
+        return series;
+    }
+
+    private static byte[] _readBytes(ByteBuffer in) throws IOException {
+        byte[] bytes = new byte[_readCount(in)];
+
+        in.get(bytes);
+        return bytes;
+    }
+
+    private static long _zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long _unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int _readCount(ByteBuffer in) throws IOException {
+        long value = _readVarLong(in);
+
+        if (value < 0 || value > in.capacity()) {
+            throw new IOException("Invalid length " + value + " in metric batch.");
+        }
+        return (int) value;
+    }
+
+    private static long _readVarLong(ByteBuffer in) throws IOException {
+        long result = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Variable length integer is too long.");
+    }
+
+    //~ Enums ****************************************************************************************************************************************
+
+    /**
+     * The wire formats in which metric batches can be encoded.
+     *
+     * @author  a.chambers
+     */
+    public enum WireFormat {
+
+        JSON,
+        BINARY;
+
+        /**
+         * Converts a configuration value to a wire format.
+         *
+         * @param   name  The name of the format, case insensitive.
+         *
+         * @return  The wire format.
+         *
+         * @throws  IllegalArgumentException  If the name does not match a format.
+         */
+        public static WireFormat fromString(String name) {
+            for (WireFormat format : values()) {
+                if (format.name().equalsIgnoreCase(name == null ? null : name.trim())) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unknown metric batch wire format " + name + ".");
+        }
+    }
+
+    //~ Inner Classes ********************************************************************************************************************************
+
+    /**
+     * A growable byte buffer for writing.
+     *
+     * @author  a.chambers
+     */
+    private static class Output {
+
+        private byte[] buffer;
+        private int size;
+
+        Output(int capacity) {
+            buffer = new byte[Math.max(capacity, 16)];
+        }
+
+        void writeByte(int value) {
+            _ensure(1);
+            buffer[size++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes, int length) {
+            _ensure(length);
+            System.arraycopy(bytes, 0, buffer, size, length);
+            size += length;
+        }
+
+        void writeVarLong(long value) {
+            _ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void writeDouble(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+
+            _ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[size++] = (byte) (bits >>> shift);
+            }
+        }
+
+        private void _ensure(int length) {
+            if (size + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length));
+            }
+        }
+    }
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
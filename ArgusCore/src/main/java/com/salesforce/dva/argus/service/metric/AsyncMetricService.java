@@ -27,8 +27,9 @@ public class AsyncMetricService extends DefaultMetricService {
     @Inject
     protected AsyncMetricService(MonitorService monitorService, Provider<MetricReader<Metric>> metricsprovider,
                                  Provider<MetricReader<MetricQuery>> queryprovider,
-                                 BatchService batchService, SystemConfiguration config) {
-        super(monitorService, metricsprovider, queryprovider, config);
+                                 BatchService batchService, ExpressionPlanCache planCache, ExpressionExecutor executor,
+                                 SystemConfiguration config) {
+        super(monitorService, metricsprovider, queryprovider, planCache, executor, config);
         _batchService = batchService;
     }
 
@@ -39,17 +39,15 @@ import com.salesforce.dva.argus.service.MetricService;
 import com.salesforce.dva.argus.service.MonitorService;
 import com.salesforce.dva.argus.service.MonitorService.Counter;
 import com.salesforce.dva.argus.service.tsdb.MetricQuery;
-import com.salesforce.dva.argus.system.SystemAssert;
 import com.salesforce.dva.argus.system.SystemConfiguration;
-import com.salesforce.dva.argus.system.SystemException;
 
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import static com.salesforce.dva.argus.system.SystemAssert.requireArgument;
 
@@ -65,6 +63,8 @@ public class DefaultMetricService extends DefaultService implements MetricServic
 	private final MonitorService _monitorService;
 	private final Provider<MetricReader<Metric>> _metricReaderProviderForMetrics;
 	private final Provider<MetricReader<MetricQuery>> _metricReaderProviderForQueries;
+	private final ExpressionExecutor _expressionExecutor;
+	private final ExpressionPlanCache _planCache;
 	private String expandedTimeSeriesRange;
 	private String queryTimeWindow;
 	private Integer numDiscoveryResults = 0;
@@ -78,14 +78,21 @@ public class DefaultMetricService extends DefaultService implements MetricServic
 	 * @param  monitorService   The monitor service instance to use. Cannot be null.
 	 * @param  metricsprovider  The metric reader provider used to perform metric operations.  Cannot be null.
 	 * @param  queryprovider    The metric reader provider used to construct metric queries without fetching data. Cannot be null.
+	 * @param  planCache        The cache of compiled expressions. Cannot be null.
+	 * @param  executor         The executor shared by all metric services to evaluate expressions with. Cannot be null.
 	 * @param  config           The system configuration.  Cannot be null.
 	 */
 	@Inject
 	protected DefaultMetricService(MonitorService monitorService, Provider<MetricReader<Metric>> metricsprovider,
-			Provider<MetricReader<MetricQuery>> queryprovider, SystemConfiguration config) {
+			Provider<MetricReader<MetricQuery>> queryprovider, ExpressionPlanCache planCache, ExpressionExecutor executor,
+			SystemConfiguration config) {
 		super(config);
 		requireArgument(monitorService != null, "Monitor service cannot be null.");
+		requireArgument(planCache != null, "Expression plan cache cannot be null.");
+		requireArgument(executor != null, "Expression executor cannot be null.");
 		_monitorService = monitorService;
+		_planCache = planCache;
+		_expressionExecutor = executor;
 		_metricReaderProviderForMetrics = metricsprovider;
 		_metricReaderProviderForQueries = queryprovider;
 	}
@@ -113,24 +120,34 @@ public class DefaultMetricService extends DefaultService implements MetricServic
 	@Override
 	public List<Metric> getMetrics(List<String> expressions, long relativeTo) {
 		requireNotDisposed();
-		SystemAssert.requireArgument(MetricReader.isValid(expressions), "Illegal metric expression found: " + expressions);
+		return _getMetrics(expressions, relativeTo, null, null);
+	}
+
+	@Override
+	public List<Metric> getMetrics(String expression, long relativeTo, Map<MetricQuery, List<Metric>> prefetchedMetrics,
+			Map<MetricQuery, List<MetricQuery>> discoveredQueries) {
+		requireNotDisposed();
+		return _getMetrics(Arrays.asList(new String[] { expression }), relativeTo, prefetchedMetrics, discoveredQueries);
+	}
 
+	private List<Metric> _getMetrics(List<String> expressions, long relativeTo, Map<MetricQuery, List<Metric>> prefetchedMetrics,
+			Map<MetricQuery, List<MetricQuery>> discoveredQueries) {
 		MetricReader<Metric> reader = _metricReaderProviderForMetrics.get();
-		List<Metric> metrics = new ArrayList<>(expressions.size());
+		List<ExpressionPlan> plans = _getPlans(expressions, reader);
+		List<Metric> metrics;
+
+		reader.setPrefetchedMetrics(prefetchedMetrics);
+		reader.setDiscoveredQueries(discoveredQueries);
+		reader.setExecutor(_expressionExecutor);
 
 		try {
-			numDiscoveryResults = 0;
-			numDiscoveryQueries = 0;
-			for (String expression : expressions) {
-				_logger.debug("Reading metric for expression {}", expression);
-				metrics.addAll(reader.parse(expression, relativeTo, Metric.class));
-				expandedTimeSeriesRange = reader.getExpandedTimeSeriesRange();
-				queryTimeWindow = reader.getQueryTimeWindow();
-				numDiscoveryResults += reader.getNumDiscoveryResults();
-				numDiscoveryQueries += reader.getNumDiscoveryQueries();
-			}
-		} catch (ParseException ex) {
-			throw new SystemException("Failed to parse the given expression", ex);
+			// all expressions are evaluated together, so that their queries are fetched concurrently and shared sub expressions are evaluated once
+			_logger.debug("Reading metrics for expressions {}", expressions);
+			metrics = reader.evaluate(plans, relativeTo, Metric.class);
+			expandedTimeSeriesRange = reader.getExpandedTimeSeriesRange();
+			queryTimeWindow = reader.getQueryTimeWindow();
+			numDiscoveryResults = reader.getNumDiscoveryResults();
+			numDiscoveryQueries = reader.getNumDiscoveryQueries();
 		} catch(Exception ex) {
 			_logger.error("Exception occured when evaluating metric expressions {} - {}" , Arrays.toString(expressions.toArray()), ExceptionUtils.getFullStackTrace(ex));
 			throw ex;
@@ -156,6 +173,19 @@ public class DefaultMetricService extends DefaultService implements MetricServic
 		return getQueries(Arrays.asList(new String[] { expression }), relativeTo);
 	}
 
+	@Override
+	public List<MetricQuery> getQueries(String expression, long relativeTo, Map<MetricQuery, List<MetricQuery>> discoveredQueries) {
+		requireNotDisposed();
+		requireArgument(discoveredQueries != null, "Discovered queries map cannot be null.");
+
+		MetricReader<MetricQuery> reader = _metricReaderProviderForQueries.get();
+		List<String> expressions = Arrays.asList(new String[] { expression });
+
+		reader.setDiscoveredQueries(discoveredQueries);
+		_logger.debug("Creating metric queries for expressions {}", expressions);
+		return reader.evaluate(_getPlans(expressions, reader), relativeTo, MetricQuery.class);
+	}
+
 	@Override
 	public List<MetricQuery> getQueries(List<String> expressions) {
 		requireNotDisposed();
@@ -165,20 +195,11 @@ public class DefaultMetricService extends DefaultService implements MetricServic
 	@Override
 	public List<MetricQuery> getQueries(List<String> expressions, long relativeTo) {
 		requireNotDisposed();
-		SystemAssert.requireArgument(MetricReader.isValid(expressions), "Illegal metric expression found: " + expressions);
 
 		MetricReader<MetricQuery> reader = _metricReaderProviderForQueries.get();
-		List<MetricQuery> queries = new ArrayList<>(expressions.size());
 
-		try {
-			for (String expression : expressions) {
-				_logger.debug("Creating metric query for expression {}", expression);
-				queries.addAll(reader.parse(expression, relativeTo, MetricQuery.class));
-			}
-		} catch (ParseException ex) {
-			throw new SystemException("Failed to parse the given expression", ex);
-		}
-		return queries;
+		_logger.debug("Creating metric queries for expressions {}", expressions);
+		return reader.evaluate(_getPlans(expressions, reader), relativeTo, MetricQuery.class);
 	}
 
 	@Override
@@ -219,6 +240,16 @@ public class DefaultMetricService extends DefaultService implements MetricServic
 		// _tsdbService.dispose();
 	}
 
+	/* Expressions that cannot be compiled are rejected as invalid, as they were before plans were cached. */
+	private List<ExpressionPlan> _getPlans(List<String> expressions, MetricReader<?> reader) {
+		try {
+			return _planCache.getPlans(expressions, reader);
+		} catch (ParseException | TokenMgrError ex) {
+			_logger.debug("Failed to compile the expressions {}", expressions, ex);
+			throw new IllegalArgumentException("Illegal metric expression found: " + expressions, ex);
+		}
+	}
+
 	private long _getDatapointsAcrossMetrics(List<Metric> metrics) {
 		long dataPointsSize = 0;
 
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2018, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.dva.argus.service.metric;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.salesforce.dva.argus.system.SystemConfiguration;
+
+import static com.salesforce.dva.argus.system.SystemAssert.requireArgument;
+
+/**
+ * The thread pool fetching the queries and applying the functions of metric expressions. A metric service is created for every request, so the
+ * pool is shared by all of them rather than owned by any one. Its threads are daemons which time out when idle, so the pool never has to be shut
+ * down.
+ *
+ * @author  a.chambers
+ */
+@Singleton
+public final class ExpressionExecutor implements Executor {
+
+	//~ Static fields/initializers *******************************************************************************************************************
+
+	private static final long KEEP_ALIVE_SECONDS = 60;
+
+	//~ Instance fields ******************************************************************************************************************************
+
+	private final ThreadPoolExecutor _executor;
+
+	//~ Constructors *********************************************************************************************************************************
+
+	/**
+	 * Creates a new ExpressionExecutor object.
+	 *
+	 * @param  config  The system configuration. Cannot be null.
+	 */
+	@Inject
+	public ExpressionExecutor(SystemConfiguration config) {
+		this(Integer.parseInt(config.getValue(SystemConfiguration.Property.METRIC_EXPRESSION_THREADS)));
+	}
+
+	/**
+	 * Creates a new ExpressionExecutor object.
+	 *
+	 * @param  threads  The maximum number of threads. Must be positive.
+	 */
+	ExpressionExecutor(int threads) {
+		requireArgument(threads > 0, "The number of expression threads must be positive.");
+		_executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				_createDaemonThreadFactory());
+		_executor.allowCoreThreadTimeOut(true);
+	}
+
+	//~ Methods **************************************************************************************************************************************
+
+	@Override
+	public void execute(Runnable command) {
+		_executor.execute(command);
+	}
+
+	private static ThreadFactory _createDaemonThreadFactory() {
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = Executors.defaultThreadFactory().newThread(r);
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright (c) 2018, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.dva.argus.service.metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.service.tsdb.MetricQuery;
+import com.salesforce.dva.argus.system.SystemException;
+
+/**
+ * The parsed form of one or more metric expressions, built by {@link MetricReader} before anything is fetched. The plan is a DAG whose leaves are
+ * metric queries and whose inner nodes are transform functions. Identical sub expressions, within one expression or across the expressions of
+ * a request, are interned into a single node, so they are fetched and transformed once.
+ *
+ * <p>{@link #execute(Executor, Function, BiFunction)} fetches all leaves concurrently and applies every function as soon as its inputs are
+ * complete. Since transforms modify their input metrics in place, a node consumed more than once hands each consumer its own copies.</p>
+ *
+ * <p>A plan keeps the time tokens of its queries, so it can be used as a template. {@link #bind(List, long)} resolves the tokens of one or
+ * more templates against a reference time into a new plan, which can then be executed. Templates that are never executed can be shared by
+ * concurrent requests.</p>
+ *
+ * <p>This class is not thread safe while the plan is being built.</p>
+ *
+ * @author  a.chambers
+ */
+final class ExpressionPlan {
+
+	//~ Instance fields ******************************************************************************************************************************
+
+	private final Map<Object, Node> _nodes = new LinkedHashMap<>();
+	private final List<Node> _roots = new ArrayList<>();
+	private final List<QueryNode> _lastQueries = new ArrayList<>();
+	private QueryNode _lastQuery;
+
+	//~ Methods **************************************************************************************************************************************
+
+	/**
+	 * Resolves the time tokens of templates against a reference time, merging the templates into one plan. Sub expressions shared by the
+	 * templates, or that become identical once their times are resolved, are interned into a single node.
+	 *
+	 * @param   templates   The templates, in the order of their expressions. Cannot be null.
+	 * @param   relativeTo  The time relative time tokens are resolved against.
+	 *
+	 * @return  The bound plan.
+	 */
+	static ExpressionPlan bind(List<ExpressionPlan> templates, long relativeTo) {
+		ExpressionPlan plan = new ExpressionPlan();
+
+		for (ExpressionPlan template : templates) {
+			Map<Node, Node> bound = new IdentityHashMap<>();
+
+			for (Node node : template._nodes.values()) {
+				if (node instanceof QueryNode) {
+					bound.put(node, plan.query(_bind((QueryNode) node, relativeTo), null, null));
+				} else {
+					FunctionNode functionNode = (FunctionNode) node;
+					List<Node> inputs = new ArrayList<>(functionNode._inputs.size());
+
+					for (Node input : functionNode._inputs) {
+						inputs.add(bound.get(input));
+					}
+					bound.put(node, plan.function(functionNode._name, inputs, functionNode._constants, functionNode._constantsOnly));
+				}
+			}
+			for (int i = 0; i < template._roots.size(); i++) {
+				plan._lastQuery = (QueryNode) bound.get(template._lastQueries.get(i));
+				plan.addRoot(bound.get(template._roots.get(i)));
+			}
+		}
+		return plan;
+	}
+
+	/* Copies the query of a template node with its times resolved. Nodes of validated expressions have no query. */
+	private static MetricQuery _bind(QueryNode node, long relativeTo) {
+		if (node._query == null) {
+			return node._query;
+		}
+
+		MetricQuery query = new MetricQuery(node._query);
+
+		query.setStartTimestamp(MetricReader.getTime(relativeTo, node._startTime));
+		query.setEndTimestamp(node._endTime == null ? relativeTo : MetricReader.getTime(relativeTo, node._endTime));
+		return query;
+	}
+
+	/**
+	 * Returns the node of a query, creating it if the query was not planned yet.
+	 *
+	 * @param   query      The query. May be null if the expression is only being validated.
+	 * @param   startTime  The start time token of the query, if the plan is a template. Otherwise null.
+	 * @param   endTime    The end time token of the query, if the plan is a template and the expression has one. Otherwise null.
+	 *
+	 * @return  The node.
+	 */
+	Node query(MetricQuery query, String startTime, String endTime) {
+		Object key = query == null ? new Object() : Arrays.asList(query, startTime, endTime);
+		QueryNode node = (QueryNode) _nodes.get(key);
+
+		if (node == null) {
+			node = new QueryNode(_nodes.size(), query, startTime, endTime);
+			_nodes.put(key, node);
+		}
+		_lastQuery = node;
+		return node;
+	}
+
+	/**
+	 * Returns the node of a function, creating it if the same function was not planned yet for the same inputs and constants.
+	 *
+	 * @param   name           The function name. Cannot be null.
+	 * @param   inputs         The nodes of the input expressions, in order. Cannot be null.
+	 * @param   constants      The constant arguments, in order. Cannot be null.
+	 * @param   constantsOnly  Whether the function has no input expressions.
+	 *
+	 * @return  The node.
+	 */
+	Node function(String name, List<Node> inputs, List<String> constants, boolean constantsOnly) {
+		StringBuilder key = new StringBuilder(name).append('(');
+
+		for (Node input : inputs) {
+			key.append(input._id).append(',');
+		}
+		key.append(constants).append(')');
+
+		Node node = _nodes.get(key.toString());
+
+		if (node == null) {
+			node = new FunctionNode(_nodes.size(), name, inputs, constants, constantsOnly);
+			for (Node input : inputs) {
+				input._consumers++;
+			}
+			_nodes.put(key.toString(), node);
+		}
+		return node;
+	}
+
+	/**
+	 * Adds the root node of a parsed expression.
+	 *
+	 * @param  root  The node. Cannot be null.
+	 */
+	void addRoot(Node root) {
+		root._consumers++;
+		_roots.add(root);
+		_lastQueries.add(_lastQuery);
+		_lastQuery = null;
+	}
+
+	/**
+	 * Returns the root nodes, in the order the expressions were parsed.
+	 *
+	 * @return  The root nodes.
+	 */
+	List<Node> getRoots() {
+		return Collections.unmodifiableList(_roots);
+	}
+
+	/**
+	 * Returns the last query parsed in each expression, in the order the expressions were parsed.
+	 *
+	 * @return  The last query node of each expression. The node is null for expressions without queries.
+	 */
+	List<QueryNode> getLastQueries() {
+		return Collections.unmodifiableList(_lastQueries);
+	}
+
+	/**
+	 * Returns the number of distinct nodes.
+	 *
+	 * @return  The number of nodes.
+	 */
+	int size() {
+		return _nodes.size();
+	}
+
+	/**
+	 * Executes the plan.
+	 *
+	 * @param   executor  The executor running the fetches and functions. Cannot be null.
+	 * @param   fetch     Fetches the metrics of a query node. Cannot be null.
+	 * @param   apply     Applies a function node to the concatenated metrics of its inputs. Cannot be null.
+	 *
+	 * @return  The metrics of each root, in the order the expressions were parsed.
+	 */
+	List<List<Metric>> execute(Executor executor, Function<QueryNode, List<Metric>> fetch,
+		BiFunction<FunctionNode, List<Metric>, List<Metric>> apply) {
+		Map<Node, CompletableFuture<List<Metric>>> futures = new HashMap<>();
+
+		// nodes are created after their inputs, so iterating in creation order visits the inputs of a function first
+		for (Node node : _nodes.values()) {
+			if (node instanceof QueryNode) {
+				QueryNode queryNode = (QueryNode) node;
+
+				futures.put(node, CompletableFuture.supplyAsync(() -> fetch.apply(queryNode), executor));
+			} else {
+				FunctionNode functionNode = (FunctionNode) node;
+				List<CompletableFuture<List<Metric>>> inputs = new ArrayList<>(functionNode._inputs.size());
+
+				for (Node input : functionNode._inputs) {
+					inputs.add(futures.get(input));
+				}
+				futures.put(node, CompletableFuture.allOf(inputs.toArray(new CompletableFuture<?>[inputs.size()])).thenApplyAsync(v -> {
+						List<Metric> metrics = new ArrayList<>();
+
+						for (int i = 0; i < inputs.size(); i++) {
+							metrics.addAll(_consume(functionNode._inputs.get(i), inputs.get(i).join()));
+						}
+						return apply.apply(functionNode, metrics);
+					}, executor));
+			}
+		}
+
+		List<List<Metric>> results = new ArrayList<>(_roots.size());
+
+		try {
+			for (Node root : _roots) {
+				results.add(_consume(root, futures.get(root).join()));
+			}
+		} catch (CompletionException ex) {
+			Throwable cause = ex.getCause();
+
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new SystemException(cause);
+		}
+		return results;
+	}
+
+	/* A node with several consumers keeps its own metrics unmodified and hands out copies. */
+	private static List<Metric> _consume(Node node, List<Metric> metrics) {
+		if (node._consumers <= 1 || metrics == null) {
+			return metrics;
+		}
+
+		List<Metric> copies = new ArrayList<>(metrics.size());
+
+		for (Metric metric : metrics) {
+			copies.add(new Metric(metric));
+		}
+		return copies;
+	}
+
+	//~ Inner Classes ********************************************************************************************************************************
+
+	/** A node of the plan. */
+	abstract static class Node {
+
+		private final int _id;
+		private int _consumers;
+
+		Node(int id) {
+			_id = id;
+		}
+	}
+
+	/** A query leaf. The node records the discovery statistics of its fetch. */
+	static final class QueryNode extends Node {
+
+		private final MetricQuery _query;
+		private final String _startTime;
+		private final String _endTime;
+		private volatile String _queryTimeWindow;
+		private volatile int _discoveryResults;
+		private volatile int _discoveryQueries;
+		private volatile int _timeSeries;
+
+		QueryNode(int id, MetricQuery query, String startTime, String endTime) {
+			super(id);
+			_query = query;
+			_startTime = startTime;
+			_endTime = endTime;
+		}
+
+		MetricQuery getQuery() {
+			return _query;
+		}
+
+		String getQueryTimeWindow() {
+			return _queryTimeWindow;
+		}
+
+		int getDiscoveryResults() {
+			return _discoveryResults;
+		}
+
+		int getDiscoveryQueries() {
+			return _discoveryQueries;
+		}
+
+		int getTimeSeries() {
+			return _timeSeries;
+		}
+
+		void setStatistics(String queryTimeWindow, int discoveryResults, int discoveryQueries, int timeSeries) {
+			_queryTimeWindow = queryTimeWindow;
+			_discoveryResults = discoveryResults;
+			_discoveryQueries = discoveryQueries;
+			_timeSeries = timeSeries;
+		}
+	}
+
+	/** A transform function applied to the concatenated results of its inputs. */
+	static final class FunctionNode extends Node {
+
+		private final String _name;
+		private final List<Node> _inputs;
+		private final List<String> _constants;
+		private final boolean _constantsOnly;
+
+		FunctionNode(int id, String name, List<Node> inputs, List<String> constants, boolean constantsOnly) {
+			super(id);
+			_name = name;
+			_inputs = new ArrayList<>(inputs);
+			_constants = new ArrayList<>(constants);
+			_constantsOnly = constantsOnly;
+		}
+
+		String getName() {
+			return _name;
+		}
+
+		List<Node> getInputs() {
+			return Collections.unmodifiableList(_inputs);
+		}
+
+		List<String> getConstants() {
+			return Collections.unmodifiableList(_constants);
+		}
+
+		boolean isConstantsOnly() {
+			return _constantsOnly;
+		}
+	}
+}
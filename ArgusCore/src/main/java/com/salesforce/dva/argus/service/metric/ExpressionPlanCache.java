@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2018, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.dva.argus.service.metric;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.salesforce.dva.argus.service.MonitorService;
+import com.salesforce.dva.argus.service.MonitorService.Counter;
+import com.salesforce.dva.argus.system.SystemConfiguration;
+
+import static com.salesforce.dva.argus.system.SystemAssert.requireArgument;
+
+/**
+ * A least recently used cache of compiled metric expressions. Dashboards and alerts submit the same expressions over and over, and a cached
+ * plan saves both the validation and the evaluation parse of an expression. Plans keep the time tokens of their queries rather than resolved
+ * timestamps, so a plan is reused whatever the reference time of the request and only has to be bound to it.
+ *
+ * @author  a.chambers
+ */
+@Singleton
+public final class ExpressionPlanCache {
+
+	//~ Instance fields ******************************************************************************************************************************
+
+	private final Cache<String, ExpressionPlan> _plans;
+	private final MonitorService _monitorService;
+
+	//~ Constructors *********************************************************************************************************************************
+
+	/**
+	 * Creates a new ExpressionPlanCache object.
+	 *
+	 * @param  config          The system configuration. Cannot be null.
+	 * @param  monitorService  The monitor service to report hits and misses to. Cannot be null.
+	 */
+	@Inject
+	public ExpressionPlanCache(SystemConfiguration config, MonitorService monitorService) {
+		this(Long.parseLong(config.getValue(SystemConfiguration.Property.METRIC_EXPRESSION_PLAN_CACHE_SIZE)), monitorService);
+	}
+
+	/**
+	 * Creates a new ExpressionPlanCache object.
+	 *
+	 * @param  maximumSize     The maximum number of cached plans.
+	 * @param  monitorService  The monitor service to report hits and misses to. Cannot be null.
+	 */
+	ExpressionPlanCache(long maximumSize, MonitorService monitorService) {
+		requireArgument(maximumSize >= 0, "Maximum size cannot be negative.");
+		requireArgument(monitorService != null, "Monitor service cannot be null.");
+		_plans = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+		_monitorService = monitorService;
+	}
+
+	//~ Methods **************************************************************************************************************************************
+
+	/**
+	 * Returns the plans of expressions, compiling and caching the ones that are not cached yet.
+	 *
+	 * @param   expressions  The expressions. Cannot be null.
+	 * @param   reader       The reader used to compile missing plans. Cannot be null.
+	 *
+	 * @return  The plans, in the order of the expressions.
+	 *
+	 * @throws  ParseException  If an expression cannot be parsed. Expressions that cannot be parsed are not cached.
+	 */
+	List<ExpressionPlan> getPlans(List<String> expressions, MetricReader<?> reader) throws ParseException {
+		List<ExpressionPlan> plans = new ArrayList<>(expressions.size());
+		int misses = 0;
+
+		try {
+			for (String expression : expressions) {
+				String key = _normalize(expression);
+				ExpressionPlan plan = _plans.getIfPresent(key);
+
+				if (plan == null) {
+					// racing requests may compile the same expression twice, which is cheaper than blocking them
+					plan = reader.compile(expression);
+					_plans.put(key, plan);
+					misses++;
+				}
+				plans.add(plan);
+			}
+		} finally {
+			if (plans.size() > misses) {
+				_monitorService.modifyCounter(Counter.METRIC_EXPRESSION_PLAN_CACHE_HITS, plans.size() - misses, null);
+			}
+			if (misses > 0) {
+				_monitorService.modifyCounter(Counter.METRIC_EXPRESSION_PLAN_CACHE_MISSES, misses, null);
+			}
+		}
+		return plans;
+	}
+
+	/**
+	 * Returns the number of cached plans.
+	 *
+	 * @return  The approximate number of cached plans.
+	 */
+	long size() {
+		return _plans.size();
+	}
+
+	/** Removes all cached plans. */
+	public void clear() {
+		_plans.invalidateAll();
+	}
+
+	/* Surrounding white space is skipped by the grammar. Relative time tokens are kept as they are, since plans do not depend on the time. */
+	private static String _normalize(String expression) {
+		return expression.trim();
+	}
+}
@@ -40,7 +40,7 @@ import com.salesforce.dva.argus.entity.NumberOperations;
  *
  * @author  Ruofan Zhang (rzhang@salesforce.com)
  */
-public class AverageValueReducer implements ValueReducer {
+public class AverageValueReducer implements ValueReducer, AccumulatingValueReducer {
 
     //~ Methods **************************************************************************************************************************************
     
@@ -58,6 +58,17 @@ public class AverageValueReducer implements ValueReducer {
     	return NumberOperations.divide(sum, values.size());
     }
 
+    @Override
+    public ValueAccumulator accumulator(List<String> constants) {
+        return new Reducers.SumAccumulator() {
+
+                @Override
+                public Number result() {
+                    return doubleValue() / count();
+                }
+            };
+    }
+
     @Override
     public String name() {
         return TransformFactory.Function.AVERAGE.name();
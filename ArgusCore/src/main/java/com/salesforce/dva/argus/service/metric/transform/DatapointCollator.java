@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+	 
+package com.salesforce.dva.argus.service.metric.transform;
+
+import com.salesforce.dva.argus.entity.DatapointSeries;
+import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.system.SystemAssert;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helper class to collate the data points of a set of metrics by timestamp. The series of every metric are merged with a k-way merge, so
+ * timestamps are visited in ascending order and the values at each timestamp are visited in the order of the input metrics. No per timestamp
+ * collections are built unless boxed values are explicitly requested.
+ *
+ * <p>O(n log m), where n is the total number of data points and m is the number of metrics.</p>
+ *
+ * @author  a.chambers
+ */
+public class DatapointCollator {
+
+    //~ Instance fields ******************************************************************************************************************************
+
+    private final DatapointSeries[] series;
+    private final int[] cursors;
+
+    /* Binary min heap of series indices ordered by current timestamp, then by index. */
+    private final int[] heap;
+    private int heapSize;
+
+    /* Indices of the series having a data point at the current timestamp, in ascending order. */
+    private final int[] current;
+    private int currentSize;
+    private long timestamp;
+
+    //~ Constructors *********************************************************************************************************************************
+
+    /**
+     * Creates a new DatapointCollator object.
+     *
+     * @param  metrics  The metrics to collate. Cannot be null.
+     */
+    public DatapointCollator(List<Metric> metrics) {
+        SystemAssert.requireArgument(metrics != null, "Cannot collate null metrics.");
+        series = new DatapointSeries[metrics.size()];
+        cursors = new int[series.length];
+        heap = new int[series.length];
+        current = new int[series.length];
+        for (int i = 0; i < series.length; i++) {
+            series[i] = metrics.get(i).getDatapointSeries();
+            if (!series[i].isEmpty()) {
+                push(i);
+            }
+        }
+    }
+
+    //~ Methods **************************************************************************************************************************************
+
+    /**
+     * Indicates whether every value of every collated series can be read without boxing, in which case {@link #accumulate(ValueAccumulator)}
+     * will reproduce the results of a boxed reducer.
+     *
+     * @return  True if all input series hold only doubles, longs and nulls.
+     */
+    public boolean hasOnlyPrimitiveValues() {
+        for (DatapointSeries s : series) {
+            if (!s.hasOnlyPrimitiveValues()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Advances to the next timestamp.
+     *
+     * @return  False if all data points have been visited.
+     */
+    public boolean next() {
+        for (int i = 0; i < currentSize; i++) {
+            int index = current[i];
+
+            if (++cursors[index] < series[index].size()) {
+                push(index);
+            }
+        }
+        currentSize = 0;
+        if (heapSize == 0) {
+            return false;
+        }
+        timestamp = timestampOf(heap[0]);
+        while (heapSize > 0 && timestampOf(heap[0]) == timestamp) {
+            current[currentSize++] = pop();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the current timestamp.
+     *
+     * @return  The current timestamp.
+     */
+    public long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the number of metrics having a data point at the current timestamp.
+     *
+     * @return  The number of values at the current timestamp.
+     */
+    public int size() {
+        return currentSize;
+    }
+
+    /**
+     * Feeds the values at the current timestamp to an accumulator. The accumulator is not reset first.
+     *
+     * @param  accumulator  The accumulator. Cannot be null.
+     */
+    public void accumulate(ValueAccumulator accumulator) {
+        for (int i = 0; i < currentSize; i++) {
+            DatapointSeries s = series[current[i]];
+            int cursor = cursors[current[i]];
+
+            if (s.isNull(cursor)) {
+                accumulator.addNull();
+            } else if (s.isLong(cursor)) {
+                accumulator.add((long) s.getValue(cursor));
+            } else {
+                accumulator.add(s.getValue(cursor));
+            }
+        }
+    }
+
+    /**
+     * Returns the boxed values at the current timestamp.
+     *
+     * @return  A new list of the values at the current timestamp.
+     */
+    public List<Number> values() {
+        List<Number> values = new ArrayList<>(currentSize);
+
+        for (int i = 0; i < currentSize; i++) {
+            values.add(series[current[i]].getNumber(cursors[current[i]]));
+        }
+        return values;
+    }
+
+    private long timestampOf(int index) {
+        return series[index].getTimestamp(cursors[index]);
+    }
+
+    private boolean less(int a, int b) {
+        long ta = timestampOf(a);
+        long tb = timestampOf(b);
+
+        return ta < tb || (ta == tb && a < b);
+    }
+
+    private void push(int index) {
+        int child = heapSize++;
+
+        while (child > 0) {
+            int parent = (child - 1) >>> 1;
+
+            if (!less(index, heap[parent])) {
+                break;
+            }
+            heap[child] = heap[parent];
+            child = parent;
+        }
+        heap[child] = index;
+    }
+
+    private int pop() {
+        int result = heap[0];
+        int last = heap[--heapSize];
+        int parent = 0;
+
+        while (true) {
+            int child = 2 * parent + 1;
+
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && less(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!less(heap[child], last)) {
+                break;
+            }
+            heap[parent] = heap[child];
+            parent = child;
+        }
+        if (heapSize > 0) {
+            heap[parent] = last;
+        }
+        return result;
+    }
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
@@ -32,6 +32,7 @@
 package com.salesforce.dva.argus.service.metric.transform;
 
 import com.google.common.primitives.Doubles;
+import com.salesforce.dva.argus.entity.DatapointSeries;
 import com.salesforce.dva.argus.entity.Metric;
 import com.salesforce.dva.argus.entity.NumberOperations;
 import com.salesforce.dva.argus.service.metric.MetricReader;
@@ -43,10 +44,7 @@ import org.apache.commons.math3.stat.descriptive.summary.Sum;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 
 /**
  * Down samples the one or more metric.<br>
@@ -153,25 +151,24 @@ public class DownsampleTransform implements Transform {
         String downsampleType = expArr[1];
 
         for (Metric metric : metrics) {
-            metric.setDatapoints(createDownsampleDatapoints(metric.getDatapoints(), windowSize, downsampleType, windowUnit));
+            metric.setDatapointSeries(createDownsampleDatapoints(metric.getDatapointSeries(), windowSize, downsampleType, windowUnit));
         }
         return metrics;
     }
     
-    private Map<Long, Number> createDownsampleDatapoints(Map<Long, Number> originalDatapoints, long windowSize, String type, String windowUnit) {
-        Map<Long, Number> downsampleDatapoints = new HashMap<>();
-        TreeMap<Long, Number> sortedDatapoints = new TreeMap<>(originalDatapoints);
+    private DatapointSeries createDownsampleDatapoints(DatapointSeries sortedDatapoints, long windowSize, String type, String windowUnit) {
+        DatapointSeries downsampleDatapoints = new DatapointSeries();
         
         if (sortedDatapoints.isEmpty()){
         	return downsampleDatapoints;
         }
         
-        Long windowStart = getWindowStartTime(sortedDatapoints.firstKey(),windowUnit,windowSize);
+        Long windowStart = getWindowStartTime(sortedDatapoints.firstTimestamp(),windowUnit,windowSize);
 
         List<Number> values = new ArrayList<>();
-        for (Map.Entry<Long, Number> entry : sortedDatapoints.entrySet()) {
-            Long timestamp = entry.getKey();
-            Number value = entry.getValue();
+        for (int i = 0; i < sortedDatapoints.size(); i++) {
+            long timestamp = sortedDatapoints.getTimestamp(i);
+            Number value = sortedDatapoints.getNumber(i);
 
             if (values.isEmpty()) {
                 values.add(value);
@@ -33,7 +33,7 @@ package com.salesforce.dva.argus.service.metric.transform;
 
 /**
  * Evaluation type: ABOVE/BELOW/HIGHEST/LOWEST: average, min, max, recent SORT : maxima, minima, name, dev DOWNSAMPLER : avg, min, max, sum, dev
- * CULL_ABOVE/BELOW : percentile, value MOVING: average, median
+ * CULL_ABOVE/BELOW : percentile, value MOVING: average, median, sum, percentile
  *
  * <p>So far, make AVERAGE value is avg(not average)</p>
  *
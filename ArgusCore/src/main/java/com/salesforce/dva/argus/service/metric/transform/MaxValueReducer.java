@@ -42,7 +42,7 @@ import com.salesforce.dva.argus.entity.NumberOperations;
  *
  * @author  seamus.carroll
  */
-public class MaxValueReducer implements ValueReducer {
+public class MaxValueReducer implements ValueReducer, AccumulatingValueReducer {
 
     //~ Methods **************************************************************************************************************************************
 
@@ -72,9 +72,67 @@ public class MaxValueReducer implements ValueReducer {
         return max == null ? Double.NEGATIVE_INFINITY : max;
     }
     
+    @Override
+    public ValueAccumulator accumulator(List<String> constants) {
+        return new MaxAccumulator();
+    }
+
     @Override
     public String name() {
         return TransformFactory.Function.MAX.name();
     }
+
+    //~ Inner Classes ********************************************************************************************************************************
+
+    /**
+     * Accumulator equivalent to {@link #reduce(List)}. Tracks whether the current maximum is a long or a double so that the original value, and its
+     * type, is returned.
+     *
+     * @author  a.chambers
+     */
+    private static class MaxAccumulator implements ValueAccumulator {
+
+        private long longValue;
+        private double doubleValue;
+        private boolean isDouble;
+        private boolean isEmpty = true;
+
+        @Override
+        public void reset() {
+            isEmpty = true;
+        }
+
+        @Override
+        public void add(double value) {
+            if (isEmpty || (isDouble ? value > doubleValue : value > longValue)) {
+                doubleValue = value;
+                isDouble = true;
+                isEmpty = false;
+            }
+        }
+
+        @Override
+        public void add(long value) {
+            if (isEmpty || (isDouble ? value > doubleValue : value > longValue)) {
+                longValue = value;
+                isDouble = false;
+                isEmpty = false;
+            }
+        }
+
+        @Override
+        public void addNull() { }
+
+        @Override
+        public Number result() {
+            if (isEmpty) {
+                return null;
+            }
+            if (isDouble) {
+                return doubleValue;
+            }
+            return longValue;
+        }
+    }
 }
 /* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
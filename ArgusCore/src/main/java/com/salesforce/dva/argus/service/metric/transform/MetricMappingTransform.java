@@ -31,6 +31,7 @@
 	 
 package com.salesforce.dva.argus.service.metric.transform;
 
+import com.salesforce.dva.argus.entity.DatapointSeries;
 import com.salesforce.dva.argus.entity.Metric;
 import com.salesforce.dva.argus.system.SystemAssert;
 import java.util.ArrayList;
@@ -91,7 +92,7 @@ public class MetricMappingTransform implements Transform {
         List<Metric> newMetricsList = new ArrayList<Metric>();
 
         for (Metric metric : metrics) {
-            Map<Long, Number> cleanDatapoints = cleanDPs(metric.getDatapoints());
+            Map<Long, Number> cleanDatapoints = cleanDPs(metric.getDatapointSeries());
 
             metric.setDatapoints(this.valueMapping.mapping(cleanDatapoints));
             newMetricsList.add(metric);
@@ -113,7 +114,7 @@ public class MetricMappingTransform implements Transform {
         List<Metric> newMetricsList = new ArrayList<Metric>();
 
         for (Metric metric : metrics) {
-            Map<Long, Number> cleanDatapoints = cleanDPs(metric.getDatapoints());
+            Map<Long, Number> cleanDatapoints = cleanDPs(metric.getDatapointSeries());
 
             metric.setDatapoints(this.valueMapping.mapping(cleanDatapoints, constants));
             newMetricsList.add(metric);
@@ -121,14 +122,14 @@ public class MetricMappingTransform implements Transform {
         return newMetricsList;
     }
 
-    private Map<Long, Number> cleanDPs(Map<Long, Number> originalDPs) {
+    private Map<Long, Number> cleanDPs(DatapointSeries originalDPs) {
         Map<Long, Number> cleanDPs = new TreeMap<>();
 
-        for (Map.Entry<Long, Number> entry : originalDPs.entrySet()) {
-            if (entry.getValue() == null) {
-                cleanDPs.put(entry.getKey(), 0);
+        for (int i = 0; i < originalDPs.size(); i++) {
+            if (originalDPs.isNull(i)) {
+                cleanDPs.put(originalDPs.getTimestamp(i), 0);
             } else {
-                cleanDPs.put(entry.getKey(), entry.getValue());
+                cleanDPs.put(originalDPs.getTimestamp(i), originalDPs.getNumber(i));
             }
         }
         return cleanDPs;
@@ -31,13 +31,12 @@
 	 
 package com.salesforce.dva.argus.service.metric.transform;
 
+import com.salesforce.dva.argus.entity.DatapointSeries;
 import com.salesforce.dva.argus.entity.Metric;
 import com.salesforce.dva.argus.system.SystemAssert;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * For some function, it either does a mapping transform or reduce transform which depends on the constant input This class provides a general
@@ -147,8 +146,7 @@ public class MetricReducerOrMappingTransform implements Transform {
 
         distiller.distill(metrics);
 
-        Map<Long, List<Number>> collated = collate(metrics);
-        Map<Long, Number> reducedDatapoints = reduce(collated, constants, metrics);
+        DatapointSeries reducedDatapoints = reduce(new DatapointCollator(metrics), constants, metrics);
         String newMetricName = distiller.getMetric() == null ? defaultMetricName : distiller.getMetric();
         String newScopeName = distiller.getScope() == null ? defaultScope : distiller.getScope();
         Metric newMetric = new Metric(newScopeName, newMetricName);
@@ -156,7 +154,7 @@ public class MetricReducerOrMappingTransform implements Transform {
         newMetric.setDisplayName(distiller.getDisplayName());
         newMetric.setUnits(distiller.getUnits());
         newMetric.setTags(distiller.getTags());
-        newMetric.setDatapoints(reducedDatapoints);
+        newMetric.setDatapointSeries(reducedDatapoints);
         return newMetric;
     }
     
@@ -173,34 +171,45 @@ public class MetricReducerOrMappingTransform implements Transform {
     }
     */
     
-    protected Map<Long, Number> reduce(Map<Long, List<Number>> collated, List<String> constants, List<Metric> metrics) {
-        Map<Long, Number> reducedDatapoints = new HashMap<>();
+    /**
+     * Reduces the collated values at each timestamp in ascending timestamp order. Values are fed to the reducer's accumulator when it provides
+     * one and the inputs hold only primitive values, otherwise they are reduced as a boxed list.
+     *
+     * @param   collator   The collator over the metrics to reduce.
+     * @param   constants  The list of transform specific constants supplied to the transform or null.
+     * @param   metrics    The list of metrics to reduce.
+     *
+     * @return  The reduced data points.
+     */
+    protected DatapointSeries reduce(DatapointCollator collator, List<String> constants, List<Metric> metrics) {
+        DatapointSeries reducedDatapoints = new DatapointSeries();
+        ValueAccumulator accumulator = null;
+        boolean initialized = false;
 
-        for (Map.Entry<Long, List<Number>> entry : collated.entrySet()) {
-            if (entry.getValue().size() < metrics.size()  && !fulljoinIndicator) {
+        while (collator.next()) {
+            if (collator.size() < metrics.size() && !fulljoinIndicator) {
                 continue;
             }
-            
-            Number reducedValue = constants == null || constants.isEmpty() ? 
-										            		this.valueReducerOrMapping.reduce(entry.getValue()) :
-										            		this.valueReducerOrMapping.reduce(entry.getValue(), constants);
-            reducedDatapoints.put(entry.getKey(), reducedValue);
-        }
-        return reducedDatapoints;
-    }
-    
-    protected Map<Long, List<Number>> collate(List<Metric> metrics) {
-        Map<Long, List<Number>> collated = new HashMap<>();
-
-        for (Metric metric : metrics) {
-            for (Map.Entry<Long, Number> point : metric.getDatapoints().entrySet()) {
-                if (!collated.containsKey(point.getKey())) {
-                    collated.put(point.getKey(), new ArrayList<Number>());
+            if (!initialized) {
+                if (valueReducerOrMapping instanceof AccumulatingValueReducer && collator.hasOnlyPrimitiveValues()) {
+                    accumulator = AccumulatingValueReducer.class.cast(valueReducerOrMapping).accumulator(constants);
                 }
-                collated.get(point.getKey()).add(point.getValue());
+                initialized = true;
             }
+
+            Number reducedValue;
+
+            if (accumulator != null) {
+                accumulator.reset();
+                collator.accumulate(accumulator);
+                reducedValue = accumulator.result();
+            } else {
+                reducedValue = constants == null || constants.isEmpty() ? this.valueReducerOrMapping.reduce(collator.values())
+                                                                        : this.valueReducerOrMapping.reduce(collator.values(), constants);
+            }
+            reducedDatapoints.put(collator.timestamp(), reducedValue);
         }
-        return collated;
+        return reducedDatapoints;
     }
    
     @Override
@@ -31,12 +31,10 @@
 
 package com.salesforce.dva.argus.service.metric.transform;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
+import com.salesforce.dva.argus.entity.DatapointSeries;
 import com.salesforce.dva.argus.entity.Metric;
 import com.salesforce.dva.argus.system.SystemAssert;
 
@@ -79,8 +77,8 @@ public class MetricReducerTransform implements Transform {
 	}
 
 	/**
-	 * O(n * m), where n is the max number of data points and m is the number of metrics. This becomes O(n) as the number of data points becomes
-	 * large.
+	 * O(n log m), where n is the total number of data points and m is the number of metrics. Values are fed to the reducer's accumulator when it
+	 * provides one and the inputs hold only primitive values, otherwise they are reduced as a boxed list per timestamp.
 	 *
 	 * @param   metrics  The list of metrics to reduce.
 	 *
@@ -96,8 +94,7 @@ public class MetricReducerTransform implements Transform {
 
 		distiller.distill(metrics);
 
-		Map<Long, List<Number>> collated = collate(metrics);
-		Map<Long, Number> minDatapoints = reduce(collated);
+		DatapointSeries reducedDatapoints = reduce(new DatapointCollator(metrics));
 		String newMetricName = distiller.getMetric() == null ? defaultMetricName : distiller.getMetric();
 		String newScopeName = distiller.getScope() == null ? defaultScope : distiller.getScope();
 		Metric newMetric = new Metric(newScopeName, newMetricName);
@@ -105,32 +102,25 @@ public class MetricReducerTransform implements Transform {
 		newMetric.setDisplayName(distiller.getDisplayName());
 		newMetric.setUnits(distiller.getUnits());
 		newMetric.setTags(distiller.getTags());
-		newMetric.setDatapoints(minDatapoints);
+		newMetric.setDatapointSeries(reducedDatapoints);
 		return newMetric;
 	}
 
-	/*
-	 * Collate all datapoint values for a given timestamp 
-	 */
-	private Map<Long, List<Number>> collate(List<Metric> metrics) {
-		Map<Long, List<Number>> collated = new HashMap<>();
-
-		for (Metric metric : metrics) {
-			for (Map.Entry<Long, Number> point : metric.getDatapoints().entrySet()) {
-				if (!collated.containsKey(point.getKey())) {
-					collated.put(point.getKey(), new ArrayList<Number>());
-				}
-				collated.get(point.getKey()).add(point.getValue());
-			}
-		}
-		return collated;
-	}
-	
-	private Map<Long, Number> reduce(Map<Long, List<Number>> collated) {
-		Map<Long, Number> reducedDatapoints = new HashMap<>();
+	private DatapointSeries reduce(DatapointCollator collator) {
+		DatapointSeries reducedDatapoints = new DatapointSeries();
+		ValueAccumulator accumulator = null;
 
-		for (Map.Entry<Long, List<Number>> entry : collated.entrySet()) {
-			reducedDatapoints.put(entry.getKey(), this.valueReducer.reduce(entry.getValue()));
+		if (valueReducer instanceof AccumulatingValueReducer && collator.hasOnlyPrimitiveValues()) {
+			accumulator = AccumulatingValueReducer.class.cast(valueReducer).accumulator(null);
+		}
+		while (collator.next()) {
+			if (accumulator != null) {
+				accumulator.reset();
+				collator.accumulate(accumulator);
+				reducedDatapoints.put(collator.timestamp(), accumulator.result());
+			} else {
+				reducedDatapoints.put(collator.timestamp(), this.valueReducer.reduce(collator.values()));
+			}
 		}
 		return reducedDatapoints;
 	}
@@ -31,10 +31,10 @@
 	 
 package com.salesforce.dva.argus.service.metric.transform;
 
+import com.salesforce.dva.argus.entity.DatapointSeries;
 import com.salesforce.dva.argus.entity.Metric;
 import com.salesforce.dva.argus.system.SystemAssert;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -106,13 +106,13 @@ public class MetricZipperTransform implements Transform {
         SystemAssert.requireArgument(baseMetric != null, "Zipper transform requires base metric as second param!");
 
         List<Metric> zippedMetrics = new ArrayList<Metric>();
-        Map<Long, Number> baseDatapoints = baseMetric.getDatapoints();
+        DatapointSeries baseDatapoints = baseMetric.getDatapointSeries();
 
         for (Metric metric : metrics) {
-            Map<Long, Number> originalDatapoints = metric.getDatapoints();
-            Map<Long, Number> zippedDatadpoints = this.zip(originalDatapoints, baseDatapoints);
+            DatapointSeries originalDatapoints = metric.getDatapointSeries();
+            DatapointSeries zippedDatadpoints = this.zip(originalDatapoints, baseDatapoints);
 
-            metric.setDatapoints(zippedDatadpoints);
+            metric.setDatapointSeries(zippedDatadpoints);
             zippedMetrics.add(metric);
         }
         return zippedMetrics;
@@ -129,31 +129,49 @@ public class MetricZipperTransform implements Transform {
     public Map<Long, Number> zip(Map<Long, Number> originalDatapoints, Map<Long, Number> baseDatapoints) {
         SystemAssert.requireArgument(baseDatapoints != null && !baseDatapoints.isEmpty(),
             "Zipper transform requires valid baseDatapoints from base metric!");
+        return zip(new DatapointSeries(originalDatapoints), new DatapointSeries(baseDatapoints)).asMap();
+    }
 
-        Map<Long, Number> zippedDP = new HashMap<>();
+    /**
+     * Merges data point series. Both series are walked once in timestamp order.
+     *
+     * @param   originalDatapoints  The original data points.
+     * @param   baseDatapoints      The base data points.
+     *
+     * @return  The merged data points.
+     */
+    public DatapointSeries zip(DatapointSeries originalDatapoints, DatapointSeries baseDatapoints) {
+        SystemAssert.requireArgument(baseDatapoints != null && !baseDatapoints.isEmpty(),
+            "Zipper transform requires valid baseDatapoints from base metric!");
 
-        for (Map.Entry<Long, Number> originalDP : originalDatapoints.entrySet()) {
-            Long originalKey = originalDP.getKey();
-            Number originalVal = originalDP.getValue();
+        DatapointSeries zippedDP = new DatapointSeries(originalDatapoints.size());
+        int originalIndex = 0;
+        int baseIndex = 0;
 
-            // if base datapoints doesn't have the key, give it null
-            Number baseVal = baseDatapoints.containsKey(originalKey) ? baseDatapoints.get(originalKey) : null;
+        while (originalIndex < originalDatapoints.size()) {
+            long originalKey = originalDatapoints.getTimestamp(originalIndex);
 
-            zippedDP.put(originalKey, this.valueZipper.zip(originalVal, baseVal));
-        }
-        
-        // if a point exists in the baseDP but does not exist in the original set, 
-        // then only add it to the result when fullJoinIndicator is true.
-        if(fulljoinIndicator) {
-        	for (Map.Entry<Long, Number> baseDP : baseDatapoints.entrySet()) {
-                Long baseDPKey = baseDP.getKey();
-
-                if(!zippedDP.containsKey(baseDPKey)) {
-                    zippedDP.put(baseDPKey, this.valueZipper.zip(null, baseDP.getValue()));
+            while (baseIndex < baseDatapoints.size() && baseDatapoints.getTimestamp(baseIndex) < originalKey) {
+                // if a point exists in the baseDP but does not exist in the original set, 
+                // then only add it to the result when fullJoinIndicator is true.
+                if (fulljoinIndicator) {
+                    zippedDP.put(baseDatapoints.getTimestamp(baseIndex), this.valueZipper.zip(null, baseDatapoints.getNumber(baseIndex)));
                 }
+                baseIndex++;
             }
+
+            // if base datapoints doesn't have the key, give it null
+            Number baseVal = null;
+
+            if (baseIndex < baseDatapoints.size() && baseDatapoints.getTimestamp(baseIndex) == originalKey) {
+                baseVal = baseDatapoints.getNumber(baseIndex++);
+            }
+            zippedDP.put(originalKey, this.valueZipper.zip(originalDatapoints.getNumber(originalIndex++), baseVal));
+        }
+        while (fulljoinIndicator && baseIndex < baseDatapoints.size()) {
+            zippedDP.put(baseDatapoints.getTimestamp(baseIndex), this.valueZipper.zip(null, baseDatapoints.getNumber(baseIndex)));
+            baseIndex++;
         }
-        
         return zippedDP;
     }
 
@@ -35,17 +35,15 @@ import com.salesforce.dva.argus.entity.NumberOperations;
 import com.salesforce.dva.argus.service.metric.MetricReader;
 import com.salesforce.dva.argus.system.SystemAssert;
 import com.salesforce.dva.argus.system.SystemException;
-import org.apache.commons.lang.ArrayUtils;
-import org.apache.commons.math3.stat.descriptive.rank.Percentile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
 /**
- * Evaluates input metrics using a moving window. calculate either median or average value of the window
+ * Evaluates input metrics using a moving window. calculate either median, percentile, sum or average value of the window
  *
  * @author  Ruofan Zhang (rzhang@salesforce.com)
  */
@@ -73,44 +71,59 @@ public class MovingValueMapping implements ValueMapping {
             SystemAssert.requireArgument(constants.size() == 2, "MOVING Transform can't have more than 2 contants!");
             
             type = InternalReducerType.fromString(constants.get(1));
-            SystemAssert.requireArgument((InternalReducerType.AVG.equals(type) ||
-                    InternalReducerType.MEDIAN.equals(type) || InternalReducerType.SUM.equals(type)), "Type can be one of <avg,median,sum>");
+            SystemAssert.requireArgument((InternalReducerType.AVG.equals(type) || InternalReducerType.MEDIAN.equals(type) ||
+                    InternalReducerType.SUM.equals(type) || InternalReducerType.PERCENTILE.equals(type)), "Type can be one of <avg,median,sum,pNN>");
         }
 
+        double percentile = InternalReducerType.PERCENTILE.equals(type) ? Double.parseDouble(constants.get(1).substring(1)) : 50;
+
+        SystemAssert.requireArgument(percentile > 0, "Percentile must be greater than 0.");
+
         long windowSizeInSeconds = getWindowInSeconds(constants.get(0));
         SystemAssert.requireArgument(windowSizeInSeconds != 0, "Time Interval cannot be 0 for Moving Average Transform");
         
         Map<Long, Number> movingDatapoints = new TreeMap<>();
-        Map<Long, Number> sortedDatapoints = new TreeMap<>(originalDatapoints);
+        long[] timestamps = new long[originalDatapoints.size()];
+        Number[] values = new Number[timestamps.length];
+        int index = 0;
 
-        for (Map.Entry<Long, Number> entry : originalDatapoints.entrySet()) {
-            if (entry.getValue() == null) {
-                sortedDatapoints.put(entry.getKey(), 0);
-            } else {
-                sortedDatapoints.put(entry.getKey(), entry.getValue());
-            }
+        for (Long timestamp : originalDatapoints.keySet()) {
+            timestamps[index++] = timestamp;
+        }
+        Arrays.sort(timestamps);
+        for (index = 0; index < timestamps.length; index++) {
+            Number value = originalDatapoints.get(timestamps[index]);
+
+            values[index] = value == null ? 0 : value;
         }
 
-        Long[] timestamps = new Long[sortedDatapoints.size()];
+        // median and percentiles are selected from the window instead of sorting it at every step
+        SlidingWindowOrderStatistics window = null;
+
+        if (InternalReducerType.MEDIAN.equals(type) || InternalReducerType.PERCENTILE.equals(type)) {
+            double[] doubles = new double[values.length];
 
-        sortedDatapoints.keySet().toArray(timestamps);
+            for (index = 0; index < values.length; index++) {
+                doubles[index] = values[index].doubleValue();
+            }
+            window = new SlidingWindowOrderStatistics(doubles);
+        }
 
         Number sum = 0;
         Number value = 0;
-        List<Number> numberArr = new ArrayList<Number>();
 
         try {
-            sum = sortedDatapoints.get(timestamps[0]);
-            numberArr.add(sortedDatapoints.get(timestamps[0]));
+            sum = values[0];
+            _add(window, 0);
         } catch (NumberFormatException | NullPointerException e) {
-            _logger.warn("Failed to parse datapoint: " + sortedDatapoints.get(timestamps[0]));
+            _logger.warn("Failed to parse datapoint: " + values[0]);
             throw new UnsupportedOperationException("Bad datapoint!");
         }
 
         // if only one point
-        movingDatapoints.put(timestamps[0], sortedDatapoints.get(timestamps[0]));
+        movingDatapoints.put(timestamps[0], values[0]);
 
-        Long firstTimestamp = timestamps[0];
+        long firstTimestamp = timestamps[0];
         int count = 1;
 
         for (int head = 1, tail = 0; head < timestamps.length; head++) {
@@ -125,46 +138,59 @@ public class MovingValueMapping implements ValueMapping {
                         if (head >= timestamps.length - 1) {
                             break;
                         }
-                        value = _calculateValue(sum, numberArr, count, type);
+                        value = _calculateValue(sum, window, values, count, type, percentile);
                         movingDatapoints.put(timestamps[head - 1], value);
-                        sum = NumberOperations.add(sum, sortedDatapoints.get(timestamps[head]));
-                        numberArr.add(sortedDatapoints.get(timestamps[head]));
+                        sum = NumberOperations.add(sum, values[head]);
+                        _add(window, head);
                     } catch (NumberFormatException | NullPointerException e) {
-                        _logger.warn("Failed to parse datapoint: " + sortedDatapoints.get(timestamps[head]));
+                        _logger.warn("Failed to parse datapoint: " + values[head]);
                         throw new IllegalArgumentException("Bad datapoint!");
                     }
                     head++;
                     count++;
                 }
                 
-                value = _calculateValue(sum, numberArr, count, type);
+                value = _calculateValue(sum, window, values, count, type, percentile);
                 movingDatapoints.put(timestamps[head - 1], value);
             }
             
             try {
-            	sum = NumberOperations.add(sum, sortedDatapoints.get(timestamps[head]));
-                numberArr.add(sortedDatapoints.get(timestamps[head]));
+            	sum = NumberOperations.add(sum, values[head]);
+                _add(window, head);
                 while (timestamps[head] - timestamps[tail] >= windowSizeInSeconds * 1000) {
-                    sum = _subtractWithinWindow(sum, sortedDatapoints, timestamps[tail], timestamps[head]);
-                    numberArr.remove(sortedDatapoints.get(timestamps[tail]));
+                    sum = NumberOperations.subtract(sum, values[tail]);
+                    if (window != null) {
+                        window.remove(tail);
+                    }
                     count--;
                     tail++;
                 }
             } catch (NumberFormatException | NullPointerException e) {
-                _logger.warn("Failed to parse datapoint: " + sortedDatapoints.get(timestamps[head]));
+                _logger.warn("Failed to parse datapoint: " + values[head]);
                 throw new UnsupportedOperationException("Bad datapoint!");
             }
             count++;
-            value = _calculateValue(sum, numberArr, count, type);
+            value = _calculateValue(sum, window, values, count, type, percentile);
             movingDatapoints.put(timestamps[head], value);
         } // end for
         return movingDatapoints;
     }
+
+    private void _add(SlidingWindowOrderStatistics window, int index) {
+        if (window != null) {
+            window.add(index);
+        }
+    }
 	
-	private Number _calculateValue(Number sum, List<Number> numberArr, int count, InternalReducerType type) {
+	private Number _calculateValue(Number sum, SlidingWindowOrderStatistics window, Number[] values, int count, InternalReducerType type,
+			double percentile) {
 		if (InternalReducerType.MEDIAN.equals(type)) {
-			Number[] numbers = numberArr.toArray(new Number[numberArr.size()]);
-			return NumberOperations.findMedian(numbers);
+			// like NumberOperations.findMedian, a single value is returned as it is
+			return window.size() == 1 ? values[window.select(1)] : window.percentile(50);
+		}
+
+		if (InternalReducerType.PERCENTILE.equals(type)) {
+			return window.percentile(percentile);
 		}
 		
 		if (InternalReducerType.AVG.equals(type)) {
@@ -179,11 +205,6 @@ public class MovingValueMapping implements ValueMapping {
         return TransformFactory.Function.MOVING.name();
     }
     
-    private Number _subtractWithinWindow(Number sum, Map<Long, Number> sortedDatapoints, long end, long start) {
-    	sum = NumberOperations.subtract(sum, sortedDatapoints.get(end));
-    	return sum;
-    }
-
     private long getWindowInSeconds(String window) {
         SystemAssert.requireArgument(!window.startsWith("-"), "Window size doesn't allow negative value.");
 
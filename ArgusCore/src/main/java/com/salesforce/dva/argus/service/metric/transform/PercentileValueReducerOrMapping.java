@@ -36,6 +36,7 @@ import com.salesforce.dva.argus.entity.NumberOperations;
 import com.salesforce.dva.argus.service.metric.MetricReader;
 import com.salesforce.dva.argus.system.SystemAssert;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -50,7 +51,7 @@ import org.apache.commons.math3.stat.descriptive.rank.Percentile;
  *
  * @author  Ruofan Zhang (rzhang@salesforce.com)
  */
-public class PercentileValueReducerOrMapping implements ValueReducerOrMapping {
+public class PercentileValueReducerOrMapping implements ValueReducerOrMapping, AccumulatingValueReducer {
 
     //~ Static fields/initializers *******************************************************************************************************************
 
@@ -104,6 +105,15 @@ public class PercentileValueReducerOrMapping implements ValueReducerOrMapping {
         return new HashMap<Long, Number>(_calculateNthPercentileForOneMetric(originalDatapointsDouble, percentile));
     }
 
+    @Override
+    public ValueAccumulator accumulator(List<String> constants) {
+        if (constants == null || constants.isEmpty()) {
+            return null;
+        }
+        parseConstants(constants);
+        return new PercentileAccumulator(percentile);
+    }
+
     @Override
     public String name() {
         return TransformFactory.Function.PERCENTILE.name();
@@ -126,5 +136,51 @@ public class PercentileValueReducerOrMapping implements ValueReducerOrMapping {
         return new Percentile().evaluate(Doubles.toArray(values), percentileValue);
     }
 
+    //~ Inner Classes ********************************************************************************************************************************
+
+    /**
+     * Accumulator equivalent to {@link #reduce(List, List)}. Values are buffered in a reused primitive array rather than boxed per timestamp.
+     *
+     * @author  a.chambers
+     */
+    private static class PercentileAccumulator implements ValueAccumulator {
+
+        private final Percentile evaluator = new Percentile();
+        private final double percentileValue;
+        private double[] values = new double[16];
+        private int size;
+
+        PercentileAccumulator(double percentileValue) {
+            this.percentileValue = percentileValue;
+        }
+
+        @Override
+        public void reset() {
+            size = 0;
+        }
+
+        @Override
+        public void add(double value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size << 1);
+            }
+            values[size++] = value;
+        }
+
+        @Override
+        public void add(long value) {
+            throw new UnsupportedOperationException("Only supported for list of double valeus.");
+        }
+
+        @Override
+        public void addNull() {
+            throw new NullPointerException();
+        }
+
+        @Override
+        public Number result() {
+            return evaluator.evaluate(values, 0, size, percentileValue);
+        }
+    }
 }
 /* Copyright (c) 2016, Salesforce.com, Inc. All rights reserved. */
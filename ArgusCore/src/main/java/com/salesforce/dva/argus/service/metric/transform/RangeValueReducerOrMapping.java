@@ -41,7 +41,7 @@ import com.salesforce.dva.argus.entity.NumberOperations;
  *
  * @author  Ruofan Zhang (rzhang@salesforce.com)
  */
-public class RangeValueReducerOrMapping implements ValueReducerOrMapping {
+public class RangeValueReducerOrMapping implements ValueReducerOrMapping, AccumulatingValueReducer {
 
     //~ Methods **************************************************************************************************************************************
 
@@ -76,9 +76,92 @@ public class RangeValueReducerOrMapping implements ValueReducerOrMapping {
         throw new UnsupportedOperationException("Range transform doesn't suppport reduce with constant");
     }
 
+    @Override
+    public ValueAccumulator accumulator(List<String> constants) {
+        return constants == null || constants.isEmpty() ? new RangeAccumulator() : null;
+    }
+
     @Override
     public String name() {
         return TransformFactory.Function.RANGE.name();
     }
+
+    //~ Inner Classes ********************************************************************************************************************************
+
+    /**
+     * Accumulator equivalent to {@link #reduce(List)}. Null values count as a long zero. The minimum and maximum stay longs for as long as only
+     * longs have been compared against them, as they do with {@link NumberOperations#getMin(Number, Number)}.
+     *
+     * @author  a.chambers
+     */
+    private static class RangeAccumulator implements ValueAccumulator {
+
+        private long longMin;
+        private long longMax;
+        private double doubleMin;
+        private double doubleMax;
+        private boolean isMinDouble;
+        private boolean isMaxDouble;
+        private boolean isEmpty = true;
+
+        @Override
+        public void reset() {
+            isEmpty = true;
+        }
+
+        @Override
+        public void add(double value) {
+            if (isEmpty) {
+                doubleMin = value;
+                doubleMax = value;
+                isMinDouble = true;
+                isMaxDouble = true;
+                isEmpty = false;
+                return;
+            }
+            doubleMin = Math.min(value, isMinDouble ? doubleMin : longMin);
+            doubleMax = Math.max(value, isMaxDouble ? doubleMax : longMax);
+            isMinDouble = true;
+            isMaxDouble = true;
+        }
+
+        @Override
+        public void add(long value) {
+            if (isEmpty) {
+                longMin = value;
+                longMax = value;
+                isMinDouble = false;
+                isMaxDouble = false;
+                isEmpty = false;
+                return;
+            }
+            if (isMinDouble) {
+                doubleMin = Math.min(value, doubleMin);
+            } else {
+                longMin = Math.min(value, longMin);
+            }
+            if (isMaxDouble) {
+                doubleMax = Math.max(value, doubleMax);
+            } else {
+                longMax = Math.max(value, longMax);
+            }
+        }
+
+        @Override
+        public void addNull() {
+            add(0L);
+        }
+
+        @Override
+        public Number result() {
+            if (isEmpty) {
+                return Double.MAX_VALUE - Double.MIN_VALUE;
+            }
+            if (!isMinDouble && !isMaxDouble) {
+                return longMax - longMin;
+            }
+            return (isMaxDouble ? doubleMax : longMax) - (isMinDouble ? doubleMin : longMin);
+        }
+    }
 }
 /* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
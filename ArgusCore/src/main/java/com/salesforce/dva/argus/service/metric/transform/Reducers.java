@@ -53,5 +53,77 @@ public class Reducers {
 
         return result;
     }
+
+    /**
+     * Accumulator equivalent to {@link #sumReducer(List)}. Longs are summed as longs until the first double is seen, after which the sum continues
+     * in double precision, which is exactly what repeated calls to {@link NumberOperations#add(Number, Number)} produce.
+     *
+     * @author  a.chambers
+     */
+    static class SumAccumulator implements ValueAccumulator {
+
+        private long longSum;
+        private double doubleSum;
+        private boolean isDouble;
+        private boolean isEmpty = true;
+        private int count;
+
+        @Override
+        public void reset() {
+            longSum = 0;
+            doubleSum = 0;
+            isDouble = false;
+            isEmpty = true;
+            count = 0;
+        }
+
+        @Override
+        public void add(double value) {
+            if (!isDouble) {
+                doubleSum = longSum;
+                isDouble = true;
+            }
+            doubleSum += value;
+            isEmpty = false;
+            count++;
+        }
+
+        @Override
+        public void add(long value) {
+            if (isDouble) {
+                doubleSum += value;
+            } else {
+                longSum += value;
+            }
+            isEmpty = false;
+            count++;
+        }
+
+        @Override
+        public void addNull() {
+            count++;
+        }
+
+        @Override
+        public Number result() {
+            if (isEmpty) {
+                return 0;
+            }
+            if (isDouble) {
+                return doubleSum;
+            }
+            return longSum;
+        }
+
+        /* The sum widened to a double. */
+        double doubleValue() {
+            return isDouble ? doubleSum : longSum;
+        }
+
+        /* The number of values accumulated, including nulls. */
+        int count() {
+            return count;
+        }
+    }
 }
 /* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
@@ -44,7 +44,7 @@ import java.util.Map;
  *
  * @author  Ruofan Zhang (rzhang@salesforce.com)
  */
-public class ScaleValueReducerOrMapping implements ValueReducerOrMapping {
+public class ScaleValueReducerOrMapping implements ValueReducerOrMapping, AccumulatingValueReducer {
 
     //~ Methods **************************************************************************************************************************************
 
@@ -90,9 +90,71 @@ public class ScaleValueReducerOrMapping implements ValueReducerOrMapping {
         throw new UnsupportedOperationException("Scale Transform with reducer is not supposed to be used without a constant");
     }
 
+    @Override
+    public ValueAccumulator accumulator(List<String> constants) {
+        return constants == null || constants.isEmpty() ? new ProductAccumulator() : null;
+    }
+
     @Override
     public String name() {
         return TransformFactory.Function.SCALE.name();
     }
+
+    //~ Inner Classes ********************************************************************************************************************************
+
+    /**
+     * Accumulator equivalent to {@link #reduce(List)}. Longs are multiplied as longs until the first double is seen, after which the product
+     * continues in double precision.
+     *
+     * @author  a.chambers
+     */
+    private static class ProductAccumulator implements ValueAccumulator {
+
+        private long longProduct = 1;
+        private double doubleProduct;
+        private boolean isDouble;
+        private boolean isEmpty = true;
+
+        @Override
+        public void reset() {
+            longProduct = 1;
+            isDouble = false;
+            isEmpty = true;
+        }
+
+        @Override
+        public void add(double value) {
+            if (!isDouble) {
+                doubleProduct = longProduct;
+                isDouble = true;
+            }
+            doubleProduct *= value;
+            isEmpty = false;
+        }
+
+        @Override
+        public void add(long value) {
+            if (isDouble) {
+                doubleProduct *= value;
+            } else {
+                longProduct *= value;
+            }
+            isEmpty = false;
+        }
+
+        @Override
+        public void addNull() { }
+
+        @Override
+        public Number result() {
+            if (isEmpty) {
+                return 1;
+            }
+            if (isDouble) {
+                return doubleProduct;
+            }
+            return longProduct;
+        }
+    }
 }
 /* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
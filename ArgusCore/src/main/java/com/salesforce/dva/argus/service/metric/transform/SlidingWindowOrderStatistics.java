@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.dva.argus.service.metric.transform;
+
+import com.salesforce.dva.argus.system.SystemAssert;
+
+/**
+ * Order statistics of a sliding window over a series of values. The values of the series are held in a primitive array and the window holds
+ * their indices. The window is split between a max heap of its lowest values and a min heap of the others, so that the value of any one rank is
+ * at the top of one of the heaps. Removed indices are not searched for, but are only marked and discarded once they reach the top of a heap.
+ *
+ * <p>Adding or removing a value and selecting a rank that differs by a bound amount from the previously selected rank are O(log w), where w is
+ * the size of the window. Equal values are ordered by index, so the order of the window is total.</p>
+ *
+ * @author  a.chambers
+ */
+public class SlidingWindowOrderStatistics {
+
+    //~ Static fields/initializers *******************************************************************************************************************
+
+    private static final byte NONE = 0;
+    private static final byte LOWER = 1;
+    private static final byte UPPER = 2;
+    private static final byte REMOVED = 3;
+
+    /* Heaps are compacted once they hold more removed indices than this many in addition to their live ones. */
+    private static final int MIN_STALE = 16;
+
+    //~ Instance fields ******************************************************************************************************************************
+
+    private final double[] values;
+
+    /* The heap holding each index, NONE if it was never added or REMOVED if it was removed. */
+    private final byte[] location;
+    private final int[] lower;
+    private final int[] upper;
+    private int lowerSize;
+    private int upperSize;
+    private int lowerCount;
+    private int upperCount;
+
+    //~ Constructors *********************************************************************************************************************************
+
+    /**
+     * Creates a new SlidingWindowOrderStatistics object with an empty window.
+     *
+     * @param  values  The values of the series. Cannot be null. The array is not copied and must not be modified while the window is in use.
+     */
+    public SlidingWindowOrderStatistics(double[] values) {
+        SystemAssert.requireArgument(values != null, "Values cannot be null.");
+        this.values = values;
+        location = new byte[values.length];
+        lower = new int[values.length];
+        upper = new int[values.length];
+    }
+
+    //~ Methods **************************************************************************************************************************************
+
+    /**
+     * Adds a value of the series to the window.
+     *
+     * @param  index  The index of the value. Cannot already be in the window, nor have been removed from it.
+     */
+    public void add(int index) {
+        SystemAssert.requireArgument(location[index] == NONE, "Index was already added to the window.");
+        pruneLower();
+        if (lowerCount > 0 && compare(index, lower[0]) < 0) {
+            push(lower, lowerSize++, index, true);
+            location[index] = LOWER;
+            lowerCount++;
+        } else {
+            push(upper, upperSize++, index, false);
+            location[index] = UPPER;
+            upperCount++;
+        }
+    }
+
+    /**
+     * Removes a value of the series from the window.
+     *
+     * @param  index  The index of the value. Must be in the window.
+     */
+    public void remove(int index) {
+        SystemAssert.requireArgument(location[index] == LOWER || location[index] == UPPER, "Index is not in the window.");
+
+        byte side = location[index];
+
+        // the index is only discarded from its heap once it reaches the top, or when the heap is compacted
+        location[index] = REMOVED;
+        if (side == LOWER) {
+            lowerCount--;
+            if (lowerSize > 2 * lowerCount + MIN_STALE) {
+                lowerSize = compact(lower, lowerSize, LOWER, true);
+            }
+        } else {
+            upperCount--;
+            if (upperSize > 2 * upperCount + MIN_STALE) {
+                upperSize = compact(upper, upperSize, UPPER, false);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of values in the window.
+     *
+     * @return  The size of the window.
+     */
+    public int size() {
+        return lowerCount + upperCount;
+    }
+
+    /**
+     * Returns the index of the value of a rank in the window.
+     *
+     * @param   rank  The rank, from 1 for the lowest value to the size of the window for the highest one.
+     *
+     * @return  The index of the value.
+     */
+    public int select(int rank) {
+        SystemAssert.requireArgument(rank >= 1 && rank <= size(), "Rank must be between 1 and the size of the window.");
+        pruneLower();
+        pruneUpper();
+        while (lowerCount > rank) {
+            int index = pop(lower, lowerSize--, true);
+
+            push(upper, upperSize++, index, false);
+            location[index] = UPPER;
+            lowerCount--;
+            upperCount++;
+            pruneLower();
+        }
+        while (lowerCount < rank) {
+            int index = pop(upper, upperSize--, false);
+
+            push(lower, lowerSize++, index, true);
+            location[index] = LOWER;
+            upperCount--;
+            lowerCount++;
+            pruneUpper();
+        }
+        return lower[0];
+    }
+
+    /**
+     * Returns a percentile of the window. It is estimated like {@link org.apache.commons.math3.stat.descriptive.rank.Percentile} and
+     * {@link com.salesforce.dva.argus.entity.NumberOperations#findMedian(Number[])} do, by interpolating between the two values whose ranks
+     * surround p * (w + 1) / 100.
+     *
+     * @param   p  The percentile. Must be greater than 0 and at most 100.
+     *
+     * @return  The percentile.
+     */
+    public double percentile(double p) {
+        SystemAssert.requireArgument(p > 0 && p <= 100, "Percentile must be greater than 0 and at most 100.");
+
+        int n = size();
+
+        SystemAssert.requireArgument(n > 0, "Window cannot be empty.");
+
+        double pos = p * (n + 1) / 100;
+
+        if (pos < 1) {
+            return values[select(1)];
+        }
+        if (pos >= n) {
+            return values[select(n)];
+        }
+
+        int rank = (int) Math.floor(pos);
+        double low = values[select(rank)];
+        double high = values[upper[0]];
+
+        return low + (pos - rank) * (high - low);
+    }
+
+    private int compare(int a, int b) {
+        int result = Double.compare(values[a], values[b]);
+
+        return result != 0 ? result : Integer.compare(a, b);
+    }
+
+    /* Whether index a belongs above index b in a heap. */
+    private boolean above(int a, int b, boolean max) {
+        int result = compare(a, b);
+
+        return max ? result > 0 : result < 0;
+    }
+
+    private void pruneLower() {
+        while (lowerSize > 0 && location[lower[0]] != LOWER) {
+            pop(lower, lowerSize--, true);
+        }
+    }
+
+    private void pruneUpper() {
+        while (upperSize > 0 && location[upper[0]] != UPPER) {
+            pop(upper, upperSize--, false);
+        }
+    }
+
+    /* Rebuilds a heap from its live indices. */
+    private int compact(int[] heap, int size, byte side, boolean max) {
+        int live = 0;
+
+        for (int i = 0; i < size; i++) {
+            if (location[heap[i]] == side) {
+                heap[live++] = heap[i];
+            }
+        }
+        for (int i = live / 2 - 1; i >= 0; i--) {
+            siftDown(heap, live, i, max);
+        }
+        return live;
+    }
+
+    private void push(int[] heap, int size, int index, boolean max) {
+        int i = size;
+
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+
+            if (!above(index, heap[parent], max)) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = index;
+    }
+
+    private int pop(int[] heap, int size, boolean max) {
+        int top = heap[0];
+
+        heap[0] = heap[size - 1];
+        siftDown(heap, size - 1, 0, max);
+        return top;
+    }
+
+    private void siftDown(int[] heap, int size, int i, boolean max) {
+        int index = heap[i];
+
+        while (true) {
+            int child = 2 * i + 1;
+
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && above(heap[child + 1], heap[child], max)) {
+                child++;
+            }
+            if (!above(heap[child], index, max)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = index;
+    }
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
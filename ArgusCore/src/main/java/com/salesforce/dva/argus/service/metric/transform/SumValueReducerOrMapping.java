@@ -45,7 +45,7 @@ import java.util.stream.Collectors;
  *
  * @author  Ruofan Zhang (rzhang@salesforce.com)
  */
-public class SumValueReducerOrMapping implements ValueReducerOrMapping {
+public class SumValueReducerOrMapping implements ValueReducerOrMapping, AccumulatingValueReducer {
 
     //~ Methods **************************************************************************************************************************************
 
@@ -83,6 +83,11 @@ public class SumValueReducerOrMapping implements ValueReducerOrMapping {
         throw new UnsupportedOperationException("Sum Transform with reducer is not supposed to be used without a constant");
     }
 
+    @Override
+    public ValueAccumulator accumulator(List<String> constants) {
+        return constants == null || constants.isEmpty() ? new Reducers.SumAccumulator() : null;
+    }
+
     @Override
     public String name() {
         return TransformFactory.Function.SUM.name();
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+	 
+package com.salesforce.dva.argus.service.metric.transform;
+
+/**
+ * Reduces a stream of primitive values into a single value without collecting them into a list. An accumulator is reset and reused for every
+ * timestamp, so implementations should not allocate per value.
+ *
+ * <p>Implementations must produce the same result, including the type of the returned number, as the boxed reducer they stand in for.</p>
+ *
+ * @author  a.chambers
+ */
+public interface ValueAccumulator {
+
+    //~ Methods **************************************************************************************************************************************
+
+    /** Discards all accumulated values. */
+    void reset();
+
+    /**
+     * Accumulates a <tt>Double</tt> value.
+     *
+     * @param  value  The value.
+     */
+    void add(double value);
+
+    /**
+     * Accumulates a <tt>Long</tt> value.
+     *
+     * @param  value  The value.
+     */
+    void add(long value);
+
+    /** Accumulates a null value. */
+    void addNull();
+
+    /**
+     * Returns the reduced value of everything accumulated since the last reset.
+     *
+     * @return  The reduced value.
+     */
+    Number result();
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
@@ -0,0 +1,496 @@
+/*
+ * Copyright (c) 2018, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.dva.argus.service.monitor;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+
+import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.entity.NumberOperations;
+import com.salesforce.dva.argus.service.MonitorService.Counter;
+
+/**
+ * The counters of {@link DefaultMonitorService}. Counters are keyed by name and tags, and the key of each counter is interned in a cell the first
+ * time it is used, so that recording a value neither allocates a key nor takes a lock. Each cell accumulates deltas in striped slots, in the
+ * manner of {@link java.util.concurrent.atomic.LongAdder}, so that threads updating the same counter rarely contend.
+ *
+ * <p>{@link #snapshotAndReset(String)} drains every counter that was recorded since the previous snapshot. Slots are drained with an atomic get
+ * and set, so a value recorded concurrently with a snapshot is counted in exactly one snapshot. Counters that were not recorded during a whole
+ * period are evicted, and a writer racing with the eviction of its counter moves its value to a new cell.</p>
+ *
+ * <p>The registry also holds {@link LogHistogram histograms}, which are keyed, drained and evicted the same way. A snapshot publishes each
+ * histogram as four counters, named after the histogram with the suffixes in {@link #HISTOGRAM_PERCENTILES}.</p>
+ *
+ * @author  a.chambers
+ */
+final class CounterRegistry {
+
+	//~ Static fields/initializers *******************************************************************************************************************
+
+	private static final String CUSTOM_SCOPE = "argus.custom";
+	private static final int MAX_STRIPES = 16;
+
+	/** The percentiles published for each histogram, keyed by the suffix of the published counter. */
+	static final Map<String, Double> HISTOGRAM_PERCENTILES;
+
+	static {
+		Map<String, Double> percentiles = new LinkedHashMap<>();
+
+		percentiles.put(".p50", 50.0);
+		percentiles.put(".p90", 90.0);
+		percentiles.put(".p99", 99.0);
+		percentiles.put(".max", 100.0);
+		HISTOGRAM_PERCENTILES = Collections.unmodifiableMap(percentiles);
+	}
+
+	//~ Instance fields ******************************************************************************************************************************
+
+	private final Map<String, Map<Map<String, String>, Cell>> _cells = new ConcurrentHashMap<>();
+	private final Map<String, Map<Map<String, String>, HistogramCell>> _histograms = new ConcurrentHashMap<>();
+	private final int _stripes;
+
+	//~ Constructors *********************************************************************************************************************************
+
+	/** Creates a new CounterRegistry object striped for the number of available processors. */
+	CounterRegistry() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a new CounterRegistry object.
+	 *
+	 * @param  concurrency  The expected number of concurrent writers. Rounded up to a power of two and capped at {@link #MAX_STRIPES}.
+	 */
+	CounterRegistry(int concurrency) {
+		int stripes = 1;
+
+		while (stripes < Math.min(MAX_STRIPES, concurrency)) {
+			stripes <<= 1;
+		}
+		_stripes = stripes;
+	}
+
+	//~ Methods **************************************************************************************************************************************
+
+	/**
+	 * Adds a delta to a counter.
+	 *
+	 * @param   name   The counter name. Cannot be null.
+	 * @param   tags   The counter tags. May be null.
+	 * @param   delta  The delta. Cannot be null. Integral deltas are accumulated as longs, all others as doubles.
+	 *
+	 * @return  The new value of the counter.
+	 */
+	Number add(String name, Map<String, String> tags, Number delta) {
+		Number pending = delta;
+
+		while (true) {
+			Cell cell = _cell(_cells, name, tags, this::_newCell);
+
+			cell.add(pending);
+			if (!cell.retired) {
+				return cell.peek();
+			}
+			pending = cell.drain();
+			if (pending == null) {
+				// the snapshot evicting the cell already took the delta
+				return _cell(_cells, name, tags, this::_newCell).peek();
+			}
+		}
+	}
+
+	/**
+	 * Sets the value of a counter, discarding the deltas added to it since the last snapshot.
+	 *
+	 * @param  name   The counter name. Cannot be null.
+	 * @param  tags   The counter tags. May be null.
+	 * @param  value  The value. Cannot be null.
+	 */
+	void set(String name, Map<String, String> tags, Number value) {
+		Cell cell = _cell(_cells, name, tags, this::_newCell);
+
+		cell.set(value);
+		if (cell.retired) {
+			_cell(_cells, name, tags, this::_newCell).set(value);
+		}
+	}
+
+	/**
+	 * Records a value in a histogram.
+	 *
+	 * @param  name   The histogram name. Cannot be null.
+	 * @param  tags   The histogram tags. May be null.
+	 * @param  value  The value.
+	 */
+	void record(String name, Map<String, String> tags, long value) {
+		HistogramCell cell = _cell(_histograms, name, tags, HistogramCell::new);
+
+		cell.record(value);
+		if (cell.retired) {
+			LogHistogram pending = new LogHistogram();
+
+			// the snapshot evicting the cell either took the value already or left it for us to move
+			if (cell.drainTo(pending) > 0) {
+				_cell(_histograms, name, tags, HistogramCell::new).merge(pending);
+			}
+		}
+	}
+
+	/**
+	 * Returns a copy of a histogram without resetting it.
+	 *
+	 * @param   name  The histogram name. Cannot be null.
+	 * @param   tags  The histogram tags. May be null.
+	 *
+	 * @return  The histogram, or null if nothing was recorded since the last snapshot or reset.
+	 */
+	LogHistogram getHistogram(String name, Map<String, String> tags) {
+		Map<Map<String, String>, HistogramCell> cells = _histograms.get(name);
+		HistogramCell cell = cells == null ? null : cells.get(tags == null ? Collections.<String, String>emptyMap() : tags);
+
+		return cell == null ? null : cell.copy();
+	}
+
+	/**
+	 * Returns the value of a counter without resetting it.
+	 *
+	 * @param   name  The counter name. Cannot be null.
+	 * @param   tags  The counter tags. May be null.
+	 *
+	 * @return  The value, or null if the counter was not recorded since the last snapshot or reset.
+	 */
+	Number get(String name, Map<String, String> tags) {
+		Map<Map<String, String>, Cell> cells = _cells.get(name);
+		Cell cell = cells == null ? null : cells.get(tags == null ? Collections.<String, String>emptyMap() : tags);
+
+		return cell == null ? null : cell.peek();
+	}
+
+	/**
+	 * Resets the counters of a scope.
+	 *
+	 * @param  scope  The scope. Cannot be null.
+	 */
+	void reset(String scope) {
+		for (Map<Map<String, String>, Cell> cells : _cells.values()) {
+			for (Cell cell : cells.values()) {
+				if (scope.equalsIgnoreCase(cell.scope)) {
+					cell.clear();
+				}
+			}
+		}
+		for (Map<Map<String, String>, HistogramCell> cells : _histograms.values()) {
+			for (HistogramCell cell : cells.values()) {
+				if (scope.equalsIgnoreCase(cell.scope)) {
+					cell.histogram.drainTo(new LogHistogram());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drains the counters recorded since the previous snapshot and evicts the counters that were not.
+	 *
+	 * @param   host  The value of the host tag added to every metric. Cannot be null.
+	 *
+	 * @return  The counters as metrics without data points, mapped to their values.
+	 */
+	Map<Metric, Number> snapshotAndReset(String host) {
+		Map<Metric, Number> snapshot = new HashMap<>();
+
+		for (Map<Map<String, String>, Cell> cells : _cells.values()) {
+			for (Iterator<Cell> it = cells.values().iterator(); it.hasNext();) {
+				Cell cell = it.next();
+				Number value = cell.drain();
+
+				if (value == null && cell.isIdle()) {
+					cell.retired = true;
+					it.remove();
+					// a writer may have recorded a value before it saw the cell retired
+					value = cell.drain();
+				}
+				if (value != null) {
+					snapshot.put(_toMetric(cell.scope, cell.name, cell.tags, host), value);
+				}
+			}
+		}
+		for (Map<Map<String, String>, HistogramCell> cells : _histograms.values()) {
+			for (Iterator<HistogramCell> it = cells.values().iterator(); it.hasNext();) {
+				HistogramCell cell = it.next();
+				LogHistogram histogram = new LogHistogram();
+
+				if (cell.drainTo(histogram) == 0 && cell.isIdle()) {
+					cell.retired = true;
+					it.remove();
+					cell.drainTo(histogram);
+				}
+				if (histogram.getCount() > 0) {
+					for (Map.Entry<String, Double> percentile : HISTOGRAM_PERCENTILES.entrySet()) {
+						snapshot.put(_toMetric(cell.scope, cell.name + percentile.getKey(), cell.tags, host),
+							histogram.getValueAtPercentile(percentile.getValue()));
+					}
+				}
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Returns the number of interned counters.
+	 *
+	 * @return  The number of counters.
+	 */
+	int size() {
+		int size = 0;
+
+		for (Map<Map<String, String>, Cell> cells : _cells.values()) {
+			size += cells.size();
+		}
+		for (Map<Map<String, String>, HistogramCell> cells : _histograms.values()) {
+			size += cells.size();
+		}
+		return size;
+	}
+
+	private static String _scope(String name) {
+		Counter counter = Counter.fromMetricName(name);
+
+		return counter == null ? CUSTOM_SCOPE : counter.getScope();
+	}
+
+	private static Metric _toMetric(String scope, String name, Map<String, String> tags, String host) {
+		Metric metric = new Metric(scope, name);
+
+		metric.setTags(tags);
+		metric.setTag("host", host);
+		return metric;
+	}
+
+	private Cell _newCell(String name, Map<String, String> tags) {
+		return new Cell(name, tags, _stripes);
+	}
+
+	/* Looks up the cell of a counter with the caller's tags, only copying them the first time the counter is used. */
+	private static <C> C _cell(Map<String, Map<Map<String, String>, C>> registry, String name, Map<String, String> tags,
+		BiFunction<String, Map<String, String>, C> factory) {
+		Map<String, String> key = tags == null ? Collections.<String, String>emptyMap() : tags;
+		Map<Map<String, String>, C> cells = registry.get(name);
+
+		if (cells == null) {
+			cells = registry.computeIfAbsent(name, n -> new ConcurrentHashMap<>());
+		}
+
+		C cell = cells.get(key);
+
+		if (cell == null) {
+			Map<String, String> interned = Collections.unmodifiableMap(new HashMap<>(key));
+
+			cell = cells.computeIfAbsent(interned, k -> factory.apply(name, interned));
+		}
+		return cell;
+	}
+
+	//~ Inner Classes ********************************************************************************************************************************
+
+	/** The striped value of one counter. */
+	private static final class Cell {
+
+		private static final int LONG = 1;
+		private static final int DOUBLE = 2;
+		private static final int GAUGE = 4;
+
+		// a stripe holds a long and a double slot and is padded to its own cache line
+		private static final int PAD = 8;
+
+		private final String scope;
+		private final String name;
+		private final Map<String, String> tags;
+		private final int stripes;
+		private final AtomicLongArray base = new AtomicLongArray(2);
+		private final AtomicReference<AtomicLongArray> striped = new AtomicReference<>();
+		private final AtomicReference<Number> gauge = new AtomicReference<>();
+		private final AtomicInteger kinds = new AtomicInteger();
+		private int idlePeriods;
+		private volatile boolean retired;
+
+		Cell(String name, Map<String, String> tags, int stripes) {
+			this.scope = _scope(name);
+			this.name = name;
+			this.tags = tags;
+			this.stripes = stripes;
+		}
+
+		void add(Number delta) {
+			boolean integral = delta instanceof Long || delta instanceof Integer || delta instanceof Short || delta instanceof Byte;
+			int slot = integral ? 0 : 1;
+			AtomicLongArray slots = striped.get();
+
+			if (slots != null || !_tryAdd(base, slot, delta, integral)) {
+				if (slots == null) {
+					// the base slot is contended, spread writers over the stripes from now on
+					striped.compareAndSet(null, new AtomicLongArray(stripes * PAD));
+					slots = striped.get();
+				}
+
+				int index = (_probe() & (stripes - 1)) * PAD + slot;
+
+				while (!_tryAdd(slots, index, delta, integral)) { }
+			}
+			_mark(integral ? LONG : DOUBLE);
+		}
+
+		void set(Number value) {
+			gauge.set(value);
+			_value(0, null, true);
+			_mark(GAUGE);
+		}
+
+		Number peek() {
+			int recorded = kinds.get();
+
+			return recorded == 0 ? null : _value(recorded, gauge.get(), false);
+		}
+
+		Number drain() {
+			int recorded = kinds.getAndSet(0);
+
+			idlePeriods = recorded == 0 ? idlePeriods + 1 : 0;
+			return _value(recorded, gauge.getAndSet(null), true);
+		}
+
+		void clear() {
+			kinds.set(0);
+			gauge.set(null);
+			_value(0, null, true);
+		}
+
+		boolean isIdle() {
+			return idlePeriods > 1;
+		}
+
+		/* Slots are included whenever they are non zero, since a writer may not have marked its kind yet when the cell is drained. */
+		private Number _value(int recorded, Number gaugeValue, boolean reset) {
+			long longSum = _take(base, 0, reset);
+			double doubleSum = Double.longBitsToDouble(_take(base, 1, reset));
+			AtomicLongArray slots = striped.get();
+			Number value = gaugeValue;
+
+			if (slots != null) {
+				for (int i = 0; i < slots.length(); i += PAD) {
+					longSum += _take(slots, i, reset);
+					doubleSum += Double.longBitsToDouble(_take(slots, i + 1, reset));
+				}
+			}
+			if (longSum != 0 || (recorded & LONG) != 0) {
+				value = value == null ? Long.valueOf(longSum) : NumberOperations.add(value, longSum);
+			}
+			if (doubleSum != 0 || (recorded & DOUBLE) != 0) {
+				value = value == null ? Double.valueOf(doubleSum) : NumberOperations.add(value, doubleSum);
+			}
+			return value;
+		}
+
+		private void _mark(int kind) {
+			if ((kinds.get() & kind) == 0) {
+				kinds.getAndUpdate(k -> k | kind);
+			}
+		}
+
+		private static long _take(AtomicLongArray slots, int index, boolean reset) {
+			return reset ? slots.getAndSet(index, 0L) : slots.get(index);
+		}
+
+		private static boolean _tryAdd(AtomicLongArray slots, int index, Number delta, boolean integral) {
+			long current = slots.get(index);
+			long next = integral ? current + delta.longValue()
+				: Double.doubleToRawLongBits(Double.longBitsToDouble(current) + delta.doubleValue());
+
+			return slots.compareAndSet(index, current, next);
+		}
+
+		private static int _probe() {
+			long id = Thread.currentThread().getId();
+
+			return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32);
+		}
+	}
+
+	/** The histogram of one key. */
+	private static final class HistogramCell {
+
+		private final String scope;
+		private final String name;
+		private final Map<String, String> tags;
+		private final LogHistogram histogram = new LogHistogram();
+		private int idlePeriods;
+		private volatile boolean retired;
+
+		HistogramCell(String name, Map<String, String> tags) {
+			this.scope = _scope(name);
+			this.name = name;
+			this.tags = tags;
+		}
+
+		void record(long value) {
+			histogram.record(value);
+		}
+
+		void merge(LogHistogram other) {
+			histogram.merge(other);
+		}
+
+		long drainTo(LogHistogram target) {
+			long moved = histogram.drainTo(target);
+
+			idlePeriods = moved == 0 ? idlePeriods + 1 : 0;
+			return moved;
+		}
+
+		LogHistogram copy() {
+			LogHistogram copy = new LogHistogram();
+
+			copy.merge(histogram);
+			return copy.getCount() == 0 ? null : copy;
+		}
+
+		boolean isIdle() {
+			return idlePeriods > 1;
+		}
+	}
+}
@@ -68,13 +68,10 @@ import java.lang.management.MemoryPoolMXBean;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static com.salesforce.dva.argus.system.SystemAssert.requireArgument;
 
@@ -112,7 +109,7 @@ public class DefaultMonitorService extends DefaultJPAService implements MonitorS
 	private final DashboardService _dashboardService;
 	private final MetricService _metricService;
 	private final MailService _mailService;
-	private final Map<Metric, Number> _metrics = new ConcurrentHashMap<>();
+	private final CounterRegistry _counters = new CounterRegistry();
 	private final PrincipalUser _adminUser;
 	private final SystemConfiguration _sysConfig;
 	private Thread _monitorThread;
@@ -158,18 +155,6 @@ public class DefaultMonitorService extends DefaultJPAService implements MonitorS
 		return ALERT_NAME_PREFIX + type + "-" + HOSTNAME;
 	}
 
-	private static Metric _constructCounterKey(String metricName, Map<String, String> tags) {
-		SystemAssert.requireArgument(metricName != null, "Cannot create a Metric with null metric name");
-
-		Counter counter = Counter.fromMetricName(metricName);
-		String scope = counter == null ? "argus.custom" : counter.getScope();
-		Metric metric = new Metric(scope, metricName);
-
-		metric.setTags(tags);
-		metric.setTag("host", HOSTNAME);
-		return metric;
-	}
-
 	//~ Methods **************************************************************************************************************************************
 
 	@Override
@@ -266,10 +251,8 @@ public class DefaultMonitorService extends DefaultJPAService implements MonitorS
 		requireNotDisposed();
 		requireArgument(name != null && !name.isEmpty(), "Cannot update a counter with null or empty name.");
 
-		Metric metric = _constructCounterKey(name, tags);
-
 		_logger.debug("Updating {} counter for {} to {}.", name, tags, value);
-		_metrics.put(metric, value);
+		_counters.set(name, tags, value);
 	}
 
 	@Override
@@ -285,16 +268,10 @@ public class DefaultMonitorService extends DefaultJPAService implements MonitorS
 		requireNotDisposed();
 		SystemAssert.requireArgument(name != null && !name.isEmpty(), "Cannot modify a counter with null or empty name.");
 
-		Metric key = _constructCounterKey(name, tags);
-
-		synchronized (_metrics) {
-			Number value = _metrics.get(key);
-			Number newValue = value == null ? delta : NumberOperations.add(value, delta);
+		Number newValue = _counters.add(name, tags, delta);
 
-			_logger.debug("Modifying {} counter from {} to {}.", name, value, newValue);
-			_metrics.put(key, newValue);
-			return newValue;
-		}
+		_logger.debug("Modifying {} counter by {} to {}.", name, delta, newValue);
+		return newValue;
 	}
 
 	@Override
@@ -305,6 +282,21 @@ public class DefaultMonitorService extends DefaultJPAService implements MonitorS
 		return modifyCustomCounter(counter.getMetric(), delta, tags);
 	}
 
+	@Override
+	public void recordHistogramValue(Counter counter, long value, Map<String, String> tags) {
+		requireNotDisposed();
+		requireArgument(counter != null, "Cannot record a value for a null counter.");
+		requireArgument(!"argus.jvm".equalsIgnoreCase(counter.getScope()), "Cannot record values for JVM counters");
+		recordCustomHistogramValue(counter.getMetric(), value, tags);
+	}
+
+	@Override
+	public void recordCustomHistogramValue(String name, long value, Map<String, String> tags) {
+		requireNotDisposed();
+		requireArgument(name != null && !name.isEmpty(), "Cannot record a value for a counter with null or empty name.");
+		_counters.record(name, tags, value);
+	}
+
 	@Override
 	public Number getCounter(Counter counter, Map<String, String> tags) {
 		requireArgument(counter != null, "Cannot get value for a null counter.");
@@ -316,14 +308,10 @@ public class DefaultMonitorService extends DefaultJPAService implements MonitorS
 		requireNotDisposed();
 		requireArgument(name != null && !name.isEmpty(), "Cannot update a counter with null or empty name.");
 
-		Metric metric = _constructCounterKey(name, tags);
-		Number value;
+		Number value = _counters.get(name, tags);
 
-		synchronized (_metrics) {
-			value = _metrics.get(metric);
-			if (value == null) {
-				value = Double.NaN;
-			}
+		if (value == null) {
+			value = Double.NaN;
 		}
 		_logger.debug("Value for {} counter having tags {} is {}.", name, tags, value);
 		return value;
@@ -401,22 +389,11 @@ public class DefaultMonitorService extends DefaultJPAService implements MonitorS
 		assert (scope != null) : "Scope can not be null.";
 		_logger.info("Resetting {} counters.", scope);
 
-		List<Metric> toRemove = new LinkedList<>();
-
-		synchronized (_metrics) {
-			for (Metric metric : _metrics.keySet()) {
-				if (scope.equalsIgnoreCase(metric.getScope())) {
-					toRemove.add(metric);
-				}
-			}
-			for (Metric metric : toRemove) {
-				_logger.debug("Resetting counter {}.", metric);
-				_metrics.remove(metric);
-			}
-		}
+		_counters.reset(scope);
 	}
 
-	private void _updateJVMStatsCounters() {
+	/* JVM counters are sampled when counters are pushed, so they are never held in the counter registry. */
+	private void _updateJVMStatsCounters(Map<Metric, Number> metrics) {
 		Counter[] counters = Counter.values();
 		List<GarbageCollectorMXBean> gcBeans = ManagementFactory.getGarbageCollectorMXBeans();
 		List<MemoryPoolMXBean> memoryPoolBeans = ManagementFactory.getMemoryPoolMXBeans();
@@ -543,10 +520,11 @@ public class DefaultMonitorService extends DefaultJPAService implements MonitorS
 					throw new IllegalArgumentException("Unexpected Counter: This should never happen");
 				} // end switch
 				if (value != null) {
-					Metric metric = _constructCounterKey(counter.getMetric(), Collections.<String, String>emptyMap());
+					Metric metric = new Metric(counter.getScope(), counter.getMetric());
 
+					metric.setTag("host", HOSTNAME);
 					metric.setUnits(units);
-					_metrics.put(metric, value);
+					metrics.put(metric, value);
 				}
 			} // end if
 		} // end for
@@ -683,25 +661,11 @@ public class DefaultMonitorService extends DefaultJPAService implements MonitorS
 		}
 
 		private void _pushCounters() {
-			int sizeJVMMetrics = 0;
 			_logger.debug("Pushing monitor service counters for {}.", HOSTNAME);
 
-			Map<Metric, Number> counters = new HashMap<>();
-
-			_updateJVMStatsCounters();
-
-			synchronized (_metrics) {
-				sizeJVMMetrics = _metrics.size();
-				counters.putAll(_metrics);
-				_metrics.clear();
-			}
-
-			if(counters.size() != sizeJVMMetrics){
-				_logger.warn("Monitoring Service JVM Metrics and counters size are not equal");
-				_logger.warn("JVM Metrics size = {}", sizeJVMMetrics);
-				_logger.warn("counters size = {}", counters.size());
-			}
+			Map<Metric, Number> counters = _counters.snapshotAndReset(HOSTNAME);
 
+			_updateJVMStatsCounters(counters);
 
 			long timestamp = (System.currentTimeMillis() / 60000) * 60000L;
 
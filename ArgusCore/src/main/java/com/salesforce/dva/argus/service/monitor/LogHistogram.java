@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2018, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.dva.argus.service.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed memory histogram of non negative long values, such as latencies in milliseconds. Values are counted in log scaled buckets, in the
+ * manner of an HDR histogram: values below 64 have a bucket each, and every larger power of two range is split into 32 equal buckets, so a
+ * value is resolved to within about 3% of itself. Values above {@link #MAX_VALUE} are counted as {@link #MAX_VALUE}.
+ *
+ * <p>Recording is lock free. Histograms can be merged, and {@link #drainTo(LogHistogram)} moves the counts of one histogram into another with an
+ * atomic get and set per bucket, so a value recorded concurrently with a drain is moved exactly once.</p>
+ *
+ * @author  a.chambers
+ */
+public final class LogHistogram {
+
+	//~ Static fields/initializers *******************************************************************************************************************
+
+	/** The largest value that is resolved, about 19 hours in milliseconds. */
+	public static final long MAX_VALUE = (1L << 36) - 1;
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = _index(MAX_VALUE) + 1;
+
+	//~ Instance fields ******************************************************************************************************************************
+
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong _max = new AtomicLong();
+
+	//~ Methods **************************************************************************************************************************************
+
+	/* Values below twice the number of sub buckets map to themselves, larger values to their power of two range and the sub bucket within it. */
+	private static int _index(long value) {
+		if (value < 2 * SUB_BUCKETS) {
+			return (int) value;
+		}
+
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+
+		return SUB_BUCKETS + (shift << SUB_BUCKET_BITS) + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	private static long _lowestValue(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+
+		int shift = (index - SUB_BUCKETS) >>> SUB_BUCKET_BITS;
+
+		return (long) (SUB_BUCKETS + ((index - SUB_BUCKETS) & (SUB_BUCKETS - 1))) << shift;
+	}
+
+	private static long _highestValue(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		return _lowestValue(index) + (1L << ((index - SUB_BUCKETS) >>> SUB_BUCKET_BITS)) - 1;
+	}
+
+	/**
+	 * Records a value.
+	 *
+	 * @param  value  The value. Negative values are counted as zero.
+	 */
+	public void record(long value) {
+		long bounded = Math.min(MAX_VALUE, Math.max(0, value));
+
+		_counts.getAndIncrement(_index(bounded));
+		if (bounded > _max.get()) {
+			_max.accumulateAndGet(bounded, Math::max);
+		}
+	}
+
+	/**
+	 * Adds the counts of another histogram to this one. The other histogram is not modified.
+	 *
+	 * @param  other  The histogram to merge. Cannot be null.
+	 */
+	public void merge(LogHistogram other) {
+		for (int i = 0; i < BUCKETS; i++) {
+			long count = other._counts.get(i);
+
+			if (count != 0) {
+				_counts.getAndAdd(i, count);
+			}
+		}
+		_max.accumulateAndGet(other._max.get(), Math::max);
+	}
+
+	/**
+	 * Moves the counts of this histogram to another one, leaving this histogram empty.
+	 *
+	 * @param   target  The histogram to add the counts to. Cannot be null.
+	 *
+	 * @return  The number of values moved.
+	 */
+	public long drainTo(LogHistogram target) {
+		long moved = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			if (_counts.get(i) != 0) {
+				long count = _counts.getAndSet(i, 0);
+
+				target._counts.getAndAdd(i, count);
+				moved += count;
+			}
+		}
+		target._max.accumulateAndGet(_max.getAndSet(0), Math::max);
+		return moved;
+	}
+
+	/**
+	 * Returns the number of recorded values.
+	 *
+	 * @return  The number of values.
+	 */
+	public long getCount() {
+		long count = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			count += _counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the largest recorded value.
+	 *
+	 * @return  The largest value, or zero if no value was recorded.
+	 */
+	public long getMax() {
+		return _max.get();
+	}
+
+	/**
+	 * Returns the value below which a percentage of the recorded values fall. The value is the highest value of the bucket holding the percentile,
+	 * bounded by the largest recorded value.
+	 *
+	 * @param   percentile  The percentile, between 0 and 100.
+	 *
+	 * @return  The value at the percentile, or zero if no value was recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = getCount();
+
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+		long seen = 0;
+
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += _counts.get(i);
+			if (seen >= rank) {
+				return Math.max(_lowestValue(i), Math.min(_highestValue(i), getMax()));
+			}
+		}
+		return getMax();
+	}
+}
@@ -29,52 +29,74 @@
  * POSSIBILITY OF SUCH DAMAGE.
  */
 	 
+	 
 package com.salesforce.dva.argus.service.mq.kafka;
 
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.salesforce.dva.argus.service.MQService.DequeuedBatch;
 import com.salesforce.dva.argus.service.mq.kafka.KafkaMessageService.Property;
 import com.salesforce.dva.argus.system.SystemConfiguration;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import kafka.common.TopicAndPartition;
 import kafka.consumer.ConsumerConfig;
 import kafka.consumer.ConsumerIterator;
+import kafka.consumer.ConsumerTimeoutException;
 import kafka.consumer.KafkaStream;
+import kafka.consumer.PartitionTopicInfo;
 import kafka.consumer.Whitelist;
-import kafka.javaapi.consumer.ConsumerConnector;
+import kafka.consumer.ZookeeperConsumerConnector;
 import kafka.message.MessageAndMetadata;
+import kafka.serializer.DefaultDecoder;
+import kafka.utils.Pool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import scala.collection.JavaConversions;
 import java.io.IOException;
 import java.io.Serializable;
-import java.text.MessageFormat;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.TreeSet;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
- * The Kafka client consumer.
+ * The Kafka client consumer. Messages are read from the Kafka streams by the threads dequeuing them, so a message is only ever consumed once a
+ * caller has asked for it. Offsets are committed to ZooKeeper explicitly for each partition, up to the first message of the partition that has
+ * not been processed yet. Messages of an aborted batch are redelivered to the next caller, which gives at least once delivery across restarts.
  *
  * @author  Tom Valine (tvaline@salesforce.com)
  */
 public class Consumer {
 
+    //~ Static fields/initializers *******************************************************************************************************************
+
+    private static final Pattern PARTITION_PATTERN = Pattern.compile("partition=(\\d+)");
+    private static final long LAG_GAUGE_LOOKUP_INTERVAL_MILLIS = 60000;
+
     //~ Instance fields ******************************************************************************************************************************
 
-    private final int MAX_BUFFER_SIZE;
     private final Logger _logger = LoggerFactory.getLogger(getClass());
     private final SystemConfiguration _configuration;
     private final Map<String, Topic> _topics = new HashMap<>();
-    private final AtomicLong count = new AtomicLong(0);
     private final ObjectMapper _mapper;
+    private final String _groupId;
+    private final long _pollTimeoutMillis;
+    private final long _commitIntervalMillis;
 
     //~ Constructors *********************************************************************************************************************************
 
@@ -86,14 +108,17 @@ public class Consumer {
     public Consumer(SystemConfiguration configuration) {
         this._configuration = configuration;
         this._mapper = new ObjectMapper();
-        MAX_BUFFER_SIZE = Integer.parseInt(_configuration.getValue(Property.KAFKA_CONSUMER_MESSAGES_TO_BUFFER.getName(),
-                Property.KAFKA_CONSUMER_MESSAGES_TO_BUFFER.getDefaultValue()));
+        _groupId = _configuration.getValue(Property.KAFKA_CONSUMER_GROUPID.getName(), Property.KAFKA_CONSUMER_GROUPID.getDefaultValue());
+        _pollTimeoutMillis = Long.parseLong(_configuration.getValue(Property.KAFKA_CONSUMER_POLL_TIMEOUT_MS.getName(),
+                Property.KAFKA_CONSUMER_POLL_TIMEOUT_MS.getDefaultValue()));
+        _commitIntervalMillis = Long.parseLong(_configuration.getValue(Property.KAFKA_CONSUMER_COMMIT_INTERVAL_MS.getName(),
+                Property.KAFKA_CONSUMER_COMMIT_INTERVAL_MS.getDefaultValue()));
     }
 
     //~ Methods **************************************************************************************************************************************
 
     /**
-     * This method creates Kafka streams for a topic so that messages can be streamed to the local buffer. If the streams for the given topic have
+     * This method creates Kafka streams for a topic so that messages can be read by dequeuing threads. If the streams for the given topic have
      * already been initialized the returns. Information about a particular topic is stored in a HashMap. This method uses double-checked locking to
      * make sure only one client thread can initialize streams for a topic. Moreover, it also helps subsequent calls, to check if the topic has been
      * initialized, be not synchronized and hence return faster.
@@ -110,49 +135,54 @@ public class Consumer {
 
                     props.setProperty("zookeeper.connect",
                         _configuration.getValue(Property.ZOOKEEPER_CONNECT.getName(), Property.ZOOKEEPER_CONNECT.getDefaultValue()));
-                    props.setProperty("group.id",
-                        _configuration.getValue(Property.KAFKA_CONSUMER_GROUPID.getName(), Property.KAFKA_CONSUMER_GROUPID.getDefaultValue()));
+                    props.setProperty("group.id", _groupId);
                     props.setProperty("auto.offset.reset", _configuration.getValue(Property.KAFKA_CONSUMER_OFFSET_RESET.getName(), Property.KAFKA_CONSUMER_OFFSET_RESET.getDefaultValue()));
-                    props.setProperty("auto.commit.interval.ms", "60000");
+                    props.setProperty("auto.commit.enable", "false");
+                    props.setProperty("consumer.timeout.ms", String.valueOf(_pollTimeoutMillis));
                     props.setProperty("fetch.message.max.bytes", "2000000");
 
-                    ConsumerConnector consumer = kafka.consumer.Consumer.createJavaConsumerConnector(new ConsumerConfig(props));
+                    ZookeeperConsumerConnector consumer = new ZookeeperConsumerConnector(new ConsumerConfig(props), true);
                     List<KafkaStream<byte[], byte[]>> streams = _createStreams(consumer, topic);
-                    Topic t = new Topic(topic, consumer, streams.size());
 
-                    _topics.put(topic, t);
-                    _startStreamingMessages(topic, streams);
+                    _topics.put(topic, new Topic(topic, consumer, streams));
                 }
             }
         }
     }
 
-    private List<KafkaStream<byte[], byte[]>> _createStreams(ConsumerConnector consumer, String topicName) {
+    private List<KafkaStream<byte[], byte[]>> _createStreams(ZookeeperConsumerConnector consumer, String topicName) {
         int numStreams = Math.max(Integer.parseInt(
             _configuration.getValue(Property.KAFKA_CONSUMER_STREAMS_PER_TOPIC.getName(),
                 Property.KAFKA_CONSUMER_STREAMS_PER_TOPIC.getDefaultValue())), 2);
+        DefaultDecoder decoder = new DefaultDecoder(null);
 
-        return consumer.createMessageStreamsByFilter(new Whitelist(topicName), numStreams);
+        // the Scala connector is used since only it can commit the offset of a single partition
+        return JavaConversions.seqAsJavaList(consumer.createMessageStreamsByFilter(new Whitelist(topicName), numStreams, decoder, decoder));
     }
 
     /**
-     * Retrieves the executor service for the given topic from the map of topics and submits a KafkaConsumer task for each stream in the list of
-     * streams.
+     * Dequeues messages from the topic as specified by the limit. If no messages are available to dequeue, then waits for at most timeout
+     * milliseconds before returning. The messages are considered processed as soon as they are returned.
      *
-     * @param  topic    The topic to start streaming messages from.
-     * @param  streams  The streams for those messages.
+     * @param   <T>      The result type.
+     * @param   topic    The topic to dequeue messages from.
+     * @param   type     The type that each message should be converted to.
+     * @param   timeout  The max amount of time in milliseconds that the function can take to dequeue limit number of messages. If number of dequeued
+     *                   messages is less than limit, then only those messages are returned.
+     * @param   limit    The max number of messages to dequeue.
+     *
+     * @return  Messages of the given type belonging to the given topic. Empty list if no such topic exists or the method times out.
      */
-    private void _startStreamingMessages(String topic, List<KafkaStream<byte[], byte[]>> streams) {
-        ExecutorService executorService = _topics.get(topic).getStreamExecutorService();
+    public <T extends Serializable> List<T> dequeueFromBuffer(String topic, Class<T> type, int timeout, int limit) {
+        Batch<T> batch = dequeueBatch(topic, type, timeout, limit);
 
-        for (final KafkaStream<byte[], byte[]> stream : streams) {
-            executorService.submit(new KafkaConsumer(stream));
-        }
+        batch.commit();
+        return batch.getMessages();
     }
 
     /**
-     * Dequeues messages from the local buffer as specified by the limit. If no messages are available to dequeue, then waits for at most timeout
-     * milliseconds before returning.
+     * Dequeues messages from the topic as specified by the limit. If no messages are available to dequeue, then waits for at most timeout
+     * milliseconds before returning. The messages are considered processed as soon as they are returned.
      *
      * @param   <T>      The result type.
      * @param   topic    The topic to dequeue messages from.
@@ -163,240 +193,434 @@ public class Consumer {
      *
      * @return  Messages of the given type belonging to the given topic. Empty list if no such topic exists or the method times out.
      */
-    public <T extends Serializable> List<T> dequeueFromBuffer(String topic, Class<T> type, int timeout, int limit) {
-        List<T> result = new ArrayList<T>();
-        long cutoff = System.currentTimeMillis() + timeout;
-        BlockingQueue<String> queue = _topics.get(topic).getMessages();
+    public <T extends Serializable> List<T> dequeueFromBuffer(String topic, JavaType type, int timeout, int limit) {
+        Topic t = _topics.get(topic);
+        List<ConsumedMessage> messages = t.begin(timeout, limit);
+        List<T> result = new ArrayList<>(messages.size());
 
-        while (System.currentTimeMillis() < cutoff && (limit < 0 || result.size() < limit)) {
-            if (Thread.currentThread().isInterrupted()) {
-                break;
-            }
+        for (ConsumedMessage message : messages) {
             try {
-                String message = queue.poll(timeout, TimeUnit.MILLISECONDS);
+                T object = _mapper.readValue(message.value, type);
 
-                if (message != null && !message.isEmpty()) {
-                    if (String.class.isAssignableFrom(type)) {
-                        result.add(type.cast(message));
-                    } else {
-                        result.add(_mapper.readValue(message, type));
-                    }
-                    if (result.size() % 1000 == 0) {
-                        _logger.debug("Dequeued {} messages from local buffer.", result.size());
-                    }
-                }
-            } catch (InterruptedException e) {
-                _logger.warn("Interrupted while waiting for poll() to return a message.");
-                Thread.currentThread().interrupt();
+                result.add(object);
             } catch (IOException e) {
                 _logger.warn("Exception while deserializing message to type: " + type + ". Skipping this message.", e);
             }
         }
+        t.end(messages, true);
         return result;
     }
 
     /**
-     * Dequeues messages from the local buffer as specified by the limit. If no messages are available to dequeue, then waits for at most timeout
-     * milliseconds before returning.
+     * Dequeues a batch of messages from the topic as specified by the limit. If no messages are available to dequeue, then waits for at most timeout
+     * milliseconds before returning. The offsets of the messages are not committed until the batch is committed, and the messages are redelivered
+     * if the batch is aborted.
      *
      * @param   <T>      The result type.
      * @param   topic    The topic to dequeue messages from.
      * @param   type     The type that each message should be converted to.
-     * @param   timeout  The max amount of time in milliseconds that the function can take to dequeue limit number of messages. If number of dequeued
-     *                   messages is less than limit, then only those messages are returned.
+     * @param   timeout  The max amount of time in milliseconds that the function can take to dequeue limit number of messages.
      * @param   limit    The max number of messages to dequeue.
      *
-     * @return  Messages of the given type belonging to the given topic. Empty list if no such topic exists or the method times out.
+     * @return  The batch of messages, which may be empty. Never null.
      */
-    public <T extends Serializable> List<T> dequeueFromBuffer(String topic, JavaType type, int timeout, int limit) {
-        List<T> result = new ArrayList<>();
-        long cutoff = System.currentTimeMillis() + timeout;
-        BlockingQueue<String> queue = _topics.get(topic).getMessages();
+    public <T extends Serializable> Batch<T> dequeueBatch(String topic, Class<T> type, int timeout, int limit) {
+        Topic t = _topics.get(topic);
+        List<ConsumedMessage> messages = t.begin(timeout, limit);
+        List<T> result = new ArrayList<>(messages.size());
 
-        while (System.currentTimeMillis() < cutoff && (limit < 0 || result.size() < limit)) {
-            if (Thread.currentThread().isInterrupted()) {
-                break;
-            }
+        for (ConsumedMessage message : messages) {
             try {
-                String message = queue.poll(timeout, TimeUnit.MILLISECONDS);
-
-                if (message != null && !message.isEmpty()) {
-                    T object = _mapper.readValue(message, type);
-
-                    result.add(object);
-                    if (result.size() % 1000 == 0) {
-                        _logger.debug("Dequeued {} messages from local buffer.", result.size());
-                    }
+                if (String.class.isAssignableFrom(type)) {
+                    result.add(type.cast(new String(message.value, StandardCharsets.UTF_8)));
+                } else {
+                    result.add(_mapper.readValue(message.value, type));
                 }
-            } catch (InterruptedException e) {
-                _logger.warn("Interrupted while waiting for poll() to return a message.");
-                Thread.currentThread().interrupt();
             } catch (IOException e) {
                 _logger.warn("Exception while deserializing message to type: " + type + ". Skipping this message.", e);
             }
         }
-        return result;
+        if (result.size() >= 1000) {
+            _logger.debug("Dequeued {} messages from topic {}.", result.size(), topic);
+        }
+        return new Batch<>(t, messages, result);
     }
 
-    /** Enqueue un-flushed messages back on to Kafka. */
-    public void shutdown() {
-        for (Topic topic : _topics.values()) {
-            if (topic.getConsumerConnector() != null) {
-                topic.getConsumerConnector().shutdown();
-            }
-            topic.getStreamExecutorService().shutdownNow();
-            try {
-                topic.getStreamExecutorService().awaitTermination(60, TimeUnit.SECONDS);
-            } catch (InterruptedException e) {
-                _logger.warn("Stream executor service was interrupted while awaiting termination. This should never happen.");
+    /**
+     * Returns the number of messages by which this consumer trails the end of each partition of a topic, as last reported by the fetcher threads.
+     *
+     * @param   topic  The topic for which to return the lag.
+     *
+     * @return  The lag keyed by partition. Empty if the topic has not been initialized or no partitions have been fetched yet.
+     */
+    public Map<Integer, Long> getPartitionLag(String topic) {
+        Map<Integer, Long> result = new HashMap<>();
+        Topic t = _topics.get(topic);
+
+        if (t == null) {
+            return result;
+        }
+        for (Map.Entry<Integer, Gauge<?>> entry : t.getLagGauges(topic).entrySet()) {
+            Object lag = entry.getValue().value();
+
+            if (lag instanceof Number) {
+                result.put(entry.getKey(), Number.class.cast(lag).longValue());
             }
         }
-        _logger.debug("Pushing unflushed messages back to Kafka.");
+        return result;
+    }
+
+    /* Scans the metrics registry for the lag gauges the fetcher threads registered for the partitions of a topic. */
+    private Map<Integer, Gauge<?>> _lookUpLagGauges(String topic) {
+        Map<Integer, Gauge<?>> result = new HashMap<>();
+        String clientId = "clientId=" + _groupId + ",";
+        String topicId = "topic=" + topic + ",";
+
+        for (Map.Entry<MetricName, Metric> entry : Metrics.defaultRegistry().allMetrics().entrySet()) {
+            MetricName name = entry.getKey();
+            String mBeanName = name.getMBeanName();
 
-        Producer producer = new Producer(_configuration);
+            if ("FetcherLagMetrics".equals(name.getType()) && "ConsumerLag".equals(name.getName()) && mBeanName.contains(clientId)
+                    && mBeanName.contains(topicId) && entry.getValue() instanceof Gauge) {
+                Matcher matcher = PARTITION_PATTERN.matcher(mBeanName);
 
+                if (matcher.find()) {
+                    result.put(Integer.valueOf(matcher.group(1)), Gauge.class.cast(entry.getValue()));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Commits the offsets of all processed messages and shuts down the streams. Unprocessed messages are redelivered after a restart. */
+    public void shutdown() {
         for (Map.Entry<String, Topic> entry : _topics.entrySet()) {
-            String topicName = entry.getKey();
             Topic topic = entry.getValue();
-            List<String> unflushedMessages = new ArrayList<String>();
 
-            if (!topic.getMessages().isEmpty()) {
-                topic.getMessages().drainTo(unflushedMessages);
-                producer.enqueue(topicName, unflushedMessages);
+            topic.close();
+            if (topic.getConsumerConnector() != null) {
+                topic.getConsumerConnector().shutdown();
             }
-            _logger.debug("{} messages for topic {} enqueued on Kafka queue", unflushedMessages.size(), topicName);
+            _logger.debug("Consumer for topic {} shut down.", entry.getKey());
         }
-        producer.shutdown();
     }
 
     //~ Inner Classes ********************************************************************************************************************************
 
     /**
-     * The Kafka consumer worker.
+     * A batch of dequeued messages. Committing the batch allows the offsets of its messages to be committed, aborting it returns its messages to the
+     * topic so that they are redelivered. Only the first call to either method has any effect.
      *
-     * @author  Bhinav Sura (bhinav.sura@salesforce.com)
+     * @param   <T>  The message type.
+     *
+     * @author  a.chambers
      */
-    private class KafkaConsumer implements Runnable {
+    public static class Batch<T extends Serializable> implements DequeuedBatch<T> {
 
-        private final KafkaStream<byte[], byte[]> _stream;
+        private final Topic _topic;
+        private final List<ConsumedMessage> _raw;
+        private final List<T> _messages;
+        private final AtomicBoolean _completed = new AtomicBoolean(false);
 
-        /**
-         * Creates a new Consumer object.
-         *
-         * @param  stream  The Kafka stream to consume.
-         */
-        public KafkaConsumer(KafkaStream<byte[], byte[]> stream) {
-            _logger.debug("Creating a new stream");
-            _stream = stream;
+        private Batch(Topic topic, List<ConsumedMessage> raw, List<T> messages) {
+            _topic = topic;
+            _raw = raw;
+            _messages = Collections.unmodifiableList(messages);
         }
 
         @Override
-        public void run() {
-            ConsumerIterator<byte[], byte[]> it = _stream.iterator();
+        public List<T> getMessages() {
+            return _messages;
+        }
 
-            while (it.hasNext()) {
-                Thread.yield();
-                if (Thread.currentThread().isInterrupted()) {
-                    _logger.info("Interrupted... Will exit now.");
-                    break;
-                }
+        @Override
+        public void commit() {
+            if (_completed.compareAndSet(false, true)) {
+                _topic.end(_raw, true);
+            }
+        }
 
-                MessageAndMetadata<byte[], byte[]> m = it.next();
+        @Override
+        public void abort() {
+            if (_completed.compareAndSet(false, true)) {
+                _topic.end(_raw, false);
+            }
+        }
+    }
 
-                try {
-                    String message = new String(m.message());
-                    String topic = m.topic();
+    /**
+     * A message read from a partition, along with its offset.
+     *
+     * @author  a.chambers
+     */
+    private static class ConsumedMessage {
 
-                    if (message != null) {
-                        _topics.get(topic).getMessages().put(message);
+        private final byte[] value;
+        private final TopicAndPartition partition;
+        private final long offset;
 
-                        long c = count.incrementAndGet();
+        private ConsumedMessage(MessageAndMetadata<byte[], byte[]> message) {
+            value = message.message();
+            partition = new TopicAndPartition(message.topic(), message.partition());
+            offset = message.offset();
+        }
+    }
 
-                        if (c % 50000 == 0) {
-                            _logger.debug("Read {} messages.", count.get());
-                        }
-                        if (_topics.get(topic).getMessages().size() % 1000 == 0) {
-                            _logger.debug("Message queued. Queue size = {}", _topics.get(topic).getMessages().size());
-                        }
-                    }
-                } catch (InterruptedException ie) {
-                    _logger.debug("Interrupted while consuming message.");
-                    Thread.currentThread().interrupt();
-                }
-            }
+    /**
+     * The offsets of a partition that have been read but not processed yet, and the offset up to which the partition has been committed.
+     *
+     * @author  a.chambers
+     */
+    private static class PartitionOffsets {
+
+        private final TreeSet<Long> _pending = new TreeSet<>();
+        private long _consumed = -1;
+        private long _committed = -1;
+
+        /* The offset of the first message which has not been processed. Every message before it may be committed. */
+        private long watermark() {
+            return _pending.isEmpty() ? _consumed : _pending.first();
         }
     }
 
     /**
-     * Inner class that contains information about a particular topic. It includes a kafka consumer connector, an executor service for maintaining the
-     * streaming threads and a blocking queue to store the actual messages.
+     * Inner class that contains information about a particular topic. It includes a kafka consumer connector, the stream iterators that are not in
+     * use by a dequeuing thread, the messages awaiting redelivery and the offsets of each partition that have not been processed yet.
+     *
+     * <p>Each partition is committed up to its watermark, which is the offset of its first message belonging to an outstanding batch or awaiting
+     * redelivery. Batches are therefore never held back by a commit, and a slow batch only holds back the commits of the partitions it read
+     * from.</p>
+     *
+     * <p>A rebalance replaces the partition registry of the connector and restarts the streams from the committed offsets. When a new registry is
+     * seen, the offsets tracked so far and the messages awaiting redelivery are discarded, since the messages after the committed offsets are
+     * delivered again either to this consumer or to the new owner of their partition. Only partitions in the current registry are tracked and
+     * committed, so offsets are never committed for a partition owned by another member of the group.</p>
      *
      * @author  Bhinav Sura (bhinav.sura@salesforce.com)
      */
     private class Topic {
 
-        private ConsumerConnector _consumerConnector;
-        private ExecutorService _streamExecutorService;
-        private BlockingQueue<String> _messages;
+        private final String _name;
+        private final ZookeeperConsumerConnector _consumerConnector;
+        private final BlockingQueue<ConsumerIterator<byte[], byte[]>> _idleIterators;
+        private final Deque<ConsumedMessage> _redelivery = new ArrayDeque<>();
+        private final Map<TopicAndPartition, PartitionOffsets> _partitions = new HashMap<>();
+        private boolean _closed;
+        private Object _registry;
+        private long _lastCommit = System.currentTimeMillis();
+        private volatile Map<Integer, Gauge<?>> _lagGauges = Collections.emptyMap();
+        private volatile long _lagGaugesLookedUp;
 
         /**
          * Creates a new Topic object.
          *
-         * @param  name               The topic name.
+         * @param  name               The name of the topic.
          * @param  consumerConnector  The Kafka consumer connector.
-         * @param  numStreams         The number of streams with which to consume the topic.
+         * @param  streams            The streams with which to consume the topic.
          */
-        public Topic(String name, ConsumerConnector consumerConnector, int numStreams) {
-            this(name, consumerConnector, numStreams, new LinkedBlockingQueue<String>(MAX_BUFFER_SIZE));
+        public Topic(String name, ZookeeperConsumerConnector consumerConnector, List<KafkaStream<byte[], byte[]>> streams) {
+            _name = name;
+            _consumerConnector = consumerConnector;
+            _idleIterators = new LinkedBlockingQueue<>();
+            for (KafkaStream<byte[], byte[]> stream : streams) {
+                _idleIterators.add(stream.iterator());
+            }
         }
 
         /**
-         * Creates a new Topic object.
+         * Returns the consumer connector.
          *
-         * @param  name               The topic name.
-         * @param  consumerConnector  The Kafka consumer connector.
-         * @param  numStreams         The number of streams with which to consume the topic.
-         * @param  messages           The queue into which messages will be consumed.
+         * @return  The consumer connector.
          */
-        public Topic(final String name, ConsumerConnector consumerConnector, int numStreams, BlockingQueue<String> messages) {
-            _consumerConnector = consumerConnector;
-            _messages = messages;
-            _streamExecutorService = Executors.newFixedThreadPool(numStreams, new ThreadFactory() {
-
-                    AtomicInteger id = new AtomicInteger(0);
-
-                    @Override
-                    public Thread newThread(Runnable r) {
-                        return new Thread(r, MessageFormat.format("{0}-stream-{1}", name, id.getAndIncrement()));
-                    }
-                });
+        public ZookeeperConsumerConnector getConsumerConnector() {
+            return _consumerConnector;
         }
 
         /**
-         * Returns the consumer connector.
+         * Returns the lag gauges of the partitions of the topic. The registry is only scanned again once the gauges are a minute old, since the
+         * fetchers register new gauges when partitions are reassigned.
          *
-         * @return  The consumer connector.
+         * @param   topic  The name of the topic.
+         *
+         * @return  The lag gauges keyed by partition.
          */
-        public ConsumerConnector getConsumerConnector() {
-            return _consumerConnector;
+        Map<Integer, Gauge<?>> getLagGauges(String topic) {
+            long now = System.currentTimeMillis();
+
+            if (now - _lagGaugesLookedUp >= LAG_GAUGE_LOOKUP_INTERVAL_MILLIS) {
+                _lagGauges = _lookUpLagGauges(topic);
+                _lagGaugesLookedUp = now;
+            }
+            return _lagGauges;
         }
 
         /**
-         * Returns the stream executor service.
+         * Starts a batch and reads its messages, taking redelivered messages first.
+         *
+         * @param   timeout  The max amount of time in milliseconds to spend reading.
+         * @param   limit    The max number of messages to read.
          *
-         * @return  The stream executor service.
+         * @return  The messages of the batch.
          */
-        public ExecutorService getStreamExecutorService() {
-            return _streamExecutorService;
+        List<ConsumedMessage> begin(int timeout, int limit) {
+            long cutoff = System.currentTimeMillis() + timeout;
+            List<ConsumedMessage> result = new ArrayList<>();
+
+            synchronized (this) {
+                if (_closed) {
+                    return result;
+                }
+                _maybeCommit();
+                _checkAssignment();
+                while (!_redelivery.isEmpty() && (limit < 0 || result.size() < limit)) {
+                    result.add(_redelivery.pollFirst());
+                }
+            }
+            _read(result, cutoff, limit);
+            return result;
         }
 
         /**
-         * Returns the dequeued messages.
+         * Ends a batch started by {@link #begin(int, int)}.
          *
-         * @return  The dequeued messages.
+         * @param  messages   The messages of the batch.
+         * @param  processed  True if the messages were processed, false if they should be redelivered.
          */
-        public BlockingQueue<String> getMessages() {
-            return _messages;
+        synchronized void end(List<ConsumedMessage> messages, boolean processed) {
+            _checkAssignment();
+            if (processed) {
+                for (ConsumedMessage message : messages) {
+                    PartitionOffsets offsets = _partitions.get(message.partition);
+
+                    if (offsets != null) {
+                        offsets._pending.remove(message.offset);
+                    }
+                }
+            } else {
+                for (int i = messages.size() - 1; i >= 0; i--) {
+                    // messages of a partition that was reassigned are delivered again from the committed offset
+                    if (_partitions.containsKey(messages.get(i).partition)) {
+                        _redelivery.addFirst(messages.get(i));
+                    }
+                }
+            }
+            _maybeCommit();
+        }
+
+        /** Commits the offsets of all processed messages and stops new batches from being started. */
+        synchronized void close() {
+            int pending = 0;
+
+            _closed = true;
+            _commit();
+            for (PartitionOffsets offsets : _partitions.values()) {
+                pending += offsets._pending.size();
+            }
+            if (pending > 0) {
+                _logger.info("{} messages were not processed before shutdown and will be redelivered after a restart.", pending);
+            }
+        }
+
+        private void _read(List<ConsumedMessage> result, long cutoff, int limit) {
+            while (System.currentTimeMillis() < cutoff && (limit < 0 || result.size() < limit)) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+
+                ConsumerIterator<byte[], byte[]> iterator;
+
+                try {
+                    iterator = _idleIterators.poll(Math.max(1, cutoff - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    _logger.warn("Interrupted while waiting for a stream to read from.");
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if (iterator == null) {
+                    break;
+                }
+
+                int first = result.size();
+
+                try {
+                    while (System.currentTimeMillis() < cutoff && (limit < 0 || result.size() < limit) && iterator.hasNext()) {
+                        result.add(new ConsumedMessage(iterator.next()));
+                    }
+                } catch (ConsumerTimeoutException e) {
+                    // Nothing to read on this stream within the poll timeout. Another stream may have messages.
+                } finally {
+                    // the messages must be pending before the stream is released, or a later read could move the watermark past them
+                    _track(result.subList(first, result.size()));
+                    _idleIterators.add(iterator);
+                }
+            }
+        }
+
+        private synchronized void _track(List<ConsumedMessage> messages) {
+            Pool<Object, PartitionTopicInfo> assigned = _checkAssignment();
+
+            for (ConsumedMessage message : messages) {
+                PartitionOffsets offsets = _partitions.get(message.partition);
+
+                if (offsets == null) {
+                    // a message read just before a rebalance took its partition away
+                    if (!_isAssigned(assigned, message.partition)) {
+                        continue;
+                    }
+                    offsets = new PartitionOffsets();
+                    _partitions.put(message.partition, offsets);
+                }
+                offsets._pending.add(message.offset);
+                offsets._consumed = Math.max(offsets._consumed, message.offset + 1);
+            }
+        }
+
+        private void _maybeCommit() {
+            if (System.currentTimeMillis() - _lastCommit >= _commitIntervalMillis) {
+                _commit();
+            }
+        }
+
+        private void _commit() {
+            Pool<Object, PartitionTopicInfo> assigned = _checkAssignment();
+
+            for (Map.Entry<TopicAndPartition, PartitionOffsets> entry : _partitions.entrySet()) {
+                PartitionOffsets offsets = entry.getValue();
+                long watermark = offsets.watermark();
+
+                if (watermark > offsets._committed && _isAssigned(assigned, entry.getKey())) {
+                    try {
+                        _consumerConnector.commitOffsetToZooKeeper(entry.getKey(), watermark);
+                        offsets._committed = watermark;
+                    } catch (RuntimeException e) {
+                        _logger.warn("Failed to commit the offset of {}. Will retry with the next commit.", entry.getKey(), e);
+                    }
+                }
+            }
+            _lastCommit = System.currentTimeMillis();
+        }
+
+        /*
+         * Discards the tracked offsets and the messages awaiting redelivery if the connector rebalanced since the last call, and returns the
+         * partitions of the topic that are currently assigned to this consumer.
+         */
+        private Pool<Object, PartitionTopicInfo> _checkAssignment() {
+            Pool<String, Pool<Object, PartitionTopicInfo>> registry = _consumerConnector.getTopicRegistry();
+
+            if (registry != _registry) {
+                if (_registry != null && (!_partitions.isEmpty() || !_redelivery.isEmpty())) {
+                    _logger.info("Partitions of topic {} were rebalanced. Discarding the offsets of {} partitions and {} messages awaiting "
+                        + "redelivery.", _name, _partitions.size(), _redelivery.size());
+                }
+                _registry = registry;
+                _partitions.clear();
+                _redelivery.clear();
+            }
+            return registry == null ? null : registry.get(_name);
+        }
+
+        private boolean _isAssigned(Pool<Object, PartitionTopicInfo> assigned, TopicAndPartition partition) {
+            return assigned != null && assigned.contains(partition.partition());
         }
     }
 }
@@ -40,7 +40,9 @@ import com.salesforce.dva.argus.system.SystemConfiguration;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 import static com.salesforce.dva.argus.system.SystemAssert.requireArgument;
 
@@ -93,6 +95,14 @@ public class KafkaMessageService extends DefaultService implements MQService {
         _producer.enqueue(topic, objects);
     }
 
+    @Override
+    public <T extends Serializable> CompletableFuture<Integer> enqueueAsync(final String topic, List<T> objects) {
+        requireNotDisposed();
+        requireArgument(topic != null && !topic.trim().isEmpty(), "Topic name cannot be null or empty.");
+        requireArgument(objects != null, "The list of objects to enqueue cannot be null.");
+        return _producer.enqueueAsync(topic, objects);
+    }
+
     @Override
     public String dequeue(String topic, int timeout) {
         return dequeue(topic, String.class, timeout);
@@ -139,6 +149,24 @@ public class KafkaMessageService extends DefaultService implements MQService {
         return _consumer.dequeueFromBuffer(topic, type, timeout, limit);
     }
 
+    @Override
+    public <T extends Serializable> DequeuedBatch<T> dequeueBatch(String topic, Class<T> type, int timeout, int limit) {
+        requireNotDisposed();
+        requireArgument(topic != null && !topic.trim().isEmpty(), "Topic cannot be null or empty.");
+        requireArgument(type != null, "Result object runtime type cannot be null.");
+        requireArgument(timeout > 0, "Timeout in milliseconds must be greater than zero.");
+        requireArgument(limit > 0, "Limit must be non-negative.");
+        _consumer.initializeTopic(topic);
+        return _consumer.dequeueBatch(topic, type, timeout, limit);
+    }
+
+    @Override
+    public Map<Integer, Long> getPartitionLag(String topic) {
+        requireNotDisposed();
+        requireArgument(topic != null && !topic.trim().isEmpty(), "Topic cannot be null or empty.");
+        return _consumer.getPartitionLag(topic);
+    }
+
     @Override
     public void dispose() {
         super.dispose();
@@ -167,8 +195,8 @@ public class KafkaMessageService extends DefaultService implements MQService {
 
         /** Indicates the Kafka brokers. */
         KAFKA_BROKERS("service.property.mq.kafka.brokers", "localhost:9093"),
-        /** Specifies the number of producer connections. Default is 10. */
-        KAFKA_PRODUCER_CONNECTIONS("service.property.mq.kafka.producer.connections", "10"),
+        /** Specifies the maximum number of serialized bytes handed to the producer but not yet acknowledged. Default is 67108864. */
+        KAFKA_PRODUCER_MAX_IN_FLIGHT_BYTES("service.property.mq.kafka.producer.max.in.flight.bytes", "67108864"),
         /** Indicates whether the producer should block when the buffer is full. Default is false. */
         KAFKA_PRODUCER_BLOCK_ON_BUFFER_FULL("service.property.mq.kafka.producer.block.on.buffer.full", "false"),
         /** Specifies the allocated producer buffer memory in bytes. Default is 134217728. */
@@ -177,8 +205,10 @@ public class KafkaMessageService extends DefaultService implements MQService {
         KAFKA_PRODUCER_BATCH_SIZE("service.property.mq.kafka.producer.batch.size", "102400"),
         /** Specifies the number of streams per topic.  Default is 1. */
         KAFKA_CONSUMER_STREAMS_PER_TOPIC("service.property.mq.kafka.consumer.streams.per.topic", "1"),
-        /** Specifies the number of consumer messages to buffer.  Default is 1. */
-        KAFKA_CONSUMER_MESSAGES_TO_BUFFER("service.property.mq.kafka.consumer.messages.to.buffer", "1"),
+        /** Specifies how long a dequeuing thread waits for a message on one stream before trying another, in milliseconds.  Default is 100. */
+        KAFKA_CONSUMER_POLL_TIMEOUT_MS("service.property.mq.kafka.consumer.poll.timeout.ms", "100"),
+        /** Specifies the minimum interval between offset commits, in milliseconds.  Default is 1000. */
+        KAFKA_CONSUMER_COMMIT_INTERVAL_MS("service.property.mq.kafka.consumer.commit.interval.ms", "1000"),
         /** Specifies the default consumer group ID. */
         KAFKA_CONSUMER_GROUPID("service.property.mq.kafka.consumer.groupid", "argus-consumer-unit"),
         /** Specifies the default consumer group ID. */
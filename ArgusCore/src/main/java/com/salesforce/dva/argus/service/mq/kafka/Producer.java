@@ -42,24 +42,24 @@ import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.io.Serializable;
-import java.text.MessageFormat;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Produces events onto the Kafka broker.
+ * Produces events onto the Kafka broker. All objects of an enqueue call are serialized and handed to the Kafka producer in a single pass on the
+ * calling thread. The number of bytes that have been handed to the producer but not yet acknowledged by the broker is bounded, so callers are
+ * blocked rather than exhausting the producer buffer when the brokers fall behind.
  *
  * @author  Tom Valine (tvaline@salesforce.com)
  */
@@ -69,9 +69,10 @@ public class Producer {
 
     private final Logger _logger = LoggerFactory.getLogger(getClass());
     private final SystemConfiguration _configuration;
-    private final KafkaProducer<String, String> _producer;
-    private final ExecutorService _executorService;
+    private final KafkaProducer<String, byte[]> _producer;
     private final ObjectMapper _mapper;
+    private final Semaphore _inFlightBytes;
+    private final int _maxInFlightBytes;
 
     //~ Constructors *********************************************************************************************************************************
 
@@ -83,28 +84,15 @@ public class Producer {
     public Producer(SystemConfiguration config) {
         _configuration = config;
         _producer = _createProducer();
-        _executorService = _createExecutorService();
         _mapper = new ObjectMapper();
+        _maxInFlightBytes = Integer.parseInt(
+            _configuration.getValue(Property.KAFKA_PRODUCER_MAX_IN_FLIGHT_BYTES.getName(), Property.KAFKA_PRODUCER_MAX_IN_FLIGHT_BYTES.getDefaultValue()));
+        _inFlightBytes = new Semaphore(_maxInFlightBytes);
     }
 
     //~ Methods **************************************************************************************************************************************
 
-    private ExecutorService _createExecutorService() {
-        int producerConnections = Math.max(Integer.valueOf(
-            _configuration.getValue(Property.KAFKA_PRODUCER_CONNECTIONS.getName(), Property.KAFKA_PRODUCER_CONNECTIONS.getDefaultValue())), 10);
-
-        return Executors.newFixedThreadPool(producerConnections, new ThreadFactory() {
-
-                AtomicInteger id = new AtomicInteger(0);
-
-                @Override
-                public Thread newThread(Runnable r) {
-                    return new Thread(r, MessageFormat.format("kafka-producer-worker-{0}", id.getAndIncrement()));
-                }
-            });
-    }
-
-    private KafkaProducer<String, String> _createProducer() {
+    private KafkaProducer<String, byte[]> _createProducer() {
         Map<String, Object> producerConfig = new HashMap<String, Object>();
 
         producerConfig.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG,
@@ -122,7 +110,7 @@ public class Producer {
         producerConfig.put(ProducerConfig.BATCH_SIZE_CONFIG,
             Integer.parseInt(
                 _configuration.getValue(Property.KAFKA_PRODUCER_BATCH_SIZE.getName(), Property.KAFKA_PRODUCER_BATCH_SIZE.getDefaultValue())));
-        return new KafkaProducer<String, String>(producerConfig, new StringSerializer(), new StringSerializer());
+        return new KafkaProducer<String, byte[]>(producerConfig, new StringSerializer(), new ByteArraySerializer());
     }
 
     /**
@@ -135,33 +123,73 @@ public class Producer {
      * @return  The number of objects that were successfully added to the Producer Buffer.
      */
     public <T extends Serializable> int enqueue(final String topic, List<T> objects) {
+        return _send(topic, objects, new BatchAcknowledgement());
+    }
+
+    /**
+     * Adds the messages to the Producer Buffer without waiting for them to be sent to the brokers. The calling thread only blocks while the
+     * number of unacknowledged bytes exceeds the configured limit.
+     *
+     * @param   <T>      The value type.
+     * @param   topic    The topic to produce onto.
+     * @param   objects  The list of objects to enqueue.
+     *
+     * @return  A future completed with the number of objects acknowledged by the brokers once every buffered object has been acknowledged or has
+     *          failed.
+     */
+    public <T extends Serializable> CompletableFuture<Integer> enqueueAsync(final String topic, List<T> objects) {
+        BatchAcknowledgement acknowledgement = new BatchAcknowledgement();
+
+        _send(topic, objects, acknowledgement);
+        return acknowledgement.result;
+    }
+
+    private <T extends Serializable> int _send(String topic, List<T> objects, BatchAcknowledgement acknowledgement) {
         int messagesBuffered = 0;
-        
-        for (T object : objects) {
-            final String value;
 
-            if (String.class.isAssignableFrom(object.getClass())) {
-                value = String.class.cast(object);
-            } else {
+        try {
+            for (T object : objects) {
+                final byte[] value;
+
+                // messages are serialized to bytes here, so that the in-flight limit counts the bytes actually sent
+                if (String.class.isAssignableFrom(object.getClass())) {
+                    value = String.class.cast(object).getBytes(StandardCharsets.UTF_8);
+                } else {
+                    try {
+                        value = _mapper.writeValueAsBytes(object);
+                    } catch (JsonProcessingException e) {
+                        _logger.warn("Exception while serializing the object to a string. Skipping this object.", e);
+                        continue;
+                    }
+                }
+
+                int permits = Math.min(value.length, _maxInFlightBytes);
+
                 try {
-                    value = _mapper.writeValueAsString(object);
-                } catch (JsonProcessingException e) {
-                    _logger.warn("Exception while serializing the object to a string. Skipping this object.", e);
-                    continue;
+                    _inFlightBytes.acquire(permits);
+                } catch (InterruptedException e) {
+                    _logger.warn("Enqueue operation was interrupted by calling code.");
+                    Thread.currentThread().interrupt();
+                    break;
                 }
-            }
-            try {
-                boolean addedToBuffer = _executorService.submit(new ProducerWorker(topic, value)).get();
 
-                if (addedToBuffer) {
+                RecordCallback callback = new RecordCallback(acknowledgement, permits);
+
+                acknowledgement.pending.incrementAndGet();
+                try {
+                    _producer.send(new ProducerRecord<String, byte[]>(topic, value), callback);
                     messagesBuffered++;
+                } catch (BufferExhaustedException e) {
+                    _logger.warn("Buffer exhausted on kafka producer. Skipping this message.", e);
+                    callback.onCompletion(null, e);
+                } catch (Exception e) {
+                    _logger.warn("Exception occurred when executing producer send(). ", e);
+                    callback.onCompletion(null, e);
+                    throw new SystemException(e);
                 }
-            } catch (InterruptedException e) {
-                _logger.warn("Enqueue operation was interrupted by calling code.");
-                Thread.currentThread().interrupt();
-            } catch (ExecutionException e) {
-                throw new SystemException(e);
             }
+        } finally {
+            acknowledgement.seal();
         }
         return messagesBuffered;
     }
@@ -171,65 +199,59 @@ public class Producer {
         if (_producer != null) {
             _producer.close();
         }
-        _executorService.shutdown();
-        try {
-            if (!_executorService.awaitTermination(10, TimeUnit.SECONDS)) {
-                _logger.warn("Shutdown of Kafka executor service timed out after 10 seconds.");
-                _executorService.shutdownNow();
-            }
-        } catch (InterruptedException ex) {
-            _logger.warn("Shutdown of executor service was interrupted.");
-            Thread.currentThread().interrupt();
-        }
     }
 
     //~ Inner Classes ********************************************************************************************************************************
 
     /**
-     * The worker used by the producer executor service.
+     * Tracks the outstanding messages of a single enqueue call. The call itself holds one pending slot until all its messages have been handed to
+     * the producer, so the result cannot complete while messages are still being added.
      *
-     * @author  Bhinav Sura (bhinav.sura@salesforce.com)
+     * @author  a.chambers
      */
-    private class ProducerWorker implements Callable<Boolean> {
-
-        private final String _topic;
-        private final String _message;
-
-        /**
-         * Creates a new Producer object.
-         *
-         * @param  topic    The topic to produce onto.
-         * @param  message  The message to enqueue.
-         */
-        public ProducerWorker(String topic, String message) {
-            this._topic = topic;
-            this._message = message;
+    private static class BatchAcknowledgement {
+
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private final AtomicInteger acknowledged = new AtomicInteger(0);
+        private final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        void seal() {
+            if (pending.decrementAndGet() == 0) {
+                result.complete(acknowledged.get());
+            }
+        }
+    }
+
+    /**
+     * The callback for a single message. It returns the message's in-flight bytes and is only ever counted once, even when the producer reports a
+     * failure through both an exception and the callback.
+     *
+     * @author  a.chambers
+     */
+    private class RecordCallback implements Callback {
+
+        private final BatchAcknowledgement _acknowledgement;
+        private final int _permits;
+        private final AtomicBoolean _completed = new AtomicBoolean(false);
+
+        RecordCallback(BatchAcknowledgement acknowledgement, int permits) {
+            _acknowledgement = acknowledgement;
+            _permits = permits;
         }
 
         @Override
-        public Boolean call() {
-            ProducerRecord<String, String> record = new ProducerRecord<>(_topic, _message);
-
-            try {
-                _producer.send(record, new Callback() {
-
-                        @Override
-                        public void onCompletion(RecordMetadata metaData, Exception exception) {
-                            if (exception != null) {
-                                _logger.warn("Exception while sending message. ", exception);
-                            } else {
-                                _logger.trace("Message sent to partition {} with offset {}.", metaData.partition(), metaData.offset());
-                            }
-                        }
-                    });
-            } catch (BufferExhaustedException e) {
-                _logger.warn("Buffer exhausted on kafka producer. Skipping this message.", e);
-                return false;
-            } catch (Exception e) {
-                _logger.warn("Exception occurred when executing producer send(). ", e);
-                throw new SystemException(e);
+        public void onCompletion(RecordMetadata metaData, Exception exception) {
+            if (!_completed.compareAndSet(false, true)) {
+                return;
+            }
+            _inFlightBytes.release(_permits);
+            if (exception != null) {
+                _logger.warn("Exception while sending message. ", exception);
+            } else {
+                _logger.trace("Message sent to partition {} with offset {}.", metaData.partition(), metaData.offset());
+                _acknowledgement.acknowledged.incrementAndGet();
             }
-            return true;
+            _acknowledgement.seal();
         }
     }
 }
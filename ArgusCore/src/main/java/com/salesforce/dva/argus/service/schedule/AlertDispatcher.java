@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.dva.argus.service.schedule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.dva.argus.entity.Alert;
+
+import static com.salesforce.dva.argus.system.SystemAssert.requireArgument;
+
+/**
+ * Hands the alerts scheduled for a minute to a fixed set of workers which enqueue them in batches. Each worker owns a deque. Dispatched alerts
+ * are split into contiguous runs across the deques, a worker takes batches from the head of its own deque, and a worker whose deque is empty
+ * steals from the tail of the others. Idle workers block until alerts are dispatched instead of polling.
+ *
+ * <p>Each worker sizes its batches from the latency of its previous enqueue: the batch is halved when an enqueue takes longer than the target
+ * latency and grows by a quarter when it takes less than half of it. The lag from the start of the scheduled minute to the completion of the
+ * enqueue is recorded for every batch.</p>
+ *
+ * @author  a.chambers
+ */
+final class AlertDispatcher {
+
+	//~ Static fields/initializers *******************************************************************************************************************
+
+	private static final Logger _logger = LoggerFactory.getLogger(AlertDispatcher.class);
+	private static final long SHUTDOWN_TIMEOUT_MILLIS = 5000;
+
+	//~ Instance fields ******************************************************************************************************************************
+
+	private final Consumer<List<Alert>> _sink;
+	private final Worker[] _workers;
+	private final ExecutorService _executor;
+	private final int _minBatchSize;
+	private final int _maxBatchSize;
+	private final long _targetLatencyNanos;
+	private final AtomicInteger _pending = new AtomicInteger();
+	private final ReentrantLock _lock = new ReentrantLock();
+	private final Condition _workAvailable = _lock.newCondition();
+	private final LongAccumulator _maxDispatchLag = new LongAccumulator(Math::max, 0);
+	private final LongAdder _dispatchLagSum = new LongAdder();
+	private final LongAdder _dispatchedBatches = new LongAdder();
+	private int _nextWorker;
+
+	//~ Constructors *********************************************************************************************************************************
+
+	/**
+	 * Creates and starts a new AlertDispatcher object.
+	 *
+	 * @param  workerCount      The number of workers. Must be positive.
+	 * @param  initialBatchSize The initial batch size of each worker.
+	 * @param  minBatchSize     The minimum batch size. Must be positive.
+	 * @param  maxBatchSize     The maximum batch size. Cannot be less than the minimum batch size.
+	 * @param  targetLatency    The enqueue latency per batch the batch sizes are adapted to, in milliseconds. Must be positive.
+	 * @param  sink             Enqueues a batch of alerts. Cannot be null.
+	 * @param  threadFactory    Creates the worker threads. Cannot be null.
+	 */
+	AlertDispatcher(int workerCount, int initialBatchSize, int minBatchSize, int maxBatchSize, long targetLatency, Consumer<List<Alert>> sink,
+			ThreadFactory threadFactory) {
+		requireArgument(workerCount > 0, "Worker count must be positive.");
+		requireArgument(minBatchSize > 0 && maxBatchSize >= minBatchSize, "Batch size bounds are invalid.");
+		requireArgument(targetLatency > 0, "Target latency must be positive.");
+		requireArgument(sink != null, "Sink cannot be null.");
+		_sink = sink;
+		_minBatchSize = minBatchSize;
+		_maxBatchSize = maxBatchSize;
+		_targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatency);
+		_workers = new Worker[workerCount];
+		_executor = Executors.newFixedThreadPool(workerCount, threadFactory);
+		for (int i = 0; i < workerCount; i++) {
+			_workers[i] = new Worker(i, Math.max(minBatchSize, Math.min(maxBatchSize, initialBatchSize)));
+		}
+		for (Worker worker : _workers) {
+			_executor.submit(worker);
+		}
+	}
+
+	//~ Methods **************************************************************************************************************************************
+
+	/**
+	 * Dispatches alerts for enqueueing. The alerts are split into one contiguous run per worker.
+	 *
+	 * @param  alerts           The alerts to dispatch. Cannot be null.
+	 * @param  minuteStartTime  The start of the minute the alerts are scheduled for, from which the dispatch lag is measured.
+	 */
+	void dispatch(List<Alert> alerts, long minuteStartTime) {
+		requireArgument(alerts != null, "Alerts cannot be null.");
+		if (alerts.isEmpty()) {
+			return;
+		}
+		_pending.addAndGet(alerts.size());
+
+		int runLength = (alerts.size() + _workers.length - 1) / _workers.length;
+		int first;
+
+		synchronized (this) {
+			first = _nextWorker;
+			_nextWorker = (_nextWorker + 1) % _workers.length;
+		}
+		for (int from = 0, i = 0; from < alerts.size(); from += runLength, i++) {
+			ConcurrentLinkedDeque<ScheduledAlert> deque = _workers[(first + i) % _workers.length]._deque;
+
+			for (Alert alert : alerts.subList(from, Math.min(alerts.size(), from + runLength))) {
+				deque.addLast(new ScheduledAlert(alert, minuteStartTime));
+			}
+		}
+		_lock.lock();
+		try {
+			_workAvailable.signalAll();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of dispatched alerts not yet taken by a worker.
+	 *
+	 * @return  The number of pending alerts.
+	 */
+	int size() {
+		return Math.max(0, _pending.get());
+	}
+
+	/**
+	 * Returns the average batch size the workers are currently using.
+	 *
+	 * @return  The average batch size.
+	 */
+	int getBatchSize() {
+		long sum = 0;
+
+		for (Worker worker : _workers) {
+			sum += worker._batchSize;
+		}
+		return (int) (sum / _workers.length);
+	}
+
+	/**
+	 * Returns the maximum dispatch lag since the previous call and resets it.
+	 *
+	 * @return  The maximum lag in milliseconds from the start of the scheduled minute to the completion of an enqueue, or 0 if nothing was enqueued.
+	 */
+	long getAndResetMaxDispatchLag() {
+		return _maxDispatchLag.getThenReset();
+	}
+
+	/**
+	 * Returns the average dispatch lag per batch since the previous call and resets it.
+	 *
+	 * @return  The average lag in milliseconds, or 0 if nothing was enqueued.
+	 */
+	long getAndResetAverageDispatchLag() {
+		long batches = _dispatchedBatches.sumThenReset();
+		long sum = _dispatchLagSum.sumThenReset();
+
+		return batches == 0 ? 0 : sum / batches;
+	}
+
+	/**
+	 * Stops the workers. Batches being enqueued are given a few seconds to complete. Alerts that have not been taken by a worker by then are
+	 * dropped, and their number is logged.
+	 *
+	 * @return  The number of dropped alerts.
+	 */
+	int shutdown() {
+		_executor.shutdownNow();
+		try {
+			if (!_executor.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+				_logger.warn("Alert dispatcher workers did not stop within {} ms.", SHUTDOWN_TIMEOUT_MILLIS);
+			}
+		} catch (InterruptedException ex) {
+			_logger.warn("Interrupted while waiting for the alert dispatcher workers to stop.");
+			Thread.currentThread().interrupt();
+		}
+
+		int dropped = 0;
+
+		for (Worker worker : _workers) {
+			while (worker._deque.pollFirst() != null) {
+				dropped++;
+			}
+		}
+		_pending.addAndGet(-dropped);
+		if (dropped > 0) {
+			_logger.warn("Dropped {} dispatched alerts which had not been enqueued when the dispatcher was shut down.", dropped);
+		}
+		return dropped;
+	}
+
+	//~ Inner Classes ********************************************************************************************************************************
+
+	/** An alert and the minute it is scheduled for. */
+	private static final class ScheduledAlert {
+
+		private final Alert _alert;
+		private final long _minuteStartTime;
+
+		ScheduledAlert(Alert alert, long minuteStartTime) {
+			_alert = alert;
+			_minuteStartTime = minuteStartTime;
+		}
+	}
+
+	/** Takes batches from its own deque or steals them from the others, and enqueues them. */
+	private final class Worker implements Runnable {
+
+		private final int _index;
+		private final ConcurrentLinkedDeque<ScheduledAlert> _deque = new ConcurrentLinkedDeque<>();
+		private volatile int _batchSize;
+
+		Worker(int index, int batchSize) {
+			_index = index;
+			_batchSize = batchSize;
+		}
+
+		@Override
+		public void run() {
+			while (!Thread.currentThread().isInterrupted()) {
+				try {
+					List<ScheduledAlert> batch = _take();
+
+					if (batch.isEmpty()) {
+						_awaitWork();
+					} else {
+						_enqueue(batch);
+					}
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				} catch (Exception ex) {
+					_logger.error("Exception occured when scheduling alerts - " + ExceptionUtils.getFullStackTrace(ex));
+				}
+			}
+		}
+
+		/* Takes from the head of the own deque, which keeps a run of alerts together, or else steals from the tail of another deque. */
+		private List<ScheduledAlert> _take() {
+			List<ScheduledAlert> batch = new ArrayList<>(_batchSize);
+
+			_drain(_deque, batch, false);
+			for (int i = 1; i < _workers.length && batch.isEmpty(); i++) {
+				_drain(_workers[(_index + i) % _workers.length]._deque, batch, true);
+			}
+			_pending.addAndGet(-batch.size());
+			return batch;
+		}
+
+		private void _drain(ConcurrentLinkedDeque<ScheduledAlert> deque, List<ScheduledAlert> batch, boolean fromTail) {
+			while (batch.size() < _batchSize) {
+				ScheduledAlert scheduledAlert = fromTail ? deque.pollLast() : deque.pollFirst();
+
+				if (scheduledAlert == null) {
+					return;
+				}
+				batch.add(scheduledAlert);
+			}
+		}
+
+		private void _awaitWork() throws InterruptedException {
+			_lock.lock();
+			try {
+				if (_pending.get() <= 0) {
+					_workAvailable.await();
+				}
+			} finally {
+				_lock.unlock();
+			}
+			if (_pending.get() > 0) {
+				// the alerts may still be on their way into the deques
+				Thread.yield();
+			}
+		}
+
+		private void _enqueue(List<ScheduledAlert> batch) {
+			List<Alert> alerts = new ArrayList<>(batch.size());
+			long minuteStartTime = Long.MAX_VALUE;
+
+			for (ScheduledAlert scheduledAlert : batch) {
+				alerts.add(scheduledAlert._alert);
+				minuteStartTime = Math.min(minuteStartTime, scheduledAlert._minuteStartTime);
+			}
+
+			long start = System.nanoTime();
+
+			try {
+				_sink.accept(alerts);
+			} finally {
+				_adaptBatchSize(System.nanoTime() - start, batch.size());
+
+				long lag = Math.max(0, System.currentTimeMillis() - minuteStartTime);
+
+				_maxDispatchLag.accumulate(lag);
+				_dispatchLagSum.add(lag);
+				_dispatchedBatches.increment();
+			}
+		}
+
+		/* Multiplicative decrease on slow enqueues. Only full batches grow the size, since a partial batch says nothing about a larger one. */
+		private void _adaptBatchSize(long latencyNanos, int size) {
+			if (latencyNanos > _targetLatencyNanos) {
+				_batchSize = Math.max(_minBatchSize, _batchSize / 2);
+			} else if (latencyNanos < _targetLatencyNanos / 2 && size >= _batchSize) {
+				_batchSize = Math.min(_maxBatchSize, _batchSize + Math.max(1, _batchSize / 4));
+			}
+		}
+	}
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
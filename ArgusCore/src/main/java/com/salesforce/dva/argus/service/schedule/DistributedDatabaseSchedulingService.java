@@ -60,6 +60,7 @@ import com.salesforce.dva.argus.system.SystemConfiguration;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.slf4j.Logger;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -67,10 +68,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
@@ -96,14 +94,14 @@ public class DistributedDatabaseSchedulingService extends DefaultService impleme
 	private final AuditService _auditService;
 	private final MetricService _metricService;
 	private final TSDBService _tsdbService;
-	private final BlockingQueue<Alert> _alertsQueue = new LinkedBlockingQueue<Alert>();
-	private ExecutorService _schedulerService;
+	private AlertDispatcher _alertDispatcher;
 	private Thread _alertSchedulingThread;
 	private SystemConfiguration _configuration;
 	private final DistributedSchedulingLockService _distributedSchedulingService;
 	private AlertDefinitionsCache _alertDefinitionsCache;
 	private AlertSchedulingKPIReporter _alertSchedulingKpiReporter;
 	private AlertEvaluationKPIReporter _alertEvaluationKPIReporter;
+	private static final String ALERTS_CACHE_SNAPSHOT_FILE_NAME = "alert-definitions.snapshot";
 	private static final Integer ALERT_SCHEDULING_BATCH_SIZE = 100;
 	private static final Long SCHEDULING_REFRESH_INTERVAL_IN_MILLS = 60000L;
 	private static final Random _randomNumGenerator = new Random(System.nanoTime());
@@ -136,11 +134,21 @@ public class DistributedDatabaseSchedulingService extends DefaultService impleme
 		_tsdbService = tsdbService;
 		_configuration = config;
 		_distributedSchedulingService=distributedSchedulingLockService;
-		_alertDefinitionsCache = new AlertDefinitionsCache(_alertService);
+		String snapshotDirectory = _configuration.getValue(Property.ALERTS_CACHE_SNAPSHOT_DIRECTORY.getName(),
+				Property.ALERTS_CACHE_SNAPSHOT_DIRECTORY.getDefaultValue());
+		long snapshotIntervalMillis = TimeUnit.MINUTES.toMillis(Long.parseLong(_configuration.getValue(
+				Property.ALERTS_CACHE_SNAPSHOT_INTERVAL_MINUTES.getName(), Property.ALERTS_CACHE_SNAPSHOT_INTERVAL_MINUTES.getDefaultValue())));
+		_alertDefinitionsCache = new AlertDefinitionsCache(_alertService,
+				snapshotDirectory.trim().isEmpty() ? null : new File(snapshotDirectory, ALERTS_CACHE_SNAPSHOT_FILE_NAME), snapshotIntervalMillis);
 
 		// initializing the alert scheduler tasks
 		int numThreads = Integer.parseInt(_configuration.getValue(Property.SCHEDULER_THREADPOOL_COUNT.getName(), Property.SCHEDULER_THREADPOOL_COUNT.getDefaultValue()));
-		_schedulerService = Executors.newFixedThreadPool(numThreads,
+		_alertDispatcher = new AlertDispatcher(numThreads, ALERT_SCHEDULING_BATCH_SIZE,
+				Integer.parseInt(_configuration.getValue(Property.SCHEDULER_MIN_BATCH_SIZE.getName(), Property.SCHEDULER_MIN_BATCH_SIZE.getDefaultValue())),
+				Integer.parseInt(_configuration.getValue(Property.SCHEDULER_MAX_BATCH_SIZE.getName(), Property.SCHEDULER_MAX_BATCH_SIZE.getDefaultValue())),
+				Long.parseLong(_configuration.getValue(Property.SCHEDULER_ENQUEUE_TARGET_LATENCY_MILLIS.getName(),
+						Property.SCHEDULER_ENQUEUE_TARGET_LATENCY_MILLIS.getDefaultValue())),
+				_alertService::enqueueAlerts,
 				new ThreadFactory() {
 			public Thread newThread(Runnable r) {
 				Thread t = Executors.defaultThreadFactory().newThread(r);
@@ -149,10 +157,6 @@ public class DistributedDatabaseSchedulingService extends DefaultService impleme
 			}
 		});
 
-		for(int i=0;i<numThreads;i++) {
-			_schedulerService.submit(new AlertScheduler());
-		}
-
 		_alertSchedulingKpiReporter = new AlertSchedulingKPIReporter();
 		_alertSchedulingKpiReporter.setDaemon(true);
 		_alertSchedulingKpiReporter.start();
@@ -180,6 +184,8 @@ public class DistributedDatabaseSchedulingService extends DefaultService impleme
 	@Override
 	public synchronized void dispose() {
 		stopAlertScheduling();
+		_alertDispatcher.shutdown();
+		_alertDefinitionsCache.dispose();
 		super.dispose();
 		_serviceManagementRecordService.dispose();
 		_alertService.dispose();
@@ -258,7 +264,18 @@ public class DistributedDatabaseSchedulingService extends DefaultService impleme
 	public enum Property {
 
 		SCHEDULER_THREADPOOL_COUNT("service.property.scheduling.quartz.threadPool.threadCount", "10"),
-		JOBS_BLOCK_SIZE("service.property.scheduling.jobsBlockSize", "100000");
+		JOBS_BLOCK_SIZE("service.property.scheduling.jobsBlockSize", "100000"),
+		/** The bounds of the alert enqueue batch size, which is adapted to the enqueue latency. */
+		SCHEDULER_MIN_BATCH_SIZE("service.property.scheduling.batch.size.min", "10"),
+		SCHEDULER_MAX_BATCH_SIZE("service.property.scheduling.batch.size.max", "1000"),
+		/** The enqueue latency per batch the batch size is adapted to. */
+		SCHEDULER_ENQUEUE_TARGET_LATENCY_MILLIS("service.property.scheduling.enqueue.target.latency.millis", "200"),
+		/**
+		 * The local directory in which the alert definitions cache is snapshotted, so that a restarted scheduler only fetches the alerts modified
+		 * since. Snapshots are disabled if empty.
+		 */
+		ALERTS_CACHE_SNAPSHOT_DIRECTORY("service.property.scheduling.alerts.cache.snapshot.directory", ""),
+		ALERTS_CACHE_SNAPSHOT_INTERVAL_MINUTES("service.property.scheduling.alerts.cache.snapshot.interval.minutes", "10");
 
 		private final String _name;
 		private final String _defaultValue;
@@ -345,7 +362,7 @@ public class DistributedDatabaseSchedulingService extends DefaultService impleme
 							// schedule all the jobs by putting them in scheduling queue
 							_logger.info("Scheduling enabled alerts for the minute starting at {}", startTimeForCurrMinute);
 							_logger.info("Adding alerts between {} and {} to scheduler",  jobsFromIndex, jobsToIndex);
-							_alertsQueue.addAll(enabledAlerts.subList(jobsFromIndex, jobsToIndex));
+							_alertDispatcher.dispatch(enabledAlerts.subList(jobsFromIndex, jobsToIndex), startTimeForCurrMinute);
 
 							distributedSchedulingLock = _distributedSchedulingService.updateNGetDistributedScheduleByType(LockType.ALERT_SCHEDULING,jobsBlockSize,SCHEDULING_REFRESH_INTERVAL_IN_MILLS);
 							jobsFromIndex = distributedSchedulingLock.getCurrentIndex() - jobsBlockSize; 
@@ -365,30 +382,6 @@ public class DistributedDatabaseSchedulingService extends DefaultService impleme
 		}
 	}
 
-	class AlertScheduler implements Runnable{
-		@Override
-		public void run() {
-			List<Alert> alertsBatch = new ArrayList<Alert>();
-			while(true) {
-				try {
-					Alert alert = _alertsQueue.poll(10, TimeUnit.MILLISECONDS);
-					if(alert!=null) {
-						alertsBatch.add(alert);
-					}
-					if((alert==null && alertsBatch.size()>0) || alertsBatch.size()==ALERT_SCHEDULING_BATCH_SIZE) {
-						_alertService.enqueueAlerts(alertsBatch);
-						alertsBatch = new ArrayList<Alert>();
-						if(alert==null) {
-							_logger.info("Alerts queue is empty");
-						}
-					}
-				}catch(Exception e) {
-					_logger.error("Exception occured when scheduling alerts - "+ ExceptionUtils.getFullStackTrace(e));
-				}
-			}
-		}
-	}
-
 	class AlertSchedulingKPIReporter extends Thread{
 
 		@Override
@@ -402,7 +395,7 @@ public class DistributedDatabaseSchedulingService extends DefaultService impleme
 						Metric schedulingQueueSizeMetric = new Metric(MonitorService.Counter.ALERTS_SCHEDULING_QUEUE_SIZE.getScope(), MonitorService.Counter.ALERTS_SCHEDULING_QUEUE_SIZE.getMetric());
 						schedulingQueueSizeMetric.setTag("host",SystemConfiguration.getHostname());
 						Map<Long, Number> datapoints = new HashMap<>();
-						datapoints.put(nextMinuteStartTime, _alertsQueue.size());
+						datapoints.put(nextMinuteStartTime, _alertDispatcher.size());
 						schedulingQueueSizeMetric.addDatapoints(datapoints);
 
 						Metric enabledAlertsMetric = new Metric(MonitorService.Counter.ALERTS_ENABLED.getScope(), MonitorService.Counter.ALERTS_ENABLED.getMetric());
@@ -412,7 +405,10 @@ public class DistributedDatabaseSchedulingService extends DefaultService impleme
 						enabledAlertsMetric.addDatapoints(datapoints);
 
 						try {
-							_tsdbService.putMetrics(Arrays.asList(new Metric[] {schedulingQueueSizeMetric, enabledAlertsMetric}));
+							_tsdbService.putMetrics(Arrays.asList(new Metric[] {schedulingQueueSizeMetric, enabledAlertsMetric,
+									_createKPIMetric(MonitorService.Counter.ALERTS_SCHEDULING_DISPATCH_LAG_MAX, nextMinuteStartTime, _alertDispatcher.getAndResetMaxDispatchLag()),
+									_createKPIMetric(MonitorService.Counter.ALERTS_SCHEDULING_DISPATCH_LAG_AVG, nextMinuteStartTime, _alertDispatcher.getAndResetAverageDispatchLag()),
+									_createKPIMetric(MonitorService.Counter.ALERTS_SCHEDULING_BATCH_SIZE, nextMinuteStartTime, _alertDispatcher.getBatchSize())}));
 						} catch (Exception ex) {
 							_logger.error("Error occurred while pushing alert audit scheduling time series. Reason: {}", ex.getMessage());
 						}
@@ -424,6 +420,15 @@ public class DistributedDatabaseSchedulingService extends DefaultService impleme
 				}
 			}
 		}
+
+		private Metric _createKPIMetric(MonitorService.Counter counter, long timestamp, Number value) {
+			Metric metric = new Metric(counter.getScope(), counter.getMetric());
+			metric.setTag("host",SystemConfiguration.getHostname());
+			Map<Long, Number> datapoints = new HashMap<>();
+			datapoints.put(timestamp, value);
+			metric.addDatapoints(datapoints);
+			return metric;
+		}
 	}
 
 	class AlertEvaluationKPIReporter extends Thread{
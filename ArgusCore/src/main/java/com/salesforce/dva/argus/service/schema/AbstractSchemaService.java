@@ -1,13 +1,24 @@
 package com.salesforce.dva.argus.service.schema;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Random;
@@ -21,8 +32,7 @@ import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
+import net.openhft.hashing.LongHashFunction;
 
 import com.salesforce.dva.argus.entity.KeywordQuery;
 import com.salesforce.dva.argus.entity.Metric;
@@ -43,19 +53,23 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 	private static final long POLL_INTERVAL_MS = 10 * 60 * 1000L;
 	private static final int DAY_IN_SECONDS = 24 * 60 * 60;
 	private static final int HOUR_IN_SECONDS = 60 * 60;
+	private static final int SNAPSHOT_VERSION = 2;
+	private static final String SNAPSHOT_FILE_NAME = "schema-bloomfilters.snapshot";
 
 	/* Have three separate bloom filters one for metrics schema, one only for scope names schema and one only for scope name and metric name schema.
 	 * Since scopes will continue to repeat more often on subsequent kafka batch reads, we can easily check this from the  bloom filter for scopes only.
 	 * Hence we can avoid the extra call to populate scopenames index on ES in subsequent Kafka reads.
 	 * The same logic applies to scope name and metric name schema.
+	 * The filters are time sliced so that entries expire gradually, and are snapshotted to disk so that a restart does not re-send every schema record.
 	 */
-	protected static BloomFilter<CharSequence> bloomFilter;
-	protected static BloomFilter<CharSequence> bloomFilterScopeOnly;
-	protected static BloomFilter<CharSequence> bloomFilterScopeAndMetricOnly;
+	protected static TimeSlicedBloomFilter bloomFilter;
+	protected static TimeSlicedBloomFilter bloomFilterScopeOnly;
+	protected static TimeSlicedBloomFilter bloomFilterScopeAndMetricOnly;
 	
 	protected final MonitorService _monitorService;
-	private Random rand = new Random();
-	private int randomNumber = rand.nextInt();
+	/* The random key component belongs with the bloom filters, so it is shared and snapshotted along with them. It seeds the key hash function. */
+	private static int randomNumber;
+	private static volatile LongHashFunction keyHashFunction;
 	private int bloomFilterExpectedNumberInsertions;
 	private double bloomFilterErrorRate;
 	private int bloomFilterScopeOnlyExpectedNumberInsertions;
@@ -67,6 +81,11 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 	protected final boolean _syncPut;
 	private int bloomFilterFlushHourToStartAt;
 	private ScheduledExecutorService scheduledExecutorService;
+	private final int bloomFilterSlices;
+	private final int bloomFilterShards;
+	private final long bloomFilterRotationIntervalMillis;
+	private final File bloomFilterSnapshotFile;
+	private volatile long bloomFilterLastRotation;
 
 	protected AbstractSchemaService(SystemConfiguration config, MonitorService monitorService) {
 		super(config);
@@ -88,11 +107,25 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 		bloomFilterScopeAndMetricOnlyErrorRate = Double.parseDouble(config.getValue(Property.BLOOMFILTER_SCOPE_AND_METRIC_ONLY_ERROR_RATE.getName(),
 				Property.BLOOMFILTER_SCOPE_AND_METRIC_ONLY_ERROR_RATE.getDefaultValue()));
 
-		bloomFilter = BloomFilter.create(Funnels.stringFunnel(Charset.defaultCharset()), bloomFilterExpectedNumberInsertions , bloomFilterErrorRate);
-
-		bloomFilterScopeOnly = BloomFilter.create(Funnels.stringFunnel(Charset.defaultCharset()), bloomFilterScopeOnlyExpectedNumberInsertions , bloomFilterScopeOnlyErrorRate);
-		bloomFilterScopeAndMetricOnly = BloomFilter.create(Funnels.stringFunnel(Charset.defaultCharset()),
-				bloomFilterScopeAndMetricOnlyExpectedNumberInsertions , bloomFilterScopeAndMetricOnlyErrorRate);
+		bloomFilterSlices = Integer.parseInt(config.getValue(Property.BLOOMFILTER_SLICES.getName(), Property.BLOOMFILTER_SLICES.getDefaultValue()));
+		SystemAssert.requireArgument(bloomFilterSlices > 0, "The number of bloom filter slices must be positive.");
+		bloomFilterRotationIntervalMillis = DAY_IN_SECONDS * 1000L / bloomFilterSlices;
+		bloomFilterShards = Integer.parseInt(config.getValue(Property.BLOOMFILTER_SHARDS.getName(), Property.BLOOMFILTER_SHARDS.getDefaultValue()));
+		SystemAssert.requireArgument(bloomFilterShards > 0, "The number of bloom filter shards must be positive.");
+
+		String snapshotDirectory = config.getValue(Property.BLOOMFILTER_SNAPSHOT_DIRECTORY.getName(),
+				Property.BLOOMFILTER_SNAPSHOT_DIRECTORY.getDefaultValue());
+
+		bloomFilterSnapshotFile = StringUtils.isBlank(snapshotDirectory) ? null : new File(snapshotDirectory, SNAPSHOT_FILE_NAME);
+		if (!_loadBloomFilters()) {
+			bloomFilter = new TimeSlicedBloomFilter(bloomFilterSlices, bloomFilterShards, bloomFilterExpectedNumberInsertions, bloomFilterErrorRate);
+			bloomFilterScopeOnly = new TimeSlicedBloomFilter(bloomFilterSlices, bloomFilterShards, bloomFilterScopeOnlyExpectedNumberInsertions,
+					bloomFilterScopeOnlyErrorRate);
+			bloomFilterScopeAndMetricOnly = new TimeSlicedBloomFilter(bloomFilterSlices, bloomFilterShards,
+					bloomFilterScopeAndMetricOnlyExpectedNumberInsertions, bloomFilterScopeAndMetricOnlyErrorRate);
+			_setRandomNumber(new Random().nextInt());
+			bloomFilterLastRotation = 0;
+		}
 
 		_syncPut = Boolean.parseBoolean(
 				config.getValue(Property.SYNC_PUT.getName(), Property.SYNC_PUT.getDefaultValue()));
@@ -101,7 +134,8 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 		_bloomFilterMonitorThread.start();
 
 		bloomFilterFlushHourToStartAt = getBloomFilterFlushHourToStartAt();
-		createScheduledExecutorService(bloomFilterFlushHourToStartAt);
+		createScheduledExecutorService(bloomFilterFlushHourToStartAt, Long.parseLong(config.getValue(
+				Property.BLOOMFILTER_SNAPSHOT_INTERVAL_MINUTES.getName(), Property.BLOOMFILTER_SNAPSHOT_INTERVAL_MINUTES.getDefaultValue())));
 	}
 
 	@Override
@@ -124,11 +158,11 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 		Set<Pair<String, String>> scopesAndMetricsNamesToPut = new HashSet<>(metrics.size());
 
 		for(Metric metric : metrics) {
-			// check metric schema bloom filter
+			// check metric schema bloom filter, hashing the scope, metric and namespace only once for all tags
+			long metricHash = _hashMetric(metric.getScope(), metric.getMetric(), metric.getNamespace());
 			if(metric.getTags().isEmpty()) {
 				// if metric does not have tags
-				String key = constructKey(metric, null);
-				boolean found = bloomFilter.mightContain(key);
+				boolean found = bloomFilter.mightContain(_hashTag(metricHash, null, null));
 				if(!found) {
 					metricsToPut.add(metric);
 				}
@@ -136,10 +170,10 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 				// if metric has tags
 				boolean newTags = false;
 				for(Entry<String, String> tagEntry : metric.getTags().entrySet()) {
-					String key = constructKey(metric, tagEntry);
-					boolean found = bloomFilter.mightContain(key);
+					boolean found = bloomFilter.mightContain(_hashTag(metricHash, tagEntry.getKey(), tagEntry.getValue()));
 					if(!found) {
 						newTags = true;
+						break;
 					}
 				}
 
@@ -152,15 +186,13 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 			String metricName = metric.getMetric();
 
 			// Check scope only bloom filter
-			String key = constructScopeOnlyKey(scopeName);
-			boolean found = bloomFilterScopeOnly.mightContain(key);
+			boolean found = bloomFilterScopeOnly.mightContain(hashScopeOnlyKey(scopeName));
 			if(!found) {
 				scopesToPut.add(scopeName);
 			}
 
 			// Check scope and metric only bloom filter
-			key = constructScopeAndMetricOnlyKey(scopeName, metricName);
-			found = bloomFilterScopeAndMetricOnly.mightContain(key);
+			found = bloomFilterScopeAndMetricOnly.mightContain(hashScopeAndMetricOnlyKey(scopeName, metricName));
 			if(!found) {
 				scopesAndMetricsNamesToPut.add(Pair.of(scopeName, metricName));
 			}
@@ -197,6 +229,7 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 			_logger.info("Requested shutdown of bloom filter monitor thread aborted, as it is not yet running.");
 		}
 		shutdownScheduledExecutorService();
+		_snapshotBloomFilters();
 	}
 
 	@Override
@@ -211,62 +244,60 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 	@Override
 	public abstract List<MetricSchemaRecord> keywordSearch(KeywordQuery query);
 
-	protected String constructKey(Metric metric, Entry<String, String> tagEntry) {
-		StringBuilder sb = new StringBuilder(metric.getScope());
-		sb.append('\0').append(metric.getMetric());
-
-		if(metric.getNamespace() != null) {
-			sb.append('\0').append(metric.getNamespace());
-		}
-
-		if(tagEntry != null) {
-			sb.append('\0').append(tagEntry.getKey()).append('\0').append(tagEntry.getValue());
-		}
-
-		// Add randomness for each instance of bloom filter running on different
-		// schema clients to reduce probability of false positives that metric schemas are not written to ES
-		sb.append('\0').append(randomNumber);
-
-		return sb.toString();
+	/**
+	 * Returns the bloom filter key hash of a schema record. Empty fields are left out of the hash, so a metric without tags has the same key as
+	 * a record without a tag key and value.
+	 *
+	 * @param   scope      The scope.
+	 * @param   metric     The metric name, or null for a scope only key.
+	 * @param   tagk       The tag key, or null.
+	 * @param   tagv       The tag value, or null.
+	 * @param   namespace  The namespace, or null.
+	 *
+	 * @return  The 64-bit key hash.
+	 */
+	protected long hashKey(String scope, String metric, String tagk, String tagv, String namespace) {
+		return _hashTag(_hashMetric(scope, metric, namespace), tagk, tagv);
 	}
 
-	protected String constructKey(String scope, String metric, String tagk, String tagv, String namespace) {
+	protected long hashScopeOnlyKey(String scope) {
+		return hashKey(scope, null, null, null, null);
+	}
 
-		StringBuilder sb = new StringBuilder(scope);
+	protected long hashScopeAndMetricOnlyKey(String scope, String metric) {
+		return hashKey(scope, metric, null, null, null);
+	}
 
-		if(!StringUtils.isEmpty(metric)) {
-			sb.append('\0').append(metric);
-		}
+	/*
+	 * Keys are hashed field by field instead of being concatenated into a String first. The position of each field is mixed in so that the same
+	 * value in a different field gives a different key. The hash function is seeded with the random number, to give each instance of the bloom
+	 * filter running on different schema clients different false positives for the metric schemas that are not written to ES.
+	 */
+	private static long _hashMetric(String scope, String metric, String namespace) {
+		return _hashField(_hashField(_hashField(0, 1, scope), 2, metric), 3, namespace);
+	}
 
-		if(!StringUtils.isEmpty(namespace)) {
-			sb.append('\0').append(namespace);
-		}
+	private static long _hashTag(long metricHash, String tagk, String tagv) {
+		long hash = _hashField(_hashField(metricHash, 4, tagk), 5, tagv);
 
-		if(!StringUtils.isEmpty(tagk)) {
-			sb.append('\0').append(tagk);
-		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
 
-		if(!StringUtils.isEmpty(tagv)) {
-			sb.append('\0').append(tagv);
+	private static long _hashField(long hash, int position, String value) {
+		if (StringUtils.isEmpty(value)) {
+			return hash;
 		}
-
-		// Add randomness for each instance of bloom filter running on different
-		// schema clients to reduce probability of false positives that metric schemas are not written to ES
-		sb.append('\0').append(randomNumber);
-
-		return sb.toString();
+		return (Long.rotateLeft(hash, 27) ^ keyHashFunction.hashChars(value)) * 0x9e3779b97f4a7c15L + position;
 	}
 
-	protected String constructScopeOnlyKey(String scope) {
-
-		return constructKey(scope, null, null, null, null);
+	private static void _setRandomNumber(int value) {
+		randomNumber = value;
+		keyHashFunction = LongHashFunction.xx(value);
 	}
 
-	protected String constructScopeAndMetricOnlyKey(String scope, String metric) {
-
-		return constructKey(scope, metric, null, null, null);
-	}
-	
 	protected int getNumHoursUntilTargetHour(int targetHour){
 		_logger.info("Initialized bloom filter flushing out, at {} hour of day", targetHour);
 		Calendar calendar = Calendar.getInstance();
@@ -288,11 +319,104 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 		return bloomFilterFlushHourToStartAt;
 	}
 	
-	private void createScheduledExecutorService(int targetHourToStartAt){
+	/*
+	 * Filters restored from a snapshot keep rotating on their own schedule. Fresh filters first rotate at the host specific hour, to prevent all
+	 * schema committers from re-sending the records of the expired slice at the same time.
+	 */
+	private void createScheduledExecutorService(int targetHourToStartAt, long snapshotIntervalMinutes){
 		scheduledExecutorService = Executors.newScheduledThreadPool(1);
-		int initialDelayInSeconds = getNumHoursUntilTargetHour(targetHourToStartAt) * HOUR_IN_SECONDS;
+
+		long initialDelayMillis;
+
+		if (bloomFilterLastRotation > 0) {
+			initialDelayMillis = Math.max(0, bloomFilterLastRotation + bloomFilterRotationIntervalMillis - System.currentTimeMillis());
+		} else {
+			bloomFilterLastRotation = System.currentTimeMillis();
+			initialDelayMillis = getNumHoursUntilTargetHour(targetHourToStartAt) * HOUR_IN_SECONDS * 1000L % bloomFilterRotationIntervalMillis;
+		}
+
 		BloomFilterFlushThread bloomFilterFlushThread = new BloomFilterFlushThread();
-		scheduledExecutorService.scheduleAtFixedRate(bloomFilterFlushThread, initialDelayInSeconds, DAY_IN_SECONDS, TimeUnit.SECONDS);
+		scheduledExecutorService.scheduleAtFixedRate(bloomFilterFlushThread, initialDelayMillis, bloomFilterRotationIntervalMillis, TimeUnit.MILLISECONDS);
+		if (bloomFilterSnapshotFile != null && snapshotIntervalMinutes > 0) {
+			scheduledExecutorService.scheduleAtFixedRate(new BloomFilterSnapshotThread(), snapshotIntervalMinutes, snapshotIntervalMinutes, TimeUnit.MINUTES);
+		}
+	}
+
+	/*
+	 * Restores the bloom filters and the random key component from the snapshot file. Slices that expired while the service was down are rotated
+	 * out. Returns false if there is no usable snapshot, for example because the filter dimensions have been reconfigured.
+	 */
+	private boolean _loadBloomFilters() {
+		if (bloomFilterSnapshotFile == null || !bloomFilterSnapshotFile.isFile()) {
+			return false;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(bloomFilterSnapshotFile)))) {
+			if (in.readInt() != SNAPSHOT_VERSION) {
+				_logger.warn("Ignoring bloom filter snapshot {} with unsupported version.", bloomFilterSnapshotFile);
+				return false;
+			}
+
+			int snapshotRandomNumber = in.readInt();
+			long lastRotation = in.readLong();
+			TimeSlicedBloomFilter metrics = TimeSlicedBloomFilter.readFrom(in, bloomFilterSlices, bloomFilterShards,
+					bloomFilterExpectedNumberInsertions, bloomFilterErrorRate);
+			TimeSlicedBloomFilter scopes = metrics == null ? null : TimeSlicedBloomFilter.readFrom(in, bloomFilterSlices, bloomFilterShards,
+					bloomFilterScopeOnlyExpectedNumberInsertions, bloomFilterScopeOnlyErrorRate);
+			TimeSlicedBloomFilter scopesAndMetrics = scopes == null ? null : TimeSlicedBloomFilter.readFrom(in, bloomFilterSlices, bloomFilterShards,
+					bloomFilterScopeAndMetricOnlyExpectedNumberInsertions, bloomFilterScopeAndMetricOnlyErrorRate);
+
+			if (scopesAndMetrics == null) {
+				_logger.info("Ignoring bloom filter snapshot {} since the bloom filter configuration has changed.", bloomFilterSnapshotFile);
+				return false;
+			}
+
+			long expiredSlices = Math.max(0, (System.currentTimeMillis() - lastRotation) / bloomFilterRotationIntervalMillis);
+
+			for (long i = 0; i < Math.min(expiredSlices, bloomFilterSlices); i++) {
+				metrics.rotate();
+				scopes.rotate();
+				scopesAndMetrics.rotate();
+			}
+			bloomFilter = metrics;
+			bloomFilterScopeOnly = scopes;
+			bloomFilterScopeAndMetricOnly = scopesAndMetrics;
+			_setRandomNumber(snapshotRandomNumber);
+			bloomFilterLastRotation = lastRotation + expiredSlices * bloomFilterRotationIntervalMillis;
+			_logger.info("Restored bloom filters from {} with {} approximate elements, rotated out {} expired slices.", bloomFilterSnapshotFile,
+					bloomFilter.approximateElementCount(), Math.min(expiredSlices, bloomFilterSlices));
+			return true;
+		} catch (IOException | RuntimeException ex) {
+			_logger.warn("Failed to restore bloom filters from " + bloomFilterSnapshotFile + ". Starting with empty filters.", ex);
+			return false;
+		}
+	}
+
+	/*
+	 * Writes the bloom filters to a temporary file which then replaces the snapshot, so that a crash while writing never leaves a truncated snapshot.
+	 */
+	private void _snapshotBloomFilters() {
+		if (bloomFilterSnapshotFile == null) {
+			return;
+		}
+
+		File directory = bloomFilterSnapshotFile.getAbsoluteFile().getParentFile();
+		File temporaryFile = new File(directory, SNAPSHOT_FILE_NAME + ".tmp");
+
+		try {
+			Files.createDirectories(directory.toPath());
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+				out.writeInt(SNAPSHOT_VERSION);
+				out.writeInt(randomNumber);
+				out.writeLong(bloomFilterLastRotation);
+				bloomFilter.writeTo(out);
+				bloomFilterScopeOnly.writeTo(out);
+				bloomFilterScopeAndMetricOnly.writeTo(out);
+			}
+			Files.move(temporaryFile.toPath(), bloomFilterSnapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			_logger.info("Saved bloom filter snapshot to {}.", bloomFilterSnapshotFile);
+		} catch (IOException | RuntimeException ex) {
+			_logger.warn("Failed to save bloom filter snapshot to " + bloomFilterSnapshotFile + ".", ex);
+		}
 	}
 
 	private void shutdownScheduledExecutorService(){
@@ -334,7 +458,26 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 		*/
 
 		BLOOMFILTER_SCOPE_AND_METRIC_ONLY_EXPECTED_NUMBER_INSERTIONS("service.property.schema.bloomfilter.scope.and.metric.only.expected.number.insertions", "40"),
-		BLOOMFILTER_SCOPE_AND_METRIC_ONLY_ERROR_RATE("service.property.schema.bloomfilter.scope.and.metric.only.error.rate", "0.00001");
+		BLOOMFILTER_SCOPE_AND_METRIC_ONLY_ERROR_RATE("service.property.schema.bloomfilter.scope.and.metric.only.error.rate", "0.00001"),
+
+		/*
+		 * Each bloom filter is made up of this many slices, each sized for the expected number of insertions. One slice expires every
+		 * 24 / slices hours, so memory grows linearly with the number of slices while expiry becomes more gradual.
+		 */
+		BLOOMFILTER_SLICES("service.property.schema.bloomfilter.slices", "2"),
+
+		/*
+		 * Each slice is split into this many shards which are updated without locking. Keys are spread over the shards by hash, and the fill ratio,
+		 * expected error rate and skip ratio of every shard are published as counters.
+		 */
+		BLOOMFILTER_SHARDS("service.property.schema.bloomfilter.shards", "16"),
+
+		/*
+		 * The local directory in which the bloom filters are snapshotted periodically and on shutdown, and from which they are restored on startup.
+		 * Snapshots are disabled if empty.
+		 */
+		BLOOMFILTER_SNAPSHOT_DIRECTORY("service.property.schema.bloomfilter.snapshot.directory", ""),
+		BLOOMFILTER_SNAPSHOT_INTERVAL_MINUTES("service.property.schema.bloomfilter.snapshot.interval.minutes", "60");
 
 		private final String _name;
 		private final String _defaultValue;
@@ -395,6 +538,22 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 			_logger.info("Metrics Bloom expected error rate = {}", bloomFilter.expectedFpp());
 			_logger.info("Scope only Bloom expected error rate = {}", bloomFilterScopeOnly.expectedFpp());
 			_logger.info("Scope and metric only Bloom expected error rate = {}", bloomFilterScopeAndMetricOnly.expectedFpp());
+
+			_publishShardStatistics("metrics", bloomFilter);
+			_publishShardStatistics("scope", bloomFilterScopeOnly);
+			_publishShardStatistics("scope.and.metric", bloomFilterScopeAndMetricOnly);
+		}
+
+		private void _publishShardStatistics(String filterName, TimeSlicedBloomFilter filter) {
+			for (int shard = 0; shard < filter.getShardCount(); shard++) {
+				Map<String, String> tags = new HashMap<>();
+
+				tags.put("filter", filterName);
+				tags.put("shard", String.valueOf(shard));
+				_monitorService.updateCounter(MonitorService.Counter.BLOOMFILTER_FILL_RATIO, filter.fillRatio(shard), tags);
+				_monitorService.updateCounter(MonitorService.Counter.BLOOMFILTER_EXPECTED_FPP, filter.expectedFpp(shard), tags);
+				_monitorService.updateCounter(MonitorService.Counter.BLOOMFILTER_SKIP_RATIO, filter.skipRatioAndReset(shard), tags);
+			}
 		}
 
 		private void _sleepForPollPeriod() {
@@ -418,14 +577,26 @@ public abstract class AbstractSchemaService extends DefaultService implements Sc
 			}
 		}
 
+		/*
+		 * The random key component is kept across rotations, since changing it would expire the entries of every slice at once.
+		 */
 		private void _flushBloomFilter() {
-			_logger.info("Flushing out bloom filter entries");
-			bloomFilter = BloomFilter.create(Funnels.stringFunnel(Charset.defaultCharset()), bloomFilterExpectedNumberInsertions , bloomFilterErrorRate);
-			bloomFilterScopeOnly = BloomFilter.create(Funnels.stringFunnel(Charset.defaultCharset()), bloomFilterScopeOnlyExpectedNumberInsertions , bloomFilterScopeOnlyErrorRate);
-			bloomFilterScopeAndMetricOnly = BloomFilter.create(Funnels.stringFunnel(Charset.defaultCharset()),
-					bloomFilterScopeAndMetricOnlyExpectedNumberInsertions , bloomFilterScopeAndMetricOnlyErrorRate);
-			/* Don't need explicit synchronization to prevent slowness majority of the time*/
-			randomNumber = rand.nextInt();
+			_logger.info("Rotating out the oldest bloom filter slice");
+			bloomFilter.rotate();
+			bloomFilterScopeOnly.rotate();
+			bloomFilterScopeAndMetricOnly.rotate();
+			bloomFilterLastRotation = System.currentTimeMillis();
+		}
+	}
+
+	private class BloomFilterSnapshotThread implements Runnable {
+		@Override
+		public void run() {
+			try {
+				_snapshotBloomFilters();
+			} catch (Exception ex) {
+				_logger.warn("Exception occurred while saving bloom filter snapshot.", ex);
+			}
 		}
 	}
 }
@@ -98,6 +98,41 @@ public class CachedDiscoveryService extends DefaultService implements DiscoveryS
 		return _discoveryService.getUniqueRecords(query, type);
 	}
 
+	/**
+	 * Estimates wildcard queries from their cached expansion, which reflects the time series that actually exist instead of the alternatives
+	 * spelled out in the query. Discovery is never run to estimate a query, so queries without wildcards and wildcard queries whose expansion
+	 * is not cached are estimated by the underlying discovery service.
+	 *
+	 * @param   query  The query to estimate. Cannot be null.
+	 *
+	 * @return  The estimated number of time series. At least one.
+	 */
+	@Override
+	public long estimateTimeseriesCount(MetricQuery query) {
+		requireNotDisposed();
+		SystemAssert.requireArgument(query != null, "MetricQuery cannot be null.");
+
+		if(DiscoveryService.isWildcardQuery(query)) {
+			String value = _cacheService.get(_getKey(query));
+
+			if(value != null) {
+				try {
+					JavaType type = MAPPER.getTypeFactory().constructCollectionType(List.class, MetricQuery.class);
+					List<MetricQuery> matchedQueries = MAPPER.readValue(value, type);
+					long count = 0;
+
+					for(MetricQuery mq : matchedQueries) {
+						count += DiscoveryService.numApproxTimeseriesForQuery(mq);
+					}
+					return Math.max(1, count);
+				} catch (IOException e) {
+					_logger.warn("IOException when trying to deserialize cached data into metric queries. Will estimate from the query.", e);
+				}
+			}
+		}
+		return _discoveryService.estimateTimeseriesCount(query);
+	}
+
 	@Override
 	public List<MetricQuery> getMatchingQueries(MetricQuery query) {
 		requireNotDisposed();
@@ -0,0 +1,299 @@
+package com.salesforce.dva.argus.service.schema;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bloom filter over 64-bit key hashes that can be read and updated concurrently without locking. The bits are split into a fixed number of
+ * shards, each an {@link AtomicLongArray}, and a key only ever touches the shard selected by the high bits of its hash. Bits are set with a
+ * compare and swap, so writers to different words never contend and writers to the same word retry instead of blocking.
+ *
+ * <p>The filter is sized like a Guava bloom filter. The probe positions are derived from the key hash and a remix of it, so callers are expected
+ * to supply well distributed hashes.</p>
+ *
+ * @author  a.chambers
+ */
+public final class ConcurrentBloomFilter {
+
+	//~ Static fields/initializers *******************************************************************************************************************
+
+	private static final double LN2 = Math.log(2);
+
+	//~ Instance fields ******************************************************************************************************************************
+
+	private final AtomicLongArray[] _shards;
+	private final LongAdder[] _bitCounts;
+	private final long _bitsPerShard;
+	private final int _numHashFunctions;
+
+	//~ Constructors *********************************************************************************************************************************
+
+	/**
+	 * Creates a new empty ConcurrentBloomFilter object.
+	 *
+	 * @param  shards              The number of shards. Must be positive.
+	 * @param  expectedInsertions  The number of keys the filter is sized for. Must be positive.
+	 * @param  errorRate           The desired false positive probability at the expected number of insertions. Must be between 0 and 1.
+	 */
+	public ConcurrentBloomFilter(int shards, long expectedInsertions, double errorRate) {
+		if (shards <= 0) {
+			throw new IllegalArgumentException("Number of shards must be positive.");
+		}
+		if (expectedInsertions <= 0) {
+			throw new IllegalArgumentException("Expected insertions must be positive.");
+		}
+		if (errorRate <= 0 || errorRate >= 1) {
+			throw new IllegalArgumentException("Error rate must be between 0 and 1.");
+		}
+
+		_bitsPerShard = _bitsPerShard(shards, expectedInsertions, errorRate);
+		_numHashFunctions = _numHashFunctions(expectedInsertions, errorRate);
+		_shards = new AtomicLongArray[shards];
+		_bitCounts = new LongAdder[shards];
+		for (int i = 0; i < shards; i++) {
+			_shards[i] = new AtomicLongArray((int) (_bitsPerShard >>> 6));
+			_bitCounts[i] = new LongAdder();
+		}
+	}
+
+	private ConcurrentBloomFilter(AtomicLongArray[] shards, long bitsPerShard, int numHashFunctions) {
+		_shards = shards;
+		_bitsPerShard = bitsPerShard;
+		_numHashFunctions = numHashFunctions;
+		_bitCounts = new LongAdder[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			_bitCounts[i] = new LongAdder();
+			for (int j = 0; j < shards[i].length(); j++) {
+				_bitCounts[i].add(Long.bitCount(shards[i].get(j)));
+			}
+		}
+	}
+
+	//~ Methods **************************************************************************************************************************************
+
+	/**
+	 * Returns the shard a key hash belongs to.
+	 *
+	 * @param   hash    The key hash.
+	 * @param   shards  The number of shards.
+	 *
+	 * @return  The shard index, between 0 and shards - 1.
+	 */
+	public static int shardOf(long hash, int shards) {
+		return (int) (((hash >>> 32) * shards) >>> 32);
+	}
+
+	/**
+	 * Reads a filter written by {@link #writeTo(DataOutputStream)}. The filter is only read if its header matches the dimensions of a filter
+	 * created with the given arguments, so a snapshot never allocates more than the configured filter would.
+	 *
+	 * @param   in                  The stream to read from. Cannot be null.
+	 * @param   shards              The expected number of shards.
+	 * @param   expectedInsertions  The number of keys the expected filter is sized for.
+	 * @param   errorRate           The false positive probability the expected filter is sized for.
+	 *
+	 * @return  The filter, or null if the stored filter has different dimensions, in which case the caller should start with an empty filter.
+	 *
+	 * @throws  IOException  If the stream cannot be read.
+	 */
+	public static ConcurrentBloomFilter readFrom(DataInputStream in, int shards, long expectedInsertions, double errorRate) throws IOException {
+		int shardCount = in.readInt();
+		long bitsPerShard = in.readLong();
+		int numHashFunctions = in.readInt();
+
+		if (shardCount != shards || bitsPerShard != _bitsPerShard(shards, expectedInsertions, errorRate)
+				|| numHashFunctions != _numHashFunctions(expectedInsertions, errorRate)) {
+			return null;
+		}
+
+		AtomicLongArray[] contents = new AtomicLongArray[shardCount];
+		int words = (int) (bitsPerShard >>> 6);
+
+		for (int i = 0; i < shardCount; i++) {
+			contents[i] = new AtomicLongArray(words);
+			for (int j = 0; j < words; j++) {
+				contents[i].lazySet(j, in.readLong());
+			}
+		}
+		return new ConcurrentBloomFilter(contents, bitsPerShard, numHashFunctions);
+	}
+
+	/**
+	 * Adds a key hash to the filter.
+	 *
+	 * @param   hash  The key hash.
+	 *
+	 * @return  True if any bit changed, i.e. the key was definitely not in the filter before.
+	 */
+	public boolean put(long hash) {
+		int shard = shardOf(hash, _shards.length);
+		AtomicLongArray bits = _shards[shard];
+		long increment = _increment(hash);
+		long combined = hash;
+		int changed = 0;
+
+		for (int i = 0; i < _numHashFunctions; i++) {
+			if (_setBit(bits, (combined & Long.MAX_VALUE) % _bitsPerShard)) {
+				changed++;
+			}
+			combined += increment;
+		}
+		if (changed > 0) {
+			_bitCounts[shard].add(changed);
+		}
+		return changed > 0;
+	}
+
+	/**
+	 * Indicates whether a key hash might have been added to the filter.
+	 *
+	 * @param   hash  The key hash.
+	 *
+	 * @return  False if the key has definitely not been added.
+	 */
+	public boolean mightContain(long hash) {
+		AtomicLongArray bits = _shards[shardOf(hash, _shards.length)];
+		long increment = _increment(hash);
+		long combined = hash;
+
+		for (int i = 0; i < _numHashFunctions; i++) {
+			long index = (combined & Long.MAX_VALUE) % _bitsPerShard;
+
+			if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+				return false;
+			}
+			combined += increment;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of shards.
+	 *
+	 * @return  The number of shards.
+	 */
+	public int getShardCount() {
+		return _shards.length;
+	}
+
+	/**
+	 * Returns the fraction of bits set in a shard.
+	 *
+	 * @param   shard  The shard index.
+	 *
+	 * @return  The fill ratio, between 0 and 1.
+	 */
+	public double fillRatio(int shard) {
+		return (double) _bitCounts[shard].sum() / _bitsPerShard;
+	}
+
+	/**
+	 * Returns the probability that {@link #mightContain(long)} returns true for a key of the given shard that was never added.
+	 *
+	 * @param   shard  The shard index.
+	 *
+	 * @return  The expected false positive probability.
+	 */
+	public double expectedFpp(int shard) {
+		return Math.pow(fillRatio(shard), _numHashFunctions);
+	}
+
+	/**
+	 * Returns the probability that {@link #mightContain(long)} returns true for a key that was never added.
+	 *
+	 * @return  The expected false positive probability, averaged over the shards.
+	 */
+	public double expectedFpp() {
+		double fpp = 0;
+
+		for (int i = 0; i < _shards.length; i++) {
+			fpp += expectedFpp(i);
+		}
+		return fpp / _shards.length;
+	}
+
+	/**
+	 * Returns the approximate number of distinct keys added, estimated from the number of bits set.
+	 *
+	 * @return  The approximate element count.
+	 */
+	public long approximateElementCount() {
+		double count = 0;
+
+		for (int i = 0; i < _shards.length; i++) {
+			count += -Math.log1p(-fillRatio(i)) * _bitsPerShard / _numHashFunctions;
+		}
+		return Math.round(count);
+	}
+
+	/**
+	 * Writes the filter to a stream. Keys added concurrently may or may not be included.
+	 *
+	 * @param   out  The stream to write to. Cannot be null.
+	 *
+	 * @throws  IOException  If the stream cannot be written.
+	 */
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(_shards.length);
+		out.writeLong(_bitsPerShard);
+		out.writeInt(_numHashFunctions);
+		for (AtomicLongArray bits : _shards) {
+			for (int j = 0; j < bits.length(); j++) {
+				out.writeLong(bits.get(j));
+			}
+		}
+	}
+
+	/* Sets a bit and returns whether it was previously clear. */
+	private static boolean _setBit(AtomicLongArray bits, long index) {
+		int word = (int) (index >>> 6);
+		long mask = 1L << index;
+		long current;
+
+		do {
+			current = bits.get(word);
+			if ((current & mask) != 0) {
+				return false;
+			}
+		} while (!bits.compareAndSet(word, current, current | mask));
+		return true;
+	}
+
+	/* The second probe hash is a remix of the key hash, forced odd so that successive probes never repeat a position early. */
+	private static long _increment(long hash) {
+		long h = hash;
+
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h | 1;
+	}
+
+	/* The number of bits of each shard, rounded up to whole words. */
+	private static long _bitsPerShard(int shards, long expectedInsertions, double errorRate) {
+		return _roundUpToWords((_bits(expectedInsertions, errorRate) + shards - 1) / shards);
+	}
+
+	private static int _numHashFunctions(long expectedInsertions, double errorRate) {
+		return Math.max(1, (int) Math.round((double) _bits(expectedInsertions, errorRate) / expectedInsertions * LN2));
+	}
+
+	/* The total number of bits of an optimally sized filter. */
+	private static long _bits(long expectedInsertions, double errorRate) {
+		return Math.max(64, (long) (-expectedInsertions * Math.log(errorRate) / (LN2 * LN2)));
+	}
+
+	private static long _roundUpToWords(long bits) {
+		long rounded = (bits + 63) & ~63L;
+
+		if ((rounded >>> 6) > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Bloom filter shard is too large. Use more shards.");
+		}
+		return rounded;
+	}
+}
@@ -932,24 +932,21 @@ public class ElasticSearchSchemaService extends AbstractSchemaService {
 	protected void _addToBloomFilter(List<MetricSchemaRecord> records) {
 		_logger.info("Adding {} records into bloom filter.", records.size());
 		for (MetricSchemaRecord record : records) {
-			String key = constructKey(record.getScope(), record.getMetric(), record.getTagKey(), record.getTagValue(), record.getNamespace());
-			bloomFilter.put(key);
+			bloomFilter.put(hashKey(record.getScope(), record.getMetric(), record.getTagKey(), record.getTagValue(), record.getNamespace()));
 		}
 	}
 
 	protected void _addToBloomFilterScopeAndMetricOnly(List<ScopeAndMetricOnlySchemaRecord> records) {
 		_logger.info("Adding {} records into scope and metric only bloom filter.", records.size());
 		for (ScopeAndMetricOnlySchemaRecord record : records) {
-			String key = constructScopeAndMetricOnlyKey(record.getScope(), record.getMetric());
-			bloomFilterScopeAndMetricOnly.put(key);
+			bloomFilterScopeAndMetricOnly.put(hashScopeAndMetricOnlyKey(record.getScope(), record.getMetric()));
 		}
 	}
 
 	protected void _addToBloomFilterScopeOnly(List<ScopeOnlySchemaRecord> records) {
 		_logger.info("Adding {} records into scope only bloom filter.", records.size());
 		for (ScopeOnlySchemaRecord record : records) {
-			String key = constructScopeOnlyKey(record.getScope());
-			bloomFilterScopeOnly.put(key);
+			bloomFilterScopeOnly.put(hashScopeOnlyKey(record.getScope()));
 		}
 	}
 
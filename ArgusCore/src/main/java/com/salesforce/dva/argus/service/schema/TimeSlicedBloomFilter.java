@@ -0,0 +1,263 @@
+package com.salesforce.dva.argus.service.schema;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bloom filter made up of a fixed number of time slices. Keys are added to the newest slice and are looked up in all of them. Rotating the filter
+ * drops the oldest slice and starts a new empty one, so keys expire a slice at a time instead of all at once.
+ *
+ * <p>Each slice is sized for the full number of expected insertions, since a cold filter puts every key into a single slice. The error rate of
+ * each slice is the configured rate divided by the number of slices, which keeps the combined false positive probability at about the configured
+ * rate.</p>
+ *
+ * <p>Keys are 64-bit hashes. Every slice uses the same number of shards and a key maps to the same shard in each of them, so lookups are also
+ * counted per shard as hits, for keys that might be present, and misses.</p>
+ *
+ * @author  a.chambers
+ */
+public final class TimeSlicedBloomFilter {
+
+	//~ Static fields/initializers *******************************************************************************************************************
+
+	private static final int SERIAL_VERSION = 2;
+
+	//~ Instance fields ******************************************************************************************************************************
+
+	private final int _sliceCount;
+	private final int _shardCount;
+	private final int _expectedInsertions;
+	private final double _errorRate;
+	private final LongAdder[] _hits;
+	private final LongAdder[] _misses;
+	private volatile ConcurrentBloomFilter[] _slices;
+
+	//~ Constructors *********************************************************************************************************************************
+
+	/**
+	 * Creates a new empty TimeSlicedBloomFilter object.
+	 *
+	 * @param  slices              The number of slices. Must be positive.
+	 * @param  shards              The number of shards in each slice. Must be positive.
+	 * @param  expectedInsertions  The number of insertions each slice is sized for. Must be positive.
+	 * @param  errorRate           The desired combined false positive probability. Must be between 0 and 1.
+	 */
+	public TimeSlicedBloomFilter(int slices, int shards, int expectedInsertions, double errorRate) {
+		this(slices, shards, expectedInsertions, errorRate, null);
+	}
+
+	private TimeSlicedBloomFilter(int slices, int shards, int expectedInsertions, double errorRate, ConcurrentBloomFilter[] contents) {
+		if (slices <= 0) {
+			throw new IllegalArgumentException("Number of slices must be positive.");
+		}
+		_sliceCount = slices;
+		_shardCount = shards;
+		_expectedInsertions = expectedInsertions;
+		_errorRate = errorRate;
+		if (contents == null) {
+			contents = new ConcurrentBloomFilter[slices];
+			for (int i = 0; i < slices; i++) {
+				contents[i] = _newSlice();
+			}
+		}
+		_slices = contents;
+		_hits = new LongAdder[shards];
+		_misses = new LongAdder[shards];
+		for (int i = 0; i < shards; i++) {
+			_hits[i] = new LongAdder();
+			_misses[i] = new LongAdder();
+		}
+	}
+
+	//~ Methods **************************************************************************************************************************************
+
+	/**
+	 * Reads a filter written by {@link #writeTo(OutputStream)}. The filter is only returned if it was written with the same dimensions, which are
+	 * checked for every slice before its bits are allocated.
+	 *
+	 * @param   in                  The stream to read from. Cannot be null.
+	 * @param   slices              The expected number of slices.
+	 * @param   shards              The expected number of shards per slice.
+	 * @param   expectedInsertions  The expected number of insertions per slice.
+	 * @param   errorRate           The expected combined error rate.
+	 *
+	 * @return  The filter, or null if the stored filter has different dimensions.
+	 *
+	 * @throws  IOException  If the stream cannot be read or is malformed.
+	 */
+	public static TimeSlicedBloomFilter readFrom(InputStream in, int slices, int shards, int expectedInsertions, double errorRate)
+		throws IOException {
+		DataInputStream data = new DataInputStream(in);
+
+		if (data.readInt() != SERIAL_VERSION) {
+			throw new IOException("Unsupported bloom filter snapshot version.");
+		}
+		if (data.readInt() != slices || data.readInt() != shards || data.readInt() != expectedInsertions || data.readDouble() != errorRate) {
+			return null;
+		}
+
+		ConcurrentBloomFilter[] contents = new ConcurrentBloomFilter[slices];
+
+		for (int i = 0; i < slices; i++) {
+			contents[i] = ConcurrentBloomFilter.readFrom(data, shards, expectedInsertions, errorRate / slices);
+			if (contents[i] == null) {
+				return null;
+			}
+		}
+		return new TimeSlicedBloomFilter(slices, shards, expectedInsertions, errorRate, contents);
+	}
+
+	/**
+	 * Adds a key to the newest slice.
+	 *
+	 * @param  hash  The key hash to add.
+	 */
+	public void put(long hash) {
+		_slices[0].put(hash);
+	}
+
+	/**
+	 * Indicates whether a key might have been added to any of the slices.
+	 *
+	 * @param   hash  The key hash to look up.
+	 *
+	 * @return  False if the key has definitely not been added since the oldest slice was started.
+	 */
+	public boolean mightContain(long hash) {
+		int shard = ConcurrentBloomFilter.shardOf(hash, _shardCount);
+
+		for (ConcurrentBloomFilter slice : _slices) {
+			if (slice.mightContain(hash)) {
+				_hits[shard].increment();
+				return true;
+			}
+		}
+		_misses[shard].increment();
+		return false;
+	}
+
+	/** Drops the oldest slice and starts a new empty one. */
+	public synchronized void rotate() {
+		ConcurrentBloomFilter[] slices = _slices;
+		ConcurrentBloomFilter[] rotated = new ConcurrentBloomFilter[_sliceCount];
+
+		rotated[0] = _newSlice();
+		System.arraycopy(slices, 0, rotated, 1, _sliceCount - 1);
+		_slices = rotated;
+	}
+
+	/**
+	 * Returns the approximate number of distinct keys across all slices.
+	 *
+	 * @return  The approximate element count.
+	 */
+	public long approximateElementCount() {
+		long count = 0;
+
+		for (ConcurrentBloomFilter slice : _slices) {
+			count += slice.approximateElementCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of shards in each slice.
+	 *
+	 * @return  The number of shards.
+	 */
+	public int getShardCount() {
+		return _shardCount;
+	}
+
+	/**
+	 * Returns the fill ratio of a shard in the fullest slice. Once this approaches one half the slices are saturated and should be sized for
+	 * more insertions.
+	 *
+	 * @param   shard  The shard index.
+	 *
+	 * @return  The fill ratio, between 0 and 1.
+	 */
+	public double fillRatio(int shard) {
+		double ratio = 0;
+
+		for (ConcurrentBloomFilter slice : _slices) {
+			ratio = Math.max(ratio, slice.fillRatio(shard));
+		}
+		return ratio;
+	}
+
+	/**
+	 * Returns the probability that {@link #mightContain(long)} returns true for a key of the given shard that was never added.
+	 *
+	 * @param   shard  The shard index.
+	 *
+	 * @return  The expected false positive probability.
+	 */
+	public double expectedFpp(int shard) {
+		double none = 1;
+
+		for (ConcurrentBloomFilter slice : _slices) {
+			none *= 1 - slice.expectedFpp(shard);
+		}
+		return 1 - none;
+	}
+
+	/**
+	 * Returns the fraction of lookups in a shard that found the key since the last call, and resets the lookup counts of the shard. These are the
+	 * keys for which the schema write is skipped.
+	 *
+	 * @param   shard  The shard index.
+	 *
+	 * @return  The skip ratio, between 0 and 1, or 0 if there were no lookups.
+	 */
+	public double skipRatioAndReset(int shard) {
+		long hits = _hits[shard].sumThenReset();
+		long misses = _misses[shard].sumThenReset();
+
+		return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+	}
+
+	/**
+	 * Returns the probability that {@link #mightContain(long)} returns true for a key that was never added.
+	 *
+	 * @return  The expected false positive probability.
+	 */
+	public double expectedFpp() {
+		double none = 1;
+
+		for (ConcurrentBloomFilter slice : _slices) {
+			none *= 1 - slice.expectedFpp();
+		}
+		return 1 - none;
+	}
+
+	/**
+	 * Writes the filter to a stream. Keys added concurrently may or may not be included.
+	 *
+	 * @param   out  The stream to write to. Cannot be null.
+	 *
+	 * @throws  IOException  If the stream cannot be written.
+	 */
+	public synchronized void writeTo(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		ConcurrentBloomFilter[] slices = _slices;
+
+		data.writeInt(SERIAL_VERSION);
+		data.writeInt(slices.length);
+		data.writeInt(_shardCount);
+		data.writeInt(_expectedInsertions);
+		data.writeDouble(_errorRate);
+		for (ConcurrentBloomFilter slice : slices) {
+			slice.writeTo(data);
+		}
+		data.flush();
+	}
+
+	private ConcurrentBloomFilter _newSlice() {
+		return new ConcurrentBloomFilter(_shardCount, _expectedInsertions, _errorRate / _sliceCount);
+	}
+}
@@ -34,8 +34,10 @@ package com.salesforce.dva.argus.service.tsdb;
 import static com.salesforce.dva.argus.system.SystemAssert.requireArgument;
 
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
+import java.util.zip.GZIPOutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -44,7 +46,6 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -52,8 +53,10 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.IntUnaryOperator;
 
@@ -70,6 +73,8 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
@@ -79,13 +84,16 @@ import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.google.common.collect.Iterables;
 import com.google.inject.Inject;
 import com.salesforce.dva.argus.entity.Annotation;
+import com.salesforce.dva.argus.entity.DatapointSeries;
 import com.salesforce.dva.argus.entity.Metric;
 import com.salesforce.dva.argus.service.DefaultService;
 import com.salesforce.dva.argus.service.MonitorService;
@@ -110,6 +118,7 @@ public class AbstractTSDBService extends DefaultService implements TSDBService {
 
 	//~ Instance fields ******************************************************************************************************************************
 	private final ObjectMapper _mapper;
+	private final ObjectReader _resultSetReader;
 	protected final Logger _logger = LoggerFactory.getLogger(getClass());
 
 	private final String[] _writeEndpoints;
@@ -128,6 +137,12 @@ public class AbstractTSDBService extends DefaultService implements TSDBService {
 	protected final MonitorService _monitorService;
 	private final int RETRY_COUNT;
 
+	/* Chunks are written by a separate pool so that concurrent writes are bounded independently of the read pool. Each writer thread serializes
+	 * into its own buffer, which is reused for every chunk and retry it sends. */
+	private final ExecutorService _writeExecutorService;
+	private final boolean _writeCompression;
+	private final ThreadLocal<ChunkBuffer> _chunkBuffers = ThreadLocal.withInitial(ChunkBuffer::new);
+
 	//~ Constructors *********************************************************************************************************************************
 
 	/**
@@ -145,6 +160,12 @@ public class AbstractTSDBService extends DefaultService implements TSDBService {
 		_monitorService = monitorService;
 
 		_mapper = getMapper();
+
+		long maxDatapoints = Long.parseLong(config.getValue(Property.TSD_QUERY_MAX_DATAPOINTS.getName(),
+				Property.TSD_QUERY_MAX_DATAPOINTS.getDefaultValue()));
+
+		_resultSetReader = _mapper.readerFor(ResultSet.class).withAttribute(MetricTransform.MAX_DATAPOINTS_ATTRIBUTE,
+				maxDatapoints > 0 ? maxDatapoints : Long.MAX_VALUE);
 		int connCount = Integer.parseInt(config.getValue(Property.TSD_CONNECTION_COUNT.getName(),
 				Property.TSD_CONNECTION_COUNT.getDefaultValue()));
 		int connTimeout = Integer.parseInt(config.getValue(Property.TSD_ENDPOINT_CONNECTION_TIMEOUT.getName(),
@@ -180,6 +201,13 @@ public class AbstractTSDBService extends DefaultService implements TSDBService {
 		requireArgument(connCount >= 2, "At least two connections are required.");
 		requireArgument(connTimeout >= 1, "Timeout must be greater than 0.");
 
+		int writeMaxInFlight = Integer.parseInt(config.getValue(Property.TSD_WRITE_MAX_IN_FLIGHT.getName(),
+				Property.TSD_WRITE_MAX_IN_FLIGHT.getDefaultValue()));
+
+		requireArgument(writeMaxInFlight >= 1, "At least one in flight write request is required.");
+		_writeCompression = Boolean.parseBoolean(config.getValue(Property.TSD_WRITE_COMPRESSION.getName(),
+				Property.TSD_WRITE_COMPRESSION.getDefaultValue()));
+
 		try {
 			int index = 0;
 			for (String readEndpoint : _readEndPoints) {
@@ -192,10 +220,13 @@ public class AbstractTSDBService extends DefaultService implements TSDBService {
 					_readPortMap.put(readBackupEndpoint, getClient(connCount / 2, connTimeout, socketTimeout,tsdbConnectionReuseCount, readBackupEndpoint));
 			}
 
-			_writeHttpClient = getClient(connCount / 2, connTimeout, socketTimeout,tsdbConnectionReuseCount, _writeEndpoints);
+			/* Every in flight write may go to the same endpoint, so each route needs as many connections as there are writers. */
+			_writeHttpClient = getClient(Math.max(connCount / 2, writeMaxInFlight * _writeEndpoints.length), connTimeout, socketTimeout,
+					tsdbConnectionReuseCount, _writeEndpoints);
 
 			_roundRobinIterator = constructCyclingIterator(_writeEndpoints);
 			_executorService = Executors.newFixedThreadPool(connCount);
+			_writeExecutorService = Executors.newFixedThreadPool(writeMaxInFlight);
 		} catch (MalformedURLException ex) {
 			throw new SystemException("Error initializing the TSDB HTTP Client.", ex);
 		}
@@ -335,6 +366,7 @@ public class AbstractTSDBService extends DefaultService implements TSDBService {
 	/** @see  TSDBService#dispose() */
 	@Override
 	public void dispose() {
+		_writeExecutorService.shutdownNow();
 	}
 
 	/** @see  TSDBService#putMetrics(java.util.List) */
@@ -344,8 +376,7 @@ public class AbstractTSDBService extends DefaultService implements TSDBService {
 		requireArgument(TSDB_DATAPOINTS_WRITE_MAX_SIZE > 0, "Max Chunk size can not be less than 1");
 		requireArgument(metrics != null, "Metrics can not be null");
 
-		String endpoint = _roundRobinIterator.next();
-		_logger.debug("Pushing {} metrics to TSDB using endpoint {}.", metrics.size(), endpoint);
+		_logger.debug("Pushing {} metrics to TSDB.", metrics.size());
 
 		List<Metric> fracturedList = new ArrayList<>();
 
@@ -357,28 +388,7 @@ public class AbstractTSDBService extends DefaultService implements TSDBService {
 			}
 		}
 
-		try {
-			put(fracturedList, endpoint + "/api/put", HttpMethod.POST);
-		} catch(IOException ex) {
-			_logger.warn("IOException while trying to push metrics", ex);
-			_retry(fracturedList, _roundRobinIterator);
-		}
-	}
-
-	public <T> void _retry(List<T> objects, Iterator<String> endPointIterator) {
-		for(int i=0;i<RETRY_COUNT;i++) {
-			try {
-				String endpoint = endPointIterator.next();
-				_logger.info("Retrying using endpoint {}.", endpoint);
-				put(objects, endpoint + "/api/put", HttpMethod.POST);
-				return;
-			} catch(IOException ex) {
-				_logger.warn("IOException while trying to push data. We will retry for {} more times",RETRY_COUNT-i);
-			}
-		}
-
-		_logger.error("Retried for {} times and we still failed. Dropping this chunk of data.", RETRY_COUNT);
-
+		put(fracturedList, "/api/put", HttpMethod.POST);
 	}
 
 	/** @see  TSDBService#putAnnotations(java.util.List) */
@@ -387,14 +397,8 @@ public class AbstractTSDBService extends DefaultService implements TSDBService {
 		requireNotDisposed();
 		if (annotations != null) {
 			List<AnnotationWrapper> wrappers = reconcileWrappers(toAnnotationWrappers(annotations));
-			String endpoint = _roundRobinIterator.next();
 
-			try {
-				put(wrappers, endpoint + "/api/annotation/bulk", HttpMethod.POST);
-			} catch(IOException ex) {
-				_logger.warn("IOException while trying to push annotations", ex);
-				_retry(wrappers, _roundRobinIterator);
-			}
+			put(wrappers, "/api/annotation/bulk", HttpMethod.POST);
 		}
 	}
 
@@ -411,25 +415,82 @@ public class AbstractTSDBService extends DefaultService implements TSDBService {
 		return mapper;
 	}
 
-	/* Writes objects in chunks. */
-	private <T> void put(List<T> objects, String endpoint, HttpMethod method) throws IOException {
-		if (objects != null) {
-			int chunkEnd = 0;
+	/*
+	 * Writes objects in chunks, which are sent concurrently by the write pool and spread over the write endpoints. A chunk that fails with an
+	 * IOException is retried on the next endpoints and dropped once the retries are exhausted, without affecting the other chunks. Any other
+	 * failure is rethrown once all chunks have completed.
+	 */
+	private <T> void put(List<T> objects, String path, HttpMethod method) {
+		if (objects == null || objects.isEmpty()) {
+			return;
+		}
+
+		List<Future<?>> futures = new ArrayList<>((objects.size() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+
+		for (int chunkStart = 0; chunkStart < objects.size(); chunkStart += CHUNK_SIZE) {
+			List<T> chunk = objects.subList(chunkStart, Math.min(objects.size(), chunkStart + CHUNK_SIZE));
 
-			while (chunkEnd < objects.size()) {
-				int chunkStart = chunkEnd;
+			futures.add(_writeExecutorService.submit(() -> _putChunk(chunk, path, method)));
+		}
+
+		RuntimeException failure = null;
 
-				chunkEnd = Math.min(objects.size(), chunkStart + CHUNK_SIZE);
+		try {
+			for (Future<?> future : futures) {
 				try {
-					StringEntity entity = new StringEntity(fromEntity(objects.subList(chunkStart, chunkEnd)));
-					HttpResponse response = executeHttpRequest(method, endpoint, _writeHttpClient, entity);
+					future.get();
+				} catch (ExecutionException ex) {
+					if (failure == null) {
+						failure = ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause()
+								: new SystemException("Error posting data", ex.getCause());
+					}
+				}
+			}
+		} catch (InterruptedException ex) {
+			for (Future<?> future : futures) {
+				future.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			throw new SystemException("Interrupted while posting data", ex);
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/* Serializes a chunk once into the buffer of the writer thread, and sends it to successive endpoints until one accepts it. */
+	private <T> void _putChunk(List<T> chunk, String path, HttpMethod method) {
+		ChunkBuffer buffer = _chunkBuffers.get();
 
-					extractResponse(response);
-				} catch (UnsupportedEncodingException ex) {
-					throw new SystemException("Error posting data", ex);
+		buffer.reset();
+		try {
+			if (_writeCompression) {
+				try (GZIPOutputStream gzip = new GZIPOutputStream(buffer)) {
+					_mapper.writeValue(gzip, chunk);
 				}
+			} else {
+				_mapper.writeValue(buffer, chunk);
 			}
+		} catch (IOException ex) {
+			throw new SystemException("Error serializing data", ex);
 		}
+		for (int attempt = 0; attempt <= RETRY_COUNT; attempt++) {
+			String endpoint = _roundRobinIterator.next();
+
+			try {
+				AbstractHttpEntity entity = buffer.toEntity();
+
+				if (_writeCompression) {
+					entity.setContentEncoding("gzip");
+				}
+				extractResponse(executeHttpRequest(method, endpoint + path, _writeHttpClient, entity));
+				return;
+			} catch (IOException ex) {
+				_logger.warn("IOException while trying to push {} objects to {}. We will retry for {} more times", chunk.size(), endpoint,
+						RETRY_COUNT - attempt, ex);
+			}
+		}
+		_logger.error("Retried for {} times and we still failed. Dropping this chunk of data.", RETRY_COUNT);
 	}
 
 	/* Helper to create the read and write clients. */
@@ -551,6 +612,52 @@ public class AbstractTSDBService extends DefaultService implements TSDBService {
 		}
 	}	
 
+	/*
+	 * Helper to read the metrics of a query response straight from the response stream. If reading fails, for example because the response exceeds
+	 * the maximum number of data points, the connection is closed instead of reading the rest of the response.
+	 */
+	protected List<Metric> extractMetrics(HttpResponse response) {
+		requireArgument(response != null, "Response content is null.");
+
+		int status = response.getStatusLine().getStatusCode();
+
+		if ((status < HttpStatus.SC_OK) || (status >= HttpStatus.SC_MULTIPLE_CHOICES)) {
+			extractResponse(response);
+		}
+
+		HttpEntity entity = response.getEntity();
+
+		if (entity == null) {
+			return Collections.emptyList();
+		}
+
+		InputStream content = null;
+		boolean complete = false;
+
+		try {
+			content = entity.getContent();
+
+			JsonParser parser = _mapper.getFactory().createParser(content).disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+			ResultSet resultSet = _resultSetReader.readValue(parser);
+
+			complete = true;
+			return resultSet.getMetrics();
+		} catch (IOException ex) {
+			throw new SystemException("Failed to read metrics.", ex);
+		} finally {
+			try {
+				if (!complete && response instanceof Closeable) {
+					((Closeable) response).close();
+				}
+				if (content != null) {
+					content.close();
+				}
+			} catch (IOException ex) {
+				_logger.warn("Failed to close response stream.", ex);
+			}
+		}
+	}
+
 	/* Helper to process the response. */
 	protected String extractResponse(HttpResponse response) {
 		if (response != null) {
@@ -572,7 +679,7 @@ public class AbstractTSDBService extends DefaultService implements TSDBService {
 	}
 
 	/* Execute a request given by type requestType. */
-	protected HttpResponse executeHttpRequest(HttpMethod requestType, String url,  CloseableHttpClient client, StringEntity entity) throws IOException {
+	protected HttpResponse executeHttpRequest(HttpMethod requestType, String url,  CloseableHttpClient client, AbstractHttpEntity entity) throws IOException {
 
 		HttpResponse httpResponse = null;
 
@@ -631,22 +738,17 @@ public class AbstractTSDBService extends DefaultService implements TSDBService {
 			return result;
 		}
 
-		Metric tempMetric = new Metric(metric);
-		Map<Long, Number> dataPoints = new LinkedHashMap<>();
-		int tempChunkSize = TSDB_DATAPOINTS_WRITE_MAX_SIZE;
+		DatapointSeries datapoints = metric.getDatapointSeries();
 
-		for (Map.Entry<Long, Number> dataPoint : metric.getDatapoints().entrySet()) {
-			dataPoints.put(dataPoint.getKey(), dataPoint.getValue());
-			if (--tempChunkSize == 0) {
-				tempMetric.setDatapoints(dataPoints);
-				result.add(tempMetric);
-				tempMetric = new Metric(metric);
-				tempChunkSize = TSDB_DATAPOINTS_WRITE_MAX_SIZE;
-				dataPoints = new LinkedHashMap<>();
-			}
-		}
-		if (!dataPoints.isEmpty()) {
-			tempMetric.setDatapoints(dataPoints);
+		for (int chunkStart = 0; chunkStart < datapoints.size(); chunkStart += TSDB_DATAPOINTS_WRITE_MAX_SIZE) {
+			Metric tempMetric = new Metric(metric.getScope(), metric.getMetric());
+
+			tempMetric.setTags(metric.getTags());
+			tempMetric.setNamespace(metric.getNamespace());
+			tempMetric.setDisplayName(metric.getDisplayName());
+			tempMetric.setUnits(metric.getUnits());
+			tempMetric.setQuery(metric.getQuery());
+			tempMetric.setDatapointSeries(datapoints.subSeries(chunkStart, Math.min(datapoints.size(), chunkStart + TSDB_DATAPOINTS_WRITE_MAX_SIZE)));
 			result.add(tempMetric);
 		}
 		return result;
@@ -674,7 +776,13 @@ public class AbstractTSDBService extends DefaultService implements TSDBService {
 		TSD_RETRY_COUNT("service.property.tsdb.retry.count", "3"),
 		/** The TSDB backup read endpoint. */
 		TSD_ENDPOINT_BACKUP_READ("service.property.tsdb.endpoint.backup.read", "http://localhost:4466,http://localhost:4467"),	
-		TSDB_READ_CONNECTION_REUSE_COUNT("service.property.tsdb.read.connection.reuse.count", "2000");
+		TSDB_READ_CONNECTION_REUSE_COUNT("service.property.tsdb.read.connection.reuse.count", "2000"),
+		/** The maximum number of write requests in flight at once. */
+		TSD_WRITE_MAX_IN_FLIGHT("service.property.tsdb.write.max.in.flight", "4"),
+		/** Whether write requests are gzip compressed. Off by default, since not every TSDB endpoint or proxy accepts compressed requests. */
+		TSD_WRITE_COMPRESSION("service.property.tsdb.write.compression", "false"),
+		/** The maximum number of data points a single query may return. Queries exceeding it fail while the response is read. 0 for no limit. */
+		TSD_QUERY_MAX_DATAPOINTS("service.property.tsdb.query.max.datapoints", "50000000");
 
 		private final String _name;
 		private final String _defaultValue;
@@ -710,7 +818,10 @@ public class AbstractTSDBService extends DefaultService implements TSDBService {
 		tags.put("type", measurementType);
 		tags.put("timeWindow", timeWindow);
 		tags.put("cached", "false");
-		monitorService.modifyCustomCounter(QUERY_LATENCY_COUNTER, (System.currentTimeMillis() - start), tags);
+		long latency = System.currentTimeMillis() - start;
+
+		monitorService.modifyCustomCounter(QUERY_LATENCY_COUNTER, latency, tags);
+		monitorService.recordCustomHistogramValue(QUERY_LATENCY_COUNTER, latency, tags);
 		monitorService.modifyCustomCounter(QUERY_COUNT_COUNTER, 1, tags);
 	}
 
@@ -821,6 +932,23 @@ public class AbstractTSDBService extends DefaultService implements TSDBService {
 		}
 	}
 
+	/**
+	 * A byte buffer that chunks are serialized into, and which is sent without copying its contents.
+	 *
+	 * @author  a.chambers
+	 */
+	static class ChunkBuffer extends ByteArrayOutputStream {
+
+		/** Creates a new ChunkBuffer object. */
+		ChunkBuffer() {
+			super(8192);
+		}
+
+		AbstractHttpEntity toEntity() {
+			return new ByteArrayEntity(buf, 0, count);
+		}
+	}
+
 	/**
 	 * Helper entity to facilitate de-serialization.
 	 *
@@ -862,8 +990,8 @@ public class AbstractTSDBService extends DefaultService implements TSDBService {
 
 			try {
 				HttpResponse response = executeHttpRequest(HttpMethod.POST, _requestUrl, _readPortMap.get(_requestEndPoint), new StringEntity(_requestBody));
-				List<Metric> metrics = toEntity(extractResponse(response), new TypeReference<ResultSet>() { }).getMetrics();
-				return metrics;
+
+				return extractMetrics(response);
 			} catch (IOException e) {
 				throw new SystemException("Failed to retrieve metrics.", e);
 			}
@@ -0,0 +1,308 @@
+package com.salesforce.dva.argus.service.tsdb;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.dva.argus.service.CacheService;
+import com.salesforce.dva.argus.service.MonitorService;
+import com.salesforce.dva.argus.service.MonitorService.Counter;
+
+import static com.salesforce.dva.argus.system.SystemAssert.requireArgument;
+
+/**
+ * The write behind stage of {@link CachedTSDBService}. Query results are offered either as the serialized values of each cache key, or as a
+ * function computing them, and are written to the cache by a fixed pool of worker threads, a batch of keys at a time. Functions are evaluated by
+ * the workers, so that the cost of fracturing and serializing query results is not paid by the querying thread.
+ *
+ * <p>Pending keys are held in insertion order and are bounded by the capacity of the queue. Offering a key that is already pending replaces its
+ * values, so concurrent queries for the same data are written once. When the queue is full the oldest pending keys are dropped, since a cache
+ * insert that is never written only costs a later cache miss. Pending functions are bounded by the same capacity.</p>
+ *
+ * @author  a.chambers
+ */
+final class CacheInsertQueue {
+
+	//~ Static fields/initializers *******************************************************************************************************************
+
+	private static final long SHUTDOWN_TIMEOUT_MILLIS = 10000;
+
+	//~ Instance fields ******************************************************************************************************************************
+
+	private final Logger _logger = LoggerFactory.getLogger(CacheInsertQueue.class);
+	private final CacheService _cacheService;
+	private final MonitorService _monitorService;
+	private final IntSupplier _ttl;
+	private final int _capacity;
+	private final int _batchSize;
+	private final LinkedHashMap<String, List<String>> _pending = new LinkedHashMap<>();
+	private final Deque<Supplier<Map<String, List<String>>>> _deferred = new ArrayDeque<>();
+	private final ReentrantLock _lock = new ReentrantLock();
+	private final Condition _notEmpty = _lock.newCondition();
+	private final ExecutorService _executor;
+
+	//~ Constructors *********************************************************************************************************************************
+
+	/**
+	 * Creates a new CacheInsertQueue object and starts its workers.
+	 *
+	 * @param  cacheService    The cache to write to. Cannot be null.
+	 * @param  monitorService  The monitor service to report the queue depth, coalesced and dropped keys to. Cannot be null.
+	 * @param  threads         The number of worker threads. If zero, pending keys are only written by {@link #flush()}.
+	 * @param  capacity        The maximum number of pending keys. Must be positive.
+	 * @param  batchSize       The maximum number of keys written at once. Must be positive.
+	 * @param  ttl             Supplies the timeout in seconds of the keys being written. Cannot be null.
+	 */
+	CacheInsertQueue(CacheService cacheService, MonitorService monitorService, int threads, int capacity, int batchSize, IntSupplier ttl) {
+		requireArgument(cacheService != null, "Cache service cannot be null.");
+		requireArgument(monitorService != null, "Monitor service cannot be null.");
+		requireArgument(threads >= 0, "Number of threads cannot be negative.");
+		requireArgument(capacity > 0, "Capacity must be positive.");
+		requireArgument(batchSize > 0, "Batch size must be positive.");
+		requireArgument(ttl != null, "TTL supplier cannot be null.");
+		_cacheService = cacheService;
+		_monitorService = monitorService;
+		_capacity = capacity;
+		_batchSize = batchSize;
+		_ttl = ttl;
+		_executor = threads == 0 ? null : Executors.newFixedThreadPool(threads, new WorkerThreadFactory());
+		for (int i = 0; i < threads; i++) {
+			_executor.execute(this::_work);
+		}
+	}
+
+	//~ Methods **************************************************************************************************************************************
+
+	/**
+	 * Offers the values of a set of cache keys for writing. This method never blocks on the cache.
+	 *
+	 * @param  entries  The serialized values of each key. Cannot be null.
+	 */
+	void offer(Map<String, List<String>> entries) {
+		int coalesced = 0;
+		int dropped = 0;
+		int depth;
+
+		_lock.lock();
+		try {
+			for (Map.Entry<String, List<String>> entry : entries.entrySet()) {
+				// remove first so that a replaced key moves to the tail and is not the next to be dropped
+				if (_pending.remove(entry.getKey()) != null) {
+					coalesced++;
+				}
+				_pending.put(entry.getKey(), entry.getValue());
+			}
+			for (Iterator<String> it = _pending.keySet().iterator(); _pending.size() > _capacity;) {
+				it.next();
+				it.remove();
+				dropped++;
+			}
+			depth = _pending.size();
+			_notEmpty.signal();
+		} finally {
+			_lock.unlock();
+		}
+		if (coalesced > 0) {
+			_monitorService.modifyCounter(Counter.CACHE_INSERT_COALESCED, coalesced, null);
+		}
+		if (dropped > 0) {
+			_logger.debug("Dropped {} pending cache keys.", dropped);
+			_monitorService.modifyCounter(Counter.CACHE_INSERT_DROPPED, dropped, null);
+		}
+		_monitorService.updateCounter(Counter.CACHE_INSERT_QUEUE_DEPTH, depth, null);
+	}
+
+	/**
+	 * Offers a function computing the values of a set of cache keys. The function is evaluated by a worker thread, and the keys it returns are
+	 * then offered as if by {@link #offer(Map)}. This method never blocks on the cache.
+	 *
+	 * @param  entries  Computes the serialized values of each key. Cannot be null.
+	 */
+	void offer(Supplier<Map<String, List<String>>> entries) {
+		int dropped = 0;
+
+		_lock.lock();
+		try {
+			_deferred.addLast(entries);
+			while (_deferred.size() > _capacity) {
+				_deferred.removeFirst();
+				dropped++;
+			}
+			_notEmpty.signal();
+		} finally {
+			_lock.unlock();
+		}
+		if (dropped > 0) {
+			_logger.debug("Dropped {} pending cache inserts.", dropped);
+			_monitorService.modifyCounter(Counter.CACHE_INSERT_DROPPED, dropped, null);
+		}
+	}
+
+	/**
+	 * Writes all pending keys on the calling thread, evaluating any pending functions first.
+	 *
+	 * @return  The number of keys written.
+	 */
+	int flush() {
+		int written = 0;
+		Supplier<Map<String, List<String>>> deferred;
+		Map<String, List<String>> batch;
+
+		while ((deferred = _pollDeferred()) != null) {
+			_expand(deferred);
+		}
+		while (!(batch = _poll()).isEmpty()) {
+			_write(batch);
+			written += batch.size();
+		}
+		return written;
+	}
+
+	/**
+	 * Returns the number of pending keys and functions.
+	 *
+	 * @return  The number of pending keys and functions.
+	 */
+	int size() {
+		_lock.lock();
+		try {
+			return _pending.size() + _deferred.size();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/** Stops the workers and writes the keys that are still pending. */
+	void shutdown() {
+		if (_executor != null) {
+			_executor.shutdownNow();
+			try {
+				if (!_executor.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+					_logger.warn("Cache insert workers did not terminate.");
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		flush();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void _work() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Object next = _take();
+
+				if (next instanceof Supplier) {
+					_expand((Supplier<Map<String, List<String>>>) next);
+				} else {
+					_write((Map<String, List<String>>) next);
+				}
+			}
+		} catch (InterruptedException ex) {
+			_logger.debug("Cache insert worker interrupted.");
+		}
+	}
+
+	/* Waits for pending work, and removes the oldest pending function or else the oldest batch of pending keys. */
+	private Object _take() throws InterruptedException {
+		_lock.lockInterruptibly();
+		try {
+			while (_pending.isEmpty() && _deferred.isEmpty()) {
+				_notEmpty.await();
+			}
+			return _deferred.isEmpty() ? _removeBatch() : _deferred.removeFirst();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	private Supplier<Map<String, List<String>>> _pollDeferred() {
+		_lock.lock();
+		try {
+			return _deferred.pollFirst();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/* Evaluates a pending function and offers the keys it computes. */
+	private void _expand(Supplier<Map<String, List<String>>> deferred) {
+		Map<String, List<String>> entries;
+
+		try {
+			entries = deferred.get();
+		} catch (RuntimeException ex) {
+			_logger.error("Error occurred Reason: {}", ex.toString());
+			entries = Collections.emptyMap();
+		}
+		if (!entries.isEmpty()) {
+			offer(entries);
+		}
+	}
+
+	private Map<String, List<String>> _poll() {
+		_lock.lock();
+		try {
+			return _removeBatch();
+		} finally {
+			_lock.unlock();
+		}
+	}
+
+	/* Must be called while holding the lock. */
+	private Map<String, List<String>> _removeBatch() {
+		Map<String, List<String>> batch = new LinkedHashMap<>();
+
+		for (Iterator<Map.Entry<String, List<String>>> it = _pending.entrySet().iterator(); it.hasNext() && batch.size() < _batchSize;) {
+			Map.Entry<String, List<String>> entry = it.next();
+
+			batch.put(entry.getKey(), entry.getValue());
+			it.remove();
+		}
+		return batch;
+	}
+
+	private void _write(Map<String, List<String>> batch) {
+		_logger.debug("Inserting {} keys to cache", batch.size());
+		try {
+			_cacheService.replaceLists(batch, _ttl.getAsInt());
+		} catch (RuntimeException ex) {
+			_logger.error("Error occurred Reason: {}", ex.toString());
+		}
+		_monitorService.updateCounter(Counter.CACHE_INSERT_QUEUE_DEPTH, size(), null);
+	}
+
+	//~ Inner Classes ********************************************************************************************************************************
+
+	/** Creates daemon worker threads, so that pending cache inserts never keep the JVM alive. */
+	private static final class WorkerThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger _id = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "cache-insert-" + _id.incrementAndGet());
+
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
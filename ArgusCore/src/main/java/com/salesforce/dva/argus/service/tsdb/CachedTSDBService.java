@@ -50,6 +50,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -78,6 +79,7 @@ public class CachedTSDBService extends DefaultService implements TSDBService {
     private static final Long END_TIME_LIMIT_IN_MILLIS = 60000L;
     private static final String QUERY_LATENCY_COUNTER = "query.latency";
     private static final String QUERY_COUNT_COUNTER = "query.count"; 
+    private static final int CACHE_INSERT_BATCH_SIZE = 100;
 
     //~ Instance fields ******************************************************************************************************************************
 
@@ -86,6 +88,7 @@ public class CachedTSDBService extends DefaultService implements TSDBService {
     private final CacheService _cacheService;
     private final MonitorService _monitorService;
     private final ObjectMapper _mapper;
+    private final CacheInsertQueue _cacheInsertQueue;
 
     //~ Constructors *********************************************************************************************************************************
 
@@ -109,6 +112,10 @@ public class CachedTSDBService extends DefaultService implements TSDBService {
         _monitorService = monitorService;
         _defaultTsdbService = tsdbService;
         _mapper = new ObjectMapper();
+        _cacheInsertQueue = new CacheInsertQueue(cacheService, monitorService,
+            Integer.parseInt(config.getValue(SystemConfiguration.Property.CACHE_INSERT_THREADS)),
+            Integer.parseInt(config.getValue(SystemConfiguration.Property.CACHE_INSERT_QUEUE_CAPACITY)), CACHE_INSERT_BATCH_SIZE,
+            () -> getTimeUntilEndOfHour(System.currentTimeMillis()));
     }
 
     //~ Methods **************************************************************************************************************************************
@@ -167,10 +174,7 @@ public class CachedTSDBService extends DefaultService implements TSDBService {
             MetricQueryTimestamp queryWithTimestamp = map.get(metricQuery);
 
             if (!compulsoryCacheMiss(metricQuery)) {
-                // start thread to insert into cache
-                Thread cacheInsertThread = new CacheInsertThread(entry.getValue(), metricQuery);
-
-                cacheInsertThread.start();
+                _insertIntoCache(entry.getValue(), metricQuery);
 
                 List<Metric> metrics = new ArrayList<Metric>();
                 long beforeTime = System.currentTimeMillis();
@@ -543,6 +547,46 @@ public class CachedTSDBService extends DefaultService implements TSDBService {
         return c.getTimeInMillis();
     }
 
+    private int getTimeUntilEndOfHour(Long timestamp) {
+        Long timestampPlusOneHour = timestamp + 3600 * 1000;
+        Long endHourTimeStamp = convertTimeStampToBeginningHour(timestampPlusOneHour);
+
+        return (int) (endHourTimeStamp - timestamp) / 1000;
+    }
+
+    /**
+     * Hands the metrics to the cache insert queue, whose workers fracture them into day boundary keys and write them in the background.
+     *
+     * @param  metrics      The metrics to insert. They must not be modified afterwards.
+     * @param  metricQuery  The corresponding metric query.
+     */
+    private void _insertIntoCache(List<Metric> metrics, MetricQuery metricQuery) {
+        MetricQuery query = new MetricQuery(metricQuery);
+
+        _cacheInsertQueue.offer(() -> _toCacheEntries(metrics, query));
+    }
+
+    /* Fractures the metrics into day boundary keys and serializes them. Runs on a cache insert worker. */
+    private Map<String, List<String>> _toCacheEntries(List<Metric> metrics, MetricQuery metricQuery) {
+        try {
+            Map<String, List<Metric>> cacheMap = fractureMetricIntoDayBoundary(metrics, metricQuery);
+            Map<String, List<String>> entries = new LinkedHashMap<>(cacheMap.size());
+
+            for (Map.Entry<String, List<Metric>> entry : cacheMap.entrySet()) {
+                List<String> values = new ArrayList<>(entry.getValue().size());
+
+                for (Metric metric : entry.getValue()) {
+                    values.add(_mapper.writeValueAsString(metric));
+                }
+                entries.put(entry.getKey(), values);
+            }
+            return entries;
+        } catch (IOException | RuntimeException ex) {
+            _logger.error("Error occurred Reason:", ex.toString());
+            return Collections.emptyMap();
+        }
+    }
+
     private Long getNextDayBoundaryTimeStamp(Long timestampAtHourBoundary) {
         long hourDurationInMillis = DURATION_IN_MILLIS;
 
@@ -563,6 +607,7 @@ public class CachedTSDBService extends DefaultService implements TSDBService {
     @Override
     public void dispose() {
         super.dispose();
+        _cacheInsertQueue.shutdown();
         _cacheService.dispose();
         _defaultTsdbService.dispose();
     }
@@ -588,7 +633,10 @@ public class CachedTSDBService extends DefaultService implements TSDBService {
 		tags.put("type", "metrics");
 		tags.put("timeWindow", timeWindow);
 		tags.put("cached", "true");
-		monitorService.modifyCustomCounter(QUERY_LATENCY_COUNTER, (System.currentTimeMillis() - start), tags);
+		long latency = System.currentTimeMillis() - start;
+
+		monitorService.modifyCustomCounter(QUERY_LATENCY_COUNTER, latency, tags);
+		monitorService.recordCustomHistogramValue(QUERY_LATENCY_COUNTER, latency, tags);
         monitorService.modifyCustomCounter(QUERY_COUNT_COUNTER, 1, tags);
 	}
     
@@ -671,60 +719,5 @@ public class CachedTSDBService extends DefaultService implements TSDBService {
             return modifiedEndTimestamp;
         }
     }
-
-    /**
-     * Thread that inserts metric results to cache using metric query as a basis for the key.
-     *
-     * @author  Dilip Devaraj (ddevaraj@salesforce.com)
-     */
-    private class CacheInsertThread extends Thread {
-
-        List<Metric> metrics;
-        MetricQuery metricQuery;
-
-        /**
-         * Creates a new CacheInsertThread object.
-         *
-         * @param  metrics      The metrics to insert.
-         * @param  metricQuery  The metric corresponding metric query.
-         */
-        public CacheInsertThread(List<Metric> metrics, MetricQuery metricQuery) {
-            this.metrics = metrics;
-            this.metricQuery = metricQuery;
-        }
-
-        @Override
-        public void run() {
-            try {
-                _insertIntoCache();
-            } catch (Exception ex) {
-                _logger.error("Error occurred Reason:", ex.toString());
-            }
-        }
-
-        private int getTimeUntilEndOfHour(Long timestamp) {
-            Long timestampPlusOneHour = timestamp + 3600 * 1000;
-            Long endHourTimeStamp = convertTimeStampToBeginningHour(timestampPlusOneHour);
-
-            return (int) (endHourTimeStamp - timestamp) / 1000;
-        }
-
-        private void _insertIntoCache() {
-            // fracture metric into day boundary from returned metrics
-            Map<String, List<Metric>> cacheMap = (TreeMap<String, List<Metric>>) fractureMetricIntoDayBoundary(metrics, metricQuery);
-
-            _logger.info("Inserting {} keys to cache", cacheMap.size());
-            try {
-                for (Map.Entry<String, List<Metric>> entry : cacheMap.entrySet()) {
-                    for (Metric metric : entry.getValue()) {
-                        _cacheService.append(entry.getKey(), _mapper.writeValueAsString(metric), _cacheService.getCacheExpirationTime());
-                        _cacheService.expire(entry.getKey(), getTimeUntilEndOfHour(System.currentTimeMillis()));
-                    }
-                }
-            } catch (Exception e) {
-                _logger.error("Error occurred Reason:", e.toString());
-            }
-        }
-    }
 }
 /* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
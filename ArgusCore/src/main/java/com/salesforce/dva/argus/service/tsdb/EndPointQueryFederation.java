@@ -29,6 +29,9 @@ public class EndPointQueryFederation extends QueryFederation{
 				metricQueryContext.setReadEndPoint(readEndPoint);
 				mq.setMetricQueryContext(metricQueryContext);
 				subQueries.add(mq);
+				if (query.getDownsampler() == MetricQuery.Aggregator.AVG && _readEndPoints.size() > 1) {
+					subQueries.add(createCountSubQuery(mq));
+				}
 			}
 			mapQuerySubQueries.put(query, subQueries);
 		}
@@ -33,13 +33,15 @@ package com.salesforce.dva.argus.service.tsdb;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializerProvider;
+import com.salesforce.dva.argus.entity.DatapointSeries;
 import com.salesforce.dva.argus.entity.Metric;
 import com.salesforce.dva.argus.entity.TSDBEntity;
 import com.salesforce.dva.argus.entity.NumberOperations.ValueType;
@@ -49,10 +51,8 @@ import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 
 import javax.xml.bind.DatatypeConverter;
 
@@ -62,6 +62,11 @@ import javax.xml.bind.DatatypeConverter;
  * @author  Tom Valine (tvaline@salesforce.com), Bhinav Sura (bhinav.sura@salesforce.com)
  */
 class MetricTransform {
+
+    //~ Static fields/initializers *******************************************************************************************************************
+
+    /** The deserialization attribute holding the maximum number of data points a result set may contain. */
+    static final String MAX_DATAPOINTS_ATTRIBUTE = MetricTransform.class.getName() + ".maxDatapoints";
 	
     //~ Constructors *********************************************************************************************************************************
 
@@ -70,7 +75,9 @@ class MetricTransform {
     //~ Inner Classes ********************************************************************************************************************************
     
     /**
-     * The metric list deserializer.
+     * The metric list deserializer. The result set is read token by token, so that the data points of each metric are appended to its series as
+     * they are parsed without building a tree of the whole response. If the {@link #MAX_DATAPOINTS_ATTRIBUTE} attribute is set, reading fails as
+     * soon as the result set exceeds that many data points.
      *
      * @author  Bhinav Sura (bhinav.sura@salesforce.com)
      */
@@ -78,41 +85,69 @@ class MetricTransform {
 
 		@Override
 		public ResultSet deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException {
+			if (!jp.isExpectedStartArrayToken()) {
+				throw ctxt.wrongTokenException(jp, ResultSet.class, JsonToken.START_ARRAY, "Expected an array of metrics.");
+			}
+
+			Object limit = ctxt.getAttribute(MAX_DATAPOINTS_ATTRIBUTE);
+			long maxDatapoints = limit instanceof Number ? ((Number) limit).longValue() : Long.MAX_VALUE;
+			long datapointCount = 0;
 			List<Metric> metrics = new ArrayList<Metric>();
-			
-			JsonNode arraynode = jp.getCodec().readTree(jp);
-			Iterator<JsonNode> nodes = arraynode.elements();
-			
-			while(nodes.hasNext()) {
-				JsonNode node = nodes.next();
-				Metric metric = _deserializeMetric(node);
+
+			while (jp.nextToken() == JsonToken.START_OBJECT) {
+				DatapointSeries datapoints = new DatapointSeries();
+				Metric metric = _deserializeMetric(jp, datapoints, maxDatapoints - datapointCount);
+
+				datapointCount += datapoints.size();
 				if(metric != null) {
 					metrics.add(metric);
 				}
-			}			
-			
+			}
+			if (jp.getCurrentToken() != JsonToken.END_ARRAY) {
+				throw ctxt.wrongTokenException(jp, ResultSet.class, JsonToken.START_OBJECT, "Expected a metric.");
+			}
 			return new ResultSet(metrics);
 		}
 		
     }
     
-    private static Metric _deserializeMetric(JsonNode node) throws IOException {
-    	ObjectMapper mapper = new ObjectMapper();
-    	Map<Long, Number> datapoints = mapper.readValue(node.get("dps").traverse(), new TypeReference<TreeMap<Long, Number>>() { });
+    /* Reads a metric object, with the parser positioned at its start. Fields that are not needed are skipped without being parsed. */
+    private static Metric _deserializeMetric(JsonParser jp, DatapointSeries datapoints, long maxDatapoints) throws IOException {
+    	String tsdbMetricName = null;
+    	String tsuid = null;
+    	Map<String, String> tags = new HashMap<>();
+
+    	while (jp.nextToken() == JsonToken.FIELD_NAME) {
+    		String field = jp.getCurrentName();
+
+    		jp.nextToken();
+    		switch (field) {
+    			case "metric":
+    				tsdbMetricName = jp.getValueAsString();
+    				break;
+    			case "tags":
+    				_deserializeTags(jp, tags);
+    				break;
+    			case "tsuids":
+    				tsuid = _deserializeFirstTsuid(jp);
+    				break;
+    			case "dps":
+    				_deserializeDatapoints(jp, datapoints, maxDatapoints);
+    				break;
+    			default:
+    				jp.skipChildren();
+    		}
+    	}
     	if(datapoints.isEmpty()) {
     		return null;
     	}
-    	
-    	Map<String, String> tags = mapper.readValue(node.get("tags").traverse(), new TypeReference<Map<String, String>>() { });
-    	
-    	Map<String, String> meta = fromMeta(tags.get(ReservedField.META.getKey()));
-    	String tsdbMetricName = node.get("metric").asText();
 
     	// Post filtering metric , since in some cases TSDB metric can be empty https://github.com/OpenTSDB/opentsdb/issues/540
-    	if (tsdbMetricName.isEmpty()) {
+    	if (tsdbMetricName == null || tsdbMetricName.isEmpty()) {
     		return null;
     	}
 
+    	Map<String, String> meta = fromMeta(tags.get(ReservedField.META.getKey()));
     	String scope = DefaultTSDBService.getScopeFromTSDBMetric(tsdbMetricName);
     	String metric = DefaultTSDBService.getMetricFromTSDBMetric(tsdbMetricName);
     	String namespace = DefaultTSDBService.getNamespaceFromTSDBMetric(tsdbMetricName);
@@ -137,14 +172,11 @@ class MetricTransform {
     		result.setUnits(units);
     	}
     	result.setTags(userTags);
-    	result.setDatapoints(datapoints);
+    	result.setDatapointSeries(datapoints);
     	if (namespace != null) {
     		result.setNamespace(namespace);
     	}
 
-    	Iterator<JsonNode> tsuidsIter = node.get("tsuids").elements();
-    	String tsuid = tsuidsIter.next().asText();
-
     	try {
     		Field tsuidField = TSDBEntity.class.getDeclaredField("_uid");
 
@@ -155,7 +187,68 @@ class MetricTransform {
     	}
     	return result;
     }
+
+    private static void _deserializeTags(JsonParser jp, Map<String, String> tags) throws IOException {
+    	if (jp.getCurrentToken() != JsonToken.START_OBJECT) {
+    		jp.skipChildren();
+    		return;
+    	}
+    	while (jp.nextToken() == JsonToken.FIELD_NAME) {
+    		String key = jp.getCurrentName();
+
+    		jp.nextToken();
+    		tags.put(key, jp.getValueAsString());
+    	}
+    }
+
+    private static String _deserializeFirstTsuid(JsonParser jp) throws IOException {
+    	String tsuid = null;
+
+    	if (jp.getCurrentToken() != JsonToken.START_ARRAY) {
+    		jp.skipChildren();
+    		return null;
+    	}
+    	while (jp.nextToken() != JsonToken.END_ARRAY) {
+    		if (tsuid == null) {
+    			tsuid = jp.getValueAsString();
+    		}
+    		jp.skipChildren();
+    	}
+    	return tsuid;
+    }
     
+    /*
+     * Reads the dps object directly into a primitive series. OpenTSDB returns the data points ordered by timestamp, so this is an append. Values
+     * keep the number type they were bound to before, i.e. Integer, Long or BigInteger for integral values and Double otherwise.
+     */
+    private static void _deserializeDatapoints(JsonParser jp, DatapointSeries datapoints, long maxDatapoints) throws IOException {
+    	if (jp.getCurrentToken() != JsonToken.START_OBJECT) {
+    		jp.skipChildren();
+    		return;
+    	}
+    	while (jp.nextToken() == JsonToken.FIELD_NAME) {
+    		String key = jp.getCurrentName();
+    		JsonToken value = jp.nextToken();
+    		long timestamp;
+
+    		try {
+    			timestamp = Long.parseLong(key);
+    		} catch (NumberFormatException ex) {
+    			throw new IOException("Invalid data point timestamp: " + key, ex);
+    		}
+    		if (datapoints.size() >= maxDatapoints) {
+    			throw JsonMappingException.from(jp, "The query result exceeds the maximum number of data points.");
+    		}
+    		if (value == JsonToken.VALUE_NULL) {
+    			datapoints.put(timestamp, (Number) null);
+    		} else if (value == JsonToken.VALUE_NUMBER_INT || value == JsonToken.VALUE_NUMBER_FLOAT) {
+    			datapoints.put(timestamp, jp.getNumberValue());
+    		} else {
+    			throw new IOException("Invalid data point value: " + jp.getText());
+    		}
+    	}
+    }
+
     private static Map<String, String> fromMeta(String meta) throws IOException {
         if (meta != null) {
             try {
@@ -179,8 +272,7 @@ class MetricTransform {
 
         @Override
         public Metric deserialize(JsonParser jp, DeserializationContext dc) throws IOException {
-            JsonNode node = jp.getCodec().readTree(jp);
-            return _deserializeMetric(node);
+            return _deserializeMetric(jp, new DatapointSeries(), Long.MAX_VALUE);
         }
 
     }
@@ -194,21 +286,22 @@ class MetricTransform {
 
         @Override
         public void serialize(Metric metric, JsonGenerator jgen, SerializerProvider sp) throws IOException {
-            Map<Long, Number> datapoints = metric.getDatapoints();
+            DatapointSeries datapoints = metric.getDatapointSeries();
 
-            for (Map.Entry<Long, Number> entry : datapoints.entrySet()) {
-            	if(entry.getValue() != null) {
+            for (int i = 0; i < datapoints.size(); i++) {
+            	Number value = datapoints.getNumber(i);
+            	if(value != null) {
             		jgen.writeStartObject();
                     jgen.writeStringField("metric", DefaultTSDBService.constructTSDBMetricName(metric));
-                    jgen.writeNumberField("timestamp", entry.getKey());
-                    ValueType type = ValueType.value(entry.getValue());
+                    jgen.writeNumberField("timestamp", datapoints.getTimestamp(i));
+                    ValueType type = ValueType.value(value);
                     switch (type) {
                     	case INT:
                     	case LONG:
-                    		jgen.writeNumberField("value", entry.getValue().longValue());
+                    		jgen.writeNumberField("value", value.longValue());
                     		break;
                     	case DOUBLE:
-                    		jgen.writeNumberField("value", entry.getValue().doubleValue());
+                    		jgen.writeNumberField("value", datapoints.getValue(i));
                     		break;
                     	default:
                     		throw new IllegalStateException();
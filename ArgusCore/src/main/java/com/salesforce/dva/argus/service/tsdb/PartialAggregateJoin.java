@@ -0,0 +1,322 @@
+package com.salesforce.dva.argus.service.tsdb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.BiConsumer;
+
+import com.salesforce.dva.argus.entity.DatapointSeries;
+import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.service.tsdb.MetricQuery.Aggregator;
+
+/**
+ * Joins the results of federated sub queries back into the results of the original queries. Sub query results are accepted one at a time, in
+ * whatever order they arrive, and are grouped by original query and metric identifier. Each sub query result is a partial aggregate of the
+ * original query. Once every result has been accepted, the partial aggregates of each metric are combined with a k-way merge over their
+ * timestamp ordered data points.
+ *
+ * <p>Partial aggregates are combined according to the downsampler of the original query. Sums and counts are added, minimums and maximums are
+ * compared, and averages are weighted by the counts returned by the count sub query registered for each average sub query. If the counts of a
+ * metric are incomplete, its averages are combined unweighted. Queries without a mergeable downsampler keep the value of the last sub query.</p>
+ *
+ * <p>This class is not thread safe.</p>
+ *
+ * @author  a.chambers
+ */
+public final class PartialAggregateJoin {
+
+	//~ Instance fields ******************************************************************************************************************************
+
+	private final Map<MetricQuery, MetricQuery> _originalQueries = new HashMap<>();
+	private final Map<MetricQuery, Integer> _subQueryOrder = new HashMap<>();
+	private final Map<MetricQuery, MetricQuery> _countSubQueries;
+	private final Map<MetricQuery, MetricQuery> _valueSubQueriesByCountSubQuery = new HashMap<>();
+	private final Map<MetricQuery, Map<String, List<Partial>>> _partials = new HashMap<>();
+	private final Map<MetricQuery, Map<String, DatapointSeries>> _counts = new HashMap<>();
+	private final BiConsumer<MetricQuery, List<Metric>> _listener;
+
+	//~ Constructors *********************************************************************************************************************************
+
+	/**
+	 * Creates a new PartialAggregateJoin object.
+	 *
+	 * @param  mapQuerySubQueries  Mapping from original query to list of sub queries. Cannot be null.
+	 * @param  countSubQueries     Mapping from average sub query to the sub query returning its counts. Cannot be null.
+	 * @param  listener            Notified of every accepted sub query result. Cannot be null.
+	 */
+	PartialAggregateJoin(Map<MetricQuery, List<MetricQuery>> mapQuerySubQueries, Map<MetricQuery, MetricQuery> countSubQueries,
+			BiConsumer<MetricQuery, List<Metric>> listener) {
+		_countSubQueries = countSubQueries;
+		_listener = listener;
+		for (Map.Entry<MetricQuery, MetricQuery> entry : countSubQueries.entrySet()) {
+			_valueSubQueriesByCountSubQuery.put(entry.getValue(), entry.getKey());
+		}
+		for (Map.Entry<MetricQuery, List<MetricQuery>> entry : mapQuerySubQueries.entrySet()) {
+			_partials.put(entry.getKey(), new HashMap<>());
+			for (MetricQuery subQuery : entry.getValue()) {
+				_originalQueries.put(subQuery, entry.getKey());
+				_subQueryOrder.putIfAbsent(subQuery, _subQueryOrder.size());
+			}
+		}
+	}
+
+	//~ Methods **************************************************************************************************************************************
+
+	/**
+	 * Accepts the result of a sub query.
+	 *
+	 * @param  subQuery  The sub query. Results of unknown sub queries are ignored.
+	 * @param  metrics   The metrics returned by the sub query. May be null.
+	 */
+	public void accept(MetricQuery subQuery, List<Metric> metrics) {
+		MetricQuery query = _originalQueries.get(subQuery);
+
+		if (query == null || metrics == null) {
+			return;
+		}
+		_listener.accept(subQuery, metrics);
+
+		MetricQuery valueSubQuery = _valueSubQueriesByCountSubQuery.get(subQuery);
+
+		if (valueSubQuery != null) {
+			Map<String, DatapointSeries> counts = _counts.computeIfAbsent(valueSubQuery, q -> new HashMap<>());
+
+			for (Metric metric : metrics) {
+				if (metric != null) {
+					counts.put(metric.getIdentifier(), metric.getDatapointSeries());
+				}
+			}
+			return;
+		}
+
+		Map<String, List<Partial>> partialsByIdentifier = _partials.get(query);
+		int order = _subQueryOrder.get(subQuery);
+
+		for (Metric metric : metrics) {
+			if (metric != null) {
+				partialsByIdentifier.computeIfAbsent(metric.getIdentifier(), id -> new ArrayList<>()).add(new Partial(metric, subQuery, order));
+			}
+		}
+	}
+
+	/**
+	 * Merges the accepted results.
+	 *
+	 * @return  Map from original query to merged metrics.
+	 */
+	public Map<MetricQuery, List<Metric>> result() {
+		Map<MetricQuery, List<Metric>> queryMetricsMap = new HashMap<>();
+
+		for (Map.Entry<MetricQuery, Map<String, List<Partial>>> entry : _partials.entrySet()) {
+			MetricQuery query = entry.getKey();
+			List<Metric> metrics = new ArrayList<>(entry.getValue().size());
+
+			for (Map.Entry<String, List<Partial>> partials : entry.getValue().entrySet()) {
+				metrics.add(_merge(query, partials.getKey(), partials.getValue()));
+			}
+			queryMetricsMap.put(query, metrics);
+		}
+		return queryMetricsMap;
+	}
+
+	/* The first partial, in sub query order, becomes the merged metric. */
+	private Metric _merge(MetricQuery query, String identifier, List<Partial> partials) {
+		partials.sort((a, b) -> Integer.compare(a.order, b.order));
+
+		Metric result = partials.get(0).metric;
+
+		result.setQuery(query);
+		if (partials.size() > 1) {
+			result.setDatapointSeries(_mergeSeries(query.getDownsampler(), identifier, partials));
+		}
+		return result;
+	}
+
+	private DatapointSeries _mergeSeries(Aggregator downsampler, String identifier, List<Partial> partials) {
+		boolean weighted = downsampler == Aggregator.AVG && _attachCounts(identifier, partials);
+		PriorityQueue<Cursor> cursors = new PriorityQueue<>(partials.size());
+		int capacity = 0;
+
+		for (int i = 0; i < partials.size(); i++) {
+			DatapointSeries series = partials.get(i).metric.getDatapointSeries();
+
+			capacity = Math.max(capacity, series.size());
+			if (!series.isEmpty()) {
+				cursors.add(new Cursor(partials.get(i), i));
+			}
+		}
+
+		DatapointSeries merged = new DatapointSeries(capacity);
+		Accumulator accumulator = new Accumulator();
+
+		while (!cursors.isEmpty()) {
+			long timestamp = cursors.peek().timestamp();
+
+			accumulator.reset();
+			while (!cursors.isEmpty() && cursors.peek().timestamp() == timestamp) {
+				Cursor cursor = cursors.poll();
+
+				accumulator.add(cursor, weighted);
+				if (cursor.advance()) {
+					cursors.add(cursor);
+				}
+			}
+			accumulator.writeTo(merged, timestamp, downsampler);
+		}
+		return merged;
+	}
+
+	/* Returns whether every partial has a count series. */
+	private boolean _attachCounts(String identifier, List<Partial> partials) {
+		for (Partial partial : partials) {
+			MetricQuery countSubQuery = _countSubQueries.get(partial.subQuery);
+			Map<String, DatapointSeries> counts = countSubQuery == null ? null : _counts.get(partial.subQuery);
+
+			partial.counts = counts == null ? null : counts.get(identifier);
+			if (partial.counts == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	//~ Inner Classes ********************************************************************************************************************************
+
+	/** A sub query result for one metric. */
+	private static final class Partial {
+
+		private final Metric metric;
+		private final MetricQuery subQuery;
+		private final int order;
+		private DatapointSeries counts;
+
+		Partial(Metric metric, MetricQuery subQuery, int order) {
+			this.metric = metric;
+			this.subQuery = subQuery;
+			this.order = order;
+		}
+	}
+
+	/** The position of the merge in one partial. Ties on timestamp are broken by sub query order. */
+	private static final class Cursor implements Comparable<Cursor> {
+
+		private final DatapointSeries series;
+		private final DatapointSeries counts;
+		private final int rank;
+		private int index;
+
+		Cursor(Partial partial, int rank) {
+			this.series = partial.metric.getDatapointSeries();
+			this.counts = partial.counts;
+			this.rank = rank;
+		}
+
+		long timestamp() {
+			return series.getTimestamp(index);
+		}
+
+		boolean advance() {
+			return ++index < series.size();
+		}
+
+		@Override
+		public int compareTo(Cursor other) {
+			int result = Long.compare(timestamp(), other.timestamp());
+
+			return result != 0 ? result : Integer.compare(rank, other.rank);
+		}
+	}
+
+	/** The partial aggregates of one timestamp. */
+	private static final class Accumulator {
+
+		private double sum;
+		private double weightedSum;
+		private double weight;
+		private boolean integral;
+		private int values;
+		private DatapointSeries minSeries;
+		private int minIndex;
+		private DatapointSeries maxSeries;
+		private int maxIndex;
+		private DatapointSeries lastSeries;
+		private int lastIndex;
+
+		void reset() {
+			sum = 0;
+			weightedSum = 0;
+			weight = 0;
+			integral = true;
+			values = 0;
+			minSeries = null;
+			maxSeries = null;
+			lastSeries = null;
+		}
+
+		void add(Cursor cursor, boolean weighted) {
+			DatapointSeries series = cursor.series;
+			int index = cursor.index;
+
+			lastSeries = series;
+			lastIndex = index;
+			if (series.isNull(index)) {
+				return;
+			}
+
+			double value = series.getValue(index);
+			double count = 1;
+
+			if (weighted) {
+				int countIndex = cursor.counts.indexOf(series.getTimestamp(index));
+
+				count = countIndex < 0 || cursor.counts.isNull(countIndex) ? 0 : cursor.counts.getValue(countIndex);
+			}
+			values++;
+			sum += value;
+			weightedSum += value * count;
+			weight += count;
+			integral &= series.isIntegral(index);
+			if (minSeries == null || value < minSeries.getValue(minIndex)) {
+				minSeries = series;
+				minIndex = index;
+			}
+			if (maxSeries == null || value > maxSeries.getValue(maxIndex)) {
+				maxSeries = series;
+				maxIndex = index;
+			}
+		}
+
+		void writeTo(DatapointSeries merged, long timestamp, Aggregator downsampler) {
+			if (values <= 1 || downsampler == null) {
+				merged.put(timestamp, values == 1 ? minSeries : lastSeries, values == 1 ? minIndex : lastIndex);
+				return;
+			}
+			switch (downsampler) {
+				case SUM:
+				case ZIMSUM:
+				case COUNT:
+					if (integral) {
+						merged.put(timestamp, (long) sum);
+					} else {
+						merged.put(timestamp, sum);
+					}
+					break;
+				case MIN:
+				case MIMMIN:
+					merged.put(timestamp, minSeries, minIndex);
+					break;
+				case MAX:
+				case MIMMAX:
+					merged.put(timestamp, maxSeries, maxIndex);
+					break;
+				case AVG:
+					merged.put(timestamp, weight > 0 ? weightedSum / weight : sum / values);
+					break;
+				default:
+					merged.put(timestamp, lastSeries, lastIndex);
+			}
+		}
+	}
+}
@@ -1,6 +1,5 @@
 package com.salesforce.dva.argus.service.tsdb;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -13,6 +12,9 @@ import com.salesforce.dva.argus.entity.Metric;
  * @author  Dilip Devaraj (ddevaraj@salesforce.com)
  */
 public abstract class QueryFederation{
+
+	private final Map<MetricQuery, MetricQuery> _countSubQueries = new HashMap<>();
+
 	/**
 	 *  Federate queries to obtain a new queries list 
 	 *
@@ -21,6 +23,24 @@ public abstract class QueryFederation{
 	 */
 	public abstract Map<MetricQuery, List<MetricQuery>> federateQueries(List<MetricQuery> queries);
 
+	/**
+	 *  Starts a join of the results of the sub queries of this federation. Results can be handed to the join as they arrive.
+	 *
+	 * @param   mapQuerySubQueries  Mapping from original query to list of sub queries
+	 * @return  The join
+	 */
+	public PartialAggregateJoin newJoin(Map<MetricQuery, List<MetricQuery>> mapQuerySubQueries) {
+		return new PartialAggregateJoin(mapQuerySubQueries, _countSubQueries, this::subQueryCompleted);
+	}
+
+	/**
+	 *  Called by joins for every sub query result they accept. Does nothing by default.
+	 *
+	 * @param   subQuery  The sub query
+	 * @param   metrics   The metrics returned by the sub query
+	 */
+	protected void subQueryCompleted(MetricQuery subQuery, List<Metric> metrics) { }
+
 	/**
 	 *  Merge metrics from smaller sub queries 
 	 *
@@ -29,61 +49,30 @@ public abstract class QueryFederation{
 	 * @return  Map from original query to merged metrics
 	 */
 	public Map<MetricQuery, List<Metric>> join(Map<MetricQuery, List<MetricQuery>> mapQuerySubQueries, Map<MetricQuery, List<Metric>> subQueryMetricsMap) {
-		Map<MetricQuery, List<Metric>> queryMetricsMap = new HashMap<>();
-
-		String metricIdentifier = null;
-		for (Map.Entry<MetricQuery, List<MetricQuery>> entry : mapQuerySubQueries.entrySet()) {
-			Map<String, Metric> metricMergeMap = new HashMap<>();
-			List<Metric> metrics = new ArrayList<>();
-			MetricQuery query = entry.getKey();
-			List<MetricQuery> subQueries = entry.getValue();
+		PartialAggregateJoin join = newJoin(mapQuerySubQueries);
 
+		for (List<MetricQuery> subQueries : mapQuerySubQueries.values()) {
 			for (MetricQuery subQuery : subQueries) {
-				List<Metric> metricsFromSubQuery = subQueryMetricsMap.get(subQuery);
-				if (metricsFromSubQuery != null) {
-					for (Metric metric : metricsFromSubQuery) {
-						if (metric != null) {
-							metricIdentifier = metric.getIdentifier();
-							Metric finalMetric = metricMergeMap.get(metricIdentifier);
-							if (finalMetric == null) {
-								metric.setQuery(query);
-								metricMergeMap.put(metricIdentifier, metric);
-							} else {
-								if(query.getDownsampler() !=null){
-									switch(query.getDownsampler()){
-									case SUM:
-										finalMetric.sumExistingDatapoints(metric.getDatapoints());
-										break;
-									case MIN:
-										finalMetric.minimumExistingDatapoints(metric.getDatapoints());
-										break;
-									case MAX:
-										finalMetric.maximumExistingDatapoints(metric.getDatapoints());
-										break;
-									case COUNT:
-										finalMetric.sumExistingDatapoints(metric.getDatapoints());
-										break;
-									case ZIMSUM:
-										finalMetric.sumExistingDatapoints(metric.getDatapoints());
-										break;
-									case AVG:
-										finalMetric.averageExistingDatapoints(metric.getDatapoints());
-										break;									
-									default:
-										finalMetric.addDatapoints(metric.getDatapoints()); 
-									}
-								} else{
-									finalMetric.addDatapoints(metric.getDatapoints());
-								}
-							}
-						}
-					}
-				}
+				join.accept(subQuery, subQueryMetricsMap.get(subQuery));
 			}
-			metrics.addAll(metricMergeMap.values());
-			queryMetricsMap.put(query, metrics);
 		}
-		return queryMetricsMap;
+		return join.result();
 	}
 
+	/**
+	 *  Creates a sub query returning the number of data points behind each value of an average sub query, so that the averages of different sub
+	 *  queries can be weighted when they are joined. The counts of the time series are added up rather than aggregated like the values, since
+	 *  the weight of an average must grow with the number of time series behind it. Missing counts are added as zero instead of interpolated.
+	 *
+	 * @param   subQuery  The average sub query
+	 * @return  The count sub query, which must be executed along with the average sub query
+	 */
+	protected MetricQuery createCountSubQuery(MetricQuery subQuery) {
+		MetricQuery countSubQuery = new MetricQuery(subQuery);
+
+		countSubQuery.setAggregator(MetricQuery.Aggregator.ZIMSUM);
+		countSubQuery.setDownsampler(MetricQuery.Aggregator.COUNT);
+		_countSubQueries.put(subQuery, countSubQuery);
+		return countSubQuery;
+	}
 }
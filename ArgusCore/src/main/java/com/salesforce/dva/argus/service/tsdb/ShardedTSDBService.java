@@ -38,9 +38,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -52,6 +53,7 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.salesforce.dva.argus.entity.Annotation;
 import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.service.DiscoveryService;
 import com.salesforce.dva.argus.service.MonitorService;
 import com.salesforce.dva.argus.service.TSDBService;
 import com.salesforce.dva.argus.service.metric.transform.Transform;
@@ -72,6 +74,7 @@ public class ShardedTSDBService extends AbstractTSDBService{
 
 	//~ Instance fields ******************************************************************************************************************************
 	private final TransformFactory _transformFactory;
+	private final DiscoveryService _discoveryService;
 
 
 	//~ Constructors *********************************************************************************************************************************
@@ -81,13 +84,17 @@ public class ShardedTSDBService extends AbstractTSDBService{
 	 * @param   config               The system _configuration used to configure the service.
 	 * @param   monitorService       The monitor service used to collect query time window counters. Cannot be null.
 	 * @param   transformFactory     Transform Factory
+	 * @param   discoveryService     The discovery service used to estimate the number of time series read by a query. Cannot be null.
 	 *
 	 * @throws  SystemException  If an error occurs configuring the service.
 	 */
 	@Inject
-	public ShardedTSDBService(SystemConfiguration config, MonitorService monitorService, TransformFactory transformFactory) {
+	public ShardedTSDBService(SystemConfiguration config, MonitorService monitorService, TransformFactory transformFactory,
+			DiscoveryService discoveryService) {
 		super(config, monitorService);
+		requireArgument(discoveryService != null, "Discovery service cannot be null.");
 		_transformFactory = transformFactory;
+		_discoveryService = discoveryService;
 	}
 
 	//~ Methods **************************************************************************************************************************************
@@ -125,23 +132,31 @@ public class ShardedTSDBService extends AbstractTSDBService{
 			queryStartExecutionTime.put(query, System.currentTimeMillis());
 		}
 
-		QueryFederation queryFederation = new EndPointQueryFederation(_readEndPoints);
-		Map<MetricQuery, List<MetricQuery>> mapQueryEndPointSubQueries = queryFederation.federateQueries(queries);
+		// Expensive queries are first split into time range sub queries, each of which is then sent to every read endpoint
+		QueryFederation timeFederation = new TimeQueryFederation(_discoveryService);
+		Map<MetricQuery, List<MetricQuery>> mapQueryTimeSubQueries = timeFederation.federateQueries(queries);
+
+		List<MetricQuery> timeSubQueries = new ArrayList<>();
+		for(List<MetricQuery> subQueries  :  mapQueryTimeSubQueries.values()){
+			timeSubQueries.addAll(subQueries);
+		}
+
+		QueryFederation endPointFederation = new EndPointQueryFederation(_readEndPoints);
+		Map<MetricQuery, List<MetricQuery>> mapQueryEndPointSubQueries = endPointFederation.federateQueries(timeSubQueries);
 
 		List<MetricQuery> queriesSplit = new ArrayList<>();
 		for(List<MetricQuery> subQueries  :  mapQueryEndPointSubQueries.values()){
 			queriesSplit.addAll(subQueries);
 		}
 
-		long beforeTime = System.currentTimeMillis();		
-		Map<MetricQuery, List<Metric>>  subQueryMetricsMap = getSubQueryMetrics(queriesSplit);
-		long afterTime = System.currentTimeMillis();
-		_logger.info("Time spent in waiting for all sub query results: {}", afterTime - beforeTime);
+		long beforeTime = System.currentTimeMillis();
+		PartialAggregateJoin join = endPointFederation.newJoin(mapQueryEndPointSubQueries);
+
+		getSubQueryMetrics(queriesSplit, join);
 
-		beforeTime = System.currentTimeMillis();
-		Map<MetricQuery, List<Metric>> queryMetricsMap = queryFederation.join(mapQueryEndPointSubQueries, subQueryMetricsMap);
-		afterTime = System.currentTimeMillis();
-		_logger.info("Time spent in joining results: {}", afterTime - beforeTime);
+		Map<MetricQuery, List<Metric>> queryMetricsMap = timeFederation.join(mapQueryTimeSubQueries, join.result());
+		long afterTime = System.currentTimeMillis();
+		_logger.info("Time spent in fetching and joining sub query results: {}", afterTime - beforeTime);
 
 		for (MetricQuery query : queries) {
 			instrumentQueryLatency(_monitorService, query, queryStartExecutionTime.get(query), "metrics");
@@ -209,29 +224,42 @@ public class ShardedTSDBService extends AbstractTSDBService{
 	}
 
 	/* Gets metrics for a list of queries */
-	private Map<MetricQuery, List<Metric>> getSubQueryMetrics(List<MetricQuery> queries) {
-		Map<MetricQuery, Future<List<Metric>>> queryFutureMap = new HashMap<>();
+	/* Hands the result of each sub query to the join as soon as it arrives. */
+	private void getSubQueryMetrics(List<MetricQuery> queries, PartialAggregateJoin join) {
+		CompletionService<List<Metric>> completionService = new ExecutorCompletionService<>(_executorService);
+		Map<Future<List<Metric>>, MetricQuery> futureQueryMap = new HashMap<>();
 
 		for (MetricQuery query : queries) {
 			String requestBody = fromEntity(query);
 			String requestUrl = query.getMetricQueryContext().getReadEndPoint() + "/api/query";
-			queryFutureMap.put(query, _executorService.submit(new QueryWorker(requestUrl, query.getMetricQueryContext().getReadEndPoint(), requestBody)));
+			futureQueryMap.put(completionService.submit(new QueryWorker(requestUrl, query.getMetricQueryContext().getReadEndPoint(), requestBody)), query);
 		}
 
-		Map<MetricQuery, List<Metric>> subQueryMetricsMap = new HashMap<>();
+		for (int i = 0; i < futureQueryMap.size(); i++) {
+			Future<List<Metric>> future;
+
+			try {
+				future = completionService.take();
+			} catch (InterruptedException e) {
+				for (Future<List<Metric>> pending : futureQueryMap.keySet()) {
+					pending.cancel(true);
+				}
+				Thread.currentThread().interrupt();
+				throw new SystemException("Interrupted while waiting for metrics from TSDB.", e);
+			}
 
-		for (Entry<MetricQuery, Future<List<Metric>>> entry : queryFutureMap.entrySet()) {
+			MetricQuery subQuery = futureQueryMap.get(future);
 			List<Metric> metrics = new ArrayList<>();
 			List<Metric> m = null;
 			try {
-				m = entry.getValue().get();
+				m = future.get();
 			} catch (InterruptedException | ExecutionException e) {
 				_logger.warn("Failed to get metrics from TSDB. Reason: " + e.getMessage());
 				try {
-					String readBackupEndPoint = _readBackupEndPointsMap.get(entry.getKey().getMetricQueryContext().getReadEndPoint()); 
+					String readBackupEndPoint = _readBackupEndPointsMap.get(subQuery.getMetricQueryContext().getReadEndPoint()); 
 					if (!readBackupEndPoint.isEmpty()) {
 						_logger.warn("Trying to read from Backup endpoint");
-						m = new QueryWorker(readBackupEndPoint + "/api/query", readBackupEndPoint, fromEntity(entry.getKey())).call();
+						m = new QueryWorker(readBackupEndPoint + "/api/query", readBackupEndPoint, fromEntity(subQuery)).call();
 					}
 				} catch (Exception ex) {
 					_logger.warn("Failed to get metrics from Backup TSDB. Reason: " + ex.getMessage());
@@ -242,15 +270,14 @@ public class ShardedTSDBService extends AbstractTSDBService{
 			if (m != null) {
 				for (Metric metric : m) {
 					if (metric != null) {
-						metric.setQuery(entry.getKey());
+						metric.setQuery(subQuery);
 						metrics.add(metric);
 					}
 				}
 			}
 
-			subQueryMetricsMap.put(entry.getKey(), metrics);
+			join.accept(subQuery, metrics);
 		}
-		return subQueryMetricsMap;
 	}
 
 	@Override
@@ -0,0 +1,118 @@
+package com.salesforce.dva.argus.service.tsdb;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The cost model used by {@link TimeQueryFederation} to plan sub queries. The cost of a query is the number of data points it returns, which is
+ * estimated as the number of time series it reads times the number of data points per series in its time range.
+ *
+ * <p>Estimates are scaled by a correction factor, which tracks the ratio of the actual to the planned cost of completed sub queries as an
+ * exponentially weighted moving average. The planned and actual totals are kept so that the model can be inspected and tuned.</p>
+ *
+ * @author  a.chambers
+ */
+public final class TimeFederationCostModel {
+
+	//~ Static fields/initializers *******************************************************************************************************************
+
+	/** The model shared by federations that are not given one. */
+	public static final TimeFederationCostModel DEFAULT = new TimeFederationCostModel();
+
+	/** The assumed interval between the data points of a series that is not downsampled. */
+	static final long DATAPOINT_INTERVAL_MILLIS = 60 * 1000L;
+	private static final double SMOOTHING = 0.2;
+	private static final double MIN_CORRECTION = 0.01;
+	private static final double MAX_CORRECTION = 100;
+
+	//~ Instance fields ******************************************************************************************************************************
+
+	private volatile double _correction = 1;
+	private final LongAdder _plannedDatapoints = new LongAdder();
+	private final LongAdder _actualDatapoints = new LongAdder();
+	private final LongAdder _subQueries = new LongAdder();
+
+	//~ Methods **************************************************************************************************************************************
+
+	/**
+	 * Returns the uncorrected cost of a query.
+	 *
+	 * @param   query   The query. Cannot be null.
+	 * @param   series  The estimated number of time series the query reads.
+	 *
+	 * @return  The estimated number of data points.
+	 */
+	static long rawCost(MetricQuery query, long series) {
+		long interval = query.getDownsamplingPeriod() == null || query.getDownsamplingPeriod() <= 0 ? DATAPOINT_INTERVAL_MILLIS
+				: Math.max(DATAPOINT_INTERVAL_MILLIS, query.getDownsamplingPeriod());
+		long datapointsPerSeries = Math.max(1, (query.getEndTimestamp() - query.getStartTimestamp()) / interval);
+
+		return Math.max(1, series) * datapointsPerSeries;
+	}
+
+	/**
+	 * Returns the corrected cost of a query.
+	 *
+	 * @param   rawCost  The uncorrected cost.
+	 *
+	 * @return  The estimated number of data points.
+	 */
+	public long cost(long rawCost) {
+		return Math.max(1, Math.round(rawCost * _correction));
+	}
+
+	/**
+	 * Records the actual cost of a completed sub query.
+	 *
+	 * @param  plannedRawCost  The uncorrected cost the sub query was planned with.
+	 * @param  actualCost      The number of data points the sub query returned.
+	 */
+	public void record(long plannedRawCost, long actualCost) {
+		if (plannedRawCost <= 0) {
+			return;
+		}
+		_plannedDatapoints.add(plannedRawCost);
+		_actualDatapoints.add(actualCost);
+		_subQueries.increment();
+
+		double ratio = Math.min(MAX_CORRECTION, Math.max(MIN_CORRECTION, (double) actualCost / plannedRawCost));
+
+		// racing updates may lose a sample, which is harmless for a moving average
+		_correction = _correction + SMOOTHING * (ratio - _correction);
+	}
+
+	/**
+	 * Returns the factor estimates are currently scaled by.
+	 *
+	 * @return  The correction factor.
+	 */
+	public double getCorrection() {
+		return _correction;
+	}
+
+	/**
+	 * Returns the total uncorrected cost of the recorded sub queries.
+	 *
+	 * @return  The planned number of data points.
+	 */
+	public long getPlannedDatapoints() {
+		return _plannedDatapoints.sum();
+	}
+
+	/**
+	 * Returns the total actual cost of the recorded sub queries.
+	 *
+	 * @return  The actual number of data points.
+	 */
+	public long getActualDatapoints() {
+		return _actualDatapoints.sum();
+	}
+
+	/**
+	 * Returns the number of recorded sub queries.
+	 *
+	 * @return  The number of sub queries.
+	 */
+	public long getSubQueries() {
+		return _subQueries.sum();
+	}
+}
@@ -4,39 +4,133 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.ToLongFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.service.DiscoveryService;
 
 /**
- * Federation by forking large range queries into smaller range sub queries
+ * Federation by forking large range queries into smaller range sub queries. The number of sub queries is planned per query from its estimated
+ * cost, which is the number of time series it reads times the number of data points per series after downsampling. Queries are split so that
+ * each sub query returns about {@link #TARGET_DATAPOINTS_PER_SUB_QUERY} data points, into at most {@link #MAX_SUB_QUERIES} sub queries. Cheap
+ * queries are not split at all, whatever their range.
+ *
+ * <p>The number of time series is estimated by {@link DiscoveryService#estimateTimeseriesCount(MetricQuery)}. The default estimate counts the
+ * alternatives of the tag values of the query. {@link com.salesforce.dva.argus.service.schema.CachedDiscoveryService} estimates wildcard
+ * queries from their cached expansion, but falls back to the default estimate when the expansion is not cached, since estimating never runs
+ * discovery. The number of sub queries only depends on the estimated cost. It does not take into account how many sub queries the TSDB
+ * service can run concurrently.</p>
+ *
+ * <p>The actual cost of each sub query is recorded in the {@link TimeFederationCostModel}, which corrects later estimates. The planned cost of
+ * a sub query is only kept until its result is joined, so a federation should be used for a single request. Sub queries which fail or return
+ * nothing are not recorded.</p>
  *
  * @author  Dilip Devaraj (ddevaraj@salesforce.com)
  */
 public class TimeQueryFederation extends QueryFederation{
 
-	private static final long TIME_FEDERATE_LIMIT_MILLIS = 86400000L;
+	/** The number of data points a sub query should return. */
+	static final long TARGET_DATAPOINTS_PER_SUB_QUERY = DiscoveryService.MAX_DATAPOINTS_PER_RESPONSE / 4;
+
+	/** The maximum number of sub queries a query is split into. */
+	static final int MAX_SUB_QUERIES = 32;
+
+	private final Logger _logger = LoggerFactory.getLogger(TimeQueryFederation.class);
+	private final ToLongFunction<MetricQuery> _seriesCountEstimator;
+	private final TimeFederationCostModel _costModel;
+	private final Map<MetricQuery, Long> _plannedCosts = new HashMap<>();
+
+	/** Creates a new TimeQueryFederation object which estimates the number of time series from the tags of each query. */
+	public TimeQueryFederation() {
+		this(DiscoveryService::numApproxTimeseriesForQuery, TimeFederationCostModel.DEFAULT);
+	}
+
+	/**
+	 * Creates a new TimeQueryFederation object.
+	 *
+	 * @param  discoveryService  The discovery service estimating the number of time series of each query. Cannot be null.
+	 */
+	public TimeQueryFederation(DiscoveryService discoveryService) {
+		this(discoveryService::estimateTimeseriesCount, TimeFederationCostModel.DEFAULT);
+	}
+
+	/**
+	 * Creates a new TimeQueryFederation object.
+	 *
+	 * @param  seriesCountEstimator  Estimates the number of time series of a query. Cannot be null.
+	 * @param  costModel             The cost model to plan with and record actual costs in. Cannot be null.
+	 */
+	TimeQueryFederation(ToLongFunction<MetricQuery> seriesCountEstimator, TimeFederationCostModel costModel) {
+		_seriesCountEstimator = seriesCountEstimator;
+		_costModel = costModel;
+	}
 
 	@Override
 	public Map<MetricQuery, List<MetricQuery>> federateQueries(List<MetricQuery> queries) {
 		Map<MetricQuery, List<MetricQuery>> mapQuerySubQueries = new HashMap<>();
 		for (MetricQuery query : queries) {
+			long series = Math.max(1, _seriesCountEstimator.applyAsLong(query));
+			long range = query.getEndTimestamp() - query.getStartTimestamp();
+			long cost = _costModel.cost(TimeFederationCostModel.rawCost(query, series));
+			long splitMillis = _splitMillis(query, range, cost);
+
+			_logger.debug("Planned {} ms sub queries for {} with an estimated {} series and cost {}.", splitMillis, query, series, cost);
 
 			List<MetricQuery> metricSubQueries = new ArrayList<>();
-			if (query.getEndTimestamp() - query.getStartTimestamp() > TIME_FEDERATE_LIMIT_MILLIS) {
-				for (long time = query.getStartTimestamp(); time <= query.getEndTimestamp(); time = time + TIME_FEDERATE_LIMIT_MILLIS) {
+			if (range > splitMillis) {
+				for (long time = query.getStartTimestamp(); time <= query.getEndTimestamp(); time = time + splitMillis) {
 					MetricQuery mq = new MetricQuery(query);
 					mq.setStartTimestamp(time);
-					if (time + TIME_FEDERATE_LIMIT_MILLIS > query.getEndTimestamp()) {
+					if (time + splitMillis > query.getEndTimestamp()) {
 						mq.setEndTimestamp(query.getEndTimestamp());
 					} else {
-						mq.setEndTimestamp(time + TIME_FEDERATE_LIMIT_MILLIS);
+						// sub query ranges must not overlap, otherwise the data points on the boundary would be counted twice by the join
+						mq.setEndTimestamp(time + splitMillis - 1);
 					}
 					metricSubQueries.add(mq);
 				}
-				mapQuerySubQueries.put(query, metricSubQueries);
 			} else {
 				metricSubQueries.add(query);
-				mapQuerySubQueries.put(query, metricSubQueries);
 			}
+			for (MetricQuery subQuery : metricSubQueries) {
+				_plannedCosts.put(subQuery, TimeFederationCostModel.rawCost(subQuery, series));
+			}
+			mapQuerySubQueries.put(query, metricSubQueries);
 		}
 		return mapQuerySubQueries;
 	}
-}
\ No newline at end of file
+
+	@Override
+	protected void subQueryCompleted(MetricQuery subQuery, List<Metric> metrics) {
+		Long plannedCost = _plannedCosts.remove(subQuery);
+
+		if (plannedCost != null && !metrics.isEmpty()) {
+			long actualCost = 0;
+
+			for (Metric metric : metrics) {
+				if (metric != null) {
+					actualCost += metric.getDatapointSeries().size();
+				}
+			}
+			_costModel.record(plannedCost, actualCost);
+		}
+	}
+
+	/* Divides the range into as many sub queries as the cost requires, rounding the sub query range up to whole downsampling periods. */
+	private long _splitMillis(MetricQuery query, long range, long cost) {
+		long subQueries = Math.min(MAX_SUB_QUERIES, (cost + TARGET_DATAPOINTS_PER_SUB_QUERY - 1) / TARGET_DATAPOINTS_PER_SUB_QUERY);
+
+		if (subQueries <= 1 || range <= 0) {
+			return Math.max(1, range);
+		}
+
+		long unit = query.getDownsamplingPeriod() == null || query.getDownsamplingPeriod() <= 0 ? TimeFederationCostModel.DATAPOINT_INTERVAL_MILLIS
+				: query.getDownsamplingPeriod();
+		long splitMillis = (range + subQueries - 1) / subQueries;
+
+		return ((splitMillis + unit - 1) / unit) * unit;
+	}
+}
@@ -228,11 +228,22 @@ public final class SystemConfiguration extends Properties {
         DATA_LAG_NOTIFICATION_EMAIL_ADDRESS("system.property.data.lag.notification.emailId", "someone@mycompany.com"),
         DATA_LAG_WHITE_LISTED_SCOPES("system.property.data.lag.whitelisted.scopes", ""),
         
+        ALERT_EVALUATION_THREADS("system.property.alert.evaluation.threads", "10"),
+        ALERT_EVALUATION_TIMEOUT_MILLIS("system.property.alert.evaluation.timeout.millis", "300000"),
+        ALERT_ENQUEUE_MODE("system.property.alert.enqueue.mode", "serialized"),
+        ALERT_DEFINITION_CACHE_SIZE("system.property.alert.definition.cache.size", "200000"),
+        
+        METRIC_WIRE_FORMAT("system.property.mq.metric.wire.format", "json"),
+        METRIC_EXPRESSION_THREADS("system.property.metric.expression.threads", "8"),
+        METRIC_EXPRESSION_PLAN_CACHE_SIZE("system.property.metric.expression.plan.cache.size", "10000"),
+
         CLIENT_THREADS("system.property.client.threads", "2"),
         CLIENT_CONNECT_TIMEOUT("system.property.client.connect.timeout", "10000"),
         
         CACHE_SERVICE_IMPL_CLASS("service.binding.cache", "com.salesforce.dva.argus.service.cache.NoOperationCacheService"),
         CACHE_SERVICE_PROPERTY_FILE("service.config.cache","argus.properties"),
+        CACHE_INSERT_THREADS("system.property.cache.insert.threads", "2"),
+        CACHE_INSERT_QUEUE_CAPACITY("system.property.cache.insert.queue.capacity", "10000"),
         
         MQ_SERVICE_IMPL_CLASS("service.binding.mq", "com.salesforce.dva.argus.service.mq.kafka.KafkaMessageService"),
         MQ_SERVICE_PROPERTY_FILE("service.config.mq","argus.properties"),
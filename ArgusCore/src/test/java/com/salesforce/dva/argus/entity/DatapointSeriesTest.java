@@ -0,0 +1,147 @@
+package com.salesforce.dva.argus.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class DatapointSeriesTest {
+
+    @Test
+    public void testPutKeepsTimestampOrder() {
+        DatapointSeries series = new DatapointSeries(2);
+
+        series.put(3000L, 3.0);
+        series.put(1000L, 1.0);
+        series.put(4000L, 4.0);
+        series.put(2000L, 2.0);
+        series.put(2000L, 20.0);
+
+        assertEquals(4, series.size());
+        assertEquals(1000L, series.firstTimestamp());
+        assertEquals(4000L, series.lastTimestamp());
+        assertEquals(new ArrayList<>(new TreeMap<>(series.asMap()).keySet()), new ArrayList<>(series.asMap().keySet()));
+        assertEquals(20.0, series.getValue(1), 0.0);
+    }
+
+    @Test
+    public void testNumberTypesArePreserved() {
+        DatapointSeries series = new DatapointSeries();
+
+        series.put(1000L, (Number) 1.5);
+        series.put(2000L, (Number) 2L);
+        series.put(3000L, (Number) 3);
+        series.put(4000L, (Number) null);
+        series.put(5000L, Long.MAX_VALUE);
+
+        assertEquals(Double.valueOf(1.5), series.get(1000L));
+        assertEquals(Long.valueOf(2L), series.get(2000L));
+        assertEquals(Integer.valueOf(3), series.get(3000L));
+        assertNull(series.get(4000L));
+        assertTrue(series.isNull(3));
+        assertTrue(Double.isNaN(series.getValue(3)));
+        assertTrue(series.asMap().containsKey(4000L));
+        assertEquals(Long.valueOf(Long.MAX_VALUE), series.get(5000L));
+    }
+
+    @Test
+    public void testMapViewEqualsTreeMap() {
+        Map<Long, Number> expected = new HashMap<>();
+
+        expected.put(5000L, 5.0);
+        expected.put(1000L, 1L);
+        expected.put(3000L, null);
+
+        DatapointSeries series = new DatapointSeries(expected);
+
+        assertEquals(new TreeMap<>(expected), series.asMap());
+        assertEquals(series.asMap(), new TreeMap<>(expected));
+        assertEquals(new TreeMap<>(expected).hashCode(), series.asMap().hashCode());
+        assertEquals(new TreeMap<>(expected).toString(), series.asMap().toString());
+    }
+
+    @Test
+    public void testPutAllMergesInterleavedSeries() {
+        DatapointSeries series = new DatapointSeries();
+        DatapointSeries other = new DatapointSeries();
+
+        series.put(1000L, 1.0);
+        series.put(3000L, 3.0);
+        series.put(5000L, 5.0);
+        other.put(2000L, (Number) 2L);
+        other.put(3000L, 30.0);
+        other.put(6000L, (Number) null);
+        series.putAll(other);
+
+        Map<Long, Number> expected = new TreeMap<>();
+
+        expected.put(1000L, 1.0);
+        expected.put(2000L, 2L);
+        expected.put(3000L, 30.0);
+        expected.put(5000L, 5.0);
+        expected.put(6000L, null);
+        assertEquals(expected, series.asMap());
+    }
+
+    @Test
+    public void testSubSeries() {
+        DatapointSeries series = new DatapointSeries();
+
+        for (long i = 0; i < 10; i++) {
+            series.put(i * 1000L, (double) i);
+        }
+
+        DatapointSeries sub = series.subSeries(3, 6);
+
+        assertEquals(3, sub.size());
+        assertEquals(3000L, sub.firstTimestamp());
+        assertEquals(5000L, sub.lastTimestamp());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testMapViewIsUnmodifiable() {
+        new DatapointSeries().asMap().put(1000L, 1.0);
+    }
+
+    @Test
+    public void testMetricSetDatapointsWithOwnView() {
+        Metric metric = new Metric("scope", "metric");
+        Map<Long, Number> datapoints = new HashMap<>();
+
+        datapoints.put(1000L, 1.0);
+        metric.setDatapoints(datapoints);
+        metric.setDatapoints(metric.getDatapoints());
+        assertEquals(datapoints, metric.getDatapoints());
+
+        Metric copy = new Metric(metric);
+
+        copy.addDatapoints(datapoints);
+        metric.getDatapointSeries().put(2000L, 2.0);
+        assertEquals(1, copy.getDatapoints().size());
+        assertFalse(copy.getDatapoints().containsKey(2000L));
+    }
+
+    @Test
+    public void testLargeUnorderedPutAll() {
+        Map<Long, Number> datapoints = new HashMap<>();
+        List<Long> timestamps = new ArrayList<>();
+
+        for (long i = 10000; i > 0; i--) {
+            datapoints.put(i * 7919L % 100003L, (double) i);
+        }
+        timestamps.addAll(new TreeMap<>(datapoints).keySet());
+
+        DatapointSeries series = new DatapointSeries();
+
+        series.putAll(datapoints);
+        assertEquals(timestamps, new ArrayList<>(series.asMap().keySet()));
+    }
+}
@@ -2,6 +2,7 @@ package com.salesforce.dva.argus.service;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
@@ -14,6 +15,8 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.persistence.EntityManager;
@@ -33,6 +36,7 @@ import com.google.inject.Provider;
 import com.salesforce.dva.argus.AbstractTest;
 import com.salesforce.dva.argus.entity.Alert;
 import com.salesforce.dva.argus.entity.History;
+import com.salesforce.dva.argus.entity.History.JobStatus;
 import com.salesforce.dva.argus.entity.Metric;
 import com.salesforce.dva.argus.entity.Notification;
 import com.salesforce.dva.argus.entity.NumberOperations;
@@ -40,9 +44,11 @@ import com.salesforce.dva.argus.entity.PrincipalUser;
 import com.salesforce.dva.argus.entity.Trigger;
 import com.salesforce.dva.argus.entity.Trigger.TriggerType;
 import com.salesforce.dva.argus.service.MQService.MQQueue;
+import com.salesforce.dva.argus.service.MonitorService.Counter;
 import com.salesforce.dva.argus.service.alert.DefaultAlertService;
 import com.salesforce.dva.argus.service.alert.DefaultAlertService.AlertWithTimestamp;
 import com.salesforce.dva.argus.service.alert.notifier.AuditNotifier;
+import com.salesforce.dva.argus.system.SystemConfiguration;
 
 @RunWith(org.mockito.runners.MockitoJUnitRunner.class)
 public class DefaultAlertServiceTest extends AbstractTest {
@@ -64,7 +70,11 @@ public class DefaultAlertServiceTest extends AbstractTest {
 	
 	@Before
 	public void setup() {
-		alertService = new DefaultAlertService(system.getConfiguration(), _mqServiceMock, _metricServiceMock, _auditServiceMock,
+		alertService = _createAlertService(system.getConfiguration());
+	}
+
+	private DefaultAlertService _createAlertService(SystemConfiguration configuration) {
+		DefaultAlertService alertService = new DefaultAlertService(configuration, _mqServiceMock, _metricServiceMock, _auditServiceMock,
 				_tsdbServiceMock, _mailServiceMock, _historyServiceMock, _monitorServiceMock, system.getNotifierFactory(), 
 				_emProviderMock);
 		try {
@@ -74,6 +84,7 @@ public class DefaultAlertServiceTest extends AbstractTest {
 		} catch (NoSuchFieldException | SecurityException | IllegalArgumentException | IllegalAccessException e) {
 			fail("Failed to set mocked ObjectMapper using reflection.");
 		}
+		return alertService;
 	}
 	
 	@Test
@@ -109,6 +120,64 @@ public class DefaultAlertServiceTest extends AbstractTest {
 		assertEquals(1, notificationCount.get());
 	}
 	
+	@Test
+	public void testExecuteScheduledAlerts_EvaluationTimeout() throws Exception {
+		UserService userService = system.getServiceFactory().getUserService();
+		final AtomicInteger notificationCount = new AtomicInteger(0);
+		final AtomicInteger clearCount = new AtomicInteger(0);
+		
+		Metric metric = _createMetric(createRandomName(), createRandomName(), 50, 1000 * 60 * 5);
+		
+		Alert alert = new Alert(userService.findAdminUser(), userService.findAdminUser(), "testAlert", "-1h:scope:metric:avg", "* * * * *");
+		_setAlertId(alert, "100001");
+		Trigger trigger = new Trigger(alert, TriggerType.GREATER_THAN_OR_EQ, "testTrigger", NumberOperations.bd(50), 1000 * 60 * 5);
+		_setTriggerId(trigger, "100002");
+		Notification notification = new Notification("testNotification", alert, AuditNotifier.class.getName(), new ArrayList<String>(),
+				5000);
+		_setNotificationId(notification, "100003");
+
+		alert.setTriggers(Arrays.asList(trigger));
+		alert.setNotifications(Arrays.asList(notification));
+		notification.setTriggers(alert.getTriggers());
+		alert.setEnabled(true);
+		
+		// a dedicated configuration, so that the short timeout never reaches the configuration shared by the other tests
+		SystemConfiguration configuration = new SystemConfiguration(system.getConfiguration());
+
+		configuration.setProperty("system.property.alert.evaluation.timeout.millis", "100");
+		alertService = _createAlertService(configuration);
+		
+		DefaultAlertService spyAlertService = _initializeSpyAlertServiceWithStubs(notificationCount, clearCount, 
+				Arrays.asList(metric), alert, notification);
+		
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		when(_metricServiceMock.getMetrics(anyString(), anyLong())).thenAnswer(new Answer<List<Metric>>() {
+
+			@Override
+			public List<Metric> answer(InvocationOnMock invocation) throws Throwable {
+				try {
+					release.await();
+				} catch (InterruptedException ex) {
+					interrupted.countDown();
+					throw ex;
+				}
+				return Arrays.asList(metric);
+			}
+		});
+		
+		try {
+			spyAlertService.executeScheduledAlerts(1, 1000);
+		} finally {
+			release.countDown();
+		}
+
+		assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+		assertEquals(0, notificationCount.get());
+		verify(_historyServiceMock, times(1)).createHistory(eq(alert), anyString(), eq(JobStatus.FAILURE), eq(100L));
+		verify(_monitorServiceMock, times(1)).modifyCounter(eq(Counter.ALERTS_FAILED), eq(1), anyMapOf(String.class, String.class));
+	}
+	
 	@Test
 	public void testExecuteScheduledAlerts_ForOneTimeSeriesMultipleTriggers() {
 		ServiceFactory sFactory = system.getServiceFactory();
@@ -32,6 +32,7 @@
 package com.salesforce.dva.argus.service;
 
 import com.salesforce.dva.argus.AbstractTest;
+import com.salesforce.dva.argus.service.MQService.DequeuedBatch;
 import org.junit.Test;
 import java.util.ArrayList;
 import java.util.List;
@@ -93,6 +94,63 @@ public class MQServiceTest extends AbstractTest {
         }
     }
 
+    @Test(timeout = 100000L)
+    public void testAsyncBulkPutAndGetMessages() throws Exception {
+        int count = 1000;
+        String queueName = createRandomName();
+        MQService service = system.getServiceFactory().getMQService();
+        List<String> messages = new ArrayList<String>(count);
+
+        for (int i = 0; i < count; i++) {
+            messages.add("Message " + i);
+        }
+        try {
+            assertEquals(Integer.valueOf(count), service.enqueueAsync(queueName, messages).get());
+            while (count > 0) {
+                List<String> dequeuedMessages = service.dequeue(queueName, count * 10, 100);
+
+                if (dequeuedMessages != null) {
+                    count -= dequeuedMessages.size();
+                }
+            }
+        } finally {
+            service.dispose();
+        }
+    }
+
+    @Test(timeout = 100000L)
+    public void testAbortedBatchIsRedelivered() throws InterruptedException {
+        int count = 100;
+        String queueName = createRandomName();
+        MQService service = system.getServiceFactory().getMQService();
+        List<String> messages = new ArrayList<String>(count);
+
+        for (int i = 0; i < count; i++) {
+            messages.add("Message " + i);
+        }
+        try {
+            service.enqueue(queueName, messages);
+
+            DequeuedBatch<String> batch = service.dequeueBatch(queueName, String.class, 1000, count);
+
+            while (batch.getMessages().size() < count) {
+                batch.abort();
+                batch = service.dequeueBatch(queueName, String.class, 1000, count);
+            }
+
+            List<String> dequeued = new ArrayList<String>(batch.getMessages());
+
+            batch.abort();
+            batch = service.dequeueBatch(queueName, String.class, 1000, count);
+            assertEquals(dequeued, batch.getMessages());
+            batch.commit();
+            assertTrue(service.dequeueBatch(queueName, String.class, 1000, count).getMessages().isEmpty());
+            assertEquals(Long.valueOf(0L), service.getPartitionLag(queueName).get(0));
+        } finally {
+            service.dispose();
+        }
+    }
+
     @Test
     public void testPutAndBulkGetMessagesMultiThredaing() throws InterruptedException {
         final CountDownLatch latch = new CountDownLatch(1);
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2018, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.dva.argus.service.alert;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.salesforce.dva.argus.entity.Alert;
+import com.salesforce.dva.argus.entity.JPAEntity;
+import com.salesforce.dva.argus.entity.PrincipalUser;
+import com.salesforce.dva.argus.entity.Trigger;
+import com.salesforce.dva.argus.entity.Trigger.TriggerType;
+import com.salesforce.dva.argus.service.AlertService;
+
+public class AlertDefinitionsCacheTest {
+
+	private static final long MINUTE = _minute(2018, Calendar.MARCH, 1, 10, 30);
+
+	@Test
+	public void testDeltaAppliesNewerVersionsAndTombstones() {
+		AlertService alertService = mock(AlertService.class);
+		AlertDefinitionsCache cache = new AlertDefinitionsCache();
+		AlertDefinitionsCacheRefresherThread refresher = new AlertDefinitionsCacheRefresherThread(cache, alertService);
+
+		when(alertService.findAlertsByStatus(true)).thenReturn(Arrays.asList(_alert(1, "* * * * *", 1000), _alert(2, "* * * * *", 1000)));
+		when(alertService.findAlertsModifiedAfterDate(any(Date.class))).thenReturn(Collections.<Alert>emptyList());
+		refresher.refresh();
+		assertEquals(_ids(1, 2), _ids(AlertDefinitionsCache.getEnabledAlertsForMinute(MINUTE)));
+
+		Alert deleted = _alert(2, "* * * * *", 3000);
+		Alert stale = _alert(1, "0 * * * *", 500);
+
+		deleted.setDeleted(true);
+		when(alertService.findAlertsModifiedAfterDate(any(Date.class))).thenReturn(Arrays.asList(stale, deleted, _alert(3, "*/15 * * * *", 3000)));
+		refresher.refresh();
+		assertEquals(_ids(1, 3), _ids(AlertDefinitionsCache.getEnabledAlertsForMinute(MINUTE)));
+		assertFalse(cache.getAlertsMapById().containsKey(BigInteger.valueOf(2)));
+
+		when(alertService.findAlertsModifiedAfterDate(any(Date.class))).thenReturn(Arrays.asList(_alert(1, "0 * * * *", 4000)));
+		refresher.refresh();
+		assertEquals(_ids(3), _ids(AlertDefinitionsCache.getEnabledAlertsForMinute(MINUTE)));
+		assertEquals(_ids(1, 3), _ids(AlertDefinitionsCache.getEnabledAlertsForMinute(MINUTE + 30 * 60 * 1000L)));
+	}
+
+	@Test
+	public void testRestartRestoresSnapshotAndFetchesOnlyDelta() throws Exception {
+		File snapshotFile = new File(Files.createTempDirectory("alerts-cache").toFile(), "alert-definitions.snapshot");
+		AlertService alertService = mock(AlertService.class);
+		Alert withTrigger = _alert(2, "*/10 * * * *", 1000);
+		Trigger trigger = new Trigger(withTrigger, TriggerType.GREATER_THAN, "trigger", 1.0, 0);
+
+		_setId(trigger, 20);
+		withTrigger.setTriggers(Arrays.asList(trigger));
+		when(alertService.findAlertsByStatus(true)).thenReturn(Arrays.asList(_alert(1, "* * * * *", 1000), withTrigger, _alert(3, "* * * * *", 1000)));
+		when(alertService.findAlertsModifiedAfterDate(any(Date.class))).thenReturn(Collections.<Alert>emptyList());
+		new AlertDefinitionsCacheRefresherThread(new AlertDefinitionsCache(), alertService, snapshotFile, 60 * 1000L).refresh();
+		assertTrue(snapshotFile.isFile());
+
+		AlertService restartedAlertService = mock(AlertService.class);
+		AlertDefinitionsCache cache = new AlertDefinitionsCache();
+
+		// alert 3 was removed from the database outright, alert 4 was created while the scheduler was down
+		when(restartedAlertService.findAlertIdsByStatus(true)).thenReturn(_ids(1, 2));
+		when(restartedAlertService.findAlertsModifiedAfterDate(any(Date.class))).thenReturn(Arrays.asList(_alert(4, "* * * * *", 5000)));
+		new AlertDefinitionsCacheRefresherThread(cache, restartedAlertService, snapshotFile, 60 * 1000L).refresh();
+		verify(restartedAlertService, never()).findAlertsByStatus(anyBoolean());
+		assertTrue(cache.isAlertsCacheInitialized());
+		assertEquals(_ids(1, 2, 4), _ids(AlertDefinitionsCache.getEnabledAlertsForMinute(MINUTE)));
+
+		Alert restored = cache.getAlertsMapById().get(BigInteger.valueOf(2));
+
+		assertEquals(1000L, restored.getModifiedDate().getTime());
+		assertEquals("*/10 * * * *", restored.getCronEntry());
+		assertEquals(1, restored.getTriggers().size());
+		assertEquals(TriggerType.GREATER_THAN, restored.getTriggers().get(0).getType());
+	}
+
+	private static Alert _alert(long id, String cronEntry, long modifiedDate) {
+		PrincipalUser owner = new PrincipalUser(null, "owner", "owner@mycompany.abc");
+		Alert alert = new Alert(owner, owner, "alert" + id, "-1h:scope:metric:avg", cronEntry);
+
+		_setId(owner, 100);
+		_setId(alert, id);
+		alert.setEnabled(true);
+		alert.setModifiedDate(new Date(modifiedDate));
+		return alert;
+	}
+
+	private static void _setId(JPAEntity entity, long id) {
+		try {
+			Field idField = JPAEntity.class.getDeclaredField("id");
+
+			idField.setAccessible(true);
+			idField.set(entity, BigInteger.valueOf(id));
+		} catch (ReflectiveOperationException ex) {
+			throw new AssertionError(ex);
+		}
+	}
+
+	private static List<BigInteger> _ids(long... ids) {
+		List<BigInteger> result = new ArrayList<>();
+
+		for (long id : ids) {
+			result.add(BigInteger.valueOf(id));
+		}
+		return result;
+	}
+
+	private static List<BigInteger> _ids(List<Alert> alerts) {
+		List<BigInteger> result = new ArrayList<>();
+
+		for (Alert alert : alerts) {
+			result.add(alert.getId());
+		}
+		return result;
+	}
+
+	private static long _minute(int year, int month, int day, int hour, int minute) {
+		Calendar calendar = Calendar.getInstance();
+
+		calendar.set(year, month, day, hour, minute, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		return calendar.getTimeInMillis();
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2018, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.dva.argus.service.alert;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.quartz.CronScheduleBuilder;
+import org.quartz.CronTrigger;
+import org.quartz.TriggerBuilder;
+
+import com.salesforce.dva.argus.util.Cron;
+
+public class CronScheduleIndexTest {
+
+	private static final String[] CRON_ENTRIES = {
+		"* * * * *", "*/5 * * * *", "0 * * * *", "15,45 */2 * * *", "10-20 3 * * *", "5/15 1-23/4 * * *", "0 0 1 * *", "30 12 */10 * *",
+		"0 0 * * 1-5", "0 9 * * MON,WED,FRI", "* * * JAN-MAR *", "0 6 ? * SUN", "0 0 15 JUN ?", "*/7 * 2-28/3 * *", "0 0 * * 7",
+		"0 0 L * ?", "0 0 ? * 6L", "0 0 15W * ?", "0 0 ? * 2#1", "50-10 * * * *", "0 0 1 * 1-5", "not a cron entry", "61 * * * *"
+	};
+
+	@Test
+	public void testMatchesQuartzFireTimes() {
+		Map<String, List<BigInteger>> alertIdsByCronEntry = new HashMap<>();
+
+		for (int i = 0; i < CRON_ENTRIES.length; i++) {
+			alertIdsByCronEntry.put(CRON_ENTRIES[i], new ArrayList<>(Collections.singletonList(BigInteger.valueOf(CRON_ENTRIES.length - i))));
+		}
+
+		CronScheduleIndex index = CronScheduleIndex.build(alertIdsByCronEntry, null);
+		Calendar calendar = Calendar.getInstance();
+
+		calendar.set(2018, Calendar.JANUARY, 1, 0, 0, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		for (int minute = 0; minute < 60 * 24 * 400; minute += 31) {
+			long time = calendar.getTimeInMillis() + minute * 60 * 1000L;
+
+			assertEquals(new Date(time).toString(), _fireTimesFromQuartz(alertIdsByCronEntry, time), index.getAlertIdsForMinute(time));
+		}
+	}
+
+	@Test
+	public void testRebuildMergesAlertIdsInOrder() {
+		Map<String, List<BigInteger>> alertIdsByCronEntry = new HashMap<>();
+
+		alertIdsByCronEntry.put("* * * * *", new ArrayList<>(Arrays.asList(BigInteger.valueOf(5), BigInteger.valueOf(1))));
+		alertIdsByCronEntry.put("*/2 * * * *", new ArrayList<>(Arrays.asList(BigInteger.valueOf(4), BigInteger.valueOf(2))));
+
+		CronScheduleIndex index = CronScheduleIndex.build(alertIdsByCronEntry, null);
+		Calendar calendar = Calendar.getInstance();
+
+		calendar.set(2018, Calendar.MARCH, 1, 10, 20, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		assertEquals(_ids(1, 2, 4, 5), index.getAlertIdsForMinute(calendar.getTimeInMillis()));
+		assertEquals(_ids(1, 5), index.getAlertIdsForMinute(calendar.getTimeInMillis() + 60 * 1000L));
+		assertTrue(index.getAlertIdsForMinute(calendar.getTimeInMillis() + 1000L).isEmpty());
+		alertIdsByCronEntry.get("*/2 * * * *").add(BigInteger.valueOf(3));
+		alertIdsByCronEntry.get("* * * * *").clear();
+		index = CronScheduleIndex.build(alertIdsByCronEntry, index);
+		assertEquals(_ids(2, 3, 4), index.getAlertIdsForMinute(calendar.getTimeInMillis()));
+		assertTrue(index.getAlertIdsForMinute(calendar.getTimeInMillis() + 60 * 1000L).isEmpty());
+	}
+
+	private static List<BigInteger> _ids(long... ids) {
+		List<BigInteger> result = new ArrayList<>();
+
+		for (long id : ids) {
+			result.add(BigInteger.valueOf(id));
+		}
+		return result;
+	}
+
+	private static List<BigInteger> _fireTimesFromQuartz(Map<String, List<BigInteger>> alertIdsByCronEntry, long time) {
+		List<BigInteger> result = new ArrayList<>();
+
+		for (Map.Entry<String, List<BigInteger>> entry : alertIdsByCronEntry.entrySet()) {
+			try {
+				CronTrigger trigger = TriggerBuilder.newTrigger().startAt(new Date(0))
+						.withSchedule(CronScheduleBuilder.cronSchedule(Cron.convertToQuartzCronEntry(entry.getKey()))).build();
+
+				if (new Date(time).equals(trigger.getFireTimeAfter(new Date(time - 1000)))) {
+					result.addAll(entry.getValue());
+				}
+			} catch (RuntimeException ex) {
+				continue;
+			}
+		}
+		Collections.sort(result);
+		return result;
+	}
+}
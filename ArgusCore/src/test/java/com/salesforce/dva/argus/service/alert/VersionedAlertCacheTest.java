@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2018, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.dva.argus.service.alert;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.salesforce.dva.argus.entity.Alert;
+import com.salesforce.dva.argus.entity.JPAEntity;
+import com.salesforce.dva.argus.entity.Notification;
+import com.salesforce.dva.argus.entity.PrincipalUser;
+import com.salesforce.dva.argus.entity.Trigger;
+import com.salesforce.dva.argus.service.alert.DefaultAlertService.AlertWithTimestamp;
+
+public class VersionedAlertCacheTest {
+
+	@Test
+	public void testDefinitionsAreReloadedOnlyWhenStale() {
+		Map<BigInteger, Alert> database = new HashMap<>();
+		List<List<BigInteger>> loads = new ArrayList<>();
+		VersionedAlertCache cache = new VersionedAlertCache(100, _mapper(), ids -> {
+			List<Alert> result = new ArrayList<>();
+
+			loads.add(ids);
+			for (BigInteger id : ids) {
+				if (database.containsKey(id)) {
+					result.add(database.get(id));
+				}
+			}
+			return result;
+		});
+
+		database.put(BigInteger.ONE, _alert(1, "-1h:scope:metric:avg", 1000));
+		database.put(BigInteger.TEN, _alert(10, "-1h:scope:metric:sum", 1000));
+		assertEquals(2, cache.load(_versions(1, 1000, 10, 1000)));
+		assertEquals(0, cache.load(_versions(1, 1000, 10, 500)));
+		assertEquals(1, loads.size());
+
+		Alert first = cache.newInstance(BigInteger.ONE);
+
+		assertEquals("-1h:scope:metric:avg", first.getExpression());
+		assertNotSame(first, cache.newInstance(BigInteger.ONE));
+
+		database.put(BigInteger.ONE, _alert(1, "-2h:scope:metric:avg", 2000));
+		database.remove(BigInteger.TEN);
+		assertEquals(2, cache.load(_versions(1, 2000, 10, 2000)));
+		assertEquals("-2h:scope:metric:avg", cache.newInstance(BigInteger.ONE).getExpression());
+		assertNull(cache.newInstance(BigInteger.TEN));
+	}
+
+	@Test
+	public void testReferencesAreOmittedFromSerializedAlerts() throws Exception {
+		ObjectMapper mapper = new ObjectMapper();
+		String serialized = mapper.writeValueAsString(new AlertWithTimestamp("{}", 1000L));
+		String reference = mapper.writeValueAsString(new AlertWithTimestamp(BigInteger.TEN, 2000L, 3000L));
+
+		assertFalse(serialized.contains("alertId"));
+		assertFalse(serialized.contains("alertVersion"));
+
+		AlertWithTimestamp message = mapper.readValue(reference, AlertWithTimestamp.class);
+
+		assertEquals("10", message.getAlertId());
+		assertEquals(2000L, message.getAlertVersion());
+		assertEquals(3000L, message.getAlertEnqueueTime());
+		assertNull(message.getSerializedAlert());
+	}
+
+	private static Map<BigInteger, Long> _versions(long... idsAndVersions) {
+		Map<BigInteger, Long> result = new HashMap<>();
+
+		for (int i = 0; i < idsAndVersions.length; i += 2) {
+			result.put(BigInteger.valueOf(idsAndVersions[i]), idsAndVersions[i + 1]);
+		}
+		return result;
+	}
+
+	private static Alert _alert(long id, String expression, long modifiedDate) {
+		PrincipalUser owner = new PrincipalUser(null, "owner", "owner@mycompany.abc");
+		Alert alert = new Alert(owner, owner, "alert" + id, expression, "* * * * *");
+
+		_setId(owner, 100);
+		_setId(alert, id);
+		alert.setTriggers(Collections.<Trigger>emptyList());
+		alert.setNotifications(Collections.<Notification>emptyList());
+		alert.setModifiedDate(new Date(modifiedDate));
+		return alert;
+	}
+
+	private static void _setId(JPAEntity entity, long id) {
+		try {
+			Field idField = JPAEntity.class.getDeclaredField("id");
+
+			idField.setAccessible(true);
+			idField.set(entity, BigInteger.valueOf(id));
+		} catch (ReflectiveOperationException ex) {
+			throw new AssertionError(ex);
+		}
+	}
+
+	private static ObjectMapper _mapper() {
+		SimpleModule module = new SimpleModule();
+
+		module.addSerializer(Alert.class, new Alert.Serializer());
+		module.addSerializer(Trigger.class, new Trigger.Serializer());
+		module.addSerializer(Notification.class, new Notification.Serializer());
+		module.addSerializer(PrincipalUser.class, new Alert.PrincipalUserSerializer());
+		module.addDeserializer(Alert.class, new Alert.Deserializer());
+
+		ObjectMapper mapper = new ObjectMapper();
+
+		mapper.registerModule(module);
+		return mapper;
+	}
+}
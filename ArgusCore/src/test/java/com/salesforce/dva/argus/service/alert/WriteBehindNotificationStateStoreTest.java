@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2018, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.dva.argus.service.alert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Persistence;
+
+import org.junit.Test;
+
+import com.google.inject.Provider;
+import com.salesforce.dva.argus.AbstractTest;
+import com.salesforce.dva.argus.entity.Alert;
+import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.entity.Notification;
+import com.salesforce.dva.argus.entity.Trigger;
+import com.salesforce.dva.argus.entity.Trigger.TriggerType;
+import com.salesforce.dva.argus.service.AlertService;
+import com.salesforce.dva.argus.service.MonitorService;
+import com.salesforce.dva.argus.service.UserService;
+
+public class WriteBehindNotificationStateStoreTest extends AbstractTest {
+
+	@Test
+	public void testFlushWritesLatestState() {
+		Alert alert = _createAlert();
+		Notification notification = alert.getNotifications().get(0);
+		Trigger trigger = alert.getTriggers().get(0);
+		Metric metric1 = new Metric("scope", "metric1");
+		Metric metric2 = new Metric("scope", "metric2");
+		EntityManager em = Persistence.createEntityManagerFactory("argus-pu").createEntityManager();
+		WriteBehindNotificationStateStore store = new WriteBehindNotificationStateStore(() -> em, mock(MonitorService.class));
+
+		store.setState(notification, trigger, metric1, 1000L, true);
+		store.setState(notification, trigger, metric1, 2000L, false);
+		store.setState(notification, trigger, metric2, 3000L, true);
+		assertEquals(2, store.size());
+		assertEquals(2, store.flush());
+		assertEquals(0, store.size());
+
+		Notification persisted = _read(em, notification);
+
+		assertEquals(2000L, persisted.getCooldownExpirationByTriggerAndMetric(trigger, metric1));
+		assertFalse(persisted.isActiveForTriggerAndMetric(trigger, metric1));
+		assertEquals(3000L, persisted.getCooldownExpirationByTriggerAndMetric(trigger, metric2));
+		assertTrue(persisted.isActiveForTriggerAndMetric(trigger, metric2));
+
+		store.setState(notification, trigger, metric2, 4000L, false);
+		assertEquals(1, store.flush());
+		persisted = _read(em, notification);
+		assertEquals(2000L, persisted.getCooldownExpirationByTriggerAndMetric(trigger, metric1));
+		assertEquals(4000L, persisted.getCooldownExpirationByTriggerAndMetric(trigger, metric2));
+		assertFalse(persisted.isActiveForTriggerAndMetric(trigger, metric2));
+		assertEquals(2, persisted.getCooldownExpirationMap().size());
+	}
+
+	@Test
+	public void testFailedFlushKeepsNewerState() {
+		Alert alert = _createAlert();
+		Notification notification = alert.getNotifications().get(0);
+		Trigger trigger = alert.getTriggers().get(0);
+		Metric metric1 = new Metric("scope", "metric1");
+		Metric metric2 = new Metric("scope", "metric2");
+		WriteBehindNotificationStateStore[] store = new WriteBehindNotificationStateStore[1];
+		Provider<EntityManager> failingProvider = () -> {
+			store[0].setState(notification, trigger, metric1, 5000L, false);
+			throw new IllegalStateException("Database unavailable.");
+		};
+
+		store[0] = new WriteBehindNotificationStateStore(failingProvider, mock(MonitorService.class));
+		store[0].setState(notification, trigger, metric1, 1000L, true);
+		store[0].setState(notification, trigger, metric2, 2000L, true);
+		assertEquals(0, store[0].flush());
+		assertEquals(2, store[0].size());
+
+		Notification reloaded = notification;
+
+		reloaded.getCooldownExpirationMap().clear();
+		reloaded.getActiveStatusMap().clear();
+		store[0].applyPendingState(Arrays.asList(reloaded));
+		assertEquals(5000L, reloaded.getCooldownExpirationByTriggerAndMetric(trigger, metric1));
+		assertFalse(reloaded.isActiveForTriggerAndMetric(trigger, metric1));
+		assertEquals(2000L, reloaded.getCooldownExpirationByTriggerAndMetric(trigger, metric2));
+		assertTrue(reloaded.isActiveForTriggerAndMetric(trigger, metric2));
+
+		for(int i = 1; i < WriteBehindNotificationStateStore.MAX_FLUSH_ATTEMPTS; i++) {
+			store[0].flush();
+		}
+		// metric2 has failed on every attempt, metric1 is re-recorded by every attempt
+		assertEquals(1, store[0].size());
+	}
+
+	private Alert _createAlert() {
+		UserService userService = system.getServiceFactory().getUserService();
+		AlertService alertService = system.getServiceFactory().getAlertService();
+		Alert alert = new Alert(userService.findAdminUser(), userService.findAdminUser(), createRandomName(), "-1h:scope:metric:avg", "* * * * *");
+		Notification notification = new Notification("notification", alert, "notifier-name", new ArrayList<String>(), 5000L);
+		Trigger trigger = new Trigger(alert, TriggerType.GREATER_THAN, "trigger-name", 0.95, 60000);
+
+		alert.setNotifications(Arrays.asList(notification));
+		alert.setTriggers(Arrays.asList(trigger));
+		return alertService.updateAlert(alert);
+	}
+
+	private Notification _read(EntityManager em, Notification notification) {
+		Notification.updateActiveStatusAndCooldown(em, Arrays.asList(notification));
+		return notification;
+	}
+}
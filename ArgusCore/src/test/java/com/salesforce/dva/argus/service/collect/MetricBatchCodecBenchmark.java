@@ -0,0 +1,53 @@
+package com.salesforce.dva.argus.service.collect;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.service.collect.MetricBatchCodec.WireFormat;
+
+/**
+ * Compares the size and encode/decode throughput of the JSON and binary metric batch formats. It is not run as part of the test suite. Run it
+ * from the test classpath with an optional number of iterations as the only argument.
+ *
+ * @author  a.chambers
+ */
+public class MetricBatchCodecBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 2000;
+
+    public static void main(String[] args) throws IOException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        List<Metric> batch = MetricBatchCodecTest.createBatch(50, 60);
+
+        for (WireFormat format : WireFormat.values()) {
+            MetricBatchCodec codec = new MetricBatchCodec(format);
+            String message = codec.encode(batch);
+
+            _run(codec, batch, message, WARMUP_ITERATIONS);
+
+            long encodeNanos = System.nanoTime();
+
+            for (int i = 0; i < iterations; i++) {
+                codec.encode(batch);
+            }
+            encodeNanos = System.nanoTime() - encodeNanos;
+
+            long decodeNanos = System.nanoTime();
+
+            for (int i = 0; i < iterations; i++) {
+                codec.decode(message);
+            }
+            decodeNanos = System.nanoTime() - decodeNanos;
+            System.out.println(String.format("%-6s size=%7d bytes  encode=%8.1f us/batch  decode=%8.1f us/batch", format, message.length(),
+                    encodeNanos / 1000.0 / iterations, decodeNanos / 1000.0 / iterations));
+        }
+    }
+
+    private static void _run(MetricBatchCodec codec, List<Metric> batch, String message, int iterations) throws IOException {
+        for (int i = 0; i < iterations; i++) {
+            codec.encode(batch);
+            codec.decode(message);
+        }
+    }
+}
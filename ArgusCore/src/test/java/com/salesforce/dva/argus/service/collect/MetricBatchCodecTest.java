@@ -0,0 +1,168 @@
+package com.salesforce.dva.argus.service.collect;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.entity.TSDBEntity;
+import com.salesforce.dva.argus.service.collect.MetricBatchCodec.WireFormat;
+
+public class MetricBatchCodecTest {
+
+    static List<Metric> createBatch(int metrics, int datapoints) {
+        List<Metric> batch = new ArrayList<>(metrics);
+        long start = 1500000000000L;
+
+        for (int i = 0; i < metrics; i++) {
+            Metric metric = new Metric("system.host" + (i % 5), "cpu.user");
+            Map<String, String> tags = new HashMap<>();
+
+            tags.put("device", "device" + i);
+            tags.put("dc", "dc" + (i % 3));
+            metric.setTags(tags);
+            if (i % 2 == 0) {
+                metric.setUnits("percent");
+                metric.setDisplayName("CPU user");
+            }
+            for (int j = 0; j < datapoints; j++) {
+                metric.getDatapointSeries().put(start + j * 60000L + (j % 7 == 0 ? 13 : 0), i * 0.5 + j / 3.0);
+            }
+            batch.add(metric);
+        }
+        return batch;
+    }
+
+    private static void assertMetricsEqual(List<Metric> expected, List<Metric> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Metric e = expected.get(i);
+            Metric a = actual.get(i);
+
+            assertEquals(e, a);
+            assertEquals(e.getNamespace(), a.getNamespace());
+            assertEquals(e.getDisplayName(), a.getDisplayName());
+            assertEquals(e.getUnits(), a.getUnits());
+            assertEquals(e.getDatapoints(), a.getDatapoints());
+        }
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws IOException {
+        List<Metric> batch = createBatch(50, 60);
+        MetricBatchCodec codec = new MetricBatchCodec(WireFormat.BINARY);
+
+        assertMetricsEqual(batch, codec.decode(codec.encode(batch)));
+    }
+
+    @Test
+    public void testBinaryRoundTripPreservesNumberTypes() throws IOException {
+        Metric metric = new Metric("scope", "metric");
+
+        metric.setNamespace("namespace");
+        metric.getDatapointSeries().put(-5000L, 1.5);
+        metric.getDatapointSeries().put(1000L, (Number) 2L);
+        metric.getDatapointSeries().put(2000L, (Number) (-3));
+        metric.getDatapointSeries().put(3000L, (Number) null);
+        metric.getDatapointSeries().put(4000L, Long.MAX_VALUE);
+        metric.getDatapointSeries().put(4500L, Double.NaN);
+
+        List<Metric> decoded = MetricBatchCodec.decodeBinary(MetricBatchCodec.encodeBinary(Arrays.asList(metric)));
+
+        assertMetricsEqual(Arrays.asList(metric), decoded);
+        assertEquals(Long.valueOf(2L), decoded.get(0).getDatapoints().get(1000L));
+        assertEquals(Integer.valueOf(-3), decoded.get(0).getDatapoints().get(2000L));
+        assertEquals(Long.valueOf(Long.MAX_VALUE), decoded.get(0).getDatapoints().get(4000L));
+    }
+
+    @Test
+    public void testBinaryRoundTripPreservesUidAndArbitraryPrecisionValues() throws Exception {
+        Metric metric = new Metric("scope", "metric");
+        Field uid = TSDBEntity.class.getDeclaredField("_uid");
+
+        uid.setAccessible(true);
+        uid.set(metric, "000001000002");
+        metric.getDatapointSeries().put(1000L, new BigDecimal("0.1000000000000000000000000001"));
+        metric.getDatapointSeries().put(2000L, new BigInteger("123456789012345678901234567890"));
+        metric.getDatapointSeries().put(3000L, 2.5);
+
+        MetricBatchCodec codec = new MetricBatchCodec(WireFormat.BINARY);
+        String message = codec.encode(Arrays.asList(metric));
+        List<Metric> decoded = codec.decode(message);
+
+        assertFalse(message.startsWith("["));
+        assertMetricsEqual(Arrays.asList(metric), decoded);
+        assertEquals("000001000002", decoded.get(0).getUid());
+        assertEquals(new BigDecimal("0.1000000000000000000000000001"), decoded.get(0).getDatapoints().get(1000L));
+        assertEquals(new BigInteger("123456789012345678901234567890"), decoded.get(0).getDatapoints().get(2000L));
+    }
+
+    @Test
+    public void testBatchesTheBinaryFormatCannotRepresentFallBackToJson() throws IOException {
+        Metric metric = new Metric("scope", "metric");
+
+        metric.getDatapointSeries().put(1000L, 1.0);
+        metric.getDatapointSeries().put(2000L, (Number) Float.valueOf(1.5f));
+
+        MetricBatchCodec codec = new MetricBatchCodec(WireFormat.BINARY);
+        String message = codec.encode(Arrays.asList(metric));
+
+        assertFalse(MetricBatchCodec.isBinaryExact(Arrays.asList(metric)));
+        assertTrue(message.startsWith("["));
+        assertEquals(1.5, codec.decode(message).get(0).getDatapoints().get(2000L).doubleValue(), 0.0);
+    }
+
+    @Test
+    public void testDecodeAcceptsBothFormats() throws IOException {
+        List<Metric> batch = createBatch(10, 10);
+        MetricBatchCodec jsonCodec = new MetricBatchCodec(WireFormat.JSON);
+        MetricBatchCodec binaryCodec = new MetricBatchCodec(WireFormat.BINARY);
+
+        assertMetricsEqual(batch, binaryCodec.decode(jsonCodec.encode(batch)));
+        assertMetricsEqual(batch, jsonCodec.decode(binaryCodec.encode(batch)));
+    }
+
+    @Test
+    public void testBinaryIsSmallerThanJson() {
+        List<Metric> batch = createBatch(50, 60);
+
+        assertEquals(true,
+            new MetricBatchCodec(WireFormat.BINARY).encode(batch).length() < new MetricBatchCodec(WireFormat.JSON).encode(batch).length() / 2);
+    }
+
+    @Test
+    public void testEmptyBatch() throws IOException {
+        byte[] bytes = MetricBatchCodec.encodeBinary(new ArrayList<Metric>());
+
+        assertArrayEquals(new byte[] { MetricBatchCodec.BINARY_VERSION, 0, 0 }, bytes);
+        assertEquals(0, MetricBatchCodec.decodeBinary(bytes).size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownVersionIsRejected() throws IOException {
+        byte[] bytes = MetricBatchCodec.encodeBinary(createBatch(1, 1));
+
+        bytes[0] = (byte) (MetricBatchCodec.BINARY_VERSION + 1);
+        MetricBatchCodec.decodeBinary(bytes);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedBatchIsRejected() throws IOException {
+        byte[] bytes = MetricBatchCodec.encodeBinary(createBatch(2, 10));
+
+        MetricBatchCodec.decodeBinary(Arrays.copyOf(bytes, bytes.length - 3));
+    }
+}
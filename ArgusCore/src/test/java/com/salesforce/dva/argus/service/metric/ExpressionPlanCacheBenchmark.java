@@ -0,0 +1,98 @@
+package com.salesforce.dva.argus.service.metric;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import com.salesforce.dva.argus.service.DiscoveryService;
+import com.salesforce.dva.argus.service.MonitorService;
+import com.salesforce.dva.argus.service.TSDBService;
+import com.salesforce.dva.argus.service.tsdb.MetricQuery;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Compares preparing the expressions of the {@link MetricReaderTest} corpus for evaluation by validating and parsing them on every request, as
+ * the metric service used to, with getting their plans from an {@link ExpressionPlanCache} and binding them to the request time. Fetching is
+ * not measured. It is not run as part of the test suite. Run it from the test classpath with an optional number of iterations as the only
+ * argument.
+ *
+ * @author  a.chambers
+ */
+public class ExpressionPlanCacheBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final String[] CORPUS = new String[] {
+        "MetricReaderTest.testValidExpressions.properties", "MetricReaderTest.testWildcardExpressions.properties",
+        "MetricReaderTest.testFunctionsWithConstant.properties"
+    };
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        MetricReader<MetricQuery> reader = new MetricReader<>(mock(TSDBService.class), mock(DiscoveryService.class), null);
+        ExpressionPlanCache cache = new ExpressionPlanCache(Long.MAX_VALUE, mock(MonitorService.class));
+        List<String> expressions = _readCorpus(reader);
+
+        _parse(reader, expressions, WARMUP_ITERATIONS);
+        _bindCached(reader, cache, expressions, WARMUP_ITERATIONS);
+
+        long parseNanos = System.nanoTime();
+
+        _parse(reader, expressions, iterations);
+        parseNanos = System.nanoTime() - parseNanos;
+
+        long cachedNanos = System.nanoTime();
+
+        _bindCached(reader, cache, expressions, iterations);
+        cachedNanos = System.nanoTime() - cachedNanos;
+
+        long evaluations = (long) iterations * expressions.size();
+
+        System.out.println(String.format("expressions=%d  parse=%8.2f us/expression  cached=%8.2f us/expression  speedup=%.1fx", expressions.size(),
+                parseNanos / 1000.0 / evaluations, cachedNanos / 1000.0 / evaluations, (double) parseNanos / cachedNanos));
+    }
+
+    private static void _parse(MetricReader<MetricQuery> reader, List<String> expressions, int iterations) throws ParseException {
+        for (int i = 0; i < iterations; i++) {
+            for (String expression : expressions) {
+                if (MetricReader.isValid(expression)) {
+                    ExpressionPlan.bind(Arrays.asList(reader.compile(expression)), i);
+                }
+            }
+        }
+    }
+
+    private static void _bindCached(MetricReader<MetricQuery> reader, ExpressionPlanCache cache, List<String> expressions, int iterations)
+        throws ParseException {
+        for (int i = 0; i < iterations; i++) {
+            for (String expression : expressions) {
+                ExpressionPlan.bind(cache.getPlans(Arrays.asList(expression), reader), i);
+            }
+        }
+    }
+
+    /* Expressions that are valid syntax but cannot be compiled, such as unknown downsamplers, are left out. */
+    private static List<String> _readCorpus(MetricReader<MetricQuery> reader) throws IOException {
+        List<String> expressions = new ArrayList<>();
+
+        for (String fileName : CORPUS) {
+            Properties properties = new Properties();
+
+            try(InputStream is = MetricReaderTest.class.getResourceAsStream(fileName)) {
+                properties.load(is);
+            }
+            for (Object expression : properties.values()) {
+                try {
+                    reader.compile((String) expression);
+                    expressions.add((String) expression);
+                } catch (Exception | TokenMgrError ex) {
+                    System.out.println("Skipped " + expression + ": " + ex.getMessage());
+                }
+            }
+        }
+        return expressions;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2018, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.dva.argus.service.metric;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.salesforce.dva.argus.service.DiscoveryService;
+import com.salesforce.dva.argus.service.MonitorService;
+import com.salesforce.dva.argus.service.MonitorService.Counter;
+import com.salesforce.dva.argus.service.TSDBService;
+import com.salesforce.dva.argus.service.tsdb.MetricQuery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ExpressionPlanCacheTest {
+
+	private MonitorService _monitorService;
+	private MetricReader<MetricQuery> _reader;
+	private ExpressionPlanCache _cache;
+
+	@Before
+	public void setUp() {
+		DiscoveryService discoveryService = mock(DiscoveryService.class);
+
+		when(discoveryService.getMatchingQueries(any(MetricQuery.class))).thenAnswer(invocation ->
+			Arrays.asList((MetricQuery) invocation.getArguments()[0]));
+		_monitorService = mock(MonitorService.class);
+		_reader = new MetricReader<>(mock(TSDBService.class), discoveryService, null);
+		_cache = new ExpressionPlanCache(10, _monitorService);
+	}
+
+	@Test
+	public void testCachedPlanIsBoundToEachRelativeTime() throws Exception {
+		List<String> expressions = Arrays.asList("SUM(-1h:scope:metric:avg, 1000:2000:scope:metric:avg)");
+		List<ExpressionPlan> first = _cache.getPlans(expressions, _reader);
+		List<ExpressionPlan> second = _cache.getPlans(Arrays.asList(" " + expressions.get(0) + " "), _reader);
+
+		assertSame(first.get(0), second.get(0));
+		assertEquals(1, _cache.size());
+		verify(_monitorService).modifyCounter(Counter.METRIC_EXPRESSION_PLAN_CACHE_MISSES, 1, null);
+		verify(_monitorService).modifyCounter(Counter.METRIC_EXPRESSION_PLAN_CACHE_HITS, 1, null);
+
+		for (long relativeTo : new long[] { 7200500L, 10800500L }) {
+			List<MetricQuery> queries = _reader.evaluate(second, relativeTo, MetricQuery.class);
+
+			assertEquals(2, queries.size());
+			assertEquals((relativeTo - 3600000L) / 1000 * 1000, queries.get(0).getStartTimestamp().longValue());
+			assertEquals(relativeTo, queries.get(0).getEndTimestamp().longValue());
+			assertEquals(1000L, queries.get(1).getStartTimestamp().longValue());
+			assertEquals(2000L, queries.get(1).getEndTimestamp().longValue());
+		}
+	}
+
+	@Test
+	public void testInvalidExpressionIsNotCached() throws Exception {
+		try {
+			_cache.getPlans(Arrays.asList("SUM(-1h:scope:metric:avg"), _reader);
+			fail("Expected a ParseException.");
+		} catch (ParseException ex) {
+			assertEquals(0, _cache.size());
+		}
+	}
+}
@@ -31,15 +31,36 @@
      
 package com.salesforce.dva.argus.service.metric;
 
+import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.service.DiscoveryService;
+import com.salesforce.dva.argus.service.TSDBService;
+import com.salesforce.dva.argus.service.metric.transform.TransformFactory;
+import com.salesforce.dva.argus.service.tsdb.MetricQuery;
+import com.salesforce.dva.argus.service.tsdb.MetricQuery.Aggregator;
 import com.salesforce.dva.argus.system.SystemException;
 import org.junit.Test;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class MetricReaderTest {
 
@@ -93,6 +114,102 @@ public class MetricReaderTest {
         }
     }
 
+    @Test
+    public void testPrefetchedMetricsAreCopied() throws Exception {
+        TSDBService tsdbService = mock(TSDBService.class);
+        DiscoveryService discoveryService = mock(DiscoveryService.class);
+
+        when(discoveryService.getMatchingQueries(any(MetricQuery.class))).thenAnswer(invocation ->
+            Arrays.asList((MetricQuery) invocation.getArguments()[0]));
+
+        MetricQuery query = new MetricQuery("scope", "metric", new HashMap<String, String>(), 1000L, 2000L);
+        Metric metric = new Metric("scope", "metric");
+        Map<Long, Number> datapoints = new HashMap<>();
+
+        query.setAggregator(Aggregator.AVG);
+        datapoints.put(1000L, 1.0);
+        metric.setDatapoints(datapoints);
+
+        MetricReader<Metric> reader = new MetricReader<>(tsdbService, discoveryService, null);
+
+        reader.setPrefetchedMetrics(Collections.singletonMap(query, Arrays.asList(metric)));
+
+        List<Metric> result = reader.parse("1000:2000:scope:metric:avg", System.currentTimeMillis(), Metric.class);
+
+        assertEquals(1, result.size());
+        assertEquals(metric, result.get(0));
+        assertEquals(datapoints, result.get(0).getDatapoints());
+        assertNotSame(metric, result.get(0));
+        verify(tsdbService, never()).getMetrics(anyListOf(MetricQuery.class));
+    }
+
+    @Test
+    public void testSharedSubExpressionsAreFetchedOnce() throws Exception {
+        TSDBService tsdbService = mock(TSDBService.class);
+        DiscoveryService discoveryService = mock(DiscoveryService.class);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        when(discoveryService.getMatchingQueries(any(MetricQuery.class))).thenAnswer(invocation ->
+            Arrays.asList((MetricQuery) invocation.getArguments()[0]));
+        when(tsdbService.getMetrics(anyListOf(MetricQuery.class))).thenAnswer(invocation -> {
+            MetricQuery query = ((List<MetricQuery>) invocation.getArguments()[0]).get(0);
+            Metric metric = new Metric("scope", "metric");
+
+            metric.setDatapoints(Collections.singletonMap(1000L, (Number) 1.0));
+            return Collections.singletonMap(query, Arrays.asList(metric));
+        });
+
+        MetricReader<Metric> reader = new MetricReader<>(tsdbService, discoveryService, new TransformFactory(tsdbService));
+
+        reader.setExecutor(executor);
+        try {
+            List<Metric> result = reader.parse(Arrays.asList("SCALE(1000:2000:scope:metric:avg, #2#)", "1000:2000:scope:metric:avg"), 3000L,
+                Metric.class);
+
+            assertEquals(2, result.size());
+            assertEquals(2.0, result.get(0).getDatapoints().get(1000L).doubleValue(), 0.0);
+            assertEquals(1.0, result.get(1).getDatapoints().get(1000L).doubleValue(), 0.0);
+            assertEquals(0, reader.getNumDiscoveryQueries().intValue());
+            verify(tsdbService, times(1)).getMetrics(anyListOf(MetricQuery.class));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDiscoveredQueriesAreReused() throws Exception {
+        TSDBService tsdbService = mock(TSDBService.class);
+        DiscoveryService discoveryService = mock(DiscoveryService.class);
+        MetricQuery expandedQuery = new MetricQuery("scope", "metric1", new HashMap<String, String>(), 1000L, 2000L);
+
+        expandedQuery.setAggregator(Aggregator.AVG);
+        when(discoveryService.getMatchingQueries(any(MetricQuery.class))).thenReturn(Arrays.asList(expandedQuery));
+        when(tsdbService.getMetrics(anyListOf(MetricQuery.class))).thenAnswer(invocation -> {
+            Metric metric = new Metric("scope", "metric1");
+
+            metric.setDatapoints(Collections.singletonMap(1000L, (Number) 1.0));
+            return Collections.singletonMap(expandedQuery, Arrays.asList(metric));
+        });
+
+        Map<MetricQuery, List<MetricQuery>> discoveredQueries = new HashMap<>();
+        MetricReader<MetricQuery> queryReader = new MetricReader<>(tsdbService, discoveryService, null);
+
+        queryReader.setDiscoveredQueries(discoveredQueries);
+        assertEquals(Arrays.asList(expandedQuery), queryReader.parse("1000:2000:scope:metric*:avg", 3000L, MetricQuery.class));
+        assertEquals(1, discoveredQueries.size());
+
+        MetricReader<Metric> metricReader = new MetricReader<>(tsdbService, discoveryService, null);
+
+        metricReader.setDiscoveredQueries(discoveredQueries);
+
+        List<Metric> result = metricReader.parse("1000:2000:scope:metric*:avg", 3000L, Metric.class);
+
+        assertEquals(1, result.size());
+        assertEquals("metric1", result.get(0).getMetric());
+        assertEquals(1, metricReader.getNumDiscoveryQueries().intValue());
+        verify(discoveryService, times(1)).getMatchingQueries(any(MetricQuery.class));
+    }
+
     private Properties readFile(String fileName) {
         if ((fileName != null) && !fileName.isEmpty()) {
             Properties result = new Properties();
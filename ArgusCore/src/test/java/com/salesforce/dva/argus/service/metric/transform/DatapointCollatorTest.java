@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+	 
+
+package com.salesforce.dva.argus.service.metric.transform;
+
+import com.salesforce.dva.argus.entity.DatapointSeries;
+import com.salesforce.dva.argus.entity.Metric;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DatapointCollatorTest {
+
+    private static Metric _createMetric(Object... timestampsAndValues) {
+        Metric metric = new Metric("scope", "metric");
+        DatapointSeries series = new DatapointSeries();
+
+        for (int i = 0; i < timestampsAndValues.length; i += 2) {
+            series.put((Long) timestampsAndValues[i], (Number) timestampsAndValues[i + 1]);
+        }
+        metric.setDatapointSeries(series);
+        return metric;
+    }
+
+    private static List<Metric> _createMetrics() {
+        return Arrays.asList(_createMetric(1000L, 1L, 2000L, 2.5, 4000L, null),
+            _createMetric(2000L, 3L, 3000L, -7L, 4000L, 4L),
+            _createMetric(1000L, 0.5, 3000L, null, 4000L, 9L));
+    }
+
+    @Test
+    public void testCollateOrder() {
+        DatapointCollator collator = new DatapointCollator(_createMetrics());
+        List<Long> timestamps = new ArrayList<>();
+        List<List<Number>> values = new ArrayList<>();
+
+        while (collator.next()) {
+            timestamps.add(collator.timestamp());
+            values.add(collator.values());
+        }
+        assertEquals(Arrays.asList(1000L, 2000L, 3000L, 4000L), timestamps);
+        assertEquals(Arrays.<Number>asList(1L, 0.5), values.get(0));
+        assertEquals(Arrays.<Number>asList(2.5, 3L), values.get(1));
+        assertEquals(Arrays.<Number>asList(-7L, null), values.get(2));
+        assertEquals(Arrays.<Number>asList(null, 4L, 9L), values.get(3));
+    }
+
+    @Test
+    public void testAccumulatorsMatchReducers() {
+        List<AccumulatingValueReducer> reducers = Arrays.asList(new SumValueReducerOrMapping(), new AverageValueReducer(), new MaxValueReducer(),
+            new MinValueReducer(), new ScaleValueReducerOrMapping(), new RangeValueReducerOrMapping());
+
+        for (AccumulatingValueReducer reducer : reducers) {
+            DatapointCollator collator = new DatapointCollator(_createMetrics());
+            ValueAccumulator accumulator = reducer.accumulator(null);
+
+            assertTrue(collator.hasOnlyPrimitiveValues());
+            while (collator.next()) {
+                Number expected = reducer instanceof ValueReducer ? ValueReducer.class.cast(reducer).reduce(collator.values())
+                                                                  : ValueReducerOrMapping.class.cast(reducer).reduce(collator.values());
+
+                accumulator.reset();
+                collator.accumulate(accumulator);
+                assertEquals(reducer.getClass().getSimpleName(), expected, accumulator.result());
+            }
+        }
+    }
+
+    @Test
+    public void testPercentileAccumulatorMatchesReducer() {
+        PercentileValueReducerOrMapping reducer = new PercentileValueReducerOrMapping();
+        List<String> constants = Arrays.asList("90");
+        DatapointCollator collator = new DatapointCollator(Arrays.asList(_createMetric(1000L, 1.0, 2000L, 5.0),
+                _createMetric(1000L, 3.0, 2000L, 6.0), _createMetric(1000L, 2.0)));
+        ValueAccumulator accumulator = reducer.accumulator(constants);
+
+        while (collator.next()) {
+            Number expected = reducer.reduce(collator.values(), constants);
+
+            accumulator.reset();
+            collator.accumulate(accumulator);
+            assertEquals(expected, accumulator.result());
+        }
+    }
+
+    @Test
+    public void testIntegerValuesAreNotPrimitive() {
+        Metric metric = _createMetric(1000L, 1L);
+
+        metric.getDatapointSeries().put(2000L, (Number) Integer.valueOf(2));
+        assertFalse(new DatapointCollator(Arrays.asList(metric)).hasOnlyPrimitiveValues());
+    }
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
@@ -128,6 +128,46 @@ public class MovingTransformTest {
         assertEquals(result.get(0).getDatapoints(), actual);
     }
     
+    @Test
+    public void testMovingPercentileTransformWithTimeInterval() {
+        Transform movingTransform = new MetricMappingTransform(new MovingValueMapping());
+        Map<Long, Number> datapoints = new HashMap<Long, Number>();
+
+        datapoints.put(1000L, 3L);
+        datapoints.put(2000L, 1L);
+        datapoints.put(3000L, 2L);
+        datapoints.put(4000L, 5L);
+        datapoints.put(5000L, 4L);
+
+        Map<Long, Double> expected = new HashMap<Long, Double>();
+
+        expected.put(1000L, 3.0);
+        expected.put(2000L, 1.4);
+        expected.put(3000L, 1.6);
+        expected.put(4000L, 1.6);
+        expected.put(5000L, 3.2);
+
+        Metric metric = new Metric(TEST_SCOPE, TEST_METRIC);
+
+        metric.setDatapoints(datapoints);
+
+        List<Metric> metrics = new ArrayList<Metric>();
+
+        metrics.add(metric);
+
+        List<String> constants = new ArrayList<String>(1);
+
+        constants.add("3s");
+        constants.add("p40");
+
+        Map<Long, Number> result = movingTransform.transform(metrics, constants).get(0).getDatapoints();
+
+        assertEquals(expected.size(), result.size());
+        for (Map.Entry<Long, Double> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), result.get(entry.getKey()).doubleValue(), 1e-9);
+        }
+    }
+
     @Test
     public void testMovingSumTransformWithTimeInterval() {
         Transform movingTransform = new MetricMappingTransform(new MovingValueMapping());
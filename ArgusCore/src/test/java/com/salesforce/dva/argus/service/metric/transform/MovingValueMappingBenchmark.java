@@ -0,0 +1,86 @@
+package com.salesforce.dva.argus.service.metric.transform;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.salesforce.dva.argus.entity.NumberOperations;
+
+/**
+ * Compares the MOVING median of {@link MovingValueMapping}, which selects from a {@link SlidingWindowOrderStatistics}, with the previous
+ * implementation, which kept the window in a list and sorted it at every step. The series has a data point every 10 seconds. It is not run as
+ * part of the test suite. Run it from the test classpath with an optional number of data points as the only argument.
+ *
+ * @author  a.chambers
+ */
+public class MovingValueMappingBenchmark {
+
+    private static final long INTERVAL_MILLIS = 10000;
+    private static final String[] WINDOWS = new String[] { "10m", "1h", "6h" };
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        Random random = new Random(42);
+        Map<Long, Number> datapoints = new HashMap<>();
+
+        for (int i = 0; i < size; i++) {
+            datapoints.put(i * INTERVAL_MILLIS, random.nextInt(1000) / 10.0);
+        }
+
+        MovingValueMapping mapping = new MovingValueMapping();
+
+        for (String window : WINDOWS) {
+            List<String> constants = Arrays.asList(window, "median");
+            long windowMillis = Long.parseLong(window.substring(0, window.length() - 1)) * (window.endsWith("h") ? 3600000 : 60000);
+
+            // warm up both implementations before timing them
+            mapping.mapping(datapoints, constants);
+            _legacyMovingMedian(datapoints, windowMillis);
+
+            long nanos = System.nanoTime();
+            Map<Long, Number> result = mapping.mapping(datapoints, constants);
+
+            nanos = System.nanoTime() - nanos;
+
+            long legacyNanos = System.nanoTime();
+            TreeMap<Long, Number> legacy = _legacyMovingMedian(datapoints, windowMillis);
+
+            legacyNanos = System.nanoTime() - legacyNanos;
+            System.out.println(String.format("points=%d  window=%-4s  order statistics=%9.1f ms  sorted list=%9.1f ms  speedup=%.1fx  same=%s", size,
+                    window, nanos / 1e6, legacyNanos / 1e6, (double) legacyNanos / nanos, _same(result, legacy)));
+        }
+    }
+
+    /* The window handling of the previous implementation, past the first window. */
+    private static TreeMap<Long, Number> _legacyMovingMedian(Map<Long, Number> datapoints, long windowMillis) {
+        TreeMap<Long, Number> sorted = new TreeMap<>(datapoints);
+        Long[] timestamps = sorted.keySet().toArray(new Long[sorted.size()]);
+        List<Number> window = new ArrayList<>();
+        TreeMap<Long, Number> result = new TreeMap<>();
+
+        for (int head = 0, tail = 0; head < timestamps.length; head++) {
+            window.add(sorted.get(timestamps[head]));
+            while (timestamps[head] - timestamps[tail] >= windowMillis) {
+                window.remove(sorted.get(timestamps[tail++]));
+            }
+            result.put(timestamps[head], NumberOperations.findMedian(window.toArray(new Number[window.size()])));
+        }
+        return result;
+    }
+
+    /* The first window of MOVING is evaluated differently, so only the second half of the series is compared. */
+    private static boolean _same(Map<Long, Number> result, TreeMap<Long, Number> legacy) {
+        long middle = legacy.firstKey() + (legacy.lastKey() - legacy.firstKey()) / 2;
+
+        for (Map.Entry<Long, Number> entry : legacy.tailMap(middle, false).entrySet()) {
+            if (Math.abs(entry.getValue().doubleValue() - result.get(entry.getKey()).doubleValue()) > 1e-9) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
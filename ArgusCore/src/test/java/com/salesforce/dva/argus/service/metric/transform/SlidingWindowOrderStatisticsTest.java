@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.dva.argus.service.metric.transform;
+
+import org.apache.commons.math3.stat.descriptive.rank.Percentile;
+import org.junit.Test;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class SlidingWindowOrderStatisticsTest {
+
+    @Test
+    public void testSelectAndPercentileMatchSortedWindow() {
+        Random random = new Random(42);
+        double[] values = new double[2000];
+
+        for (int i = 0; i < values.length; i++) {
+            // few distinct values, so that the window holds many duplicates
+            values[i] = random.nextInt(50) - 25;
+        }
+
+        SlidingWindowOrderStatistics window = new SlidingWindowOrderStatistics(values);
+        Percentile percentile = new Percentile();
+        int tail = 0;
+
+        for (int head = 0; head < values.length; head++) {
+            window.add(head);
+            // the window grows and shrinks, so that the selected ranks move in both directions
+            while (head - tail >= 1 + (head / 100 % 2 == 0 ? 10 : 60)) {
+                window.remove(tail++);
+            }
+
+            double[] sorted = Arrays.copyOfRange(values, tail, head + 1);
+
+            Arrays.sort(sorted);
+            assertEquals(sorted.length, window.size());
+            assertEquals(sorted[sorted.length / 2], values[window.select(sorted.length / 2 + 1)], 0.0);
+            for (double p : new double[] { 1, 25, 50, 90, 99, 100 }) {
+                assertEquals(percentile.evaluate(sorted, p), window.percentile(p), 1e-9);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRemovedIndexCannotBeAddedAgain() {
+        SlidingWindowOrderStatistics window = new SlidingWindowOrderStatistics(new double[] { 1, 2 });
+
+        window.add(0);
+        window.remove(0);
+        window.add(0);
+    }
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
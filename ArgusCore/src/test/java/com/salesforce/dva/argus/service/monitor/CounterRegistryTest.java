@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2018, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.dva.argus.service.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.salesforce.dva.argus.entity.Metric;
+
+public class CounterRegistryTest {
+
+	@Test
+	public void testAddAndSet() {
+		CounterRegistry registry = new CounterRegistry(4);
+		Map<String, String> tags = new HashMap<>();
+
+		tags.put("type", "a");
+		assertEquals(2L, registry.add("test.counter", tags, 2));
+		assertEquals(5L, registry.add("test.counter", new HashMap<>(tags), 3L));
+		assertEquals(5.5, registry.add("test.counter", tags, 0.5).doubleValue(), 0.0);
+		assertNull(registry.get("test.counter", null));
+		registry.set("test.gauge", null, 7.0);
+		assertEquals(7.0, registry.get("test.gauge", Collections.<String, String>emptyMap()).doubleValue(), 0.0);
+		assertEquals(2, registry.size());
+	}
+
+	@Test
+	public void testSnapshotResetsAndEvictsIdleCounters() {
+		CounterRegistry registry = new CounterRegistry(4);
+
+		registry.add("test.counter", null, 1);
+		registry.add("cache.insert.dropped", null, 1);
+		registry.reset("argus.core");
+
+		Map<Metric, Number> snapshot = registry.snapshotAndReset("host1");
+
+		assertEquals(1, snapshot.size());
+
+		Metric metric = snapshot.keySet().iterator().next();
+
+		assertEquals("argus.custom", metric.getScope());
+		assertEquals("host1", metric.getTag("host"));
+		assertEquals(1L, snapshot.get(metric));
+		assertNull(registry.get("test.counter", null));
+		assertTrue(registry.snapshotAndReset("host1").isEmpty());
+		assertEquals(1, registry.size());
+		registry.snapshotAndReset("host1");
+		assertEquals(0, registry.size());
+	}
+
+	@Test
+	public void testSnapshotPublishesHistogramPercentiles() {
+		CounterRegistry registry = new CounterRegistry(4);
+
+		for (int i = 1; i <= 100; i++) {
+			registry.record("alerts.evaluation.latency", null, i);
+		}
+		assertEquals(100, registry.getHistogram("alerts.evaluation.latency", null).getCount());
+
+		Map<Metric, Number> snapshot = registry.snapshotAndReset("host1");
+		Map<String, Number> values = new HashMap<>();
+
+		for (Map.Entry<Metric, Number> entry : snapshot.entrySet()) {
+			assertEquals("argus.core", entry.getKey().getScope());
+			values.put(entry.getKey().getMetric(), entry.getValue());
+		}
+		assertEquals(4, values.size());
+		assertEquals(50L, values.get("alerts.evaluation.latency.p50"));
+		assertEquals(91L, values.get("alerts.evaluation.latency.p90"));
+		assertEquals(99L, values.get("alerts.evaluation.latency.p99"));
+		assertEquals(100L, values.get("alerts.evaluation.latency.max"));
+		assertNull(registry.getHistogram("alerts.evaluation.latency", null));
+	}
+
+	@Test
+	public void testConcurrentAddsAreCountedOnceAcrossSnapshots() throws InterruptedException {
+		CounterRegistry registry = new CounterRegistry(8);
+		int workerCount = 8;
+		int iterations = 100000;
+		CountDownLatch gate = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(workerCount);
+		AtomicBoolean running = new AtomicBoolean(true);
+		Thread[] workers = new Thread[workerCount];
+		long total = 0;
+
+		for (int i = 0; i < workerCount; i++) {
+			workers[i] = new Thread(() -> {
+				try {
+					gate.await();
+					for (int j = 0; j < iterations; j++) {
+						registry.add("test.counter", null, 1);
+					}
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				} finally {
+					done.countDown();
+				}
+			});
+			workers[i].start();
+		}
+		gate.countDown();
+		while (running.get()) {
+			running.set(done.getCount() > 0);
+			for (Number value : registry.snapshotAndReset("host1").values()) {
+				total += value.longValue();
+			}
+		}
+		assertEquals((long) workerCount * iterations, total);
+	}
+}
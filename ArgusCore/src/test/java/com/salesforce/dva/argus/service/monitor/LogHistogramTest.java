@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.dva.argus.service.monitor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LogHistogramTest {
+
+	@Test
+	public void testSmallValuesAreExact() {
+		LogHistogram histogram = new LogHistogram();
+
+		for (int i = 1; i <= 50; i++) {
+			histogram.record(i);
+		}
+		assertEquals(50, histogram.getCount());
+		assertEquals(25, histogram.getValueAtPercentile(50));
+		assertEquals(45, histogram.getValueAtPercentile(90));
+		assertEquals(50, histogram.getValueAtPercentile(100));
+		assertEquals(50, histogram.getMax());
+	}
+
+	@Test
+	public void testPercentilesAreWithinBucketResolution() {
+		LogHistogram histogram = new LogHistogram();
+		Random random = new Random(7);
+		long[] values = new long[100000];
+
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (long) Math.exp(random.nextDouble() * 16);
+			histogram.record(values[i]);
+		}
+		Arrays.sort(values);
+		for (double percentile : new double[] { 50, 90, 99, 99.9 }) {
+			long expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+			long actual = histogram.getValueAtPercentile(percentile);
+
+			assertTrue(percentile + ": " + expected + " vs " + actual, Math.abs(actual - expected) <= Math.max(1, expected / 16));
+		}
+		assertEquals(values[values.length - 1], histogram.getMax());
+	}
+
+	@Test
+	public void testMergeAndDrain() {
+		LogHistogram first = new LogHistogram();
+		LogHistogram second = new LogHistogram();
+		LogHistogram merged = new LogHistogram();
+
+		first.record(10);
+		first.record(-5);
+		second.record(1000);
+		second.record(Long.MAX_VALUE);
+		merged.merge(first);
+		merged.merge(second);
+		assertEquals(2, first.getCount());
+		assertEquals(4, merged.getCount());
+		assertEquals(LogHistogram.MAX_VALUE, merged.getMax());
+
+		LogHistogram drained = new LogHistogram();
+
+		assertEquals(4, merged.drainTo(drained));
+		assertEquals(0, merged.getCount());
+		assertEquals(0, merged.getMax());
+		assertEquals(0, drained.getValueAtPercentile(25));
+		assertEquals(10, drained.getValueAtPercentile(50));
+		assertEquals(LogHistogram.MAX_VALUE, drained.getValueAtPercentile(100));
+	}
+}
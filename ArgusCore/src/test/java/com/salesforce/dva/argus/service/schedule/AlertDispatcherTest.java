@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2016, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.dva.argus.service.schedule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.salesforce.dva.argus.entity.Alert;
+import com.salesforce.dva.argus.entity.PrincipalUser;
+
+public class AlertDispatcherTest {
+
+	@Test
+	public void testEveryAlertIsEnqueuedOnce() throws Exception {
+		List<Alert> alerts = _alerts(1000);
+		Set<Alert> enqueued = Collections.newSetFromMap(new ConcurrentHashMap<Alert, Boolean>());
+		List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+		CountDownLatch done = new CountDownLatch(alerts.size());
+		AlertDispatcher dispatcher = new AlertDispatcher(4, 50, 10, 50, 1000, batch -> {
+			batchSizes.add(batch.size());
+			for (Alert alert : batch) {
+				assertTrue(enqueued.add(alert));
+				done.countDown();
+			}
+		}, Executors.defaultThreadFactory());
+
+		try {
+			dispatcher.dispatch(alerts.subList(0, 300), System.currentTimeMillis());
+			dispatcher.dispatch(alerts.subList(300, 1000), System.currentTimeMillis());
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			assertEquals(new HashSet<>(alerts), enqueued);
+			assertEquals(0, dispatcher.size());
+			for (int batchSize : batchSizes) {
+				assertTrue(batchSize <= 50);
+			}
+		} finally {
+			dispatcher.shutdown();
+		}
+	}
+
+	@Test
+	public void testIdleWorkersStealFromABlockedWorker() throws Exception {
+		List<Alert> alerts = _alerts(400);
+		CountDownLatch blocked = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(alerts.size() - 10);
+		AlertDispatcher dispatcher = new AlertDispatcher(2, 10, 10, 10, 1000, batch -> {
+			if (blocked.getCount() > 0) {
+				blocked.countDown();
+				_await(release);
+			} else {
+				for (int i = 0; i < batch.size(); i++) {
+					done.countDown();
+				}
+			}
+		}, Executors.defaultThreadFactory());
+
+		try {
+			dispatcher.dispatch(alerts, System.currentTimeMillis());
+			assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+			// the other worker drains both deques while the first is stuck in its first enqueue
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			assertEquals(0, dispatcher.size());
+		} finally {
+			release.countDown();
+			dispatcher.shutdown();
+		}
+	}
+
+	@Test
+	public void testBatchSizeAdaptsToEnqueueLatency() throws Exception {
+		CountDownLatch slow = new CountDownLatch(200);
+		AlertDispatcher dispatcher = new AlertDispatcher(1, 64, 8, 128, 20, batch -> {
+			_sleep(50);
+			for (int i = 0; i < batch.size(); i++) {
+				slow.countDown();
+			}
+		}, Executors.defaultThreadFactory());
+
+		try {
+			dispatcher.dispatch(_alerts(200), System.currentTimeMillis() - 5000);
+			assertTrue(slow.await(10, TimeUnit.SECONDS));
+			assertEquals(8, dispatcher.getBatchSize());
+			assertTrue(dispatcher.getAndResetMaxDispatchLag() >= 5000);
+			assertTrue(dispatcher.getAndResetAverageDispatchLag() >= 5000);
+			assertEquals(0, dispatcher.getAndResetMaxDispatchLag());
+		} finally {
+			dispatcher.shutdown();
+		}
+
+		CountDownLatch fast = new CountDownLatch(2000);
+
+		dispatcher = new AlertDispatcher(1, 8, 8, 128, 1000, batch -> {
+			for (int i = 0; i < batch.size(); i++) {
+				fast.countDown();
+			}
+		}, Executors.defaultThreadFactory());
+		try {
+			dispatcher.dispatch(_alerts(2000), System.currentTimeMillis());
+			assertTrue(fast.await(10, TimeUnit.SECONDS));
+			assertEquals(128, dispatcher.getBatchSize());
+		} finally {
+			dispatcher.shutdown();
+		}
+	}
+
+	@Test
+	public void testShutdownReportsDroppedAlerts() throws Exception {
+		CountDownLatch blocked = new CountDownLatch(1);
+		AlertDispatcher dispatcher = new AlertDispatcher(1, 10, 10, 10, 1000, batch -> {
+			blocked.countDown();
+			_await(new CountDownLatch(1));
+		}, Executors.defaultThreadFactory());
+
+		dispatcher.dispatch(_alerts(100), System.currentTimeMillis());
+		assertTrue(blocked.await(10, TimeUnit.SECONDS));
+		assertEquals(90, dispatcher.shutdown());
+		assertEquals(0, dispatcher.size());
+	}
+
+	private static List<Alert> _alerts(int count) {
+		PrincipalUser user = new PrincipalUser(null, "user", "user@mycompany.abc");
+		List<Alert> alerts = new ArrayList<>(count);
+
+		for (int i = 0; i < count; i++) {
+			alerts.add(new Alert(user, user, "alert" + i, "-1h:scope:metric:avg", "* * * * *"));
+		}
+		return alerts;
+	}
+
+	private static void _await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void _sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
+/* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */
@@ -3,6 +3,9 @@ package com.salesforce.dva.argus.service.schema;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.Calendar;
 import java.util.HashSet;
 import java.util.List;
@@ -16,6 +19,7 @@ import org.mockito.stubbing.Answer;
 
 import com.salesforce.dva.argus.AbstractTest;
 import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.system.SystemConfiguration;
 
 
 /**
@@ -180,6 +184,43 @@ public class AbstractSchemaServiceTest extends AbstractTest {
 		metricsCount = 0;
 	}
 
+	@Test
+	public void testBloomFiltersAreRestoredFromSnapshot() throws IOException {
+		SystemConfiguration config = system.getConfiguration();
+		File directory = Files.createTempDirectory("bloomfilter").toFile();
+
+		config.setProperty(AbstractSchemaService.Property.BLOOMFILTER_SNAPSHOT_DIRECTORY.getName(), directory.getAbsolutePath());
+		try {
+			List<Metric> metrics = createRandomMetrics("test-scope", "test-metric", 10);
+			Set<String> scopeNames = new HashSet<>();
+			Set<Pair<String, String>> scopeAndMetricNames = new HashSet<>();
+
+			for (Metric m : metrics) {
+				scopeNames.add(m.getScope());
+				scopeAndMetricNames.add(Pair.of(m.getScope(), m.getMetric()));
+			}
+
+			ElasticSearchSchemaService service = new ElasticSearchSchemaService(config, system.getServiceFactory().getMonitorService());
+
+			service._addToBloomFilter(service._fracture(metrics).get(0));
+			service._addToBloomFilterScopeAndMetricOnly(service._fractureScopeAndMetrics(scopeAndMetricNames).get(0));
+			service._addToBloomFilterScopeOnly(service._fractureScopes(scopeNames).get(0));
+			service.dispose();
+			assertTrue(new File(directory, "schema-bloomfilters.snapshot").isFile());
+
+			ElasticSearchSchemaService spyService = _initializeSpyService(
+					new ElasticSearchSchemaService(config, system.getServiceFactory().getMonitorService()));
+
+			spyService.put(metrics);
+			assertEquals(0, metricsCount);
+			assertEquals(0, scopeAndMetricsCount);
+			assertEquals(0, scopesCount);
+		} finally {
+			new File(directory, "schema-bloomfilters.snapshot").delete();
+			directory.delete();
+		}
+	}
+
 	@Test
 	public void testNumHoursUntilNextFlushBloomFilter() {
 		ElasticSearchSchemaService service = new ElasticSearchSchemaService(system.getConfiguration(), system.getServiceFactory().getMonitorService());
@@ -40,5 +40,30 @@ public class CachedDiscoveryServiceTest extends AbstractTest {
 		CachedDiscoveryService service = new CachedDiscoveryService(cacheServiceMock, discoveryServiceMock, system.getConfiguration());
 		service.getMatchingQueries(new MetricQuery("scope*", "metric", null, System.currentTimeMillis() - (300 * 24 * 60 * 60 * 1000L), System.currentTimeMillis()));
 	}
+	
+	@Test
+	public void testEstimateTimeseriesCountFromCachedExpansion() {
+		
+		CacheService cacheServiceMock = mock(CacheService.class);
+		when(cacheServiceMock.get(anyString())).thenReturn(CACHED_QUERIES);
+		DiscoveryService discoveryServiceMock = mock(DiscoveryService.class);
+		
+		CachedDiscoveryService service = new CachedDiscoveryService(cacheServiceMock, discoveryServiceMock, system.getConfiguration());
+		assertEquals(30, service.estimateTimeseriesCount(new MetricQuery("scope*", "metric", null, System.currentTimeMillis() - 3600000L, System.currentTimeMillis())));
+		verify(discoveryServiceMock, never()).getMatchingQueries(any(MetricQuery.class));
+		verify(discoveryServiceMock, never()).estimateTimeseriesCount(any(MetricQuery.class));
+	}
+	
+	@Test
+	public void testEstimateTimeseriesCountWithoutCachedExpansion() {
+		
+		CacheService cacheServiceMock = mock(CacheService.class);
+		DiscoveryService discoveryServiceMock = mock(DiscoveryService.class);
+		when(discoveryServiceMock.estimateTimeseriesCount(any(MetricQuery.class))).thenReturn(7L);
+		
+		CachedDiscoveryService service = new CachedDiscoveryService(cacheServiceMock, discoveryServiceMock, system.getConfiguration());
+		assertEquals(7, service.estimateTimeseriesCount(new MetricQuery("scope*", "metric", null, System.currentTimeMillis() - 3600000L, System.currentTimeMillis())));
+		verify(discoveryServiceMock, never()).getMatchingQueries(any(MetricQuery.class));
+	}
 
 }
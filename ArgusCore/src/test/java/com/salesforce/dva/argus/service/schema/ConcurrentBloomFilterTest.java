@@ -0,0 +1,126 @@
+package com.salesforce.dva.argus.service.schema;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class ConcurrentBloomFilterTest {
+
+	@Test
+	public void testFalsePositiveRateIsWithinBounds() {
+		ConcurrentBloomFilter filter = new ConcurrentBloomFilter(8, 10000, 0.01);
+		Random random = new Random(7);
+
+		for (int i = 0; i < 10000; i++) {
+			filter.put(random.nextLong());
+		}
+
+		random = new Random(7);
+		for (int i = 0; i < 10000; i++) {
+			assertTrue(filter.mightContain(random.nextLong()));
+		}
+
+		int falsePositives = 0;
+
+		for (int i = 0; i < 100000; i++) {
+			if (filter.mightContain(random.nextLong())) {
+				falsePositives++;
+			}
+		}
+		assertTrue("False positives: " + falsePositives, falsePositives < 2000);
+		assertEquals(0.01, filter.expectedFpp(), 0.005);
+		assertEquals(10000, filter.approximateElementCount(), 500);
+	}
+
+	@Test
+	public void testConcurrentPutsAreNotLost() throws Exception {
+		final ConcurrentBloomFilter filter = new ConcurrentBloomFilter(4, 40000, 0.001);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<?>> futures = new ArrayList<>();
+
+		try {
+			for (int t = 0; t < 4; t++) {
+				final long seed = t;
+
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						Random random = new Random(seed);
+
+						for (int i = 0; i < 10000; i++) {
+							filter.put(random.nextLong());
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		for (int t = 0; t < 4; t++) {
+			Random random = new Random(t);
+
+			for (int i = 0; i < 10000; i++) {
+				assertTrue(filter.mightContain(random.nextLong()));
+			}
+		}
+	}
+
+	@Test
+	public void testSnapshotRoundTripKeepsFillRatio() throws IOException {
+		ConcurrentBloomFilter filter = new ConcurrentBloomFilter(4, 1000, 0.001);
+
+		assertTrue(filter.put(11L));
+		assertFalse(filter.put(11L));
+		filter.put(12L);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		filter.writeTo(new DataOutputStream(bytes));
+
+		ConcurrentBloomFilter restored = ConcurrentBloomFilter.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), 4, 1000,
+				0.001);
+
+		assertTrue(restored.mightContain(11L));
+		assertTrue(restored.mightContain(12L));
+		assertFalse(restored.mightContain(13L));
+		for (int shard = 0; shard < 4; shard++) {
+			assertEquals(filter.fillRatio(shard), restored.fillRatio(shard), 0.0);
+		}
+	}
+
+	@Test
+	public void testSnapshotWithDifferentDimensionsIsNotRead() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		// a header claiming far more shards and bits than configured
+		out.writeInt(Integer.MAX_VALUE);
+		out.writeLong(1L << 36);
+		out.writeInt(7);
+		assertNull(ConcurrentBloomFilter.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), 4, 1000, 0.001));
+
+		bytes.reset();
+		new ConcurrentBloomFilter(4, 1000, 0.001).writeTo(new DataOutputStream(bytes));
+		assertNull(ConcurrentBloomFilter.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), 4, 2000, 0.001));
+	}
+}
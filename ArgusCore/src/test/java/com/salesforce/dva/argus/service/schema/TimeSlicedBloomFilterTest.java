@@ -0,0 +1,80 @@
+package com.salesforce.dva.argus.service.schema;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class TimeSlicedBloomFilterTest {
+
+	@Test
+	public void testKeysExpireOneSliceAtATime() {
+		TimeSlicedBloomFilter filter = new TimeSlicedBloomFilter(3, 4, 1000, 0.0001);
+
+		filter.put(1L);
+		filter.rotate();
+		filter.put(2L);
+		assertTrue(filter.mightContain(1L));
+		assertTrue(filter.mightContain(2L));
+		filter.rotate();
+		assertTrue(filter.mightContain(1L));
+		filter.rotate();
+		assertFalse(filter.mightContain(1L));
+		assertTrue(filter.mightContain(2L));
+		filter.rotate();
+		assertFalse(filter.mightContain(2L));
+	}
+
+	@Test
+	public void testSnapshotRoundTrip() throws IOException {
+		TimeSlicedBloomFilter filter = new TimeSlicedBloomFilter(2, 4, 1000, 0.0001);
+
+		filter.put(3L);
+		filter.rotate();
+		filter.put(4L);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		filter.writeTo(out);
+
+		TimeSlicedBloomFilter restored = TimeSlicedBloomFilter.readFrom(new ByteArrayInputStream(out.toByteArray()), 2, 4, 1000, 0.0001);
+
+		assertTrue(restored.mightContain(3L));
+		assertTrue(restored.mightContain(4L));
+		assertFalse(restored.mightContain(5L));
+		restored.rotate();
+		assertFalse(restored.mightContain(3L));
+		assertTrue(restored.mightContain(4L));
+	}
+
+	@Test
+	public void testSnapshotWithDifferentDimensionsIsIgnored() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		new TimeSlicedBloomFilter(2, 4, 1000, 0.0001).writeTo(out);
+		assertNull(TimeSlicedBloomFilter.readFrom(new ByteArrayInputStream(out.toByteArray()), 3, 4, 1000, 0.0001));
+		assertNull(TimeSlicedBloomFilter.readFrom(new ByteArrayInputStream(out.toByteArray()), 2, 4, 2000, 0.0001));
+		assertNull(TimeSlicedBloomFilter.readFrom(new ByteArrayInputStream(out.toByteArray()), 2, 8, 1000, 0.0001));
+	}
+
+	@Test
+	public void testSkipRatioIsCountedPerShard() {
+		TimeSlicedBloomFilter filter = new TimeSlicedBloomFilter(2, 2, 1000, 0.0001);
+		long hash = 42L;
+		int shard = ConcurrentBloomFilter.shardOf(hash, 2);
+
+		filter.put(hash);
+		filter.mightContain(hash);
+		filter.mightContain(hash);
+		filter.mightContain(hash);
+		filter.mightContain(hash + 1);
+		assertEquals(0.75, filter.skipRatioAndReset(shard) + filter.skipRatioAndReset(1 - shard), 0.0);
+		assertEquals(0.0, filter.skipRatioAndReset(shard), 0.0);
+	}
+}
@@ -1,8 +1,16 @@
 package com.salesforce.dva.argus.service.tsdb;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.salesforce.dva.argus.AbstractTest;
+import com.salesforce.dva.argus.entity.Metric;
+import com.salesforce.dva.argus.system.SystemConfiguration;
+import com.sun.net.httpserver.HttpServer;
 import org.junit.Test;
 
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -10,6 +18,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.assertEquals;
 
@@ -61,6 +71,60 @@ public class AbstractTSDBServiceTest extends AbstractTest {
         }
     }
 
+    @Test
+    public void testPutRetriesOnlyFailedChunksOnAnotherEndpoint() throws Exception {
+        int deadPort;
+
+        try (ServerSocket socket = new ServerSocket(0)) {
+            deadPort = socket.getLocalPort();
+        }
+
+        AtomicInteger requests = new AtomicInteger();
+        AtomicInteger received = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+
+        server.createContext("/api/put", exchange -> {
+            assertEquals("gzip", exchange.getRequestHeaders().getFirst("Content-Encoding"));
+            try (InputStream body = new GZIPInputStream(exchange.getRequestBody())) {
+                JsonNode chunk = new ObjectMapper().readTree(body);
+
+                received.addAndGet(chunk.size());
+            }
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+
+        SystemConfiguration config = system.getConfiguration();
+
+        config.setProperty(AbstractTSDBService.Property.TSD_ENDPOINT_WRITE.getName(),
+                "http://localhost:" + deadPort + ",http://localhost:" + server.getAddress().getPort());
+        config.setProperty(AbstractTSDBService.Property.TSD_WRITE_MAX_IN_FLIGHT.getName(), "2");
+        config.setProperty(AbstractTSDBService.Property.TSD_WRITE_COMPRESSION.getName(), "true");
+
+        AbstractTSDBService service = new AbstractTSDBService(config, system.getServiceFactory().getMonitorService());
+
+        try {
+            List<Metric> metrics = new ArrayList<>();
+
+            for (int i = 0; i < 120; i++) {
+                Metric metric = new Metric("scope", "metric" + i);
+                Map<Long, Number> datapoints = new HashMap<>();
+
+                datapoints.put(1000L, i);
+                metric.setDatapoints(datapoints);
+                metrics.add(metric);
+            }
+            service.putMetrics(metrics);
+            assertEquals(3, requests.get());
+            assertEquals(120, received.get());
+        } finally {
+            service.dispose();
+            server.stop(0);
+        }
+    }
+
     class IterateTask implements Runnable {
         Random random = new Random();
         Iterator<String> iter;
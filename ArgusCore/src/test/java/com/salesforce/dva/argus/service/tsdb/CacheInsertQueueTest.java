@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2018, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of Salesforce.com nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.salesforce.dva.argus.service.tsdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.salesforce.dva.argus.service.CacheService;
+import com.salesforce.dva.argus.service.MonitorService;
+import com.salesforce.dva.argus.service.MonitorService.Counter;
+
+public class CacheInsertQueueTest {
+
+	@Test
+	public void testOfferCoalescesPendingKeys() {
+		CacheService cacheService = mock(CacheService.class);
+		MonitorService monitorService = mock(MonitorService.class);
+		List<Map<String, List<String>>> writes = _recordWrites(cacheService);
+		CacheInsertQueue queue = new CacheInsertQueue(cacheService, monitorService, 0, 10, 10, () -> 60);
+
+		queue.offer(_entries("a", "1", "b", "1"));
+		queue.offer(_entries("a", "2"));
+		assertEquals(2, queue.size());
+		assertEquals(2, queue.flush());
+		assertEquals(1, writes.size());
+		assertEquals(Arrays.asList("b", "a"), new ArrayList<>(writes.get(0).keySet()));
+		assertEquals(Arrays.asList("2"), writes.get(0).get("a"));
+		verify(monitorService).modifyCounter(eq(Counter.CACHE_INSERT_COALESCED), eq(1), isNull(Map.class));
+	}
+
+	@Test
+	public void testOfferDropsOldestKeysWhenFull() {
+		CacheService cacheService = mock(CacheService.class);
+		MonitorService monitorService = mock(MonitorService.class);
+		List<Map<String, List<String>>> writes = _recordWrites(cacheService);
+		CacheInsertQueue queue = new CacheInsertQueue(cacheService, monitorService, 0, 3, 2, () -> 60);
+
+		queue.offer(_entries("a", "1", "b", "1", "c", "1"));
+		queue.offer(_entries("d", "1", "e", "1"));
+		assertEquals(3, queue.size());
+		assertEquals(3, queue.flush());
+		assertEquals(2, writes.size());
+		assertEquals(Arrays.asList("c", "d"), new ArrayList<>(writes.get(0).keySet()));
+		assertEquals(Arrays.asList("e"), new ArrayList<>(writes.get(1).keySet()));
+		verify(monitorService).modifyCounter(eq(Counter.CACHE_INSERT_DROPPED), eq(2), isNull(Map.class));
+		verify(monitorService).updateCounter(eq(Counter.CACHE_INSERT_QUEUE_DEPTH), eq(0), isNull(Map.class));
+	}
+
+	@Test
+	public void testOfferedFunctionsAreEvaluatedBeforeWriting() {
+		CacheService cacheService = mock(CacheService.class);
+		MonitorService monitorService = mock(MonitorService.class);
+		List<Map<String, List<String>>> writes = _recordWrites(cacheService);
+		CacheInsertQueue queue = new CacheInsertQueue(cacheService, monitorService, 0, 10, 10, () -> 60);
+		AtomicInteger evaluations = new AtomicInteger();
+
+		queue.offer(() -> {
+			evaluations.incrementAndGet();
+			return _entries("a", "1", "b", "1");
+		});
+		queue.offer(() -> {
+			evaluations.incrementAndGet();
+			return _entries("a", "2");
+		});
+		assertEquals(0, evaluations.get());
+		assertEquals(2, queue.size());
+		assertEquals(2, queue.flush());
+		assertEquals(2, evaluations.get());
+		assertEquals(Arrays.asList(_entries("b", "1", "a", "2")), writes);
+	}
+
+	@Test
+	public void testWorkersWritePendingKeys() {
+		CacheService cacheService = mock(CacheService.class);
+		MonitorService monitorService = mock(MonitorService.class);
+		CacheInsertQueue queue = new CacheInsertQueue(cacheService, monitorService, 2, 10, 10, () -> 60);
+
+		try {
+			queue.offer(_entries("a", "1"));
+			verify(cacheService, timeout(5000)).replaceLists(eq(_entries("a", "1")), eq(60));
+		} finally {
+			queue.shutdown();
+		}
+		assertEquals(0, queue.size());
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<Map<String, List<String>>> _recordWrites(CacheService cacheService) {
+		List<Map<String, List<String>>> writes = new ArrayList<>();
+
+		doAnswer(invocation -> writes.add(new LinkedHashMap<>((Map<String, List<String>>) invocation.getArguments()[0]))).when(cacheService)
+			.replaceLists(any(Map.class), anyInt());
+		return writes;
+	}
+
+	private Map<String, List<String>> _entries(String... keysAndValues) {
+		Map<String, List<String>> entries = new LinkedHashMap<>();
+
+		for (int i = 0; i < keysAndValues.length; i += 2) {
+			entries.put(keysAndValues[i], Arrays.asList(keysAndValues[i + 1]));
+		}
+		return entries;
+	}
+}
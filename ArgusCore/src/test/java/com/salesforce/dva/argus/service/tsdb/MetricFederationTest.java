@@ -52,6 +52,7 @@ import com.salesforce.dva.argus.entity.Metric;
 import com.salesforce.dva.argus.service.MetricService;
 import com.salesforce.dva.argus.service.TSDBService;
 import com.salesforce.dva.argus.service.metric.transform.TransformFactory;
+import com.salesforce.dva.argus.service.tsdb.MetricQuery.Aggregator;
 
 public class MetricFederationTest extends AbstractTest {
 	private ObjectMapper _mapper;
@@ -72,8 +73,36 @@ public class MetricFederationTest extends AbstractTest {
 
 		QueryFederation queryFederation = new TimeQueryFederation();
 		Map<MetricQuery, List<MetricQuery>> mapQuerySubQueries = queryFederation.federateQueries(queries);
-		/* Since the difference for large range values of timestamp is not exactly 2d */
-		assertTrue(mapQuerySubQueries.get(queries.get(0)).size() == 3);
+		/* A single time series returns few enough datapoints to be read in one query */
+		assertTrue(mapQuerySubQueries.get(queries.get(0)).size() == 1);
+
+		/* 5000 series of 2 days of 15 minute datapoints cost 960000 datapoints, which is planned as 2 sub queries */
+		queryFederation = new TimeQueryFederation(query -> 5000, new TimeFederationCostModel());
+		mapQuerySubQueries = queryFederation.federateQueries(queries);
+		assertEquals(2, mapQuerySubQueries.get(queries.get(0)).size());
+		/* Sub queries span whole downsampling periods */
+		assertEquals(0, (mapQuerySubQueries.get(queries.get(0)).get(1).getStartTimestamp() - queries.get(0).getStartTimestamp()) % (15 * 60 * 1000L));
+	}
+
+	@Test
+	public void testTimeFederationSplitIsBoundedAndRecordsActualCost() {
+		MetricService metricService = system.getServiceFactory().getMetricService();
+		List<MetricQuery> queries = metricService.getQueries("-2h:scope:metric{tagk=tagv}:sum");
+		TimeFederationCostModel costModel = new TimeFederationCostModel();
+
+		QueryFederation queryFederation = new TimeQueryFederation(query -> 200000, costModel);
+		Map<MetricQuery, List<MetricQuery>> mapQuerySubQueries = queryFederation.federateQueries(queries);
+		List<MetricQuery> subQueries = mapQuerySubQueries.get(queries.get(0));
+		assertTrue(subQueries.size() > 1 && subQueries.size() <= TimeQueryFederation.MAX_SUB_QUERIES + 1);
+
+		Map<MetricQuery, List<Metric>> subQueryMetricsMap = new HashMap<MetricQuery, List<Metric>>();
+		subQueryMetricsMap.put(subQueries.get(0), getMetricsFromMetricString("[{\"metric\":\"metric-__-scope\",\"tags\":{},\"aggregateTags\":[],\"dps\":{\"1477386300\":1}}]"));
+		queryFederation.join(mapQuerySubQueries, subQueryMetricsMap);
+
+		assertEquals(1, costModel.getSubQueries());
+		assertEquals(1, costModel.getActualDatapoints());
+		assertTrue(costModel.getPlannedDatapoints() > 1);
+		assertTrue(costModel.getCorrection() < 1);
 	}
 
 	@Test
@@ -258,6 +287,117 @@ public class MetricFederationTest extends AbstractTest {
 		assertEquals("{1477386300=7, 1477386500=6, 1477386600=7}", queryMetricsMap.get(queries.get(0)).get(0).getDatapoints().toString());
 	}
 	
+	@Test
+	public void testTimeFederationSubQueriesDoNotOverlap() {
+		MetricService metricService = system.getServiceFactory().getMetricService();
+		List<MetricQuery> queries = metricService.getQueries("-3d:scope:metric{tagk=tagv}:sum:15m-sum");
+
+		QueryFederation queryFederation = new TimeQueryFederation(query -> 100000, new TimeFederationCostModel());
+		List<MetricQuery> subQueries = queryFederation.federateQueries(queries).get(queries.get(0));
+
+		assertTrue(subQueries.size() > 1);
+
+		assertEquals(queries.get(0).getStartTimestamp(), subQueries.get(0).getStartTimestamp());
+		assertEquals(queries.get(0).getEndTimestamp(), subQueries.get(subQueries.size() - 1).getEndTimestamp());
+		for (int i = 1; i < subQueries.size(); i++) {
+			assertEquals(subQueries.get(i - 1).getEndTimestamp() + 1, (long) subQueries.get(i).getStartTimestamp());
+		}
+	}
+
+	@Test
+	public void testEndPointFederationForkJoinAvgDownsamplerWeightedByCount() {
+		MetricService metricService = system.getServiceFactory().getMetricService();
+		List<MetricQuery> queries = metricService.getQueries("-1h:scope:metric{tagk=tagv}:avg:15m-avg");
+		List<String> readEndPoints = new ArrayList<String>();
+		readEndPoints.add("http://localhost:4477");
+		readEndPoints.add("http://localhost:4488");
+
+		String avg1 = "[{\"metric\":\"mem.heap.used-__-argus.jvm\",\"tags\":{\"host\":\"machineHost1\"},\"aggregateTags\":[],\"dps\":{\"1477386300\":2.0,\"1477386400\":8.0}}]";
+		String count1 = "[{\"metric\":\"mem.heap.used-__-argus.jvm\",\"tags\":{\"host\":\"machineHost1\"},\"aggregateTags\":[],\"dps\":{\"1477386300\":1,\"1477386400\":2}}]";
+		String avg2 = "[{\"metric\":\"mem.heap.used-__-argus.jvm\",\"tags\":{\"host\":\"machineHost1\"},\"aggregateTags\":[],\"dps\":{\"1477386300\":5.0}}]";
+		String count2 = "[{\"metric\":\"mem.heap.used-__-argus.jvm\",\"tags\":{\"host\":\"machineHost1\"},\"aggregateTags\":[],\"dps\":{\"1477386300\":3}}]";
+
+		QueryFederation queryFederation = new EndPointQueryFederation(readEndPoints);
+		Map<MetricQuery, List<MetricQuery>> mapQuerySubQueries = queryFederation.federateQueries(queries);
+		List<MetricQuery> subQueries = mapQuerySubQueries.get(queries.get(0));
+		assertEquals(4, subQueries.size());
+		assertEquals(Aggregator.AVG, subQueries.get(0).getDownsampler());
+		assertEquals(Aggregator.COUNT, subQueries.get(1).getDownsampler());
+
+		PartialAggregateJoin join = queryFederation.newJoin(mapQuerySubQueries);
+
+		// results are accepted in the order they arrive
+		join.accept(subQueries.get(3), getMetricsFromMetricString(count2));
+		join.accept(subQueries.get(2), getMetricsFromMetricString(avg2));
+		join.accept(subQueries.get(0), getMetricsFromMetricString(avg1));
+		join.accept(subQueries.get(1), getMetricsFromMetricString(count1));
+
+		Map<MetricQuery, List<Metric>> queryMetricsMap = join.result();
+		assertEquals(1, queryMetricsMap.get(queries.get(0)).size());
+
+		Metric metric = queryMetricsMap.get(queries.get(0)).get(0);
+		assertEquals(queries.get(0), metric.getQuery());
+		assertEquals(4.25, metric.getDatapoints().get(1477386300L).doubleValue(), 0.0);
+		assertEquals(8.0, metric.getDatapoints().get(1477386400L).doubleValue(), 0.0);
+	}
+
+	@Test
+	public void testEndPointFederationForkJoinAvgDownsamplerWeightedBySeriesCount() {
+		MetricService metricService = system.getServiceFactory().getMetricService();
+		List<MetricQuery> queries = metricService.getQueries("-1h:scope:metric{tagk=tagv}:avg:15m-avg");
+		List<String> readEndPoints = new ArrayList<String>();
+		readEndPoints.add("http://localhost:4477");
+		readEndPoints.add("http://localhost:4488");
+
+		// the first endpoint stores one time series and the second endpoint three, each with a single data point per interval
+		String avg1 = "[{\"metric\":\"mem.heap.used-__-argus.jvm\",\"tags\":{},\"aggregateTags\":[\"host\"],\"dps\":{\"1477386300\":2.0}}]";
+		String count1 = "[{\"metric\":\"mem.heap.used-__-argus.jvm\",\"tags\":{},\"aggregateTags\":[\"host\"],\"dps\":{\"1477386300\":1}}]";
+		String avg2 = "[{\"metric\":\"mem.heap.used-__-argus.jvm\",\"tags\":{},\"aggregateTags\":[\"host\"],\"dps\":{\"1477386300\":6.0}}]";
+		String count2 = "[{\"metric\":\"mem.heap.used-__-argus.jvm\",\"tags\":{},\"aggregateTags\":[\"host\"],\"dps\":{\"1477386300\":3}}]";
+
+		QueryFederation queryFederation = new EndPointQueryFederation(readEndPoints);
+		Map<MetricQuery, List<MetricQuery>> mapQuerySubQueries = queryFederation.federateQueries(queries);
+		List<MetricQuery> subQueries = mapQuerySubQueries.get(queries.get(0));
+		assertEquals(Aggregator.AVG, subQueries.get(0).getAggregator());
+		assertEquals(Aggregator.ZIMSUM, subQueries.get(1).getAggregator());
+		assertEquals(Aggregator.ZIMSUM, subQueries.get(3).getAggregator());
+
+		Map<MetricQuery, List<Metric>> subQueryMetricsMap = new HashMap<MetricQuery, List<Metric>>();
+		subQueryMetricsMap.put(subQueries.get(0), getMetricsFromMetricString(avg1));
+		subQueryMetricsMap.put(subQueries.get(1), getMetricsFromMetricString(count1));
+		subQueryMetricsMap.put(subQueries.get(2), getMetricsFromMetricString(avg2));
+		subQueryMetricsMap.put(subQueries.get(3), getMetricsFromMetricString(count2));
+
+		Map<MetricQuery, List<Metric>> queryMetricsMap = queryFederation.join(mapQuerySubQueries, subQueryMetricsMap);
+		assertEquals(1, queryMetricsMap.get(queries.get(0)).size());
+		// (2.0 * 1 + 6.0 * 3) / 4, rather than the unweighted (2.0 + 6.0) / 2
+		assertEquals(5.0, queryMetricsMap.get(queries.get(0)).get(0).getDatapoints().get(1477386300L).doubleValue(), 0.0);
+	}
+
+	@Test
+	public void testEndPointFederationForkJoinAvgDownsamplerWithoutCounts() {
+		MetricService metricService = system.getServiceFactory().getMetricService();
+		List<MetricQuery> queries = metricService.getQueries("-1h:scope:metric{tagk=tagv}:avg:15m-avg");
+		List<String> readEndPoints = new ArrayList<String>();
+		readEndPoints.add("http://localhost:4477");
+		readEndPoints.add("http://localhost:4488");
+
+		String avg1 = "[{\"metric\":\"mem.heap.used-__-argus.jvm\",\"tags\":{},\"aggregateTags\":[],\"dps\":{\"1477386300\":2.0}}]";
+		String avg2 = "[{\"metric\":\"mem.heap.used-__-argus.jvm\",\"tags\":{},\"aggregateTags\":[],\"dps\":{\"1477386300\":5.0}}]";
+
+		QueryFederation queryFederation = new EndPointQueryFederation(readEndPoints);
+		Map<MetricQuery, List<MetricQuery>> mapQuerySubQueries = queryFederation.federateQueries(queries);
+		List<MetricQuery> subQueries = mapQuerySubQueries.get(queries.get(0));
+
+		// the count sub queries failed
+		Map<MetricQuery, List<Metric>> subQueryMetricsMap = new HashMap<MetricQuery, List<Metric>>();
+		subQueryMetricsMap.put(subQueries.get(0), getMetricsFromMetricString(avg1));
+		subQueryMetricsMap.put(subQueries.get(2), getMetricsFromMetricString(avg2));
+
+		Map<MetricQuery, List<Metric>> queryMetricsMap = queryFederation.join(mapQuerySubQueries, subQueryMetricsMap);
+		assertEquals("{1477386300=3.5}", queryMetricsMap.get(queries.get(0)).get(0).getDatapoints().toString());
+	}
+
 	private  List<Metric> getMetricsFromMetricString(String content){
 		List<Metric> metrics = null;
 		try {
@@ -9,6 +9,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.salesforce.dva.argus.entity.Metric;
@@ -69,4 +70,36 @@ public class MetricSerDesTest {
 		}
 	}
 
+	@Test
+	public void testMetricDeserializationStreamsDatapoints() throws IOException {
+        String content = "[{\"metric\":\"mem.heap.used-__-argus.jvm-__-ns\",\"tags\":{\"host\":\"host1\"},\"aggregateTags\":[\"device\"],\"tsuids\":[\"0001\",\"0002\"],\"dps\":{\"1000\":1,\"2000\":2.5,\"3000\":null,\"4000\":5000000000}}]";
+        List<Metric> metrics = _mapper.readerFor(ResultSet.class).<ResultSet>readValue(content).getMetrics();
+        Metric metric = metrics.get(0);
+
+        assertEquals(1, metrics.size());
+        assertEquals("argus.jvm", metric.getScope());
+        assertEquals("mem.heap.used", metric.getMetric());
+        assertEquals("ns", metric.getNamespace());
+        assertEquals("host1", metric.getTag("host"));
+        assertEquals("0001", metric.getUid());
+        assertEquals(Integer.valueOf(1), metric.getDatapoints().get(1000L));
+        assertEquals(Double.valueOf(2.5), metric.getDatapoints().get(2000L));
+        assertTrue(metric.getDatapoints().containsKey(3000L));
+        assertEquals(Long.valueOf(5000000000L), metric.getDatapoints().get(4000L));
+	}
+
+	@Test
+	public void testMetricDeserializationFailsAfterMaxDatapoints() throws IOException {
+        String content = "[{\"metric\":\"m-__-s\",\"tags\":{},\"tsuids\":[\"0001\"],\"dps\":{\"1000\":1,\"2000\":2}},"
+        		+ "{\"metric\":\"m-__-s\",\"tags\":{\"host\":\"host2\"},\"tsuids\":[\"0002\"],\"dps\":{\"1000\":1,\"2000\":2}}]";
+
+        assertEquals(2, _mapper.readerFor(ResultSet.class).withAttribute(MetricTransform.MAX_DATAPOINTS_ATTRIBUTE, 4L)
+        		.<ResultSet>readValue(content).getMetrics().size());
+        try {
+        	_mapper.readerFor(ResultSet.class).withAttribute(MetricTransform.MAX_DATAPOINTS_ATTRIBUTE, 3L).readValue(content);
+        	fail("Expected the data point limit to be enforced.");
+        } catch (JsonMappingException ex) {
+        	assertTrue(ex.getMessage().contains("maximum number of data points"));
+        }
+	}
 }
@@ -112,6 +112,14 @@ public class PerfFilter implements Filter {
 	@Override
 	public void init(FilterConfig filterConfig) throws ServletException { }
 
+	/* Histograms are not kept per user, since each one holds a fixed number of buckets. */
+	private Map<String, String> _getHistogramTags(Map<String, String> tags) {
+		Map<String, String> histogramTags = new HashMap<>(tags);
+
+		histogramTags.remove(TAGS_USER_KEY);
+		return histogramTags;
+	}
+
 	private void updateCounters(HttpServletRequest req, HttpServletResponse resp, long delta) {
 		try {
 			Map<String, String> tags = new HashMap<>();
@@ -170,11 +178,13 @@ public class PerfFilter implements Filter {
 
 				monitorService.modifyCustomCounter(DATA_READ_PER_MIN, 1, tags);
 				monitorService.modifyCustomCounter(DATA_READ_QUERY_LATENCY, delta, tags);
+				monitorService.recordCustomHistogramValue(DATA_READ_QUERY_LATENCY, delta, _getHistogramTags(tags));
 				monitorService.modifyCustomCounter(DATA_READ_REQ_BYTES, reqBytes, tags);
 				monitorService.modifyCustomCounter(DATA_READ_RESP_BYTES, respBytes, tags);
 			} else if (method.equals("POST") || method.equals("PUT") || method.equals("DELETE")) {
 				monitorService.modifyCustomCounter(DATA_WRITE_PER_MIN, 1, tags);
 				monitorService.modifyCustomCounter(DATA_WRITE_LATENCY, delta, tags);
+				monitorService.recordCustomHistogramValue(DATA_WRITE_LATENCY, delta, _getHistogramTags(tags));
 				monitorService.modifyCustomCounter(DATA_WRITE_REQ_BYTES, reqBytes, tags);
 				monitorService.modifyCustomCounter(DATA_WRITE_RESP_BYTES, respBytes, tags);
 			}
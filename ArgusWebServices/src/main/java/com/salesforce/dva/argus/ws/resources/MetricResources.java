@@ -31,6 +31,11 @@
 
 package com.salesforce.dva.argus.ws.resources;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.salesforce.dva.argus.entity.Metric;
 import com.salesforce.dva.argus.entity.PrincipalUser;
 import com.salesforce.dva.argus.service.MetricService;
@@ -50,7 +55,12 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.Providers;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
 import java.util.Map.Entry;
 
@@ -98,6 +108,35 @@ public class MetricResources extends AbstractResource {
 		}
 	}
 
+	/**
+	 * Performs a metric query using the given expression, writing each metric to the response as soon as its expression has been evaluated
+	 * instead of first collecting the metrics of all expressions. The memory used for the response therefore does not grow with the number of
+	 * expressions. The response has the same format as {@link #getMetricsJSON(HttpServletRequest, List)}.
+	 *
+	 * @param   req          The HttpServlet request object. Cannot be null.
+	 * @param   providers    The JAX-RS providers, used to look up the configured object mapper. Cannot be null.
+	 * @param   expressions  The expressions to evaluate.
+	 *
+	 * @return  The resulting metrics, streamed.
+	 */
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	@Path("/stream")
+	@Description("Performs a metric query using the given expression and streams the resulting metrics.")
+	public Response getMetricsJSONStream(@Context HttpServletRequest req, @Context Providers providers,
+			@QueryParam("expression") List<String> expressions) {
+		validateAndGetOwner(req, null);
+		SystemAssert.requireArgument(expressions != null && !expressions.isEmpty(), "Expression list cannot be null or empty");
+
+		ContextResolver<ObjectMapper> resolver = providers.getContextResolver(ObjectMapper.class, MediaType.APPLICATION_JSON_TYPE);
+		ObjectMapper mapper = (resolver == null ? new ObjectMapperProvider() : resolver).getContext(MetricDto.class);
+
+		// metrics are written one at a time, so the writer must not flush the response after every one of them
+		ObjectWriter writer = mapper.writerFor(MetricDto.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+		return Response.ok(new MetricStreamingOutput(req, expressions, writer), MediaType.APPLICATION_JSON).build();
+	}
+
 	/**
 	 * Download the metric data for one or more metric expressions.
 	 *
@@ -181,10 +220,10 @@ public class MetricResources extends AbstractResource {
 			}
 		}
 
-		metricService.dispose();
 		req.setAttribute("numTimeSeries", metrics.size());
 		req.setAttribute("numDiscoveryResults", metricService.getNumDiscoveryResults());
 		req.setAttribute("numDiscoveryQueries", metricService.getNumDiscoveryQueries());
+		metricService.dispose();
 		return metrics;
 	}
 
@@ -250,5 +289,60 @@ public class MetricResources extends AbstractResource {
 		result.append("\"");
 		return result.toString();
 	}
+
+	//~ Inner Classes ********************************************************************************************************************************
+
+	/**
+	 * Evaluates the expressions one at a time while the response is being written, and writes every metric of an expression to the response
+	 * before evaluating the next expression. Only the metrics of a single expression and the fixed size output buffer of the JSON generator are
+	 * held in memory. The generator is never flushed explicitly, so nothing reaches the response until that buffer first fills up and the
+	 * response is committed only once the container's own response buffer overflows as well. A failure before that point still produces an
+	 * error status, while an expression that fails after that point truncates the already committed response instead.
+	 *
+	 * @author  a.chambers
+	 */
+	private class MetricStreamingOutput implements StreamingOutput {
+
+		private final HttpServletRequest _req;
+		private final List<String> _expressions;
+		private final ObjectWriter _writer;
+
+		MetricStreamingOutput(HttpServletRequest req, List<String> expressions, ObjectWriter writer) {
+			_req = req;
+			_expressions = expressions;
+			_writer = writer;
+		}
+
+		@Override
+		public void write(OutputStream output) throws IOException {
+			final MetricService metricService = system.getServiceFactory().getMetricService();
+			int numTimeSeries = 0;
+
+			try (JsonGenerator generator = _writer.getFactory().createGenerator(output, JsonEncoding.UTF8)) {
+				generator.writeStartArray();
+				for (String expression : _expressions) {
+					List<Metric> metrics;
+
+					try {
+						metrics = metricService.getMetrics(expression);
+					} catch(IllegalArgumentException | WildcardExpansionLimitExceededException e) {
+						throw new WebApplicationException(e.getMessage(), Status.BAD_REQUEST);
+					}
+					_req.setAttribute("expandedTimeSeriesRange", metricService.getExpandedTimeSeriesRange());
+					_req.setAttribute("timeWindow", metricService.getQueryTimeWindow());
+					for (Metric metric : metrics) {
+						_writer.writeValue(generator, MetricDto.transformToDto(metric));
+					}
+					numTimeSeries += metrics.size();
+				}
+				generator.writeEndArray();
+			} finally {
+				_req.setAttribute("numTimeSeries", numTimeSeries);
+				_req.setAttribute("numDiscoveryResults", metricService.getNumDiscoveryResults());
+				_req.setAttribute("numDiscoveryQueries", metricService.getNumDiscoveryQueries());
+				metricService.dispose();
+			}
+		}
+	}
 }
 /* Copyright (c) 2016, Salesforce.com, Inc.  All rights reserved. */